@@ -1,3 +0,0 @@
-public interface HttpConnectionManager {
-    HttpConnection getConnection(HostConfiguration hostConfiguration);
-}
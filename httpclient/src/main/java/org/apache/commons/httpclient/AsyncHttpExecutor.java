@@ -0,0 +1,559 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.nio.IOReactor;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.params.HttpParamsSnapshot;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Executes {@link HttpRequest requests} asynchronously. Each request is run by the
+ * given {@link Executor} on a connection obtained from the given
+ * {@link HttpConnectionManager}, and its outcome is delivered through the returned
+ * {@link Future} and, optionally, a {@link ResponseCallback}.
+ * <p>
+ * The response body is read completely before the request completes, so the
+ * connection is released as soon as the response has been received. Cancelling the
+ * returned future aborts the request by closing its connection.
+ * </p>
+ * <p>
+ * When {@link org.apache.commons.httpclient.params.HttpMethodParams#PIPELINING
+ * pipelining} is enabled for a request, typically in the
+ * {@link org.apache.commons.httpclient.params.HostParams} of its host, and the
+ * request is idempotent, it is queued to the pipeline of its route instead. Queued
+ * requests are written several at a time on a persistent connection and their
+ * responses are read in order. Requests left unanswered when the connection closes
+ * are sent again on a new connection. Cancelling a pipelined request that has been
+ * sent does not abort it, its response is read and discarded.
+ * </p>
+ * <p>
+ * Requests whose {@link org.apache.commons.httpclient.params.HttpMethodParams#getVersion()
+ * version} is {@link HttpVersion#HTTP_2_0} are sent as streams of one multiplexed
+ * HTTP/2 connection per route, established with prior knowledge on a plain
+ * connection. Requests the server has not processed, because it refused the stream
+ * or is going away, are sent again on a new connection, as are idempotent requests
+ * left without a response when the connection closes. Cancelling such a request
+ * resets its stream. HTTP/2 is not supported over secure or proxied connections.
+ * </p>
+ * <p>
+ * No monitor is held while a request blocks, whether connecting, waiting for a
+ * pooled connection or reading from the socket; the locks involved are
+ * <code>java.util.concurrent</code> locks. Requests may therefore be run on virtual
+ * threads, for instance by the executor returned by
+ * <code>Executors.newVirtualThreadPerTaskExecutor()</code> on Java 21, without
+ * pinning their carrier threads.
+ * </p>
+ * <p>
+ * An executor {@link #AsyncHttpExecutor(IOReactor) backed by an I/O reactor} needs
+ * no thread per request at all: requests are written and their responses parsed by
+ * the I/O threads of the reactor, so that many slow requests can be in progress at
+ * once. Each request in progress has a connection of its own, which is kept for the
+ * next request to the same route once the response has been received. Connect
+ * timeouts and socket options are those of the reactor; the socket timeout of the
+ * request applies while it is in progress, and to the connection while it is idle.
+ * Such an executor sends HTTP/1.x requests over plain connections only, one at a
+ * time per connection, that is, without pipelining. Its futures are completed and
+ * its callbacks notified on the I/O threads, so callbacks must not block.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class AsyncHttpExecutor {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(AsyncHttpExecutor.class);
+
+    /** The connection manager the connections are obtained from */
+    private final HttpConnectionManager connectionManager;
+
+    /** The executor the requests are run by */
+    private final Executor executor;
+
+    /** The connections of the reactor the requests are run by, if any */
+    private final HttpReactorPool reactorPool;
+
+    /** The parameters the request parameters default to */
+    private volatile HttpClientParams params;
+
+    /** The pipelines of the routes pipelined requests have been sent to */
+    private final ConcurrentHashMap pipelines = new ConcurrentHashMap();
+
+    /** The HTTP/2 connections of the routes HTTP/2 requests have been sent to */
+    private final ConcurrentHashMap http2Connections = new ConcurrentHashMap();
+
+    /**
+     * Creates an executor.
+     *
+     * @param connectionManager the connection manager to obtain connections from
+     * @param executor the executor to run the requests by
+     */
+    public AsyncHttpExecutor(final HttpConnectionManager connectionManager,
+        final Executor executor) {
+        super();
+        if (connectionManager == null) {
+            throw new IllegalArgumentException("Connection manager may not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor may not be null");
+        }
+        this.connectionManager = connectionManager;
+        this.executor = executor;
+        this.reactorPool = null;
+        this.params = new HttpClientParams();
+    }
+
+    /**
+     * Creates an executor that runs the requests on connections of the given I/O
+     * reactor. The reactor is not shut down by this executor.
+     *
+     * @param reactor the I/O reactor
+     */
+    public AsyncHttpExecutor(final IOReactor reactor) {
+        super();
+        if (reactor == null) {
+            throw new IllegalArgumentException("I/O reactor may not be null");
+        }
+        this.connectionManager = null;
+        this.executor = null;
+        this.reactorPool = new HttpReactorPool(reactor);
+        this.params = new HttpClientParams();
+    }
+
+    /**
+     * Returns the connection manager the connections are obtained from.
+     *
+     * @return the connection manager, or <code>null</code> if this executor is
+     * backed by an I/O reactor
+     */
+    public HttpConnectionManager getConnectionManager() {
+        return this.connectionManager;
+    }
+
+    /**
+     * Returns the executor the requests are run by.
+     *
+     * @return the executor, or <code>null</code> if this executor is backed by an
+     * I/O reactor
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the I/O reactor the requests are run by.
+     *
+     * @return the I/O reactor, or <code>null</code> if this executor is not backed
+     * by one
+     */
+    public IOReactor getReactor() {
+        return this.reactorPool != null ? this.reactorPool.getReactor() : null;
+    }
+
+    /**
+     * Returns the parameters the parameters of the executed requests default to.
+     *
+     * @return the parameters
+     */
+    public HttpClientParams getParams() {
+        return this.params;
+    }
+
+    /**
+     * Sets the parameters the parameters of the executed requests default to.
+     *
+     * @param params the parameters
+     */
+    public void setParams(final HttpClientParams params) {
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+        this.params = params;
+    }
+
+    /**
+     * Executes the request asynchronously.
+     *
+     * @param hostConfiguration the host to send the request to
+     * @param request the request
+     *
+     * @return the future response, whose <code>get</code> methods return the
+     * {@link HttpResponse}
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the executor
+     * does not accept the request
+     *
+     * @see #execute(HostConfiguration, HttpRequest, ResponseCallback)
+     */
+    public Future execute(final HostConfiguration hostConfiguration,
+        final HttpRequest request) {
+        return execute(hostConfiguration, request, null);
+    }
+
+    /**
+     * Executes the request asynchronously. The host configuration is copied, so it
+     * may be changed once this method returns. The parameters of the request default
+     * to those of the host configuration, which in turn default to those of this
+     * executor, for this execution only: the defaults of the request's own
+     * parameters are not changed. All of them are read when this method is called,
+     * later changes do not affect the request.
+     *
+     * @param hostConfiguration the host to send the request to
+     * @param request the request
+     * @param callback the callback to notify of the outcome, or <code>null</code>
+     *
+     * @return the future response. Its <code>get</code> methods return the
+     * {@link HttpResponse}, or throw an
+     * <code>ExecutionException</code> caused by an <code>IOException</code> if the
+     * request fails.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the executor
+     * does not accept the request
+     * @throws IllegalArgumentException if HTTP/2 is requested for a secure or
+     * proxied host, or if this executor is backed by an I/O reactor and HTTP/2 or a
+     * secure host is requested
+     * @throws IllegalStateException if this executor is backed by an I/O reactor
+     * that has been shut down
+     */
+    public Future execute(final HostConfiguration hostConfiguration,
+        final HttpRequest request, final ResponseCallback callback) {
+        if (hostConfiguration == null) {
+            throw new IllegalArgumentException("Host configuration may not be null");
+        }
+        if (request == null) {
+            throw new IllegalArgumentException("Request may not be null");
+        }
+        if (hostConfiguration.getHost() == null) {
+            throw new IllegalArgumentException("Host configuration has no host");
+        }
+        HostConfiguration hostconfig = (HostConfiguration) hostConfiguration.clone();
+        hostconfig.getParams().setDefaults(this.params);
+        // a private copy, so that the parameters of the request are left untouched
+        HttpMethodParams params;
+        try {
+            params = (HttpMethodParams) request.getParams().clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalArgumentException("Request parameters could not be cloned");
+        }
+        params.setDefaults(hostconfig.getParams());
+        HttpParamsSnapshot snapshot = params.getSnapshot();
+        if (this.reactorPool != null) {
+            if (HttpVersion.HTTP_2_0.equals(snapshot.getVersion())) {
+                throw new IllegalArgumentException(
+                    "HTTP/2 is not supported by an executor backed by an I/O reactor");
+            }
+            if (hostconfig.getProtocol().isSecure()) {
+                throw new IllegalArgumentException(
+                    "Secure protocols are not supported by an executor backed by an I/O reactor");
+            }
+            return this.reactorPool.submit(hostconfig, request, snapshot, callback);
+        }
+        if (HttpVersion.HTTP_2_0.equals(snapshot.getVersion())) {
+            if (hostconfig.getProtocol().isSecure() || hostconfig.getProxyHost() != null) {
+                throw new IllegalArgumentException(
+                    "HTTP/2 is only supported on plain connections to the host");
+            }
+            final Http2Exchange exchange = new Http2Exchange(hostconfig, request, snapshot);
+            ResponseFuture future = new ResponseFuture(exchange, callback) {
+                protected void aborted() {
+                    exchange.abort();
+                }
+            };
+            this.executor.execute(future);
+            return future;
+        }
+        if (request.isIdempotent() && snapshot.isParameterTrue(HttpMethodParams.PIPELINING)) {
+            ResponseFuture future = new ResponseFuture(callback);
+            getPipeline(hostconfig).submit(request, snapshot, future);
+            return future;
+        }
+        final Exchange exchange = new Exchange(hostconfig, request, snapshot);
+        ResponseFuture future = new ResponseFuture(exchange, callback) {
+            protected void aborted() {
+                exchange.abort();
+            }
+        };
+        this.executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Returns the pipeline of the route of the given host configuration, creating
+     * it if necessary.
+     */
+    private HttpPipeline getPipeline(final HostConfiguration hostConfiguration) {
+        RouteKey route = hostConfiguration.getRouteKey();
+        HttpPipeline pipeline = (HttpPipeline) this.pipelines.get(route);
+        if (pipeline == null) {
+            pipeline = new HttpPipeline(hostConfiguration, this.connectionManager, this.executor);
+            HttpPipeline existing = (HttpPipeline) this.pipelines.putIfAbsent(route, pipeline);
+            if (existing != null) {
+                pipeline = existing;
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     * Returns the usable HTTP/2 connection of the route of the given host
+     * configuration, replacing it if it is closed or going away.
+     */
+    private Http2Connection getHttp2Connection(final HostConfiguration hostConfiguration) {
+        RouteKey route = hostConfiguration.getRouteKey();
+        Http2Connection connection = (Http2Connection) this.http2Connections.get(route);
+        while (connection == null || !connection.isUsable()) {
+            Http2Connection fresh = new Http2Connection(hostConfiguration,
+                this.connectionManager);
+            boolean added = connection == null
+                ? this.http2Connections.putIfAbsent(route, fresh) == null
+                : this.http2Connections.replace(route, connection, fresh);
+            if (added) {
+                return fresh;
+            }
+            connection = (Http2Connection) this.http2Connections.get(route);
+        }
+        return connection;
+    }
+
+    /**
+     * Shuts down the HTTP/2 connections. HTTP/2 requests that have not completed
+     * fail. Connections used for HTTP/1.x requests are left to the connection
+     * manager. If this executor is backed by an I/O reactor, its idle connections
+     * are closed, and the others once their response has been received.
+     */
+    public void shutdown() {
+        if (this.reactorPool != null) {
+            this.reactorPool.shutdown();
+        }
+        for (Iterator i = this.http2Connections.values().iterator(); i.hasNext();) {
+            Http2Connection connection = (Http2Connection) i.next();
+            i.remove();
+            connection.shutdown();
+        }
+    }
+
+    /**
+     * Executes a request on a connection of the connection manager. The connection
+     * is kept while the request runs, so that it can be closed to abort the request.
+     */
+    private class Exchange implements Callable {
+
+        private final HostConfiguration hostConfiguration;
+
+        private final HttpRequest request;
+
+        private final HttpParamsSnapshot params;
+
+        /** Guards {@link #connection} and {@link #aborted} */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** The connection the request runs on, if any */
+        private HttpConnection connection = null;
+
+        /** Whether the request has been aborted */
+        private boolean aborted = false;
+
+        Exchange(final HostConfiguration hostConfiguration, final HttpRequest request,
+            final HttpParamsSnapshot params) {
+            super();
+            this.hostConfiguration = hostConfiguration;
+            this.request = request;
+            this.params = params;
+        }
+
+        public HttpResponse call() throws IOException {
+            long timeout = this.params.getLongParameter(
+                HttpClientParams.CONNECTION_MANAGER_TIMEOUT, 0);
+            HttpConnection conn = connectionManager.getConnectionWithTimeout(
+                this.hostConfiguration, timeout);
+            boolean reusable = false;
+            try {
+                if (!attach(conn)) {
+                    throw new IOException("Request aborted");
+                }
+                HttpResponse response = HttpExchange.execute(conn, this.request, this.params);
+                reusable = response.isReusable();
+                return response;
+            } finally {
+                if (!detach() || !reusable) {
+                    conn.close();
+                }
+                conn.releaseConnection();
+            }
+        }
+
+        private boolean attach(final HttpConnection conn) {
+            this.lock.lock();
+            try {
+                if (this.aborted) {
+                    return false;
+                }
+                this.connection = conn;
+                return true;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * @return <code>false</code> if the request has been aborted
+         */
+        private boolean detach() {
+            this.lock.lock();
+            try {
+                this.connection = null;
+                return !this.aborted;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void abort() {
+            this.lock.lock();
+            try {
+                this.aborted = true;
+                if (this.connection != null) {
+                    LOG.debug("Aborting request, closing connection");
+                    this.connection.close();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Executes a request as a stream of the HTTP/2 connection of its route. The
+     * request is sent again on a new connection if the server has not processed it,
+     * or if it is idempotent and the connection closes before its response has been
+     * received, up to {@link #MAX_ATTEMPTS} times in all.
+     */
+    private class Http2Exchange implements Callable {
+
+        private static final int MAX_ATTEMPTS = 3;
+
+        private final HostConfiguration hostConfiguration;
+
+        private final HttpRequest request;
+
+        private final HttpParamsSnapshot params;
+
+        /** Guards {@link #connection}, {@link #stream} and {@link #aborted} */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Http2Connection connection = null;
+
+        /** The stream the request is sent on, if any */
+        private Http2Connection.Stream stream = null;
+
+        /** Whether the request has been aborted */
+        private boolean aborted = false;
+
+        Http2Exchange(final HostConfiguration hostConfiguration, final HttpRequest request,
+            final HttpParamsSnapshot params) {
+            super();
+            this.hostConfiguration = hostConfiguration;
+            this.request = request;
+            this.params = params;
+        }
+
+        public HttpResponse call() throws IOException {
+            int attempts = 0;
+            while (true) {
+                Http2Connection conn = getHttp2Connection(this.hostConfiguration);
+                try {
+                    Http2Connection.Stream s = conn.newStream(this.request, this.params);
+                    if (!attach(conn, s)) {
+                        conn.cancel(s);
+                        throw new IOException("Request aborted");
+                    }
+                    return conn.awaitResponse(s);
+                } catch (NoHttpResponseException e) {
+                    attempts++;
+                    if (attempts >= MAX_ATTEMPTS || isAborted()
+                        || !(e instanceof Http2Connection.UnprocessedException
+                        || this.request.isIdempotent())) {
+                        throw e;
+                    }
+                    LOG.debug("No response on the HTTP/2 connection, retrying", e);
+                } finally {
+                    attach(null, null);
+                }
+            }
+        }
+
+        /**
+         * @return <code>false</code> if the request has been aborted
+         */
+        private boolean attach(final Http2Connection conn, final Http2Connection.Stream s) {
+            this.lock.lock();
+            try {
+                this.connection = conn;
+                this.stream = s;
+                return !this.aborted;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private boolean isAborted() {
+            this.lock.lock();
+            try {
+                return this.aborted;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void abort() {
+            Http2Connection conn;
+            Http2Connection.Stream s;
+            this.lock.lock();
+            try {
+                this.aborted = true;
+                conn = this.connection;
+                s = this.stream;
+            } finally {
+                this.lock.unlock();
+            }
+            if (s != null) {
+                LOG.debug("Aborting request, resetting HTTP/2 stream");
+                conn.cancel(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import org.apache.commons.httpclient.util.LangUtils;
+
+/**
+ * An HTTP header: a name and a value. Header names are compared ignoring case.
+ *
+ * @since 3.1
+ */
+public class Header {
+
+    /** The name of the header */
+    private final String name;
+
+    /** The value of the header */
+    private final String value;
+
+    /**
+     * Creates a header.
+     *
+     * @param name the header name
+     * @param value the header value
+     */
+    public Header(final String name, final String value) {
+        super();
+        if (name == null) {
+            throw new IllegalArgumentException("Header name may not be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Header value may not be null");
+        }
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * Returns the header name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the header value.
+     *
+     * @return the value
+     */
+    public String getValue() {
+        return this.value;
+    }
+
+    /**
+     * Returns the header as it is sent, without the terminating CRLF.
+     *
+     * @return <tt>name: value</tt>
+     */
+    public String toExternalForm() {
+        return this.name + ": " + this.value;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return toExternalForm();
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof Header) {
+            Header that = (Header) o;
+            return this.name.equalsIgnoreCase(that.name) && this.value.equals(that.value);
+        }
+        return false;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        int hash = LangUtils.HASH_SEED;
+        hash = LangUtils.hashCode(hash, this.name.toLowerCase());
+        hash = LangUtils.hashCode(hash, this.value);
+        return hash;
+    }
+}
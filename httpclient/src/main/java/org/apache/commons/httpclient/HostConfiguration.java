@@ -32,9 +32,9 @@ package org.apache.commons.httpclient;
 
 import org.apache.commons.httpclient.params.HostParams;
 import org.apache.commons.httpclient.protocol.Protocol;
-import org.apache.commons.httpclient.util.LangUtils;
 
 import java.net.InetAddress;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Holds all of the variables needed to describe an HTTP connection to a host.  This includes
@@ -68,6 +68,15 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
     /** Parameters specific to this host */
     private HostParams params = new HostParams();
 
+    /** The route key of the current host, proxy and local address, created on demand */
+    private volatile RouteKey routeKey = null;
+
+    /**
+     * Guards the settings of this configuration. A lock is used rather than the
+     * monitor, so that virtual threads waiting for it do not pin their carrier thread.
+     */
+    private ReentrantLock lock = new ReentrantLock();
+
     /**
      * Constructor for HostConfiguration.
      */
@@ -85,9 +94,10 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
     }
 
     private void init(final HostConfiguration hostConfiguration) {
-        // wrap all of the assignments in a synchronized block to avoid
-        // having to negotiate the monitor for each method call
-        synchronized (hostConfiguration) {
+        // hold the lock for all of the assignments to avoid
+        // having to acquire it for each method call
+        hostConfiguration.lock.lock();
+        try {
             try {
                 if (hostConfiguration.host != null) {
                     this.host = (HttpHost) hostConfiguration.host.clone();
@@ -100,10 +110,13 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
                     this.proxyHost = null;
                 }
                 this.localAddress = hostConfiguration.getLocalAddress();
-                this.params = (HostParams) hostConfiguration.getParams.clone();
+                this.params = (HostParams) hostConfiguration.getParams().clone();
+                this.routeKey = hostConfiguration.routeKey;
             } catch (CloneNotSupportedException e) {
-                throw new IllegalArgumentException("Host configuration could not be cloned")
+                throw new IllegalArgumentException("Host configuration could not be cloned");
             }
+        } finally {
+            hostConfiguration.lock.unlock();
         }
     }
 
@@ -117,6 +130,7 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
         } catch (CloneNotSupportedException e) {
             throw new IllegalArgumentException("Host configuration could not be cloned");
         }
+        copy.lock = new ReentrantLock();
         copy.init(this);
         return copy;
     }
@@ -124,40 +138,44 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
     /**
      * @see java.lang.Object#toString()
      */
-    public synchronized String toString() {
-
-        boolean appendComma = false;
-        StringBuffer b = new StringBuffer(50);
-        b.append("HostConfiguration[");
+    public String toString() {
+        this.lock.lock();
+        try {
+            boolean appendComma = false;
+            StringBuffer b = new StringBuffer(50);
+            b.append("HostConfiguration[");
 
-        if (this.host != null) {
-            appendComma = true;
-            b.append("host=").append(this.host);
-        }
-        if (this.proxyHost != null) {
-            if (appendComma) {
-                b.append(", ");
-            } else {
+            if (this.host != null) {
                 appendComma = true;
+                b.append("host=").append(this.host);
             }
-            b.append("proxyHost=").append(this.proxyHost);
-        }
-        if (this.localAddress != null) {
-            if (appendComma) {
-                b.append(", ");
-            } else {
-                appendComma = true;
+            if (this.proxyHost != null) {
+                if (appendComma) {
+                    b.append(", ");
+                } else {
+                    appendComma = true;
+                }
+                b.append("proxyHost=").append(this.proxyHost);
             }
-            b.append("localAddress=").append(this.localAddress);
-            if (appendComma) {
-                b.append(", ");
-            } else {
-                appendComma = true;
+            if (this.localAddress != null) {
+                if (appendComma) {
+                    b.append(", ");
+                } else {
+                    appendComma = true;
+                }
+                b.append("localAddress=").append(this.localAddress);
+                if (appendComma) {
+                    b.append(", ");
+                } else {
+                    appendComma = true;
+                }
+                b.append("params=").append(this.params);
             }
-            b.append("params=").append(this.params);
+            b.append("]");
+            return b.toString();
+        } finally {
+            this.lock.unlock();
         }
-        b.append("]");
-        return b.toString();
     }
 
     /**
@@ -171,32 +189,37 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @see #proxyEquals(HttpConnection)
      */
-    public synchronized boolean hostEquals(final HttpConnection connection) {
-        if (connection == null) {
-            throw new IllegalArgumentException("Connection may not be null");
-        }
-        if (this.host != null) {
-            if (!this.host.getHostName().equalsIgnoreCase(connection.getHost())) {
-                return false;
-            }
-            if (this.host.getPort() != connection.getPort()) {
-                return false;
-            }
-            if (!this.host.getProtocol().equals(connection.getProtocol())) {
-                return false;
+    public boolean hostEquals(final HttpConnection connection) {
+        this.lock.lock();
+        try {
+            if (connection == null) {
+                throw new IllegalArgumentException("Connection may not be null");
             }
-            if (this.localAddress != null) {
-                if (!this.localAddress.equals(connection.getLocalAddress())) {
+            if (this.host != null) {
+                if (!this.host.getHostName().equalsIgnoreCase(connection.getHost())) {
                     return false;
                 }
-            } else {
-                if (connection.getLocalAddress() != null) {
+                if (this.host.getPort() != connection.getPort()) {
+                    return false;
+                }
+                if (!this.host.getProtocol().equals(connection.getProtocol())) {
                     return false;
                 }
+                if (this.localAddress != null) {
+                    if (!this.localAddress.equals(connection.getLocalAddress())) {
+                        return false;
+                    }
+                } else {
+                    if (connection.getLocalAddress() != null) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                return false;
             }
-            return true;
-        } else {
-            return false;
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -210,16 +233,21 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @see #hostEquals(HttpConnection)
      */
-    public synchronized boolean proxyEquals(final HttpConnection connection) {
-        if (connection == null) {
-            throw new IllegalArgumentException("Connection may not be null");
-        }
-        if (this.proxyHost != null) {
-            return
-                    this.proxyHost.getHostName().equalsIgnoreCase(connection.getProxyHost())
-                            && this.proxyHost.getPort() == connection.getProxyPort();
-        } else {
-            return connection.getProxyHost() == null;
+    public boolean proxyEquals(final HttpConnection connection) {
+        this.lock.lock();
+        try {
+            if (connection == null) {
+                throw new IllegalArgumentException("Connection may not be null");
+            }
+            if (this.proxyHost != null) {
+                return
+                        this.proxyHost.getHostName().equalsIgnoreCase(connection.getProxyHost())
+                                && this.proxyHost.getPort() == connection.getProxyPort();
+            } else {
+                return connection.getProxyHost() == null;
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -229,8 +257,13 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @deprecated no longer used
      */
-    public synchronized boolean isHostSet() {
-        return this.host != null;
+    public boolean isHostSet() {
+        this.lock.lock();
+        try {
+            return this.host != null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -238,8 +271,14 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @param host the host
      */
-    public synchronized void setHost(final HttpHost host) {
-        this.host = host;
+    public void setHost(final HttpHost host) {
+        this.lock.lock();
+        try {
+            this.host = host;
+            this.routeKey = null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -249,8 +288,14 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * @param port The port
      * @param protocol The protocol.
      */
-    public synchronized void setHost(final String host, int port, final String protocol) {
-        this.host = new HttpHost(host, port, Protocol.getProtocol(protocol));
+    public void setHost(final String host, int port, final String protocol) {
+        this.lock.lock();
+        try {
+            this.host = new HttpHost(host, port, Protocol.getProtocol(protocol));
+            this.routeKey = null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -263,10 +308,15 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @deprecated #setHost(String, int, Protocol)
      */
-    public synchronized void setHost(final String host, final String virtualHost, int port,
+    public void setHost(final String host, final String virtualHost, int port,
                                      final Protocol protocol) {
-        setHost(host, port, protocol);
-        this.params.setVirtualHost(virtualHost);
+        this.lock.lock();
+        try {
+            setHost(host, port, protocol);
+            this.params.setVirtualHost(virtualHost);
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -276,14 +326,20 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * @param port The port
      * @param protocol the protocol
      */
-    public synchronized void setHost(final String host, int port, final Protocol protocol) {
-        if (host == null) {
-            throw new IllegalArgumentException("host must not be null");
-        }
-        if (protocol == null) {
-            throw new IllegalArgumentException("protocol must not be null");
+    public void setHost(final String host, int port, final Protocol protocol) {
+        this.lock.lock();
+        try {
+            if (host == null) {
+                throw new IllegalArgumentException("host must not be null");
+            }
+            if (protocol == null) {
+                throw new IllegalArgumentException("protocol must not be null");
+            }
+            this.host = new HttpHost(host, port, protocol);
+            this.routeKey = null;
+        } finally {
+            this.lock.unlock();
         }
-        this.host = new HttpHost(host, port, protocol);
     }
 
     /**
@@ -292,8 +348,13 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * @param host the host(IP or DNS name)
      * @param port The port
      */
-    public synchronized void setHost(final String host, int port) {
-        setHost(host, port, Protocol.getProtocol("http"));
+    public void setHost(final String host, int port) {
+        this.lock.lock();
+        try {
+            setHost(host, port, Protocol.getProtocol("http"));
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -301,20 +362,30 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @param host The host(IP or DNS name).
      */
-    public synchronized void setHost(final String host) {
-        Protocol defaultProtocol = Protocol.getProtocol("http");
-        setHost(host, defaultProtocol.getDefaultPort(), defaultProtocol);
+    public void setHost(final String host) {
+        this.lock.lock();
+        try {
+            Protocol defaultProtocol = Protocol.getProtocol("http");
+            setHost(host, defaultProtocol.getDefaultPort(), defaultProtocol);
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
      * Sets the protocol, host and port from the given URI.
      * @param uri the URI.
      */
-    public synchronized void setHost(final URI uri) {
+    public void setHost(final URI uri) {
+        this.lock.lock();
         try {
-            setHost(uri.getHost(), uri.getPort(), uri.getScheme());
-        } catch (URIException e) {
-            throw new IllegalArgumentException(e.toString());
+            try {
+                setHost(uri.getHost(), uri.getPort(), uri.getScheme());
+            } catch (URIException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -323,11 +394,16 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @return The host url.
      */
-    public synchronized String getHostURL() {
-        if (this.host == null) {
-            throw new IllegalStateException("Host must be set to create a host URL");
-        } else {
-            return this.host.toURI();
+    public String getHostURL() {
+        this.lock.lock();
+        try {
+            if (this.host == null) {
+                throw new IllegalStateException("Host must be set to create a host URL");
+            } else {
+                return this.host.toURI();
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -338,11 +414,16 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @see #isHostSet()
      */
-    public synchronized String getHost() {
-        if (this.host != null) {
-            return this.host.getHostName();
-        } else {
-            return null;
+    public String getHost() {
+        this.lock.lock();
+        try {
+            if (this.host != null) {
+                return this.host.getHostName();
+            } else {
+                return null;
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -353,8 +434,13 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @deprecated use HostParams
      */
-    public synchronized String getVirtualHost() {
-        return this.params.getVirtualHost();
+    public String getVirtualHost() {
+        this.lock.lock();
+        try {
+            return this.params.getVirtualHost();
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -364,11 +450,16 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @see #isHostSet()
      */
-    public synchronized int getPort() {
-        if (this.host != null) {
-            return this.host.getPort();
-        } else {
-            return -1;
+    public int getPort() {
+        this.lock.lock();
+        try {
+            if (this.host != null) {
+                return this.host.getPort();
+            } else {
+                return -1;
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -376,11 +467,16 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * Returns the protocol.
      * @return The protocol.
      */
-    public synchronized Protocol getProtocol() {
-        if (this.host != null) {
-            return this.host.getProtocol();
-        } else {
-            return null;
+    public Protocol getProtocol() {
+        this.lock.lock();
+        try {
+            if (this.host != null) {
+                return this.host.getProtocol();
+            } else {
+                return null;
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -393,8 +489,13 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @deprecated no longer used
      */
-    public synchronized boolean isProxySet() {
-        return this.proxyHost != null;
+    public boolean isProxySet() {
+        this.lock.lock();
+        try {
+            return this.proxyHost != null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -402,8 +503,14 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @param proxyHost the proxy host
      */
-    public synchronized void setProxyHost(final ProxyHost proxyHost) {
-        this.proxyHost = proxyHost;
+    public void setProxyHost(final ProxyHost proxyHost) {
+        this.lock.lock();
+        try {
+            this.proxyHost = proxyHost;
+            this.routeKey = null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -411,8 +518,14 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * @param proxyHost The proxy host
      * @param proxyPort The proxy port
      */
-    public synchronized void setProxy(final String proxyHost, int proxyPort) {
-        this.proxyHost = new ProxyHost(proxyHost, proxyPort);
+    public void setProxy(final String proxyHost, int proxyPort) {
+        this.lock.lock();
+        try {
+            this.proxyHost = new ProxyHost(proxyHost, proxyPort);
+            this.routeKey = null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -422,11 +535,16 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @see #isProxySet()
      */
-    public synchronized String getProxyHost() {
-        if (this.proxyHost != null) {
-            return this.proxyHost.getHostName();
-        } else {
-            return null;
+    public String getProxyHost() {
+        this.lock.lock();
+        try {
+            if (this.proxyHost != null) {
+                return this.proxyHost.getHostName();
+            } else {
+                return null;
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -437,11 +555,16 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      *
      * @see #isProxySet()
      */
-    public synchronized int getProxyPort() {
-        if (this.proxyHost != null) {
-            return this.proxyHost.getPort();
-        } else {
-            return -1;
+    public int getProxyPort() {
+        this.lock.lock();
+        try {
+            if (this.proxyHost != null) {
+                return this.proxyHost.getPort();
+            } else {
+                return -1;
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -453,8 +576,14 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * @param localAddress the local address to use
      */
 
-    public synchronized void setLocalAddress(InetAddress localAddress) {
-        this.localAddress = localAddress;
+    public void setLocalAddress(InetAddress localAddress) {
+        this.lock.lock();
+        try {
+            this.localAddress = localAddress;
+            this.routeKey = null;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -464,8 +593,13 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
      * @return the local address to be used when creating Sockets, or <code>null</code>
      */
 
-    public synchronized InetAddress getLocalAddress() {
-        return this.localAddress;
+    public InetAddress getLocalAddress() {
+        this.lock.lock();
+        try {
+            return this.localAddress;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -494,18 +628,43 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
     }
 
     /**
+     * Returns an immutable snapshot of the host, proxy and local address of this
+     * configuration. The key is created once and then reused until one of these
+     * settings changes, and reading it does not acquire the lock of this
+     * configuration. Connection pools and per host limits are keyed on it.
+     *
+     * @return the route key
+     *
+     * @since 3.1
+     */
+    public RouteKey getRouteKey() {
+        RouteKey key = this.routeKey;
+        if (key == null) {
+            this.lock.lock();
+            try {
+                key = new RouteKey(this.host, this.proxyHost, this.localAddress);
+                this.routeKey = key;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Two host configurations are equal if their host, proxy host and local
+     * address are equal, that is, if they have equal {@link #getRouteKey() route keys}.
+     *
      * @see java.lang.Object#equals(java.lang.Object)
      */
-    public synchronized boolean equals(final Object o) {
+    public boolean equals(final Object o) {
         if (o instanceof HostConfiguration) {
             // shortcut if we're comparing with ourselves
             if (o == this) {
                 return true;
             }
             HostConfiguration that = (HostConfiguration) o;
-            return LangUtils.equals(this.host, that.host)
-                    && LangUtils.equals(this.proxyHost, that.proxyHost)
-                    && LangUtils.equals(this.localAddress, that.localAddress);
+            return getRouteKey().equals(that.getRouteKey());
         } else {
             return false;
         }
@@ -515,12 +674,8 @@ public class HostConfiguration implements Cloneable { // finish @2014/1/4 22:08
     /**
      * @see java.lang.Object#hashCode()
      */
-    public synchronized int hashCode() {
-        int hash = LangUtils.HASH_SEED;
-        hash = LangUtils.hashCode(hash, this.host);
-        hash = LangUtils.hashCode(hash, this.proxyHost);
-        hash = LangUtils.hashCode(hash, this.localAddress);
-        return hash;
+    public int hashCode() {
+        return getRouteKey().hashCode();
     }
 
 }
\ No newline at end of file
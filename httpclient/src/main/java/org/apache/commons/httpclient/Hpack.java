@@ -0,0 +1,330 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tables shared by the {@link HpackEncoder} and the {@link HpackDecoder}: the
+ * static table and the Huffman code of HPACK, the header compression of HTTP/2
+ * defined by RFC 7541.
+ *
+ * @since 3.1
+ */
+final class Hpack {
+
+    /** The number of entries of the static table */
+    static final int STATIC_TABLE_LENGTH = 61;
+
+    /** The overhead counted for each entry of the dynamic table, in bytes */
+    static final int ENTRY_OVERHEAD = 32;
+
+    /** The default maximum size of the dynamic table, in bytes */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /** The static table, indexed from <tt>1</tt>, see RFC 7541 appendix A */
+    private static final Header[] STATIC_TABLE = {
+        null,
+        new Header(":authority", ""),
+        new Header(":method", "GET"),
+        new Header(":method", "POST"),
+        new Header(":path", "/"),
+        new Header(":path", "/index.html"),
+        new Header(":scheme", "http"),
+        new Header(":scheme", "https"),
+        new Header(":status", "200"),
+        new Header(":status", "204"),
+        new Header(":status", "206"),
+        new Header(":status", "304"),
+        new Header(":status", "400"),
+        new Header(":status", "404"),
+        new Header(":status", "500"),
+        new Header("accept-charset", ""),
+        new Header("accept-encoding", "gzip, deflate"),
+        new Header("accept-language", ""),
+        new Header("accept-ranges", ""),
+        new Header("accept", ""),
+        new Header("access-control-allow-origin", ""),
+        new Header("age", ""),
+        new Header("allow", ""),
+        new Header("authorization", ""),
+        new Header("cache-control", ""),
+        new Header("content-disposition", ""),
+        new Header("content-encoding", ""),
+        new Header("content-language", ""),
+        new Header("content-length", ""),
+        new Header("content-location", ""),
+        new Header("content-range", ""),
+        new Header("content-type", ""),
+        new Header("cookie", ""),
+        new Header("date", ""),
+        new Header("etag", ""),
+        new Header("expect", ""),
+        new Header("expires", ""),
+        new Header("from", ""),
+        new Header("host", ""),
+        new Header("if-match", ""),
+        new Header("if-modified-since", ""),
+        new Header("if-none-match", ""),
+        new Header("if-range", ""),
+        new Header("if-unmodified-since", ""),
+        new Header("last-modified", ""),
+        new Header("link", ""),
+        new Header("location", ""),
+        new Header("max-forwards", ""),
+        new Header("proxy-authenticate", ""),
+        new Header("proxy-authorization", ""),
+        new Header("range", ""),
+        new Header("referer", ""),
+        new Header("refresh", ""),
+        new Header("retry-after", ""),
+        new Header("server", ""),
+        new Header("set-cookie", ""),
+        new Header("strict-transport-security", ""),
+        new Header("transfer-encoding", ""),
+        new Header("user-agent", ""),
+        new Header("vary", ""),
+        new Header("via", ""),
+        new Header("www-authenticate", "")
+    };
+
+    /** The index of the first static entry of each name */
+    private static final Map STATIC_NAME_INDEX = new HashMap();
+
+    /** The index of each static entry with a value, keyed by name and value */
+    private static final Map STATIC_FIELD_INDEX = new HashMap();
+
+    static {
+        for (int i = STATIC_TABLE_LENGTH; i > 0; i--) {
+            Header entry = STATIC_TABLE[i];
+            Integer index = new Integer(i);
+            STATIC_NAME_INDEX.put(entry.getName(), index);
+            if (entry.getValue().length() > 0) {
+                STATIC_FIELD_INDEX.put(fieldKey(entry.getName(), entry.getValue()), index);
+            }
+        }
+    }
+
+    /** The Huffman codes of the symbols, see RFC 7541 appendix B */
+    private static final int[] HUFFMAN_CODES = {
+        0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+        0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+        0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+        0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+        0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+        0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+        0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+        0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+        0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+        0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+        0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+        0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+        0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+        0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+        0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+        0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+        0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+        0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+        0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+        0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+        0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+        0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+        0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+        0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+        0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+        0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+        0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+        0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+        0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+        0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+        0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+        0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+        0x3fffffff
+    };
+
+    /** The lengths in bits of the Huffman codes of the symbols */
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+
+    /** The symbol of the end of string code, which may not occur in a string */
+    private static final int EOS = 256;
+
+    /**
+     * The Huffman decoding tree. Node <tt>n</tt> has its children for bits <tt>0</tt>
+     * and <tt>1</tt> at <tt>2n</tt> and <tt>2n + 1</tt>; a negative child is the leaf
+     * of symbol <tt>-child - 1</tt>. Node <tt>0</tt> is the root.
+     */
+    private static final int[] HUFFMAN_TREE = buildHuffmanTree();
+
+    private Hpack() {
+        super();
+    }
+
+    private static int[] buildHuffmanTree() {
+        // a complete prefix code of 257 symbols has 256 inner nodes
+        int[] tree = new int[2 * 256];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int length = HUFFMAN_LENGTHS[symbol];
+            int node = 0;
+            for (int bit = length - 1; bit > 0; bit--) {
+                int child = 2 * node + ((code >>> bit) & 1);
+                if (tree[child] == 0) {
+                    tree[child] = nodes++;
+                }
+                node = tree[child];
+            }
+            tree[2 * node + (code & 1)] = -symbol - 1;
+        }
+        return tree;
+    }
+
+    static String fieldKey(final String name, final String value) {
+        return name + '\u0000' + value;
+    }
+
+    /**
+     * Returns the static entry at the given index.
+     *
+     * @param index the index, from <tt>1</tt> to {@link #STATIC_TABLE_LENGTH}
+     */
+    static Header getStaticEntry(int index) {
+        return STATIC_TABLE[index];
+    }
+
+    /**
+     * Returns the index of the static entry with the given name and value.
+     *
+     * @return the index, or <tt>0</tt> if there is none
+     */
+    static int getStaticIndex(final String name, final String value) {
+        Integer index = (Integer) STATIC_FIELD_INDEX.get(fieldKey(name, value));
+        return index != null ? index.intValue() : 0;
+    }
+
+    /**
+     * Returns the index of the first static entry with the given name.
+     *
+     * @return the index, or <tt>0</tt> if there is none
+     */
+    static int getStaticNameIndex(final String name) {
+        Integer index = (Integer) STATIC_NAME_INDEX.get(name);
+        return index != null ? index.intValue() : 0;
+    }
+
+    /**
+     * Returns the length in bytes of the Huffman encoding of the given string.
+     */
+    static int getHuffmanLength(final String s) {
+        long bits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            bits += HUFFMAN_LENGTHS[s.charAt(i) & 0xff];
+        }
+        return (int) ((bits + 7) >> 3);
+    }
+
+    /**
+     * Writes the Huffman encoding of the given string, padded with the most
+     * significant bits of the end of string code.
+     */
+    static void writeHuffman(final String s, final ByteArrayOutputStream out) {
+        long buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int symbol = s.charAt(i) & 0xff;
+            int length = HUFFMAN_LENGTHS[symbol];
+            buffer = (buffer << length) | HUFFMAN_CODES[symbol];
+            bits += length;
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (buffer >>> bits));
+            }
+        }
+        if (bits > 0) {
+            out.write((int) ((buffer << (8 - bits)) | (0xff >>> bits)));
+        }
+    }
+
+    /**
+     * Decodes a Huffman encoded string.
+     *
+     * @throws ProtocolException if the encoding is invalid
+     */
+    static String readHuffman(final byte[] b, int off, int len) throws ProtocolException {
+        StringBuffer buffer = new StringBuffer(len + len / 2);
+        int node = 0;
+        // the number of bits read since the last symbol, all of them ones
+        int padding = 0;
+        boolean ones = true;
+        for (int i = off; i < off + len; i++) {
+            int octet = b[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int set = (octet >>> bit) & 1;
+                int child = HUFFMAN_TREE[2 * node + set];
+                padding++;
+                ones &= set == 1;
+                if (child < 0) {
+                    int symbol = -child - 1;
+                    if (symbol == EOS) {
+                        throw new LightweightProtocolException(
+                            "HPACK string contains the end of string code");
+                    }
+                    buffer.append((char) symbol);
+                    node = 0;
+                    padding = 0;
+                    ones = true;
+                } else {
+                    node = child;
+                }
+            }
+        }
+        if (padding > 7 || !ones) {
+            throw new LightweightProtocolException("Invalid HPACK string padding");
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks, see RFC 7541. A decoder keeps the dynamic table of
+ * one direction of an HTTP/2 connection, so the header blocks received on the
+ * connection must all be decoded, in order, by the same decoder.
+ *
+ * @since 3.1
+ */
+final class HpackDecoder {
+
+    /** The dynamic table, a ring buffer with the most recent entry at <tt>head</tt> */
+    private Header[] entries = new Header[16];
+
+    private int head = 0;
+
+    private int count = 0;
+
+    /** The size of the dynamic table, in bytes as counted by HPACK */
+    private int size = 0;
+
+    /** The maximum size of the dynamic table, as last updated by the peer */
+    private int maxSize;
+
+    /** The limit of the maximum size, as advertised to the peer */
+    private final int maxSizeLimit;
+
+    /** The block being decoded */
+    private byte[] block;
+
+    private int pos;
+
+    private int end;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param maxSizeLimit the maximum size of the dynamic table advertised to the peer
+     * in <tt>SETTINGS_HEADER_TABLE_SIZE</tt>
+     */
+    HpackDecoder(int maxSizeLimit) {
+        super();
+        this.maxSize = maxSizeLimit;
+        this.maxSizeLimit = maxSizeLimit;
+    }
+
+    /**
+     * Decodes a complete header block.
+     *
+     * @param b the buffer containing the header block
+     * @param off the offset of the header block
+     * @param len the length of the header block
+     *
+     * @return the headers, in order, with lower case names
+     *
+     * @throws ProtocolException if the header block is invalid, in which case the
+     * dynamic table is undefined and the connection must be closed
+     */
+    List decode(final byte[] b, int off, int len) throws ProtocolException {
+        this.block = b;
+        this.pos = off;
+        this.end = off + len;
+        List headers = new ArrayList();
+        boolean first = true;
+        try {
+            while (this.pos < this.end) {
+                int octet = this.block[this.pos] & 0xff;
+                if ((octet & 0x80) != 0) {
+                    // indexed header field
+                    headers.add(getEntry(readInt(7)));
+                } else if ((octet & 0x40) != 0) {
+                    // literal header field with incremental indexing
+                    Header header = readLiteral(6);
+                    add(header);
+                    headers.add(header);
+                } else if ((octet & 0x20) != 0) {
+                    // dynamic table size update, only allowed at the beginning
+                    if (!first) {
+                        throw new LightweightProtocolException(
+                            "HPACK table size update after header field");
+                    }
+                    int newSize = readInt(5);
+                    if (newSize > this.maxSizeLimit) {
+                        throw new LightweightProtocolException(
+                            "HPACK table size update exceeds limit: " + newSize);
+                    }
+                    this.maxSize = newSize;
+                    evict(0);
+                    continue;
+                } else {
+                    // literal header field without indexing or never indexed
+                    headers.add(readLiteral(4));
+                }
+                first = false;
+            }
+        } finally {
+            this.block = null;
+        }
+        return headers;
+    }
+
+    private Header readLiteral(int prefix) throws ProtocolException {
+        int index = readInt(prefix);
+        String name;
+        if (index == 0) {
+            name = readString();
+        } else {
+            name = getEntry(index).getName();
+        }
+        return new Header(name, readString());
+    }
+
+    private Header getEntry(int index) throws ProtocolException {
+        if (index >= 1 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.getStaticEntry(index);
+        }
+        int dynamic = index - Hpack.STATIC_TABLE_LENGTH - 1;
+        if (dynamic < 0 || dynamic >= this.count) {
+            throw new LightweightProtocolException("Invalid HPACK index: " + index);
+        }
+        return this.entries[(this.head + dynamic) % this.entries.length];
+    }
+
+    private void add(final Header header) {
+        int entrySize = header.getName().length() + header.getValue().length()
+            + Hpack.ENTRY_OVERHEAD;
+        if (entrySize > this.maxSize) {
+            // an entry larger than the table empties it
+            evict(this.maxSize);
+            return;
+        }
+        evict(entrySize);
+        if (this.count == this.entries.length) {
+            Header[] grown = new Header[this.entries.length * 2];
+            for (int i = 0; i < this.count; i++) {
+                grown[i] = this.entries[(this.head + i) % this.entries.length];
+            }
+            this.entries = grown;
+            this.head = 0;
+        }
+        this.head = (this.head + this.entries.length - 1) % this.entries.length;
+        this.entries[this.head] = header;
+        this.count++;
+        this.size += entrySize;
+    }
+
+    /**
+     * Evicts the oldest entries until the given number of bytes fits into the table.
+     */
+    private void evict(int needed) {
+        while (this.count > 0 && this.size + needed > this.maxSize) {
+            int last = (this.head + this.count - 1) % this.entries.length;
+            Header entry = this.entries[last];
+            this.entries[last] = null;
+            this.count--;
+            this.size -= entry.getName().length() + entry.getValue().length()
+                + Hpack.ENTRY_OVERHEAD;
+        }
+    }
+
+    private int readInt(int prefix) throws ProtocolException {
+        int max = (1 << prefix) - 1;
+        int value = this.block[this.pos++] & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (this.pos >= this.end) {
+                throw new LightweightProtocolException("Truncated HPACK integer");
+            }
+            int octet = this.block[this.pos++] & 0xff;
+            if (shift > 21) {
+                throw new LightweightProtocolException("HPACK integer overflow");
+            }
+            value += (octet & 0x7f) << shift;
+            if ((octet & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private String readString() throws ProtocolException {
+        if (this.pos >= this.end) {
+            throw new LightweightProtocolException("Truncated HPACK string");
+        }
+        boolean huffman = (this.block[this.pos] & 0x80) != 0;
+        int length = readInt(7);
+        if (length > this.end - this.pos) {
+            throw new LightweightProtocolException("Truncated HPACK string");
+        }
+        String s;
+        if (huffman) {
+            s = Hpack.readHuffman(this.block, this.pos, length);
+        } else {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (this.block[this.pos + i] & 0xff);
+            }
+            s = new String(chars);
+        }
+        this.pos += length;
+        return s;
+    }
+}
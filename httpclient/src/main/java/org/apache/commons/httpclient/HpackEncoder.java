@@ -0,0 +1,248 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Encodes HPACK header blocks, see RFC 7541. An encoder keeps the dynamic table of
+ * one direction of an HTTP/2 connection, so the header blocks it encodes must be
+ * sent on the connection in the order they have been encoded.
+ * <p>
+ * Header fields are added to the dynamic table, so that repeated fields are sent
+ * as an index, except for credentials, which are never indexed. Strings are Huffman
+ * encoded when that makes them shorter.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class HpackEncoder {
+
+    /** The names of the header fields whose values are never indexed */
+    private static final String[] SENSITIVE = {"authorization", "proxy-authorization", "cookie"};
+
+    /** The dynamic table, oldest entry first */
+    private final LinkedList entries = new LinkedList();
+
+    /** The number of entries ever inserted into the dynamic table */
+    private int inserted = 0;
+
+    /** The insertion number of the most recent entry of each field */
+    private final Map fieldIndex = new HashMap();
+
+    /** The insertion number of the most recent entry of each name */
+    private final Map nameIndex = new HashMap();
+
+    /** The size of the dynamic table, in bytes as counted by HPACK */
+    private int size = 0;
+
+    /** The maximum size of the dynamic table */
+    private int maxSize = Hpack.DEFAULT_TABLE_SIZE;
+
+    /** The smallest maximum size set since the last header block, or <tt>-1</tt> */
+    private int pendingMinSize = -1;
+
+    /** Whether the maximum size has changed since the last header block */
+    private boolean sizeChanged = false;
+
+    HpackEncoder() {
+        super();
+    }
+
+    /**
+     * Sets the maximum size of the dynamic table, as allowed by the peer in
+     * <tt>SETTINGS_HEADER_TABLE_SIZE</tt>. The change is signalled at the beginning
+     * of the next header block.
+     *
+     * @param maxSize the maximum size, at most {@link Hpack#DEFAULT_TABLE_SIZE} is used
+     */
+    void setMaxTableSize(int maxSize) {
+        int newSize = Math.min(maxSize, Hpack.DEFAULT_TABLE_SIZE);
+        if (newSize == this.maxSize && !this.sizeChanged) {
+            return;
+        }
+        if (this.pendingMinSize < 0 || newSize < this.pendingMinSize) {
+            this.pendingMinSize = newSize;
+        }
+        this.maxSize = newSize;
+        this.sizeChanged = true;
+        evict(0);
+    }
+
+    /**
+     * Begins a header block, signalling any change of the table size.
+     *
+     * @param out the stream to write to
+     */
+    void beginBlock(final ByteArrayOutputStream out) {
+        if (this.sizeChanged) {
+            if (this.pendingMinSize < this.maxSize) {
+                writeInt(out, 0x20, 5, this.pendingMinSize);
+            }
+            writeInt(out, 0x20, 5, this.maxSize);
+            this.pendingMinSize = -1;
+            this.sizeChanged = false;
+        }
+    }
+
+    /**
+     * Encodes a header field.
+     *
+     * @param out the stream to write to
+     * @param name the lower case name
+     * @param value the value
+     */
+    void encode(final ByteArrayOutputStream out, final String name, final String value) {
+        int index = Hpack.getStaticIndex(name, value);
+        if (index == 0) {
+            index = getDynamicIndex(this.fieldIndex, Hpack.fieldKey(name, value));
+        }
+        if (index > 0) {
+            writeInt(out, 0x80, 7, index);
+            return;
+        }
+        int nameIdx = Hpack.getStaticNameIndex(name);
+        if (nameIdx == 0) {
+            nameIdx = getDynamicIndex(this.nameIndex, name);
+        }
+        if (isSensitive(name)) {
+            // literal header field never indexed
+            writeInt(out, 0x10, 4, nameIdx);
+        } else {
+            // literal header field with incremental indexing
+            writeInt(out, 0x40, 6, nameIdx);
+            add(name, value);
+        }
+        if (nameIdx == 0) {
+            writeString(out, name);
+        }
+        writeString(out, value);
+    }
+
+    private static boolean isSensitive(final String name) {
+        for (int i = 0; i < SENSITIVE.length; i++) {
+            if (SENSITIVE[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the dynamic entry inserted as the given number.
+     *
+     * @return the index, or <tt>0</tt> if the key has no entry
+     */
+    private int getDynamicIndex(final Map map, final String key) {
+        Integer number = (Integer) map.get(key);
+        if (number == null) {
+            return 0;
+        }
+        // the most recent entry has the lowest index
+        return Hpack.STATIC_TABLE_LENGTH + this.inserted - number.intValue();
+    }
+
+    private void add(final String name, final String value) {
+        int entrySize = name.length() + value.length() + Hpack.ENTRY_OVERHEAD;
+        if (entrySize > this.maxSize) {
+            evict(this.maxSize);
+            return;
+        }
+        evict(entrySize);
+        Integer number = new Integer(this.inserted);
+        this.inserted++;
+        this.entries.addLast(new Entry(name, value, number));
+        this.fieldIndex.put(Hpack.fieldKey(name, value), number);
+        this.nameIndex.put(name, number);
+        this.size += entrySize;
+    }
+
+    private void evict(int needed) {
+        while (!this.entries.isEmpty() && this.size + needed > this.maxSize) {
+            Entry entry = (Entry) this.entries.removeFirst();
+            this.size -= entry.name.length() + entry.value.length() + Hpack.ENTRY_OVERHEAD;
+            String key = Hpack.fieldKey(entry.name, entry.value);
+            if (entry.number.equals(this.fieldIndex.get(key))) {
+                this.fieldIndex.remove(key);
+            }
+            if (entry.number.equals(this.nameIndex.get(entry.name))) {
+                this.nameIndex.remove(entry.name);
+            }
+        }
+    }
+
+    private static void writeInt(final ByteArrayOutputStream out, int flags, int prefix,
+        int value) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final String s) {
+        int huffmanLength = Hpack.getHuffmanLength(s);
+        if (huffmanLength < s.length()) {
+            writeInt(out, 0x80, 7, huffmanLength);
+            Hpack.writeHuffman(s, out);
+        } else {
+            writeInt(out, 0x00, 7, s.length());
+            for (int i = 0; i < s.length(); i++) {
+                out.write(s.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * An entry of the dynamic table.
+     */
+    private static final class Entry {
+
+        final String name;
+
+        final String value;
+
+        /** The insertion number */
+        final Integer number;
+
+        Entry(final String name, final String value, final Integer number) {
+            this.name = name;
+            this.value = value;
+            this.number = number;
+        }
+    }
+}
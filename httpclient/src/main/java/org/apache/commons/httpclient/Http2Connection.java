@@ -0,0 +1,1496 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.params.HttpParamsSnapshot;
+import org.apache.commons.httpclient.util.EncodingUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An HTTP/2 connection to one route, see RFC 7540. Requests are sent as concurrent
+ * streams of the connection, up to the number of streams the server allows, once
+ * its first SETTINGS frame has been received. The connection is established with
+ * prior knowledge, that is the connection preface is sent right away on a plain
+ * connection (h2c), without upgrading an HTTP/1.1 connection first.
+ * <p>
+ * The connection is obtained from the {@link HttpConnectionManager} when the first
+ * stream is opened, and is kept until it is closed or shut down. Frames are read by
+ * a dedicated daemon thread, which completes the streams. Threads opening streams
+ * block while the server allows no more concurrent streams, and while sending a
+ * request body, as long as the flow control windows are exhausted. Response bodies
+ * are read completely; the receive windows are replenished as data arrives.
+ * </p>
+ * <p>
+ * Server push is disabled, trailers are discarded and priorities are ignored.
+ * </p>
+ * <p>
+ * Frames are written under {@link #writeLock}, and the state of the connection and
+ * its streams is guarded by {@link #lock}. When both are needed, <tt>writeLock</tt>
+ * is acquired first.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class Http2Connection {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(Http2Connection.class);
+
+    /** The connection preface sent by the client */
+    private static final byte[] PREFACE = EncodingUtil.getAsciiBytes(
+        "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+    // frame types
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    // frame flags
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    // settings
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    // error codes
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    /** The initial window size and maximum frame size of the protocol */
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int DEFAULT_FRAME_SIZE = 16384;
+
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    /** The receive window of each stream */
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+
+    /** The receive window of the connection */
+    private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The largest header list accepted, advertised in SETTINGS_MAX_HEADER_LIST_SIZE.
+     * Also bounds the encoded header block, which is never larger for a conforming
+     * peer.
+     */
+    static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+    /** The highest stream identifier */
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    /** The headers not allowed in HTTP/2 requests, lower case */
+    private static final String[] CONNECTION_HEADERS = {
+        "connection", "host", "keep-alive", "proxy-connection", "transfer-encoding",
+        "upgrade"
+    };
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    /** The host configuration the connection is obtained for */
+    private final HostConfiguration hostConfiguration;
+
+    private final HttpConnectionManager connectionManager;
+
+    /** Guards {@link #out} and {@link #encoder} */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** Guards the state of the connection and its streams */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a stream completes, a window grows or the settings change */
+    private final Condition changed = this.lock.newCondition();
+
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    /** Only used by the reader thread */
+    private final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+
+    /** The underlying connection, set once it is open */
+    private HttpConnection conn = null;
+
+    private OutputStream out;
+
+    /** The identifier of the next stream opened, changed under both locks */
+    private int nextStreamId = 1;
+
+    /** The open streams by identifier */
+    private final Map streams = new HashMap();
+
+    /** The number of streams waited for that have not been opened yet */
+    private int reserved = 0;
+
+    /** Whether no more streams are to be opened */
+    private boolean goingAway = false;
+
+    private boolean closed = false;
+
+    /** Whether the connection has been shut down rather than lost */
+    private boolean shutDown = false;
+
+    /** Why the connection could not be established, if it could not */
+    private IOException failure = null;
+
+    /** The default inactivity timeout of streams, in milliseconds */
+    private int soTimeout = 0;
+
+    /** Whether the first SETTINGS frame of the server has been received */
+    private boolean settingsReceived = false;
+
+    // the settings of the server
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+    private int initialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_FRAME_SIZE;
+
+    /** The number of bytes that may be sent on the connection */
+    private int sendWindow = DEFAULT_WINDOW_SIZE;
+
+    /** The number of bytes the server may still send on the connection */
+    private int receiveWindow = CONNECTION_WINDOW_SIZE;
+
+    /**
+     * Creates a connection. It is established when the first stream is opened.
+     *
+     * @param hostConfiguration the route of the connection
+     * @param connectionManager the connection manager to obtain the connection from
+     */
+    Http2Connection(final HostConfiguration hostConfiguration,
+        final HttpConnectionManager connectionManager) {
+        super();
+        this.hostConfiguration = hostConfiguration;
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * Tests whether new streams may be opened on this connection.
+     *
+     * @return <code>false</code> if the connection is closed or going away
+     */
+    boolean isUsable() {
+        this.lock.lock();
+        try {
+            return !this.closed && !this.goingAway;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains and opens the connection, and sends the connection preface. Called
+     * under {@link #writeLock}.
+     */
+    private void start(final HttpParamsSnapshot params) throws IOException {
+        long timeout = params.getLongParameter(HttpClientParams.CONNECTION_MANAGER_TIMEOUT, 0);
+        HttpConnection connection = this.connectionManager.getConnectionWithTimeout(
+            this.hostConfiguration, timeout);
+        InputStream in;
+        try {
+            // a pooled connection may have been used for HTTP/1.1
+            if (connection.isOpen()) {
+                connection.close();
+            }
+            connection.open();
+            connection.setSocketTimeout(0);
+            SocketChannel channel = connection.getSocket().getChannel();
+            if (channel != null) {
+                // the streams of a channel socket cannot read and write at the same time
+                in = new BufferedInputStream(new ChannelInputStream(channel), DEFAULT_FRAME_SIZE);
+                this.out = new BufferedOutputStream(new ChannelOutputStream(channel),
+                    DEFAULT_FRAME_SIZE);
+            } else {
+                in = connection.getResponseInputStream();
+                this.out = connection.getRequestOutputStream();
+            }
+            this.out.write(PREFACE);
+            byte[] settings = new byte[18];
+            putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+            putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+            writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+            writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            this.out.flush();
+        } catch (IOException e) {
+            connection.close();
+            connection.releaseConnection();
+            throw e;
+        }
+        this.soTimeout = connection.getParams().getSoTimeout();
+        this.conn = connection;
+        Thread reader = new Thread(new Reader(in),
+            "HttpClient-HTTP2-" + connection.getHost() + ":" + connection.getPort());
+        reader.setDaemon(true);
+        reader.start();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("HTTP/2 connection established to " + connection.getHost());
+        }
+    }
+
+    private static void putSetting(final byte[] b, int off, int id, int value) {
+        b[off] = (byte) (id >> 8);
+        b[off + 1] = (byte) id;
+        putInt(b, off + 2, value);
+    }
+
+    private static void putInt(final byte[] b, int off, int value) {
+        b[off] = (byte) (value >> 24);
+        b[off + 1] = (byte) (value >> 16);
+        b[off + 2] = (byte) (value >> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static int getInt(final byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+            | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /**
+     * Opens a stream and sends the request on it, establishing the connection if
+     * necessary. Blocks until the server has sent its settings, while it allows no
+     * more concurrent streams and, for a request with a body, while the flow control
+     * windows are exhausted.
+     *
+     * @param request the request
+     * @param params the snapshot of the parameters of the request
+     *
+     * @return the stream, to wait for the response with
+     * {@link #awaitResponse(Stream)}. Should the request fail to be sent, the
+     * stream fails.
+     *
+     * @throws UnprocessedException if the connection is closed or going away, so
+     * the request should be sent on another connection
+     * @throws SocketTimeoutException if the server has not sent its settings within
+     * the socket timeout
+     * @throws ConnectionPoolTimeoutException if the server allows no more streams
+     * and none has closed within the connection manager timeout
+     * @throws IOException if the connection cannot be established
+     */
+    Stream newStream(final HttpRequest request, final HttpParamsSnapshot params)
+        throws IOException {
+        this.writeLock.lock();
+        try {
+            if (this.conn == null && this.failure == null) {
+                try {
+                    start(params);
+                } catch (IOException e) {
+                    this.failure = e;
+                    close(e);
+                }
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+        reserveStream(params);
+        List headers = getRequestHeaders(request, params);
+        byte[] body = request.getBody();
+        boolean endStream = body == null || body.length == 0;
+        Stream stream;
+        this.writeLock.lock();
+        try {
+            int maxFrame;
+            this.lock.lock();
+            try {
+                this.reserved--;
+                if (this.closed || this.goingAway) {
+                    this.changed.signalAll();
+                    throw goingAway();
+                }
+                stream = new Stream(this.nextStreamId, request, params,
+                    this.initialWindowSize);
+                this.nextStreamId += 2;
+                if (this.nextStreamId > MAX_STREAM_ID || this.nextStreamId < 0) {
+                    // stream identifiers are exhausted, new requests need a new connection
+                    this.goingAway = true;
+                }
+                this.streams.put(new Integer(stream.id), stream);
+                maxFrame = this.maxFrameSize;
+            } finally {
+                this.lock.unlock();
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Sending " + request + " on HTTP/2 stream " + stream.id);
+            }
+            try {
+                ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+                this.encoder.beginBlock(block);
+                for (int i = 0; i < headers.size(); i++) {
+                    Header header = (Header) headers.get(i);
+                    this.encoder.encode(block, header.getName(), header.getValue());
+                }
+                writeHeaders(stream.id, block.toByteArray(), maxFrame, endStream);
+                if (endStream) {
+                    this.out.flush();
+                }
+            } catch (IOException e) {
+                close(e);
+                return stream;
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+        if (!endStream) {
+            try {
+                sendBody(stream, body);
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Waits for the server to allow another stream, and reserves it. The settings of
+     * the server are awaited for at most the socket timeout, after which the
+     * connection is closed, and a free stream for at most the connection manager
+     * timeout of the request.
+     *
+     * @throws SocketTimeoutException if the server has not sent its settings in time
+     * @throws ConnectionPoolTimeoutException if no stream became free in time
+     */
+    private void reserveStream(final HttpParamsSnapshot params) throws IOException {
+        int settingsTimeout = params.getSoTimeout();
+        if (settingsTimeout <= 0) {
+            settingsTimeout = this.soTimeout;
+        }
+        long streamTimeout = params.getLongParameter(
+            HttpClientParams.CONNECTION_MANAGER_TIMEOUT, 0);
+        long start = System.currentTimeMillis();
+        SocketTimeoutException timedOut = null;
+        this.lock.lock();
+        try {
+            while (!this.closed && !this.goingAway) {
+                long timeout;
+                // the limit of concurrent streams is only known once the settings are in
+                if (!this.settingsReceived) {
+                    timeout = settingsTimeout;
+                } else if (this.streams.size() + this.reserved < this.maxConcurrentStreams) {
+                    this.reserved++;
+                    return;
+                } else {
+                    timeout = streamTimeout;
+                }
+                long remaining = timeout > 0
+                    ? start + timeout - System.currentTimeMillis() : Long.MAX_VALUE;
+                if (remaining <= 0) {
+                    if (this.settingsReceived) {
+                        throw new ConnectionPoolTimeoutException(
+                            "Timeout waiting for an HTTP/2 stream");
+                    }
+                    timedOut = new SocketTimeoutException(
+                        "Timeout waiting for the HTTP/2 settings of the server");
+                    break;
+                }
+                try {
+                    if (timeout > 0) {
+                        this.changed.await(remaining, TimeUnit.MILLISECONDS);
+                    } else {
+                        this.changed.await();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting for a stream");
+                }
+            }
+            if (timedOut == null) {
+                throw goingAway();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        close(timedOut);
+        throw timedOut;
+    }
+
+    /**
+     * Returns the failure of a request that cannot be sent on this connection any
+     * more. Called under {@link #lock}.
+     */
+    private IOException goingAway() {
+        if (this.shutDown) {
+            return new IOException("HTTP/2 connection shut down");
+        }
+        return new UnprocessedException("HTTP/2 connection is going away");
+    }
+
+    /**
+     * Returns the header fields of the request: the pseudo-header fields followed
+     * by the request headers with lower case names, without those that are specific
+     * to HTTP/1.x connections.
+     */
+    private List getRequestHeaders(final HttpRequest request,
+        final HttpParamsSnapshot params) {
+        String scheme = this.conn.getProtocol().getScheme();
+        String authority = null;
+        String path = request.getURI();
+        int at = path.indexOf("://");
+        if (at > 0 && path.indexOf('/') > at) {
+            // absolute form
+            scheme = path.substring(0, at);
+            int slash = path.indexOf('/', at + 3);
+            authority = slash < 0 ? path.substring(at + 3) : path.substring(at + 3, slash);
+            path = slash < 0 ? "/" : path.substring(slash);
+        }
+        Header host = request.getFirstHeader("Host");
+        if (authority == null && host != null) {
+            authority = host.getValue();
+        }
+        if (authority == null) {
+            String name = (String) params.getParameter(HttpMethodParams.VIRTUAL_HOST);
+            if (name == null) {
+                name = this.conn.getHost();
+            }
+            int port = this.conn.getPort();
+            authority = port == this.conn.getProtocol().getDefaultPort()
+                ? name : name + ":" + port;
+        }
+        Header[] headers = request.getHeaders();
+        List fields = new ArrayList(headers.length + 5);
+        fields.add(new Header(":method", request.getMethod()));
+        fields.add(new Header(":scheme", scheme));
+        fields.add(new Header(":authority", authority));
+        fields.add(new Header(":path", path));
+        byte[] body = request.getBody();
+        if (body != null && request.getFirstHeader("Content-Length") == null) {
+            fields.add(new Header("content-length", String.valueOf(body.length)));
+        }
+        for (int i = 0; i < headers.length; i++) {
+            String name = headers[i].getName().toLowerCase(Locale.ENGLISH);
+            if (isConnectionHeader(name)
+                || (name.equals("te") && !headers[i].getValue().equalsIgnoreCase("trailers"))) {
+                continue;
+            }
+            fields.add(new Header(name, headers[i].getValue()));
+        }
+        return fields;
+    }
+
+    private static boolean isConnectionHeader(final String name) {
+        for (int i = 0; i < CONNECTION_HEADERS.length; i++) {
+            if (CONNECTION_HEADERS[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a header block in a HEADERS frame, followed by CONTINUATION frames if it
+     * exceeds the maximum frame size. Called under {@link #writeLock}.
+     */
+    private void writeHeaders(int streamId, final byte[] block, int maxFrame,
+        boolean endStream) throws IOException {
+        int len = Math.min(block.length, maxFrame);
+        int flags = endStream ? FLAG_END_STREAM : 0;
+        if (len == block.length) {
+            flags |= FLAG_END_HEADERS;
+        }
+        writeFrame(HEADERS, flags, streamId, block, 0, len);
+        int off = len;
+        while (off < block.length) {
+            len = Math.min(block.length - off, maxFrame);
+            writeFrame(CONTINUATION, off + len == block.length ? FLAG_END_HEADERS : 0,
+                streamId, block, off, len);
+            off += len;
+        }
+    }
+
+    /**
+     * Sends the request body in DATA frames, as the flow control windows and the
+     * maximum frame size of the server allow.
+     */
+    private void sendBody(final Stream stream, final byte[] body) throws IOException {
+        int off = 0;
+        while (off < body.length) {
+            int len = 0;
+            boolean abandoned;
+            this.lock.lock();
+            try {
+                while (!this.closed && !stream.done
+                    && (this.sendWindow <= 0 || stream.sendWindow <= 0)) {
+                    try {
+                        this.changed.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException(
+                            "Interrupted while waiting for the flow control window");
+                    }
+                }
+                if (this.closed) {
+                    return;
+                }
+                abandoned = stream.done;
+                if (!abandoned) {
+                    len = Math.min(body.length - off, this.maxFrameSize);
+                    len = Math.min(len, Math.min(this.sendWindow, stream.sendWindow));
+                    this.sendWindow -= len;
+                    stream.sendWindow -= len;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            if (abandoned) {
+                // the response has been received early, or the stream has been reset
+                resetStream(stream.id, CANCEL);
+                return;
+            }
+            this.writeLock.lock();
+            try {
+                writeFrame(DATA, off + len == body.length ? FLAG_END_STREAM : 0, stream.id,
+                    body, off, len);
+                this.out.flush();
+            } finally {
+                this.writeLock.unlock();
+            }
+            off += len;
+        }
+    }
+
+    /**
+     * Waits for the response on the stream. The stream fails if no frame is received
+     * for it within the socket timeout of its request, or of the connection.
+     *
+     * @param stream the stream
+     *
+     * @return the response
+     *
+     * @throws UnprocessedException if the server has not processed the request
+     * @throws NoHttpResponseException if the connection has closed before a response
+     * has been received
+     * @throws IOException if the stream fails
+     */
+    HttpResponse awaitResponse(final Stream stream) throws IOException {
+        int timeout = stream.params.getSoTimeout();
+        if (timeout <= 0) {
+            timeout = this.soTimeout;
+        }
+        boolean interrupted = false;
+        this.lock.lock();
+        try {
+            while (!stream.done) {
+                if (timeout <= 0) {
+                    this.changed.await();
+                    continue;
+                }
+                long remaining = stream.activity + timeout - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                this.changed.await(remaining, TimeUnit.MILLISECONDS);
+            }
+            if (stream.done) {
+                if (stream.failure != null) {
+                    throw stream.failure;
+                }
+                return new HttpResponse(stream.statusLine, stream.headers,
+                    stream.body.toByteArray(), true);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            this.lock.unlock();
+        }
+        cancel(stream);
+        if (interrupted) {
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        }
+        throw new SocketTimeoutException("Read timed out");
+    }
+
+    /**
+     * Cancels the stream, resetting it unless it is complete.
+     *
+     * @param stream the stream
+     */
+    void cancel(final Stream stream) {
+        this.lock.lock();
+        try {
+            if (stream.done) {
+                return;
+            }
+            fail(stream, new IOException("Request aborted"));
+        } finally {
+            this.lock.unlock();
+        }
+        resetStream(stream.id, CANCEL);
+    }
+
+    /**
+     * Sends a RST_STREAM frame, closing the connection if that fails.
+     */
+    private void resetStream(int streamId, int errorCode) {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, errorCode);
+        this.writeLock.lock();
+        try {
+            writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+            this.out.flush();
+        } catch (IOException e) {
+            close(e);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Completes the stream with the failure and forgets about it. Called under
+     * {@link #lock}.
+     */
+    private void fail(final Stream stream, final IOException cause) {
+        stream.failure = cause;
+        complete(stream);
+    }
+
+    /**
+     * Marks the stream as done and forgets about it. Called under {@link #lock}.
+     */
+    private void complete(final Stream stream) {
+        stream.done = true;
+        this.streams.remove(new Integer(stream.id));
+        this.changed.signalAll();
+    }
+
+    /**
+     * Shuts the connection down, failing the streams not yet complete and the
+     * requests waiting for a stream.
+     */
+    void shutdown() {
+        this.lock.lock();
+        try {
+            this.shutDown = true;
+        } finally {
+            this.lock.unlock();
+        }
+        this.writeLock.lock();
+        try {
+            if (this.conn != null && isUsable()) {
+                byte[] payload = new byte[8];
+                writeFrame(GOAWAY, 0, 0, payload, 0, 8);
+                this.out.flush();
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to send GOAWAY", e);
+        } finally {
+            this.writeLock.unlock();
+        }
+        close(new IOException("HTTP/2 connection shut down"));
+    }
+
+    /**
+     * Closes the connection and releases it. The streams that are not complete fail:
+     * with a {@link NoHttpResponseException} if no response headers have been
+     * received for them, or else with an <tt>IOException</tt> caused by the given
+     * cause. If the connection has been shut down, they fail with the cause itself.
+     */
+    private void close(final IOException cause) {
+        HttpConnection connection;
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            connection = this.conn;
+            if (!this.streams.isEmpty()) {
+                List pending = new ArrayList(this.streams.values());
+                for (int i = 0; i < pending.size(); i++) {
+                    Stream stream = (Stream) pending.get(i);
+                    if (this.shutDown) {
+                        fail(stream, cause);
+                    } else if (stream.statusLine == null) {
+                        fail(stream, new NoHttpResponseException(
+                            "HTTP/2 connection closed before a response was received"));
+                    } else {
+                        fail(stream, new IOException("HTTP/2 connection closed: " + cause, cause));
+                    }
+                }
+            }
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Closing HTTP/2 connection: " + cause);
+        }
+        if (connection != null) {
+            connection.close();
+            connection.releaseConnection();
+        }
+    }
+
+    /**
+     * Writes a frame. Called under {@link #writeLock}.
+     */
+    private void writeFrame(int type, int flags, int streamId, final byte[] payload,
+        int off, int len) throws IOException {
+        if (this.out == null) {
+            throw new IOException("HTTP/2 connection is not established");
+        }
+        byte[] header = new byte[9];
+        header[0] = (byte) (len >> 16);
+        header[1] = (byte) (len >> 8);
+        header[2] = (byte) len;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        putInt(header, 5, streamId);
+        this.out.write(header);
+        this.out.write(payload, off, len);
+    }
+
+    /**
+     * Writes a WINDOW_UPDATE frame. Called under {@link #writeLock}.
+     */
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+    /**
+     * Reads from a blocking socket channel. Unlike the input stream of the socket, it
+     * does not keep the channel from being written to while blocked.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final SocketChannel channel;
+
+        ChannelInputStream(final SocketChannel channel) {
+            super();
+            this.channel = channel;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(final byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return this.channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    /**
+     * Writes to a blocking socket channel. Unlike the output stream of the socket, it
+     * does not wait for a blocked read of the channel.
+     */
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final SocketChannel channel;
+
+        ChannelOutputStream(final SocketChannel channel) {
+            super();
+            this.channel = channel;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(final byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Signals that the server has not processed a request, which may therefore be sent
+     * again, whether it is idempotent or not.
+     */
+    static class UnprocessedException extends NoHttpResponseException {
+
+        UnprocessedException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Signals a connection error, upon which the connection is closed.
+     */
+    private static class ConnectionError extends LightweightProtocolException {
+
+        final int errorCode;
+
+        ConnectionError(int errorCode, final String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+
+    /**
+     * A stream of the connection, carrying one request and its response. Its fields
+     * are guarded by {@link Http2Connection#lock}.
+     */
+    final class Stream {
+
+        final int id;
+
+        final HttpRequest request;
+
+        final HttpParamsSnapshot params;
+
+        /** The number of bytes that may be sent on the stream */
+        int sendWindow;
+
+        /** The number of bytes the server may still send on the stream */
+        int receiveWindow = STREAM_WINDOW_SIZE;
+
+        /** When a frame was last received for the stream */
+        long activity = System.currentTimeMillis();
+
+        StatusLine statusLine = null;
+
+        Header[] headers = NO_HEADERS;
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        boolean done = false;
+
+        IOException failure = null;
+
+        Stream(int id, final HttpRequest request, final HttpParamsSnapshot params,
+            int sendWindow) {
+            this.id = id;
+            this.request = request;
+            this.params = params;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    /**
+     * Reads the frames of the connection until it closes.
+     */
+    private class Reader implements Runnable {
+
+        private final InputStream in;
+
+        private final byte[] frameHeader = new byte[9];
+
+        private final byte[] payload = new byte[DEFAULT_FRAME_SIZE];
+
+        private int type;
+
+        private int flags;
+
+        private int streamId;
+
+        private int length;
+
+        Reader(final InputStream in) {
+            this.in = in;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    readFrame();
+                    process();
+                }
+            } catch (ConnectionError e) {
+                LOG.debug("HTTP/2 connection error", e);
+                goAway(e.errorCode);
+                close(e);
+            } catch (IOException e) {
+                close(e);
+            } catch (RuntimeException e) {
+                LOG.warn("Unexpected failure reading HTTP/2 frames", e);
+                close(new IOException("Unexpected failure: " + e));
+            }
+        }
+
+        private void readFrame() throws IOException {
+            readFully(this.frameHeader, 9);
+            this.length = ((this.frameHeader[0] & 0xff) << 16)
+                | ((this.frameHeader[1] & 0xff) << 8) | (this.frameHeader[2] & 0xff);
+            this.type = this.frameHeader[3] & 0xff;
+            this.flags = this.frameHeader[4] & 0xff;
+            this.streamId = getInt(this.frameHeader, 5) & MAX_STREAM_ID;
+            if (this.length > DEFAULT_FRAME_SIZE) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Frame too large: " + this.length);
+            }
+            readFully(this.payload, this.length);
+        }
+
+        private void readFully(final byte[] b, int len) throws IOException {
+            int off = 0;
+            while (off < len) {
+                int n = this.in.read(b, off, len - off);
+                if (n < 0) {
+                    throw new EOFException("HTTP/2 connection closed by the server");
+                }
+                off += n;
+            }
+        }
+
+        private void process() throws IOException {
+            switch (this.type) {
+                case DATA:
+                    processData();
+                    break;
+                case HEADERS:
+                    processHeaders();
+                    break;
+                case PRIORITY:
+                    if (this.streamId == 0) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY on stream 0");
+                    }
+                    break;
+                case RST_STREAM:
+                    processReset();
+                    break;
+                case SETTINGS:
+                    processSettings();
+                    break;
+                case PUSH_PROMISE:
+                    throw new ConnectionError(PROTOCOL_ERROR, "Server push is disabled");
+                case PING:
+                    processPing();
+                    break;
+                case GOAWAY:
+                    processGoAway();
+                    break;
+                case WINDOW_UPDATE:
+                    processWindowUpdate();
+                    break;
+                case CONTINUATION:
+                    throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                default:
+                    // unknown frame types are ignored
+                    break;
+            }
+        }
+
+        /**
+         * Returns the length of the payload without padding, checking the padding.
+         * The payload starts at <code>padded</code> if it is padded.
+         */
+        private int unpad(int padded) throws ConnectionError {
+            if ((this.flags & FLAG_PADDED) == 0) {
+                return this.length;
+            }
+            if (this.length < padded) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Padded frame too short");
+            }
+            int padding = this.payload[0] & 0xff;
+            if (padding > this.length - padded) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Padding exceeds the frame");
+            }
+            return this.length - padding;
+        }
+
+        private void processData() throws IOException {
+            if (this.streamId == 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "DATA on stream 0");
+            }
+            int end = unpad(1);
+            int off = (this.flags & FLAG_PADDED) != 0 ? 1 : 0;
+            boolean endStream = (this.flags & FLAG_END_STREAM) != 0;
+            int connectionUpdate = 0;
+            int streamUpdate = 0;
+            int reset = NO_ERROR;
+            lock.lock();
+            try {
+                if (this.length > receiveWindow) {
+                    throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window exceeded");
+                }
+                receiveWindow -= this.length;
+                if (receiveWindow <= CONNECTION_WINDOW_SIZE / 2) {
+                    connectionUpdate = CONNECTION_WINDOW_SIZE - receiveWindow;
+                    receiveWindow = CONNECTION_WINDOW_SIZE;
+                }
+                Stream stream = getStream();
+                if (stream != null) {
+                    if (this.length > stream.receiveWindow) {
+                        fail(stream, new ProtocolException("Stream window exceeded"));
+                        reset = FLOW_CONTROL_ERROR;
+                    } else if (stream.statusLine == null) {
+                        fail(stream, new ProtocolException("DATA before response headers"));
+                        reset = PROTOCOL_ERROR;
+                    } else {
+                        stream.activity = System.currentTimeMillis();
+                        stream.receiveWindow -= this.length;
+                        stream.body.write(this.payload, off, end - off);
+                        if (endStream) {
+                            complete(stream);
+                        } else if (stream.receiveWindow <= STREAM_WINDOW_SIZE / 2) {
+                            streamUpdate = STREAM_WINDOW_SIZE - stream.receiveWindow;
+                            stream.receiveWindow = STREAM_WINDOW_SIZE;
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (reset != NO_ERROR) {
+                resetStream(this.streamId, reset);
+            }
+            if (connectionUpdate > 0 || streamUpdate > 0) {
+                writeLock.lock();
+                try {
+                    if (connectionUpdate > 0) {
+                        writeWindowUpdate(0, connectionUpdate);
+                    }
+                    if (streamUpdate > 0) {
+                        writeWindowUpdate(this.streamId, streamUpdate);
+                    }
+                    out.flush();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            closeIfIdle();
+        }
+
+        /**
+         * Returns the open stream the frame is for, or <code>null</code> if it is
+         * closed. Called under {@link Http2Connection#lock}.
+         */
+        private Stream getStream() throws ConnectionError {
+            Stream stream = (Stream) streams.get(new Integer(this.streamId));
+            if (stream == null && this.streamId >= nextStreamId) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Frame on idle stream "
+                    + this.streamId);
+            }
+            return stream;
+        }
+
+        private void processHeaders() throws IOException {
+            if (this.streamId == 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+            }
+            int off = (this.flags & FLAG_PADDED) != 0 ? 1 : 0;
+            if ((this.flags & FLAG_PRIORITY) != 0) {
+                off += 5;
+            }
+            int end = unpad(off);
+            if (end < off) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "HEADERS frame too short");
+            }
+            boolean endStream = (this.flags & FLAG_END_STREAM) != 0;
+            int id = this.streamId;
+            ByteArrayOutputStream block = new ByteArrayOutputStream(end - off);
+            block.write(this.payload, off, end - off);
+            while ((this.flags & FLAG_END_HEADERS) == 0) {
+                readFrame();
+                if (this.type != CONTINUATION || this.streamId != id) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Expected CONTINUATION");
+                }
+                // the HPACK state is lost with the rest of the block, so the
+                // connection cannot survive an oversized one
+                if (block.size() + this.length > MAX_HEADER_LIST_SIZE) {
+                    throw new ConnectionError(PROTOCOL_ERROR,
+                        "Header block exceeds " + MAX_HEADER_LIST_SIZE + " bytes");
+                }
+                block.write(this.payload, 0, this.length);
+            }
+            this.streamId = id;
+            byte[] b = block.toByteArray();
+            List fields;
+            try {
+                fields = decoder.decode(b, 0, b.length);
+            } catch (ProtocolException e) {
+                throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+            }
+            // indexed fields can expand a small block into a large list
+            long size = 0;
+            for (int i = 0; i < fields.size(); i++) {
+                Header field = (Header) fields.get(i);
+                size += field.getName().length() + field.getValue().length()
+                    + Hpack.ENTRY_OVERHEAD;
+            }
+            if (size > MAX_HEADER_LIST_SIZE) {
+                throw new ConnectionError(PROTOCOL_ERROR,
+                    "Header list exceeds " + MAX_HEADER_LIST_SIZE + " bytes");
+            }
+            boolean reset;
+            lock.lock();
+            try {
+                reset = receiveHeaders(fields, endStream);
+            } finally {
+                lock.unlock();
+            }
+            if (reset) {
+                resetStream(id, PROTOCOL_ERROR);
+            }
+            closeIfIdle();
+        }
+
+        /**
+         * Applies the decoded header fields to the stream of the frame. Called under
+         * {@link Http2Connection#lock}.
+         *
+         * @return <code>true</code> if the stream has failed and is to be reset
+         */
+        private boolean receiveHeaders(final List fields, boolean endStream)
+            throws ConnectionError {
+            Stream stream = getStream();
+            if (stream == null) {
+                return false;
+            }
+            stream.activity = System.currentTimeMillis();
+            if (stream.statusLine != null) {
+                // trailers
+                if (!endStream) {
+                    fail(stream, new ProtocolException("Trailers without END_STREAM"));
+                    return true;
+                }
+                complete(stream);
+                return false;
+            }
+            try {
+                StatusLine statusLine = getStatusLine(fields);
+                if (statusLine.getStatusCode() < 200) {
+                    // interim response
+                    if (endStream) {
+                        throw new ProtocolException("Interim response ends the stream");
+                    }
+                    return false;
+                }
+                stream.headers = getHeaders(fields);
+                stream.statusLine = statusLine;
+            } catch (ProtocolException e) {
+                fail(stream, e);
+                return true;
+            }
+            if (endStream) {
+                complete(stream);
+            }
+            return false;
+        }
+
+        private StatusLine getStatusLine(final List fields) throws ProtocolException {
+            if (fields.isEmpty()) {
+                throw new ProtocolException("Response has no :status");
+            }
+            Header first = (Header) fields.get(0);
+            if (!first.getName().equals(":status")) {
+                throw new ProtocolException("Response has no :status");
+            }
+            String value = first.getValue();
+            if (value.length() != 3) {
+                throw new ProtocolException("Invalid :status: " + value);
+            }
+            int code = 0;
+            for (int i = 0; i < 3; i++) {
+                char ch = value.charAt(i);
+                if (ch < '0' || ch > '9') {
+                    throw new ProtocolException("Invalid :status: " + value);
+                }
+                code = code * 10 + (ch - '0');
+            }
+            String reason = HttpStatus.getStatusText(code);
+            return new StatusLine(HttpVersion.HTTP_2_0, code, reason != null ? reason : "", null);
+        }
+
+        private Header[] getHeaders(final List fields) throws ProtocolException {
+            int count = fields.size() - 1;
+            if (count == 0) {
+                return NO_HEADERS;
+            }
+            Header[] headers = new Header[count];
+            for (int i = 0; i < count; i++) {
+                Header header = (Header) fields.get(i + 1);
+                if (header.getName().startsWith(":")) {
+                    throw new ProtocolException("Unexpected pseudo-header: " + header.getName());
+                }
+                headers[i] = header;
+            }
+            return headers;
+        }
+
+        private void processReset() throws IOException {
+            if (this.streamId == 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+            }
+            if (this.length != 4) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Invalid RST_STREAM length");
+            }
+            int errorCode = getInt(this.payload, 0);
+            lock.lock();
+            try {
+                Stream stream = getStream();
+                if (stream == null) {
+                    return;
+                }
+                if (errorCode == REFUSED_STREAM) {
+                    fail(stream, new UnprocessedException("HTTP/2 stream refused"));
+                } else {
+                    fail(stream, new IOException("HTTP/2 stream reset, error code " + errorCode));
+                }
+            } finally {
+                lock.unlock();
+            }
+            closeIfIdle();
+        }
+
+        private void processSettings() throws IOException {
+            if (this.streamId != 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on a stream");
+            }
+            if ((this.flags & FLAG_ACK) != 0) {
+                if (this.length != 0) {
+                    throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+                }
+                return;
+            }
+            if (this.length % 6 != 0) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Invalid SETTINGS length");
+            }
+            writeLock.lock();
+            try {
+                lock.lock();
+                try {
+                    for (int off = 0; off < this.length; off += 6) {
+                        int id = ((this.payload[off] & 0xff) << 8) | (this.payload[off + 1] & 0xff);
+                        applySetting(id, getInt(this.payload, off + 2));
+                    }
+                    settingsReceived = true;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                writeFrame(SETTINGS, FLAG_ACK, 0, this.payload, 0, 0);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Applies a setting of the server. Called under both locks.
+         */
+        private void applySetting(int id, int value) throws ConnectionError {
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "Invalid ENABLE_PUSH");
+                    }
+                    break;
+                case SETTINGS_MAX_CONCURRENT_STREAMS:
+                    maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new ConnectionError(FLOW_CONTROL_ERROR, "Invalid window size");
+                    }
+                    int delta = value - initialWindowSize;
+                    for (Iterator i = streams.values().iterator(); i.hasNext();) {
+                        Stream stream = (Stream) i.next();
+                        if (delta > 0 && stream.sendWindow > MAX_WINDOW_SIZE - delta) {
+                            throw new ConnectionError(FLOW_CONTROL_ERROR, "Window overflow");
+                        }
+                        stream.sendWindow += delta;
+                    }
+                    initialWindowSize = value;
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_FRAME_SIZE || value > 0xffffff) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "Invalid MAX_FRAME_SIZE");
+                    }
+                    maxFrameSize = value;
+                    break;
+                default:
+                    // the peer's SETTINGS_MAX_HEADER_LIST_SIZE is advisory, unknown settings
+                    // are ignored
+                    break;
+            }
+        }
+
+        private void processPing() throws IOException {
+            if (this.streamId != 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "PING on a stream");
+            }
+            if (this.length != 8) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Invalid PING length");
+            }
+            if ((this.flags & FLAG_ACK) != 0) {
+                return;
+            }
+            writeLock.lock();
+            try {
+                writeFrame(PING, FLAG_ACK, 0, this.payload, 0, 8);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void processGoAway() throws IOException {
+            if (this.streamId != 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "GOAWAY on a stream");
+            }
+            if (this.length < 8) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Invalid GOAWAY length");
+            }
+            int lastStreamId = getInt(this.payload, 0) & MAX_STREAM_ID;
+            int errorCode = getInt(this.payload, 4);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("HTTP/2 GOAWAY received, last stream " + lastStreamId
+                    + ", error code " + errorCode);
+            }
+            lock.lock();
+            try {
+                goingAway = true;
+                List pending = new ArrayList(streams.values());
+                for (int i = 0; i < pending.size(); i++) {
+                    Stream stream = (Stream) pending.get(i);
+                    if (stream.id > lastStreamId) {
+                        fail(stream, new UnprocessedException(
+                            "HTTP/2 stream not processed by the server"));
+                    }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            closeIfIdle();
+        }
+
+        private void processWindowUpdate() throws IOException {
+            if (this.length != 4) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE length");
+            }
+            int increment = getInt(this.payload, 0) & MAX_WINDOW_SIZE;
+            int reset = NO_ERROR;
+            lock.lock();
+            try {
+                if (this.streamId == 0) {
+                    if (increment == 0) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "Zero WINDOW_UPDATE");
+                    }
+                    if (sendWindow > MAX_WINDOW_SIZE - increment) {
+                        throw new ConnectionError(FLOW_CONTROL_ERROR, "Window overflow");
+                    }
+                    sendWindow += increment;
+                } else {
+                    Stream stream = getStream();
+                    if (stream == null) {
+                        return;
+                    }
+                    if (increment == 0) {
+                        fail(stream, new ProtocolException("Zero WINDOW_UPDATE"));
+                        reset = PROTOCOL_ERROR;
+                    } else if (stream.sendWindow > MAX_WINDOW_SIZE - increment) {
+                        fail(stream, new ProtocolException("Window overflow"));
+                        reset = FLOW_CONTROL_ERROR;
+                    } else {
+                        stream.sendWindow += increment;
+                    }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (reset != NO_ERROR) {
+                resetStream(this.streamId, reset);
+            }
+        }
+
+        /**
+         * Closes the connection once it is going away and has no more open streams.
+         */
+        private void closeIfIdle() throws IOException {
+            lock.lock();
+            try {
+                if (!goingAway || !streams.isEmpty() || reserved > 0) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            throw new EOFException("HTTP/2 connection has gone away");
+        }
+
+        /**
+         * Sends a GOAWAY frame for a connection error.
+         */
+        private void goAway(int errorCode) {
+            byte[] b = new byte[8];
+            putInt(b, 4, errorCode);
+            writeLock.lock();
+            try {
+                writeFrame(GOAWAY, 0, 0, b, 0, 8);
+                out.flush();
+            } catch (IOException e) {
+                LOG.debug("Failed to send GOAWAY", e);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
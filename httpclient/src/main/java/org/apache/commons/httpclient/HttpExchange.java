@@ -0,0 +1,521 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.params.HttpParamsSnapshot;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.util.EncodingUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sends an {@link HttpRequest} over an {@link HttpConnection} and reads the
+ * {@link HttpResponse}, body included.
+ *
+ * @since 3.1
+ */
+final class HttpExchange {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(HttpExchange.class);
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    private HttpExchange() {
+        super();
+    }
+
+    /**
+     * Executes the request on the given connection, opening it if necessary. An
+     * idempotent request is sent once more on a fresh connection if a reused
+     * connection fails before a response has been received.
+     *
+     * @param conn the connection
+     * @param request the request
+     * @param params the snapshot of the parameters of the request
+     *
+     * @return the response
+     *
+     * @throws IOException if an I/O error occurs or the response is invalid
+     */
+    static HttpResponse execute(final HttpConnection conn, final HttpRequest request,
+        final HttpParamsSnapshot params) throws IOException {
+        boolean reused = conn.isOpen() && !conn.closeIfStale();
+        while (true) {
+            prepare(conn, params);
+            try {
+                writeRequest(conn, request, params);
+                conn.flushRequestOutputStream();
+            } catch (IOException e) {
+                if (reused && request.isIdempotent()) {
+                    LOG.debug("Failed to send the request on a reused connection, retrying", e);
+                    conn.close();
+                    reused = false;
+                    continue;
+                }
+                throw e;
+            }
+            try {
+                return readResponse(conn, request, params);
+            } catch (NoHttpResponseException e) {
+                if (reused && request.isIdempotent()) {
+                    LOG.debug("No response on a reused connection, retrying");
+                    conn.close();
+                    reused = false;
+                    continue;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Opens the connection if it is not open and applies the socket timeout of the
+     * request.
+     *
+     * @param conn the connection
+     * @param params the snapshot of the parameters of the request
+     *
+     * @throws IOException if the connection cannot be opened
+     */
+    static void prepare(final HttpConnection conn, final HttpParamsSnapshot params)
+        throws IOException {
+        if (!conn.isOpen()) {
+            conn.open();
+        }
+        int timeout = params.getSoTimeout();
+        conn.setSocketTimeout(timeout > 0 ? timeout : conn.getParams().getSoTimeout());
+    }
+
+    /**
+     * Writes the request line, the headers and the body of the request. The request
+     * is not flushed, so that several requests may be sent together.
+     *
+     * @param conn the open connection
+     * @param request the request
+     * @param params the snapshot of the parameters of the request
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeRequest(final HttpConnection conn, final HttpRequest request,
+        final HttpParamsSnapshot params) throws IOException {
+        boolean absoluteURI = conn.isProxied() && !conn.isSecure();
+        byte[] head = formatHead(request, params, conn.getProtocol(), conn.getHost(),
+            conn.getPort(), absoluteURI);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending " + request + " to " + conn.getHost());
+        }
+        conn.write(head);
+        byte[] body = request.getBody();
+        if (body != null) {
+            conn.write(body);
+        }
+    }
+
+    /**
+     * Formats the request line and the headers of the request, up to and including
+     * the empty line that ends them.
+     *
+     * @param request the request
+     * @param params the snapshot of the parameters of the request
+     * @param protocol the protocol of the target host
+     * @param host the target host
+     * @param port the port of the target host
+     * @param absoluteURI whether a relative request URI is to be sent in absolute
+     * form, as to a proxy
+     *
+     * @return the request head in US-ASCII
+     */
+    static byte[] formatHead(final HttpRequest request, final HttpParamsSnapshot params,
+        final Protocol protocol, final String host, int port, boolean absoluteURI) {
+        StringBuffer buffer = new StringBuffer(256);
+        buffer.append(request.getMethod());
+        buffer.append(' ');
+        String uri = request.getURI();
+        if (absoluteURI && uri.startsWith("/")) {
+            appendHostURL(buffer, protocol, host, port);
+        }
+        buffer.append(uri);
+        buffer.append(' ');
+        buffer.append(params.getVersion());
+        buffer.append("\r\n");
+        if (request.getFirstHeader("Host") == null) {
+            String virtualHost = (String) params.getParameter(HttpMethodParams.VIRTUAL_HOST);
+            buffer.append("Host: ");
+            buffer.append(virtualHost != null ? virtualHost : host);
+            if (port != protocol.getDefaultPort()) {
+                buffer.append(':');
+                buffer.append(port);
+            }
+            buffer.append("\r\n");
+        }
+        byte[] body = request.getBody();
+        if (body != null && request.getFirstHeader("Content-Length") == null) {
+            buffer.append("Content-Length: ");
+            buffer.append(body.length);
+            buffer.append("\r\n");
+        }
+        Header[] headers = request.getHeaders();
+        for (int i = 0; i < headers.length; i++) {
+            buffer.append(headers[i].getName());
+            buffer.append(": ");
+            buffer.append(headers[i].getValue());
+            buffer.append("\r\n");
+        }
+        buffer.append("\r\n");
+        return EncodingUtil.getAsciiBytes(buffer.toString());
+    }
+
+    private static void appendHostURL(final StringBuffer buffer, final Protocol protocol,
+        final String host, int port) {
+        buffer.append(protocol.getScheme());
+        buffer.append("://");
+        buffer.append(host);
+        if (port != protocol.getDefaultPort()) {
+            buffer.append(':');
+            buffer.append(port);
+        }
+    }
+
+    /**
+     * Reads the response to the request: the status line, the headers and the body.
+     * Interim <tt>1xx</tt> responses other than <tt>101</tt> are skipped.
+     *
+     * @param conn the connection the request was sent on
+     * @param request the request
+     * @param params the snapshot of the parameters of the request
+     *
+     * @return the response
+     *
+     * @throws NoHttpResponseException if the connection is closed before a status
+     * line is received
+     * @throws IOException if an I/O error occurs or the response is invalid
+     */
+    static HttpResponse readResponse(final HttpConnection conn, final HttpRequest request,
+        final HttpParamsSnapshot params) throws IOException {
+        InputStream in = conn.getResponseInputStream();
+        int garbageLimit = params.getIntParameter(
+            HttpMethodParams.STATUS_LINE_GARBAGE_LIMIT, Integer.MAX_VALUE);
+        StatusLine statusLine;
+        Header[] headers;
+        do {
+            statusLine = readStatusLine(in, garbageLimit);
+            headers = readHeaders(in);
+        } while (statusLine.getStatusCode() < 200
+            && statusLine.getStatusCode() != HttpStatus.SC_SWITCHING_PROTOCOLS);
+
+        boolean reusable = isKeepAlive(statusLine, headers);
+        byte[] body;
+        if (!hasBody(request, statusLine)) {
+            body = NO_BODY;
+        } else if (isChunked(headers)) {
+            body = readChunked(in);
+        } else {
+            long length = getContentLength(headers);
+            if (length >= 0) {
+                body = readFully(in, length);
+            } else {
+                body = readToEnd(in);
+                reusable = false;
+            }
+        }
+        return new HttpResponse(statusLine, headers, body, reusable);
+    }
+
+    /**
+     * Tests if the response to the request has a body.
+     *
+     * @param request the request
+     * @param statusLine the status line of the response
+     *
+     * @return <code>false</code> if the response to the request never has a body
+     */
+    static boolean hasBody(final HttpRequest request, final StatusLine statusLine) {
+        int status = statusLine.getStatusCode();
+        return !("HEAD".equalsIgnoreCase(request.getMethod())
+            || status == HttpStatus.SC_NO_CONTENT
+            || status == HttpStatus.SC_NOT_MODIFIED
+            || status < 200);
+    }
+
+    private static StatusLine readStatusLine(final InputStream in, int garbageLimit)
+        throws IOException {
+        int garbage = 0;
+        while (true) {
+            byte[] line = readLine(in);
+            if (line == null) {
+                throw new NoHttpResponseException("The server failed to respond");
+            }
+            if (startsWithHTTP(line)) {
+                return StatusLine.parse(line, 0, line.length);
+            }
+            garbage += line.length + 2;
+            if (garbage > garbageLimit) {
+                throw new LightweightProtocolException(
+                    "The server failed to respond with a valid HTTP response");
+            }
+        }
+    }
+
+    static boolean startsWithHTTP(final byte[] line) {
+        int at = 0;
+        while (at < line.length && (line[at] == ' ' || line[at] == '\t')) {
+            at++;
+        }
+        return line.length - at >= 4 && line[at] == 'H' && line[at + 1] == 'T'
+            && line[at + 2] == 'T' && line[at + 3] == 'P';
+    }
+
+    private static Header[] readHeaders(final InputStream in) throws IOException {
+        List lines = null;
+        while (true) {
+            byte[] line = readLine(in);
+            if (line == null) {
+                throw new LightweightProtocolException("Unexpected end of headers");
+            }
+            if (line.length == 0) {
+                break;
+            }
+            if (lines == null) {
+                lines = new ArrayList();
+            }
+            lines.add(line);
+        }
+        return parseHeaders(lines);
+    }
+
+    /**
+     * Parses header lines, joining continuation lines with the header they continue.
+     *
+     * @param lines the header lines as byte arrays, without terminators, or
+     * <code>null</code> if there are none
+     *
+     * @return the headers
+     *
+     * @throws ProtocolException if a line is not a valid header
+     */
+    static Header[] parseHeaders(final List lines) throws ProtocolException {
+        if (lines == null) {
+            return NO_HEADERS;
+        }
+        List headers = new ArrayList(lines.size());
+        String name = null;
+        StringBuffer value = null;
+        for (int i = 0; i < lines.size(); i++) {
+            byte[] line = (byte[]) lines.get(i);
+            if (line[0] == ' ' || line[0] == '\t') {
+                // a continuation of the previous header
+                if (value != null) {
+                    value.append(' ');
+                    value.append(EncodingUtil.getAsciiString(line).trim());
+                }
+                continue;
+            }
+            if (name != null) {
+                headers.add(new Header(name, value.toString()));
+            }
+            int colon = indexOf(line, ':');
+            if (colon < 0) {
+                throw new LightweightProtocolException("Unable to parse header: "
+                    + EncodingUtil.getAsciiString(line));
+            }
+            name = EncodingUtil.getAsciiString(line, 0, colon).trim();
+            value = new StringBuffer(EncodingUtil.getAsciiString(
+                line, colon + 1, line.length - colon - 1).trim());
+        }
+        if (name != null) {
+            headers.add(new Header(name, value.toString()));
+        }
+        if (headers.isEmpty()) {
+            return NO_HEADERS;
+        }
+        return (Header[]) headers.toArray(new Header[headers.size()]);
+    }
+
+    static boolean isKeepAlive(final StatusLine statusLine, final Header[] headers) {
+        for (int i = headers.length - 1; i >= 0; i--) {
+            if (headers[i].getName().equalsIgnoreCase("Connection")) {
+                String value = headers[i].getValue();
+                if (value.equalsIgnoreCase("close")) {
+                    return false;
+                }
+                if (value.equalsIgnoreCase("keep-alive")) {
+                    return true;
+                }
+            }
+        }
+        return statusLine.getVersion().greaterEquals(HttpVersion.HTTP_1_1);
+    }
+
+    static boolean isChunked(final Header[] headers) {
+        for (int i = headers.length - 1; i >= 0; i--) {
+            if (headers[i].getName().equalsIgnoreCase("Transfer-Encoding")) {
+                String value = headers[i].getValue().trim();
+                return value.regionMatches(true, value.length() - 7, "chunked", 0, 7);
+            }
+        }
+        return false;
+    }
+
+    static long getContentLength(final Header[] headers) throws ProtocolException {
+        for (int i = headers.length - 1; i >= 0; i--) {
+            if (headers[i].getName().equalsIgnoreCase("Content-Length")) {
+                try {
+                    long length = Long.parseLong(headers[i].getValue().trim());
+                    if (length >= 0) {
+                        return length;
+                    }
+                } catch (NumberFormatException e) {
+                    // fall through
+                }
+                throw new LightweightProtocolException("Invalid content length: "
+                    + headers[i].getValue());
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] readChunked(final InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            byte[] line = readLine(in);
+            if (line == null) {
+                throw new LightweightProtocolException("Unexpected end of chunked body");
+            }
+            int size = parseChunkSize(line);
+            if (size == 0) {
+                // the trailers are discarded
+                readHeaders(in);
+                return body.toByteArray();
+            }
+            body.write(readFully(in, size));
+            line = readLine(in);
+            if (line == null || line.length != 0) {
+                throw new LightweightProtocolException("Missing CRLF after chunk data");
+            }
+        }
+    }
+
+    /**
+     * Parses the size of a chunk, ignoring chunk extensions.
+     *
+     * @param line the chunk size line, without terminator
+     *
+     * @return the size of the chunk
+     *
+     * @throws ProtocolException if the size is invalid
+     */
+    static int parseChunkSize(final byte[] line) throws ProtocolException {
+        int end = indexOf(line, ';');
+        if (end < 0) {
+            end = line.length;
+        }
+        int size;
+        try {
+            size = Integer.parseInt(EncodingUtil.getAsciiString(line, 0, end).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new LightweightProtocolException("Invalid chunk size: "
+                + EncodingUtil.getAsciiString(line));
+        }
+        if (size < 0) {
+            throw new LightweightProtocolException("Invalid chunk size: " + size);
+        }
+        return size;
+    }
+
+    private static byte[] readFully(final InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new LightweightProtocolException("Content too large: " + length);
+        }
+        byte[] b = new byte[(int) length];
+        int off = 0;
+        while (off < b.length) {
+            int n = in.read(b, off, b.length - off);
+            if (n == -1) {
+                throw new LightweightProtocolException("Premature end of content: expected "
+                    + length + " bytes, got " + off);
+            }
+            off += n;
+        }
+        return b;
+    }
+
+    private static byte[] readToEnd(final InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        int n;
+        while ((n = in.read(b)) != -1) {
+            body.write(b, 0, n);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Reads a line terminated by LF or CRLF, without the terminator.
+     *
+     * @return the line, or <code>null</code> if the stream ended before any byte
+     */
+    private static byte[] readLine(final InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int ch;
+        while ((ch = in.read()) != -1) {
+            if (ch == '\n') {
+                byte[] b = line.toByteArray();
+                int len = b.length;
+                if (len > 0 && b[len - 1] == '\r') {
+                    byte[] trimmed = new byte[len - 1];
+                    System.arraycopy(b, 0, trimmed, 0, len - 1);
+                    return trimmed;
+                }
+                return b;
+            }
+            line.write(ch);
+        }
+        if (line.size() == 0) {
+            return null;
+        }
+        return line.toByteArray();
+    }
+
+    private static int indexOf(final byte[] b, int ch) {
+        for (int i = 0; i < b.length; i++) {
+            if (b[i] == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -30,12 +30,18 @@
 
 package org.apache.commons.httpclient;
 
+import java.util.Locale;
+
 import org.apache.commons.httpclient.protocol.Protocol;
 import org.apache.commons.httpclient.util.LangUtils;
 
 /**
  * Holds all of the variables needed to describe an HTTP connection to a host. This includes
  * remote host, port and protocol.
+ * <p>
+ * Instances are immutable. The host name is also kept in lower case and the
+ * hash code is computed once, as hosts are used as keys on every request.
+ * </p>
  *
  * @author <a href="mailto:becke@u.washington.edu">Michael Becke</a>
  * @author <a href="mailto:mbowler@GargoyleSoftware.com">Mike Bowler</a>
@@ -47,13 +53,22 @@ import org.apache.commons.httpclient.util.LangUtils;
 public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
 
     /** The host to use. */
-    private String hostname = null;
+    private final String hostname;
+
+    /** The host name in lower case, for comparisons */
+    private final String lcHostname;
 
     /** The port to use. */
-    private int port = -1;
+    private final int port;
 
     /** The protocol */
-    private Protocol protocol = null;
+    private final Protocol protocol;
+
+    /** The precomputed hash code */
+    private final int hash;
+
+    /** The host uri, created when first asked for */
+    private String uri = null;
 
     /**
      * Constructor for HttpHost.
@@ -71,12 +86,19 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
             throw new IllegalArgumentException("Protocol may not be null");
         }
         this.hostname = hostname;
-        this.protocol = protocol;
+        this.lcHostname = hostname.toLowerCase(Locale.ENGLISH);
+        this.protocol = Protocol.getCanonicalProtocol(protocol);
         if (port >= 0) {
             this.port = port;
         } else {
             this.port = this.protocol.getDefaultPort();
         }
+
+        int hash = LangUtils.HASH_SEED;
+        hash = LangUtils.hashCode(hash, this.lcHostname);
+        hash = LangUtils.hashCode(hash, this.port);
+        hash = LangUtils.hashCode(hash, this.protocol);
+        this.hash = hash;
     }
 
     /**
@@ -114,13 +136,12 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
      */
     public HttpHost (final HttpHost httphost) {
         super();
-        init(httphost);
-    }
-
-    private void init(final HttpHost httphost) {
         this.hostname = httphost.hostname;
+        this.lcHostname = httphost.lcHostname;
         this.port = httphost.port;
         this.protocol = httphost.protocol;
+        this.hash = httphost.hash;
+        this.uri = httphost.uri;
     }
 
     /**
@@ -128,9 +149,7 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
      * @see java.lang.Object#clone()
      */
     public Object clone() throws CloneNotSupportedException {
-        HttpHost copy = (HttpHost) super.clone();
-        copy.init(this);
-        return copy;
+        return super.clone();
     }
 
     /**
@@ -142,6 +161,15 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
         return this.hostname;
     }
 
+    /**
+     * Returns the host name in lower case.
+     *
+     * @return the host name in lower case
+     */
+    String getLowerCaseHostName() {
+        return this.lcHostname;
+    }
+
     /**
      * Returns the port.
      *
@@ -165,24 +193,27 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
      * @return The host uri.
      */
     public String toURI() {
-        StringBuffer buffer = new StringBuffer(50);
-        buffer.append(this.protocol.getScheme());
-        buffer.append("://");
-        buffer.append(this.hostname);
-        if (this.port != this.protocol.getDefaultPort()) {
-            buffer.append(':');
-            buffer.append(this.port);
+        String s = this.uri;
+        if (s == null) {
+            StringBuffer buffer = new StringBuffer(50);
+            buffer.append(this.protocol.getScheme());
+            buffer.append("://");
+            buffer.append(this.hostname);
+            if (this.port != this.protocol.getDefaultPort()) {
+                buffer.append(':');
+                buffer.append(this.port);
+            }
+            s = buffer.toString();
+            this.uri = s;
         }
-        return buffer.toString();
+        return s;
     }
 
     /**
      * @see java.lang.Object#toString()
      */
     public String toString() {
-        StringBuffer buffer = new StringBuffer(50);
-        buffer.append(toURI());
-        return buffer.toString();
+        return toURI();
     }
 
     /**
@@ -196,7 +227,10 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
                 return true;
             }
             HttpHost that = (HttpHost) o;
-            if (!this.hostname.equalsIgnoreCase(that.hostname)) {
+            if (this.hash != that.hash) {
+                return false;
+            }
+            if (!this.lcHostname.equals(that.lcHostname)) {
                 return false;
             }
             if (this.port != that.port) {
@@ -216,11 +250,7 @@ public class HttpHost implements Cloneable {  // finish @2014/1/4 22:21
      * @see java.lang.Object#hashCode()
      */
     public int hashCode() {
-        int hash = LangUtils.HASH_SEED;
-        hash = LangUtils.hashCode(hash, this.hostname);
-        hash = LangUtils.hashCode(hash, this.port);
-        hash = LangUtils.hashCode(hash, this.protocol);
-        return hash;
+        return this.hash;
     }
 
 }
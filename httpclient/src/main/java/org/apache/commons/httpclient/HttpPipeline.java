@@ -0,0 +1,375 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.params.HttpParamsSnapshot;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Pipelines the idempotent requests to one route. Requests are queued, and runners
+ * executed by the {@link Executor} each take a batch of up to the
+ * {@link org.apache.commons.httpclient.params.HttpMethodParams#PIPELINE_DEPTH pipeline depth}
+ * requests from the queue, write them on a persistent connection in one go and then
+ * read the responses in order.
+ * <p>
+ * When the connection closes before all responses of a batch have been read, the
+ * unanswered requests are put back at the head of the queue and sent again on a new
+ * connection. A request is only failed once batches in which it was the first
+ * unanswered request have failed {@link #MAX_FAILURES} times.
+ * </p>
+ * <p>
+ * A runner is started when the first request is queued, and another one, up to the
+ * maximum number of connections per host of the connection manager, whenever more
+ * than a batch of requests is waiting. Runners keep their connection until the
+ * queue is empty. A runner that cannot obtain a connection because the connection
+ * manager is shut down, or its thread is interrupted, fails its batch; if it was the
+ * last runner, the queued requests fail as well.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class HttpPipeline {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(HttpPipeline.class);
+
+    /** The number of times a request is sent without any response before it fails */
+    static final int MAX_FAILURES = 3;
+
+    /** The pipeline depth if none is set, as in {@link HttpMethodParams#getPipelineDepth()} */
+    private static final int DEFAULT_PIPELINE_DEPTH = 8;
+
+    /** The host configuration connections are obtained for */
+    private final HostConfiguration hostConfiguration;
+
+    private final HttpConnectionManager connectionManager;
+
+    private final Executor executor;
+
+    /** Guards {@link #queue} and {@link #runners} */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The requests waiting to be sent, in order */
+    private final LinkedList queue = new LinkedList();
+
+    /** The number of runners started and not yet finished */
+    private int runners = 0;
+
+    HttpPipeline(final HostConfiguration hostConfiguration,
+        final HttpConnectionManager connectionManager, final Executor executor) {
+        super();
+        this.hostConfiguration = hostConfiguration;
+        this.connectionManager = connectionManager;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the request, starting a runner if necessary.
+     *
+     * @param request the idempotent request
+     * @param params the snapshot of the parameters of the request
+     * @param future the future to complete with the response
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if a runner is needed
+     * and the executor does not accept it
+     */
+    void submit(final HttpRequest request, final HttpParamsSnapshot params,
+        final ResponseFuture future) {
+        Entry entry = new Entry(request, params, future);
+        int maxRunners = this.connectionManager.getParams().getMaxConnectionsPerHost(
+            this.hostConfiguration);
+        boolean start;
+        this.lock.lock();
+        try {
+            this.queue.addLast(entry);
+            start = this.runners == 0 || (this.runners < maxRunners
+                && this.queue.size() > params.getIntParameter(
+                    HttpMethodParams.PIPELINE_DEPTH, DEFAULT_PIPELINE_DEPTH));
+            if (start) {
+                this.runners++;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (start) {
+            try {
+                this.executor.execute(new Runner());
+            } catch (RuntimeException e) {
+                boolean removed;
+                this.lock.lock();
+                try {
+                    this.runners--;
+                    removed = this.queue.remove(entry);
+                } finally {
+                    this.lock.unlock();
+                }
+                if (removed) {
+                    throw e;
+                }
+                // another runner has taken the request already
+                LOG.debug("Failed to start a pipeline runner", e);
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch of requests from the queue, skipping cancelled ones.
+     *
+     * @return the batch, or <code>null</code> if the queue is empty, in which case
+     * the runner is done
+     */
+    private List take() {
+        this.lock.lock();
+        try {
+            List batch = null;
+            int depth = 0;
+            while (!this.queue.isEmpty()) {
+                Entry entry = (Entry) this.queue.removeFirst();
+                if (entry.future.isCancelled()) {
+                    continue;
+                }
+                if (batch == null) {
+                    depth = entry.params.getIntParameter(HttpMethodParams.PIPELINE_DEPTH,
+                        DEFAULT_PIPELINE_DEPTH);
+                    batch = new ArrayList(Math.min(depth, this.queue.size() + 1));
+                }
+                batch.add(entry);
+                if (batch.size() >= depth) {
+                    break;
+                }
+            }
+            if (batch == null) {
+                this.runners--;
+            }
+            return batch;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the entries of the batch from the given index back at the head of the
+     * queue. If the first of them has failed too often, it is failed instead.
+     *
+     * @param batch the batch
+     * @param from the index of the first unanswered entry
+     * @param cause the reason the entries have not been answered, or <code>null</code>
+     * if the server closed the connection in an orderly manner
+     */
+    private void requeue(final List batch, int from, final IOException cause) {
+        if (from >= batch.size()) {
+            return;
+        }
+        if (cause != null) {
+            Entry first = (Entry) batch.get(from);
+            // only count failures of batches without any progress
+            if (from == 0 && ++first.failures >= MAX_FAILURES) {
+                first.future.setFailure(cause);
+                from++;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending " + (batch.size() - from) + " unanswered requests again");
+        }
+        this.lock.lock();
+        try {
+            this.queue.addAll(0, batch.subList(from, batch.size()));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the batch on the connection and completes the entries with the responses
+     * received, putting the unanswered entries back into the queue.
+     */
+    private void process(final HttpConnection conn, final List batch) {
+        try {
+            if (conn.isOpen()) {
+                conn.closeIfStale();
+            }
+            HttpExchange.prepare(conn, ((Entry) batch.get(0)).params);
+        } catch (IOException e) {
+            // the connection cannot be opened, as for requests that are not pipelined
+            conn.close();
+            fail(batch, e);
+            return;
+        }
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Entry entry = (Entry) batch.get(i);
+                HttpExchange.writeRequest(conn, entry.request, entry.params);
+            }
+            conn.flushRequestOutputStream();
+        } catch (IOException e) {
+            LOG.debug("Failed to send pipelined requests", e);
+            conn.close();
+            requeue(batch, 0, e);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = (Entry) batch.get(i);
+            HttpResponse response;
+            try {
+                response = HttpExchange.readResponse(conn, entry.request, entry.params);
+            } catch (NoHttpResponseException e) {
+                conn.close();
+                requeue(batch, i, e);
+                return;
+            } catch (IOException e) {
+                // the response has been received in part, do not send the request again
+                conn.close();
+                entry.future.setFailure(e);
+                requeue(batch, i + 1, null);
+                return;
+            }
+            entry.future.setResponse(response);
+            if (!response.isReusable()) {
+                conn.close();
+                requeue(batch, i + 1, null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fails the entries of the batch that are not complete yet.
+     */
+    private static void fail(final List batch, final Exception cause) {
+        for (int i = 0; i < batch.size(); i++) {
+            ((Entry) batch.get(i)).future.setFailure(cause);
+        }
+    }
+
+    /**
+     * Called when a runner stops before the queue is empty. Fails the batch it was
+     * processing and, if no other runner is left to send them, the queued requests.
+     *
+     * @param batch the batch being processed, or <code>null</code>
+     * @param cause the reason the runner stopped
+     */
+    private void stopped(final List batch, final Exception cause) {
+        List orphans = null;
+        this.lock.lock();
+        try {
+            this.runners--;
+            if (this.runners == 0 && !this.queue.isEmpty()) {
+                orphans = new ArrayList(this.queue);
+                this.queue.clear();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (batch != null) {
+            fail(batch, cause);
+        }
+        if (orphans != null) {
+            fail(orphans, cause);
+        }
+    }
+
+    /**
+     * Sends batches of requests on one connection until the queue is empty.
+     */
+    private class Runner implements Runnable {
+
+        public void run() {
+            HttpConnection conn = null;
+            List batch = null;
+            Exception failure = null;
+            boolean finished = false;
+            try {
+                while ((batch = take()) != null) {
+                    if (conn == null) {
+                        long timeout = ((Entry) batch.get(0)).params.getLongParameter(
+                            HttpClientParams.CONNECTION_MANAGER_TIMEOUT, 0);
+                        try {
+                            conn = connectionManager.getConnectionWithTimeout(
+                                hostConfiguration, timeout);
+                        } catch (ConnectionPoolTimeoutException e) {
+                            fail(batch, e);
+                            continue;
+                        } catch (RuntimeException e) {
+                            // the connection manager is shut down or the thread interrupted
+                            LOG.debug("Failed to obtain a connection for pipelined requests", e);
+                            failure = e;
+                            return;
+                        }
+                    }
+                    try {
+                        process(conn, batch);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unexpected failure of pipelined requests", e);
+                        conn.close();
+                        fail(batch, e);
+                    }
+                }
+                finished = true;
+            } finally {
+                if (conn != null) {
+                    conn.releaseConnection();
+                }
+                if (!finished) {
+                    stopped(batch, failure != null
+                        ? failure : new IllegalStateException("Pipeline runner failed"));
+                }
+            }
+        }
+    }
+
+    /**
+     * A queued request and its future.
+     */
+    private static final class Entry {
+
+        final HttpRequest request;
+
+        final HttpParamsSnapshot params;
+
+        final ResponseFuture future;
+
+        /** The number of batches that failed with this request as first unanswered one */
+        int failures = 0;
+
+        Entry(final HttpRequest request, final HttpParamsSnapshot params,
+            final ResponseFuture future) {
+            this.request = request;
+            this.params = params;
+            this.future = future;
+        }
+    }
+}
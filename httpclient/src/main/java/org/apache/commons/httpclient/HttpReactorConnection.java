@@ -0,0 +1,646 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.nio.IOEventHandler;
+import org.apache.commons.httpclient.nio.IOSession;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.params.HttpParamsSnapshot;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The HTTP/1.1 codec of a connection opened by an
+ * {@link org.apache.commons.httpclient.nio.IOReactor}. Requests are sent one at a
+ * time; the request is written as soon as it is {@link #send(Exchange, boolean) sent},
+ * and the response is parsed as its input arrives, without a thread waiting for it.
+ * Once the response has been received completely, the future of the request is
+ * completed on the I/O thread, and the connection is returned to its
+ * {@link HttpReactorPool pool} if it can be kept alive.
+ * <p>
+ * Responses are parsed as by {@link HttpExchange}: interim <tt>1xx</tt> responses
+ * other than <tt>101</tt> are skipped, and bodies delimited by their length, by
+ * chunked encoding or by the end of the connection are read completely.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class HttpReactorConnection implements IOEventHandler {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(HttpReactorConnection.class);
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    // the states of the response parser
+
+    private static final int STATUS_LINE = 0;
+
+    private static final int HEADERS = 1;
+
+    private static final int BODY = 2;
+
+    private static final int CHUNK_SIZE = 3;
+
+    private static final int CHUNK_DATA = 4;
+
+    private static final int CHUNK_END = 5;
+
+    private static final int TRAILERS = 6;
+
+    private static final int BODY_TO_END = 7;
+
+    /** The pool this connection is returned to */
+    private final HttpReactorPool pool;
+
+    /** The route of this connection */
+    private final HostConfiguration hostConfiguration;
+
+    /** Guards {@link #exchange} */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The exchange in progress, or <code>null</code> if the connection is idle */
+    private Exchange exchange = null;
+
+    /** The session of this connection */
+    private volatile IOSession session = null;
+
+    /** Why the session failed, if it did */
+    private volatile IOException failure = null;
+
+    HttpReactorConnection(final HttpReactorPool pool,
+        final HostConfiguration hostConfiguration) {
+        super();
+        this.pool = pool;
+        this.hostConfiguration = hostConfiguration;
+    }
+
+    HostConfiguration getHostConfiguration() {
+        return this.hostConfiguration;
+    }
+
+    IOSession getSession() {
+        return this.session;
+    }
+
+    void setSession(final IOSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Writes the request of the exchange. A request that has been aborted already is
+     * not written, and the connection is returned to the pool.
+     *
+     * @param ex the exchange
+     * @param reused whether the connection has been taken from the pool
+     *
+     * @return <code>false</code> if the connection has been reused and turns out to
+     * be closed, in which case the exchange has not been started
+     */
+    boolean send(final Exchange ex, boolean reused) {
+        ex.reset(reused);
+        this.lock.lock();
+        try {
+            this.exchange = ex;
+        } finally {
+            this.lock.unlock();
+        }
+        if (!ex.attach(this)) {
+            if (takeExchange(ex)) {
+                this.pool.release(this);
+            }
+            return true;
+        }
+        IOSession s = this.session;
+        int timeout = ex.params.getSoTimeout();
+        s.setSocketTimeout(timeout > 0
+            ? timeout : this.pool.getReactor().getParams().getSoTimeout());
+        HostConfiguration route = this.hostConfiguration;
+        byte[] head = HttpExchange.formatHead(ex.request, ex.params, route.getProtocol(),
+            route.getHost(), route.getPort(), route.getProxyHost() != null);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending " + ex.request + " to " + route.getHost());
+        }
+        try {
+            s.write(ByteBuffer.wrap(head));
+            byte[] body = ex.request.getBody();
+            if (body != null && body.length > 0) {
+                s.write(ByteBuffer.wrap(body));
+            }
+        } catch (IOException e) {
+            // the session has been closed
+            if (takeExchange(ex)) {
+                ex.detach();
+                if (reused) {
+                    return false;
+                }
+                ex.fail(this.failure != null ? this.failure : e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the connection if the exchange is in progress on it.
+     */
+    void abort(final Exchange ex) {
+        boolean current;
+        this.lock.lock();
+        try {
+            current = this.exchange == ex;
+        } finally {
+            this.lock.unlock();
+        }
+        if (current) {
+            LOG.debug("Aborting request, closing connection");
+            this.session.close();
+        }
+    }
+
+    /**
+     * Closes the connection if it is idle.
+     */
+    void closeIfIdle() {
+        boolean idle;
+        this.lock.lock();
+        try {
+            idle = this.exchange == null;
+        } finally {
+            this.lock.unlock();
+        }
+        if (idle) {
+            this.session.close();
+        }
+    }
+
+    private Exchange getExchange() {
+        this.lock.lock();
+        try {
+            return this.exchange;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the given exchange on this connection, unless it has been ended already.
+     *
+     * @return <code>true</code> if the caller has ended the exchange and is to
+     * complete it
+     */
+    private boolean takeExchange(final Exchange ex) {
+        this.lock.lock();
+        try {
+            if (this.exchange != ex) {
+                return false;
+            }
+            this.exchange = null;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Exchange takeExchange() {
+        this.lock.lock();
+        try {
+            Exchange ex = this.exchange;
+            this.exchange = null;
+            return ex;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void connected(final IOSession session) {
+        LOG.debug("Connected");
+    }
+
+    public void inputReady(final IOSession session, final ByteBuffer src) throws IOException {
+        Exchange ex = getExchange();
+        if (ex == null) {
+            LOG.debug("Unexpected input on an idle connection, closing it");
+            src.position(src.limit());
+            session.close();
+            return;
+        }
+        HttpResponse response = ex.parse(src);
+        if (response == null || !takeExchange(ex)) {
+            return;
+        }
+        ex.detach();
+        if (response.isReusable() && !src.hasRemaining()) {
+            this.pool.release(this);
+        } else {
+            src.position(src.limit());
+            session.close();
+        }
+        ex.future.setResponse(response);
+    }
+
+    public void outputReady(final IOSession session) {
+    }
+
+    public void timeout(final IOSession session) throws IOException {
+        if (getExchange() == null) {
+            LOG.debug("Idle connection timed out, closing it");
+            session.close();
+            return;
+        }
+        throw new SocketTimeoutException("Read timed out");
+    }
+
+    public void failed(final IOSession session, final IOException cause) {
+        this.failure = cause;
+        Exchange ex = takeExchange();
+        if (ex != null) {
+            lost(ex, cause);
+        }
+    }
+
+    public void closed(final IOSession session) {
+        this.pool.remove(this);
+        Exchange ex = takeExchange();
+        if (ex != null) {
+            lost(ex, null);
+        }
+    }
+
+    /**
+     * Completes an exchange whose connection has been closed.
+     *
+     * @param ex the exchange
+     * @param cause the failure, or <code>null</code> if the connection has been closed
+     */
+    private void lost(final Exchange ex, final IOException cause) {
+        ex.detach();
+        if (ex.isAborted()) {
+            return;
+        }
+        if (cause == null && ex.state == BODY_TO_END) {
+            ex.future.setResponse(ex.toResponse(ex.content.toByteArray(), false));
+            return;
+        }
+        if (!ex.received && ex.reused && ex.request.isIdempotent()) {
+            LOG.debug("No response on a reused connection, retrying", cause);
+            try {
+                this.pool.execute(ex, true);
+            } catch (RuntimeException e) {
+                ex.fail(e);
+            }
+            return;
+        }
+        if (cause != null) {
+            ex.fail(cause);
+        } else if (!ex.received) {
+            ex.fail(new NoHttpResponseException("The server failed to respond"));
+        } else {
+            ex.fail(new LightweightProtocolException(
+                "Connection closed before the response was complete"));
+        }
+    }
+
+    /**
+     * A request executed on reactor connections, and the state of the parser of its
+     * response. The parser state is confined to the I/O thread of the connection
+     * the request is sent on.
+     */
+    static final class Exchange {
+
+        final HostConfiguration hostConfiguration;
+
+        final HttpRequest request;
+
+        final HttpParamsSnapshot params;
+
+        final ResponseFuture future;
+
+        /** Guards {@link #connection} and {@link #aborted} */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** The connection the request is sent on, if any */
+        private HttpReactorConnection connection = null;
+
+        /** Whether the request has been aborted */
+        private boolean aborted = false;
+
+        /** Whether the request has been sent on a reused connection */
+        private boolean reused;
+
+        /** Whether any response input has been received */
+        private boolean received;
+
+        private int state;
+
+        private int garbage;
+
+        private ByteArrayOutputStream line;
+
+        private StatusLine statusLine;
+
+        private List headerLines;
+
+        private Header[] headers;
+
+        private byte[] body;
+
+        private int offset;
+
+        private int chunkRemaining;
+
+        private ByteArrayOutputStream content;
+
+        Exchange(final HostConfiguration hostConfiguration, final HttpRequest request,
+            final HttpParamsSnapshot params, final ResponseCallback callback) {
+            super();
+            this.hostConfiguration = hostConfiguration;
+            this.request = request;
+            this.params = params;
+            this.future = new ResponseFuture(callback) {
+                protected void aborted() {
+                    abort();
+                }
+            };
+        }
+
+        /**
+         * Resets the parser before the request is sent.
+         */
+        void reset(boolean reused) {
+            this.reused = reused;
+            this.received = false;
+            this.state = STATUS_LINE;
+            this.garbage = 0;
+            this.line = new ByteArrayOutputStream(64);
+            this.statusLine = null;
+            this.headerLines = null;
+            this.headers = null;
+            this.body = null;
+            this.offset = 0;
+            this.chunkRemaining = 0;
+            this.content = null;
+        }
+
+        /**
+         * @return <code>false</code> if the request has been aborted
+         */
+        boolean attach(final HttpReactorConnection conn) {
+            this.lock.lock();
+            try {
+                if (this.aborted) {
+                    return false;
+                }
+                this.connection = conn;
+                return true;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void detach() {
+            this.lock.lock();
+            try {
+                this.connection = null;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        boolean isAborted() {
+            this.lock.lock();
+            try {
+                return this.aborted;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void abort() {
+            HttpReactorConnection conn;
+            this.lock.lock();
+            try {
+                this.aborted = true;
+                conn = this.connection;
+            } finally {
+                this.lock.unlock();
+            }
+            if (conn != null) {
+                conn.abort(this);
+            }
+        }
+
+        void fail(final Exception cause) {
+            this.future.setFailure(cause);
+        }
+
+        /**
+         * Consumes response input.
+         *
+         * @return the response once it is complete, otherwise <code>null</code>
+         *
+         * @throws IOException if the response is invalid
+         */
+        HttpResponse parse(final ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                this.received = true;
+                byte[] b;
+                switch (this.state) {
+                case STATUS_LINE:
+                    b = readLine(src);
+                    if (b == null) {
+                        return null;
+                    }
+                    if (HttpExchange.startsWithHTTP(b)) {
+                        this.statusLine = StatusLine.parse(b, 0, b.length);
+                        this.state = HEADERS;
+                    } else {
+                        this.garbage += b.length + 2;
+                        if (this.garbage > this.params.getIntParameter(
+                            HttpMethodParams.STATUS_LINE_GARBAGE_LIMIT, Integer.MAX_VALUE)) {
+                            throw new LightweightProtocolException(
+                                "The server failed to respond with a valid HTTP response");
+                        }
+                    }
+                    break;
+                case HEADERS:
+                    b = readLine(src);
+                    if (b == null) {
+                        return null;
+                    }
+                    if (b.length > 0) {
+                        if (this.headerLines == null) {
+                            this.headerLines = new ArrayList();
+                        }
+                        this.headerLines.add(b);
+                        break;
+                    }
+                    this.headers = HttpExchange.parseHeaders(this.headerLines);
+                    this.headerLines = null;
+                    HttpResponse response = startBody();
+                    if (response != null) {
+                        return response;
+                    }
+                    break;
+                case BODY:
+                    int n = Math.min(src.remaining(), this.body.length - this.offset);
+                    src.get(this.body, this.offset, n);
+                    this.offset += n;
+                    if (this.offset == this.body.length) {
+                        return toResponse(this.body, true);
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    b = readLine(src);
+                    if (b == null) {
+                        return null;
+                    }
+                    this.chunkRemaining = HttpExchange.parseChunkSize(b);
+                    this.state = this.chunkRemaining == 0 ? TRAILERS : CHUNK_DATA;
+                    break;
+                case CHUNK_DATA:
+                    n = Math.min(src.remaining(), this.chunkRemaining);
+                    copy(src, n);
+                    this.chunkRemaining -= n;
+                    if (this.chunkRemaining == 0) {
+                        this.state = CHUNK_END;
+                    }
+                    break;
+                case CHUNK_END:
+                    b = readLine(src);
+                    if (b == null) {
+                        return null;
+                    }
+                    if (b.length != 0) {
+                        throw new LightweightProtocolException("Missing CRLF after chunk data");
+                    }
+                    this.state = CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    // the trailers are discarded
+                    b = readLine(src);
+                    if (b == null) {
+                        return null;
+                    }
+                    if (b.length == 0) {
+                        return toResponse(this.content.toByteArray(), true);
+                    }
+                    break;
+                default:
+                    copy(src, src.remaining());
+                    break;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Decides how the body is delimited once the headers have been parsed.
+         *
+         * @return the response if it has no body, otherwise <code>null</code>
+         */
+        private HttpResponse startBody() throws ProtocolException {
+            int status = this.statusLine.getStatusCode();
+            if (status < 200 && status != HttpStatus.SC_SWITCHING_PROTOCOLS) {
+                // an interim response
+                this.state = STATUS_LINE;
+                return null;
+            }
+            if (!HttpExchange.hasBody(this.request, this.statusLine)) {
+                return toResponse(NO_BODY, true);
+            }
+            if (HttpExchange.isChunked(this.headers)) {
+                this.content = new ByteArrayOutputStream();
+                this.state = CHUNK_SIZE;
+                return null;
+            }
+            long length = HttpExchange.getContentLength(this.headers);
+            if (length < 0) {
+                this.content = new ByteArrayOutputStream();
+                this.state = BODY_TO_END;
+                return null;
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new LightweightProtocolException("Content too large: " + length);
+            }
+            if (length == 0) {
+                return toResponse(NO_BODY, true);
+            }
+            this.body = new byte[(int) length];
+            this.state = BODY;
+            return null;
+        }
+
+        HttpResponse toResponse(final byte[] b, boolean delimited) {
+            boolean reusable = delimited
+                && HttpExchange.isKeepAlive(this.statusLine, this.headers);
+            return new HttpResponse(this.statusLine, this.headers, b, reusable);
+        }
+
+        private void copy(final ByteBuffer src, int n) {
+            if (src.hasArray()) {
+                this.content.write(src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.position() + n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    this.content.write(src.get());
+                }
+            }
+        }
+
+        /**
+         * Reads a line terminated by LF or CRLF, without the terminator.
+         *
+         * @return the line, or <code>null</code> if it is not complete yet
+         */
+        private byte[] readLine(final ByteBuffer src) {
+            while (src.hasRemaining()) {
+                byte ch = src.get();
+                if (ch == '\n') {
+                    byte[] b = this.line.toByteArray();
+                    this.line.reset();
+                    int len = b.length;
+                    if (len > 0 && b[len - 1] == '\r') {
+                        byte[] trimmed = new byte[len - 1];
+                        System.arraycopy(b, 0, trimmed, 0, len - 1);
+                        return trimmed;
+                    }
+                    return b;
+                }
+                this.line.write(ch);
+            }
+            return null;
+        }
+    }
+}
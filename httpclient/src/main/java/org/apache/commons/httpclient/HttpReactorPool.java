@@ -0,0 +1,162 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.httpclient.nio.IOReactor;
+import org.apache.commons.httpclient.params.HttpParamsSnapshot;
+
+/**
+ * Executes requests on {@link HttpReactorConnection connections} of an
+ * {@link IOReactor}, keeping the connections that may be reused per route.
+ * <p>
+ * A request is sent on an idle connection of its route if there is one, otherwise
+ * on a new connection. The number of connections is not limited: each request in
+ * progress has its own connection, which costs a socket and a few buffers, but no
+ * thread. Idle connections are closed when the server closes them or their socket
+ * timeout expires.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class HttpReactorPool {
+
+    private final IOReactor reactor;
+
+    /** The queues of idle connections, by {@link RouteKey route} */
+    private final ConcurrentHashMap idle = new ConcurrentHashMap();
+
+    private volatile boolean shutdown = false;
+
+    HttpReactorPool(final IOReactor reactor) {
+        super();
+        this.reactor = reactor;
+    }
+
+    IOReactor getReactor() {
+        return this.reactor;
+    }
+
+    /**
+     * Executes the request.
+     *
+     * @param hostConfiguration the route of the request
+     * @param request the request
+     * @param params the snapshot of the parameters of the request
+     * @param callback the callback, or <code>null</code>
+     *
+     * @return the future response
+     *
+     * @throws IllegalStateException if the reactor has been shut down
+     */
+    ResponseFuture submit(final HostConfiguration hostConfiguration,
+        final HttpRequest request, final HttpParamsSnapshot params,
+        final ResponseCallback callback) {
+        HttpReactorConnection.Exchange ex = new HttpReactorConnection.Exchange(
+            hostConfiguration, request, params, callback);
+        execute(ex, false);
+        return ex.future;
+    }
+
+    /**
+     * Sends the request of the exchange on an idle or a new connection.
+     *
+     * @param ex the exchange
+     * @param fresh whether a new connection must be used
+     *
+     * @throws IllegalStateException if the reactor has been shut down
+     */
+    void execute(final HttpReactorConnection.Exchange ex, boolean fresh) {
+        if (!fresh) {
+            ConcurrentLinkedQueue queue = (ConcurrentLinkedQueue) this.idle.get(
+                ex.hostConfiguration.getRouteKey());
+            HttpReactorConnection conn;
+            while (queue != null
+                && (conn = (HttpReactorConnection) queue.poll()) != null) {
+                if (conn.getSession().isOpen() && conn.send(ex, true)) {
+                    return;
+                }
+            }
+        }
+        HttpReactorConnection conn = new HttpReactorConnection(this, ex.hostConfiguration);
+        conn.setSession(this.reactor.connect(ex.hostConfiguration, conn, null));
+        conn.send(ex, false);
+    }
+
+    /**
+     * Returns a connection whose response has been received completely.
+     */
+    void release(final HttpReactorConnection conn) {
+        if (this.shutdown) {
+            conn.closeIfIdle();
+            return;
+        }
+        RouteKey route = conn.getHostConfiguration().getRouteKey();
+        ConcurrentLinkedQueue queue = (ConcurrentLinkedQueue) this.idle.get(route);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue();
+            ConcurrentLinkedQueue existing =
+                (ConcurrentLinkedQueue) this.idle.putIfAbsent(route, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        queue.add(conn);
+        if (this.shutdown && queue.remove(conn)) {
+            conn.closeIfIdle();
+        }
+    }
+
+    /**
+     * Forgets a connection that has been closed.
+     */
+    void remove(final HttpReactorConnection conn) {
+        ConcurrentLinkedQueue queue = (ConcurrentLinkedQueue) this.idle.get(
+            conn.getHostConfiguration().getRouteKey());
+        if (queue != null) {
+            queue.remove(conn);
+        }
+    }
+
+    /**
+     * Closes the idle connections. Connections still in use are closed when their
+     * response has been received.
+     */
+    void shutdown() {
+        this.shutdown = true;
+        for (Iterator i = this.idle.values().iterator(); i.hasNext();) {
+            ConcurrentLinkedQueue queue = (ConcurrentLinkedQueue) i.next();
+            HttpReactorConnection conn;
+            while ((conn = (HttpReactorConnection) queue.poll()) != null) {
+                conn.closeIfIdle();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.httpclient.params.HttpMethodParams;
+
+/**
+ * A request to be executed by an {@link AsyncHttpExecutor}: the method, the
+ * request URI, the headers and an optional body. The <tt>Host</tt> header and, for
+ * a body, the <tt>Content-Length</tt> header are added when the request is sent,
+ * unless they are set.
+ *
+ * @since 3.1
+ */
+public class HttpRequest {
+
+    /** The request methods that are idempotent, see RFC 2616 section 9.1.2 */
+    private static final String[] IDEMPOTENT_METHODS = {
+        "GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"
+    };
+
+    /** The request method */
+    private final String method;
+
+    /** The request URI */
+    private final String uri;
+
+    /** The request headers */
+    private final List headers = new ArrayList();
+
+    /** The request body, or <code>null</code> */
+    private byte[] body = null;
+
+    /** The parameters of this request */
+    private HttpMethodParams params = new HttpMethodParams();
+
+    /**
+     * Creates a request.
+     *
+     * @param method the request method, such as <tt>GET</tt>
+     * @param uri the request URI, such as <tt>/index.html?q=1</tt>. It is made
+     * absolute when the request is sent to a proxy.
+     */
+    public HttpRequest(final String method, final String uri) {
+        super();
+        if (method == null) {
+            throw new IllegalArgumentException("Method may not be null");
+        }
+        if (uri == null) {
+            throw new IllegalArgumentException("URI may not be null");
+        }
+        this.method = method;
+        this.uri = uri;
+    }
+
+    /**
+     * Returns the request method.
+     *
+     * @return the method
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the request URI.
+     *
+     * @return the URI
+     */
+    public String getURI() {
+        return this.uri;
+    }
+
+    /**
+     * Tests if the request method is idempotent, so that the request may be sent
+     * again when no response has been received.
+     *
+     * @return <code>true</code> for <tt>GET</tt>, <tt>HEAD</tt>, <tt>PUT</tt>,
+     * <tt>DELETE</tt>, <tt>OPTIONS</tt> and <tt>TRACE</tt>
+     */
+    public boolean isIdempotent() {
+        for (int i = 0; i < IDEMPOTENT_METHODS.length; i++) {
+            if (IDEMPOTENT_METHODS[i].equalsIgnoreCase(this.method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a header.
+     *
+     * @param name the header name
+     * @param value the header value
+     */
+    public void addHeader(final String name, final String value) {
+        this.headers.add(new Header(name, value));
+    }
+
+    /**
+     * Sets a header, replacing all headers of the same name.
+     *
+     * @param name the header name
+     * @param value the header value
+     */
+    public void setHeader(final String name, final String value) {
+        removeHeaders(name);
+        addHeader(name, value);
+    }
+
+    /**
+     * Removes all headers of the given name.
+     *
+     * @param name the header name
+     */
+    public void removeHeaders(final String name) {
+        Iterator iter = this.headers.iterator();
+        while (iter.hasNext()) {
+            if (((Header) iter.next()).getName().equalsIgnoreCase(name)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the first header of the given name.
+     *
+     * @param name the header name
+     *
+     * @return the header, or <code>null</code> if there is none
+     */
+    public Header getFirstHeader(final String name) {
+        for (int i = 0; i < this.headers.size(); i++) {
+            Header header = (Header) this.headers.get(i);
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all headers, in the order they were added.
+     *
+     * @return the headers
+     */
+    public Header[] getHeaders() {
+        return (Header[]) this.headers.toArray(new Header[this.headers.size()]);
+    }
+
+    /**
+     * Returns the request body.
+     *
+     * @return the body, or <code>null</code> if there is none
+     */
+    public byte[] getBody() {
+        return this.body;
+    }
+
+    /**
+     * Sets the request body. The array is not copied.
+     *
+     * @param body the body, or <code>null</code> for none
+     */
+    public void setBody(final byte[] body) {
+        this.body = body;
+    }
+
+    /**
+     * Returns the parameters of this request.
+     *
+     * @return the parameters
+     */
+    public HttpMethodParams getParams() {
+        return this.params;
+    }
+
+    /**
+     * Sets the parameters of this request.
+     *
+     * @param params the parameters
+     */
+    public void setParams(final HttpMethodParams params) {
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+        this.params = params;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return this.method + " " + this.uri;
+    }
+}
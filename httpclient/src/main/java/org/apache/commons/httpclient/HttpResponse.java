@@ -0,0 +1,183 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A response received for an {@link HttpRequest}: the status line, the headers
+ * and the body.
+ *
+ * @since 3.1
+ */
+public class HttpResponse {
+
+    private static final Header[] EMPTY = new Header[0];
+
+    /** The status line */
+    private final StatusLine statusLine;
+
+    /** The response headers */
+    private final Header[] headers;
+
+    /** The response body */
+    private final byte[] body;
+
+    /** Whether the connection the response was received on may be reused */
+    private final boolean reusable;
+
+    HttpResponse(final StatusLine statusLine, final Header[] headers, final byte[] body,
+        boolean reusable) {
+        super();
+        this.statusLine = statusLine;
+        this.headers = headers;
+        this.body = body;
+        this.reusable = reusable;
+    }
+
+    /**
+     * Returns the status line.
+     *
+     * @return the status line
+     */
+    public StatusLine getStatusLine() {
+        return this.statusLine;
+    }
+
+    /**
+     * Returns the status code.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return this.statusLine.getStatusCode();
+    }
+
+    /**
+     * Returns all headers, in the order they were received.
+     *
+     * @return the headers
+     */
+    public Header[] getHeaders() {
+        return (Header[]) this.headers.clone();
+    }
+
+    /**
+     * Returns the headers of the given name, in the order they were received.
+     *
+     * @param name the header name
+     *
+     * @return the headers, possibly none
+     */
+    public Header[] getHeaders(final String name) {
+        int count = 0;
+        for (int i = 0; i < this.headers.length; i++) {
+            if (this.headers[i].getName().equalsIgnoreCase(name)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        Header[] matches = new Header[count];
+        count = 0;
+        for (int i = 0; i < this.headers.length; i++) {
+            if (this.headers[i].getName().equalsIgnoreCase(name)) {
+                matches[count++] = this.headers[i];
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the first header of the given name.
+     *
+     * @param name the header name
+     *
+     * @return the header, or <code>null</code> if there is none
+     */
+    public Header getFirstHeader(final String name) {
+        for (int i = 0; i < this.headers.length; i++) {
+            if (this.headers[i].getName().equalsIgnoreCase(name)) {
+                return this.headers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the last header of the given name.
+     *
+     * @param name the header name
+     *
+     * @return the header, or <code>null</code> if there is none
+     */
+    public Header getLastHeader(final String name) {
+        for (int i = this.headers.length - 1; i >= 0; i--) {
+            if (this.headers[i].getName().equalsIgnoreCase(name)) {
+                return this.headers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the response body. The array is not copied.
+     *
+     * @return the body, empty if the response has none
+     */
+    public byte[] getBody() {
+        return this.body;
+    }
+
+    /**
+     * Returns the response body decoded with the given charset.
+     *
+     * @param charset the charset of the body
+     *
+     * @return the body
+     *
+     * @throws UnsupportedEncodingException if the charset is not supported
+     */
+    public String getBodyAsString(final String charset) throws UnsupportedEncodingException {
+        return new String(this.body, charset);
+    }
+
+    /**
+     * Tests if the connection the response was received on may be reused.
+     */
+    boolean isReusable() {
+        return this.reusable;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return this.statusLine.toString();
+    }
+}
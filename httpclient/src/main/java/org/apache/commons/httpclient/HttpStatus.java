@@ -30,10 +30,17 @@
 
 package org.apache.commons.httpclient;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.util.EncodingUtil;
+
 /**
  * Constants enumerating the HTTP status codes.
  * All status codes defined in RFC1945 (HTTP/1.0, RFC2616 (HTTP/1.1), and
- * RFC2518 (WebDAV) are supported.
+ * RFC2518 (WebDAV) are supported, as well as those registered since.
+ * Reason phrases and status classes are kept in tables indexed by status
+ * code, so looking them up is a bounds check and an array read.
  *
  * @see StatusLine
  * @author Unascribed
@@ -49,15 +56,23 @@ public class HttpStatus {
 
     // -------------------------------------------------------- Class Variables
 
-    /** Reason phrases lookup table. */
-    private static final String[][] REASON_PHRASES = new String[][]{
-            new String[0],
-            new String[3],
-            new String[8],
-            new String[8],
-            new String[25],
-            new String[8]
-    };
+    /** The lowest status code in the lookup tables */
+    private static final int MIN_STATUS_CODE = 100;
+
+    /** The highest status code in the lookup tables */
+    private static final int MAX_STATUS_CODE = 599;
+
+    /** Reason phrases lookup table, indexed by status code less 100. */
+    private static final String[] REASON_PHRASES =
+        new String[MAX_STATUS_CODE - MIN_STATUS_CODE + 1];
+
+    /** US-ASCII encoded reason phrases, indexed like {@link #REASON_PHRASES}. */
+    private static final byte[][] REASON_PHRASE_BYTES =
+        new byte[REASON_PHRASES.length][];
+
+    /** Status classes lookup table, indexed like {@link #REASON_PHRASES}. */
+    private static final StatusClass[] STATUS_CLASSES =
+        new StatusClass[REASON_PHRASES.length];
 
 
     // --------------------------------------------------------- Public Methods
@@ -79,13 +94,64 @@ public class HttpStatus {
         if (statusCode < 0) {
             throw new IllegalArgumentException("status code may not be negative");
         }
-        int classIndex = statusCode / 100;
-        int codeIndex = statusCode - classIndex * 100;
-        if (classIndex < 1 || classIndex > (REASON_PHRASES.length - 1)
-            || codeIndex < 0 || codeIndex > (REASON_PHRASES[classIndex].length - 1)) {
+        int index = statusCode - MIN_STATUS_CODE;
+        if (index < 0 || index >= REASON_PHRASES.length) {
+            return null;
+        }
+        return REASON_PHRASES[index];
+    }
+
+    /**
+     * Writes the US-ASCII encoded reason phrase for a particular status code
+     * to the given stream. The encoding is done once, when this class is
+     * loaded.
+     *
+     * @param statusCode the numeric status code
+     * @param out the stream to write to
+     * @return <tt>true</tt> if the reason phrase was written, <tt>false</tt>
+     * if the status code is not recognized.
+     *
+     * @throws IOException if an I/O error occurs
+     *
+     * @since 3.1
+     */
+    public static boolean writeStatusText(int statusCode, final OutputStream out)
+        throws IOException {
+        byte[] b = getStatusTextBytes(statusCode);
+        if (b == null) {
+            return false;
+        }
+        out.write(b);
+        return true;
+    }
+
+    /**
+     * Gets the class of a particular status code.
+     *
+     * @param statusCode the numeric status code
+     * @return the class of the status code, or null if the status code is
+     * not in the range 100 to 599.
+     *
+     * @since 3.1
+     */
+    public static StatusClass getStatusClass(int statusCode) {
+        int index = statusCode - MIN_STATUS_CODE;
+        if (index < 0 || index >= STATUS_CLASSES.length) {
+            return null;
+        }
+        return STATUS_CLASSES[index];
+    }
+
+    /**
+     * Returns the shared, US-ASCII encoded reason phrase for a particular
+     * status code. The array must not be modified.
+     */
+    static byte[] getStatusTextBytes(int statusCode) {
+        int index = statusCode - MIN_STATUS_CODE;
+        if (index < 0 || index >= REASON_PHRASE_BYTES.length) {
             return null;
         }
-        return REASON_PHRASES[classIndex][codeIndex];
+        return REASON_PHRASE_BYTES[index];
     }
 
 
@@ -97,8 +163,7 @@ public class HttpStatus {
      * @param reasonPhrase The reason phrase for this status code
      */
     private static void addStatusCodeMap(int statusCode, String reasonPhrase) {
-        int classIndex = statusCode / 100;
-        REASON_PHRASES[classIndex][statusCode - classIndex * 100] = reasonPhrase;
+        REASON_PHRASES[statusCode - MIN_STATUS_CODE] = reasonPhrase;
     }
 
 
@@ -112,6 +177,8 @@ public class HttpStatus {
     public static final int SC_SWITCHING_PROTOCOLS = 101;
     /** <tt>102 Processing</tt> (WebDAV - RFC 2518) */
     public static final int SC_PROCESSING = 102;
+    /** <tt>103 Early Hints</tt> (RFC 8297) */
+    public static final int SC_EARLY_HINTS = 103;
 
 
     // --- 2xx Success ---
@@ -135,6 +202,10 @@ public class HttpStatus {
      * OK</tt> (HTTP/1.1 - draft-ietf-http-v11-spec-rev-01?)
      */
     public static final int SC_MULTI_STATUS = 207;
+    /** <tt>208 Already Reported</tt> (WebDAV - RFC 5842) */
+    public static final int SC_ALREADY_REPORTED = 208;
+    /** <tt>226 IM Used</tt> (Delta encoding - RFC 3229) */
+    public static final int SC_IM_USED = 226;
 
     // --- 3xx Redirection ---
 
@@ -152,6 +223,8 @@ public class HttpStatus {
     public static final int SC_USE_PROXY = 305;
     /** <tt>307 Temporary Redirect</tt> (HTTP/1.1 - RFC 2616) */
     public static final int SC_TEMPORARY_REDIRECT = 307;
+    /** <tt>308 Permanent Redirect</tt> (RFC 7538) */
+    public static final int SC_PERMANENT_REDIRECT = 308;
 
     // --- 4xx Client Error ---
 
@@ -214,12 +287,24 @@ public class HttpStatus {
      * (WebDAV - draft-ietf-webdav-protocol-05?)
      */
     public static final int SC_METHOD_FAILURE = 420;
+    /** <tt>421 Misdirected Request</tt> (HTTP/2 - RFC 7540) */
+    public static final int SC_MISDIRECTED_REQUEST = 421;
     /** <tt>422 Unprocessable Entity</tt> (WebDAV - RFC 2518) */
     public static final int SC_UNPROCESSABLE_ENTITY = 422;
     /** <tt>423 Locked</tt> (WebDAV - RFC 2518) */
     public static final int SC_LOCKED = 423;
     /** <tt>424 Failed Dependency</tt> (WebDAV - RFC 2518) */
     public static final int SC_FAILED_DEPENDENCY = 424;
+    /** <tt>426 Upgrade Required</tt> (HTTP/1.1 - RFC 7231) */
+    public static final int SC_UPGRADE_REQUIRED = 426;
+    /** <tt>428 Precondition Required</tt> (RFC 6585) */
+    public static final int SC_PRECONDITION_REQUIRED = 428;
+    /** <tt>429 Too Many Requests</tt> (RFC 6585) */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+    /** <tt>431 Request Header Fields Too Large</tt> (RFC 6585) */
+    public static final int SC_REQUEST_HEADER_FIELDS_TOO_LARGE = 431;
+    /** <tt>451 Unavailable For Legal Reasons</tt> (RFC 7725) */
+    public static final int SC_UNAVAILABLE_FOR_LEGAL_REASONS = 451;
 
     // --- 5xx Server Error ---
 
@@ -236,8 +321,17 @@ public class HttpStatus {
     /** <tt>505 HTTP Version Not Supported</tt> (HTTP/1.1 - RFC 2616) */
     public static final int SC_HTTP_VERSION_NOT_SUPPORTED = 505;
 
+    /** <tt>506 Variant Also Negotiates</tt> (RFC 2295) */
+    public static final int SC_VARIANT_ALSO_NEGOTIATES = 506;
+
     /** <tt>507 Insufficient Storage</tt> (WebDAV - RFC 2518) */
     public static final int SC_INSUFFICIENT_STORAGE = 507;
+    /** <tt>508 Loop Detected</tt> (WebDAV - RFC 5842) */
+    public static final int SC_LOOP_DETECTED = 508;
+    /** <tt>510 Not Extended</tt> (RFC 2774) */
+    public static final int SC_NOT_EXTENDED = 510;
+    /** <tt>511 Network Authentication Required</tt> (RFC 6585) */
+    public static final int SC_NETWORK_AUTHENTICATION_REQUIRED = 511;
 
     // ----------------------------------------------------- Static Initializer
 
@@ -306,6 +400,39 @@ public class HttpStatus {
         addStatusCodeMap(SC_LOCKED, "Locked");
         addStatusCodeMap(SC_INSUFFICIENT_STORAGE , "Insufficient Storage");
         addStatusCodeMap(SC_FAILED_DEPENDENCY, "Failed Dependency");
+        addStatusCodeMap(SC_ALREADY_REPORTED, "Already Reported");
+        addStatusCodeMap(SC_LOOP_DETECTED, "Loop Detected");
+
+        // Status codes registered after RFC 2616
+        addStatusCodeMap(SC_EARLY_HINTS, "Early Hints");
+        addStatusCodeMap(SC_IM_USED, "IM Used");
+        addStatusCodeMap(SC_PERMANENT_REDIRECT, "Permanent Redirect");
+        addStatusCodeMap(SC_MISDIRECTED_REQUEST, "Misdirected Request");
+        addStatusCodeMap(SC_UPGRADE_REQUIRED, "Upgrade Required");
+        addStatusCodeMap(SC_PRECONDITION_REQUIRED, "Precondition Required");
+        addStatusCodeMap(SC_TOO_MANY_REQUESTS, "Too Many Requests");
+        addStatusCodeMap(SC_REQUEST_HEADER_FIELDS_TOO_LARGE,
+                "Request Header Fields Too Large");
+        addStatusCodeMap(SC_UNAVAILABLE_FOR_LEGAL_REASONS,
+                "Unavailable For Legal Reasons");
+        addStatusCodeMap(SC_VARIANT_ALSO_NEGOTIATES, "Variant Also Negotiates");
+        addStatusCodeMap(SC_NOT_EXTENDED, "Not Extended");
+        addStatusCodeMap(SC_NETWORK_AUTHENTICATION_REQUIRED,
+                "Network Authentication Required");
+
+        StatusClass[] classes = new StatusClass[] {
+                StatusClass.INFORMATIONAL,
+                StatusClass.SUCCESS,
+                StatusClass.REDIRECTION,
+                StatusClass.CLIENT_ERROR,
+                StatusClass.SERVER_ERROR
+        };
+        for (int i = 0; i < REASON_PHRASES.length; i++) {
+            STATUS_CLASSES[i] = classes[i / 100];
+            if (REASON_PHRASES[i] != null) {
+                REASON_PHRASE_BYTES[i] = EncodingUtil.getAsciiBytes(REASON_PHRASES[i]);
+            }
+        }
     }
 
 
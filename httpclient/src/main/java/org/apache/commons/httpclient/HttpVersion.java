@@ -30,6 +30,11 @@
 
 package org.apache.commons.httpclient;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.util.EncodingUtil;
+
 /**
  *  <p>HTTP version, as specified in RFC 2616.</p>
  *  <p>
@@ -71,10 +76,25 @@ package org.apache.commons.httpclient;
 public class HttpVersion implements Comparable {  // finish @2014/1/2
 
     /** Major version number of the HTTP protocol */
-    private int major = 0;
+    private final int major;
 
     /** Minor version number of the HTTP protocol */
-    private int minor = 0;
+    private final int minor;
+
+    /**
+     * The textual representation. Versions are few and mostly canonical, so it is
+     * created eagerly; being final, it is safely published with shared instances.
+     */
+    private final String text;
+
+    /** The ASCII bytes of the textual representation */
+    private final byte[] bytes;
+
+    /**
+     * The canonical instances of the versions with single digit numbers, indexed by
+     * <tt>major * 10 + minor</tt> and filled in as they are parsed.
+     */
+    private static final HttpVersion[] CANONICAL = new HttpVersion[100];
 
     /** HTTP protocol version 0.9 */
     public static final HttpVersion HTTP_0_9 = new HttpVersion(0, 9);
@@ -85,6 +105,15 @@ public class HttpVersion implements Comparable {  // finish @2014/1/2
     /** HTTP protocol version 1.1 */
     public static final HttpVersion HTTP_1_1 = new HttpVersion(1, 1);
 
+    /**
+     * HTTP protocol version 2.0. Requests with this version are sent over HTTP/2
+     * connections established with prior knowledge (h2c) by the
+     * {@link AsyncHttpExecutor}.
+     *
+     * @since 3.1
+     */
+    public static final HttpVersion HTTP_2_0 = new HttpVersion(2, 0);
+
     /**
      * Create an HTTP protocol version designator.
      *
@@ -102,6 +131,49 @@ public class HttpVersion implements Comparable {  // finish @2014/1/2
             throw new IllegalArgumentException("HTTP minor version number may not be negative");
         }
         this.minor = minor;
+        StringBuffer buffer = new StringBuffer(8);
+        buffer.append("HTTP/");
+        buffer.append(major);
+        buffer.append('.');
+        buffer.append(minor);
+        this.text = buffer.toString();
+        this.bytes = EncodingUtil.getAsciiBytes(this.text);
+    }
+
+    static {
+        CANONICAL[9] = HTTP_0_9;
+        CANONICAL[10] = HTTP_1_0;
+        CANONICAL[11] = HTTP_1_1;
+        CANONICAL[20] = HTTP_2_0;
+    }
+
+    /**
+     * Returns the canonical instance for the given version numbers. The shared
+     * instances are returned for versions with single digit numbers, including
+     * {@link #HTTP_0_9}, {@link #HTTP_1_0}, {@link #HTTP_1_1} and {@link #HTTP_2_0}; other versions
+     * are created anew.
+     *
+     * @param major   the major version number of the HTTP protocol
+     * @param minor   the minor version number of the HTTP protocol
+     *
+     * @return the HTTP protocol version
+     *
+     * @throws IllegalArgumentException if either major or minor version number is negative
+     *
+     * @since 3.1
+     */
+    public static HttpVersion getVersion(int major, int minor) {
+        if (major < 0 || major > 9 || minor < 0 || minor > 9) {
+            return new HttpVersion(major, minor);
+        }
+        int index = major * 10 + minor;
+        HttpVersion version = CANONICAL[index];
+        if (version == null) {
+            // instances are immutable, racing threads at worst create duplicates
+            version = new HttpVersion(major, minor);
+            CANONICAL[index] = version;
+        }
+        return version;
     }
 
     /**
@@ -202,16 +274,27 @@ public class HttpVersion implements Comparable {  // finish @2014/1/2
      * @see java.lang.Object#toString()
      */
     public String toString() {
-        StringBuffer buffer = new StringBuffer();
-        buffer.append("HTTP/");
-        buffer.append(this.major);
-        buffer.append('.');
-        buffer.append(this.minor);
-        return buffer.toString();
+        return this.text;
+    }
+
+    /**
+     * Writes the textual representation of this version, as used in request lines,
+     * to the given stream. The bytes are encoded once, when the version is created.
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if an I/O error occurs
+     *
+     * @since 3.1
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(this.bytes);
     }
 
     /**
      * Parses the textual representation of the given HTTP protocol version.
+     * The {@link #getVersion(int, int) canonical instances} are returned for
+     * versions with single digit numbers, no objects are created for them.
      *
      * @return HTTP protocol version.
      *
@@ -222,28 +305,96 @@ public class HttpVersion implements Comparable {  // finish @2014/1/2
             throw new IllegalArgumentException("String may not be null");
         }
         if (!s.startsWith("HTTP/")) {
-            throw new ProtocolException("Invalid HTTP version string: " + s);
+            throw new LightweightProtocolException("Invalid HTTP version string: " + s);
         }
-        int major, minor;
-
-        int i1 = "HTTP/".length();
-        int i2 = s.indexOf(".", i1);
+        int len = s.length();
+        if (len == 8 && s.charAt(6) == '.') {
+            // the common case, HTTP/d.d
+            int major = s.charAt(5) - '0';
+            int minor = s.charAt(7) - '0';
+            if (major >= 0 && major <= 9 && minor >= 0 && minor <= 9) {
+                return getVersion(major, minor);
+            }
+        }
+        int i = "HTTP/".length();
+        int i2 = s.indexOf('.', i);
         if (i2 == -1) {
-            throw new ProtocolException("Invalid HTTP version number: " + s);
+            throw new LightweightProtocolException("Invalid HTTP version number: " + s);
+        }
+        int major = 0;
+        int start = i;
+        while (i < i2) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || i - start >= 9) {
+                throw new LightweightProtocolException("Invalid HTTP major version number: " + s);
+            }
+            major = major * 10 + digit;
+            i++;
+        }
+        if (i == start) {
+            throw new LightweightProtocolException("Invalid HTTP major version number: " + s);
+        }
+        int minor = 0;
+        start = ++i;
+        while (i < len) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || i - start >= 9) {
+                throw new LightweightProtocolException("Invalid HTTP minor version number: " + s);
+            }
+            minor = minor * 10 + digit;
+            i++;
+        }
+        if (i == start) {
+            throw new LightweightProtocolException("Invalid HTTP minor version number: " + s);
+        }
+        return getVersion(major, minor);
+    }
+
+    /**
+     * Parses the HTTP protocol version in the given bytes, without creating any
+     * intermediate strings. The {@link #getVersion(int, int) canonical instances}
+     * are returned for versions with single digit numbers.
+     *
+     * @param b the buffer containing the version
+     * @param off the offset of the version in the buffer
+     * @param len the length of the version
+     *
+     * @return HTTP protocol version.
+     *
+     * @throws ProtocolException if the bytes are not a valid HTTP protocol version.
+     *
+     * @since 3.1
+     */
+    public static HttpVersion parse(final byte[] b, int off, int len) throws ProtocolException {
+        if (b == null) {
+            throw new IllegalArgumentException("Buffer may not be null");
+        }
+        int end = off + len;
+        if (len < 8 || b[off] != 'H' || b[off + 1] != 'T' || b[off + 2] != 'T'
+            || b[off + 3] != 'P' || b[off + 4] != '/') {
+            throw new LightweightProtocolException("Invalid HTTP version string: "
+                + EncodingUtil.getAsciiString(b, off, len));
+        }
+        int i = off + 5;
+        int major = 0;
+        int start = i;
+        while (i < end && b[i] >= '0' && b[i] <= '9' && i - start < 9) {
+            major = major * 10 + (b[i++] - '0');
+        }
+        if (i == start || i == end || b[i] != '.') {
+            throw new LightweightProtocolException("Invalid HTTP major version number: "
+                + EncodingUtil.getAsciiString(b, off, len));
         }
-        try {
-            major = Integer.parseInt(s.substring(i1, i2));
-        } catch (NumberFormatException e) {
-            throw new ProtocolException("Invalid HTTP major version number: " + s);
+        int minor = 0;
+        start = ++i;
+        while (i < end && b[i] >= '0' && b[i] <= '9' && i - start < 9) {
+            minor = minor * 10 + (b[i++] - '0');
         }
-        i1 = i2 + 1;
-        i2 = s.length();
-        try {
-            minor = Integer.parseInt(s.substring(i1, i2));
-        } catch (NumberFormatException e) {
-            throw new ProtocolException("Invalid HTTP minor version number: " + s);
+        if (i == start || i != end) {
+            throw new LightweightProtocolException("Invalid HTTP minor version number: "
+                + EncodingUtil.getAsciiString(b, off, len));
         }
-        return new HttpVersion(major, minor);
+        return getVersion(major, minor);
     }
 
 }
@@ -0,0 +1,71 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+/**
+ * A {@link ProtocolException} that does not record a stack trace. It is thrown
+ * for protocol violations that are expected from misbehaving servers, such as
+ * garbage in place of a status line, where the stack trace carries no useful
+ * information and filling it in would dominate the cost of the failure.
+ * <p>
+ * The cause, if any, is retained, as is the {@link #getReasonCode() reason code}.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class LightweightProtocolException extends ProtocolException {
+
+    /**
+     * Creates a new LightweightProtocolException with the specified detail message.
+     *
+     * @param message The exception detail message
+     */
+    public LightweightProtocolException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates a new LightweightProtocolException with the specified detail message
+     * and cause.
+     *
+     * @param message the exception detail message
+     * @param cause the <tt>Throwable</tt> that caused this exception, or <tt>null</tt>
+     * if the cause is unavailable, unknown, or not a <tt>Throwable</tt>
+     */
+    public LightweightProtocolException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Does not fill in the stack trace, which is left empty.
+     *
+     * @return this exception
+     */
+    public Throwable fillInStackTrace() {
+        return this;
+    }
+}
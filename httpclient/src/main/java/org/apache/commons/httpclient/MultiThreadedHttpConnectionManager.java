@@ -0,0 +1,917 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.params.ConnectionLimits;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Manages a set of HttpConnections for various HostConfigurations.
+ * <p>
+ * Connections are pooled per host configuration (route). Each route keeps its
+ * free connections in a lock-free queue and counts its allocated connections
+ * with an atomic counter, while the {@link HttpConnectionManagerParams#MAX_TOTAL_CONNECTIONS
+ * overall limit} is enforced by a single semaphore. Checking out and releasing a
+ * connection on a route that has capacity therefore never acquires a monitor, so
+ * threads working against the same route do not contend on a global lock. Only
+ * threads that have to wait for a connection to become available block.
+ * </p>
+ * <p>
+ * Threads waiting for a route are queued in arrival order. A released connection
+ * (or the slot of a closed one) is handed directly to the thread at the head of the
+ * queue, which is then the only thread woken up. Threads waiting for the overall limit
+ * queue on the fair semaphore. Both waits are bounded by the timeout passed to
+ * {@link #getConnectionWithTimeout(HostConfiguration, long)}, after which a
+ * {@link ConnectionPoolTimeoutException} is thrown.
+ * </p>
+ * <p>
+ * If an {@link HttpConnectionManagerParams#EVICTOR_INTERVAL evictor interval} is
+ * configured, a daemon thread owned by the manager periodically closes connections
+ * that have been idle for longer than the {@link HttpConnectionManagerParams#MAX_IDLE_TIME
+ * maximum idle time} and probes the other free connections, so that stale connections
+ * are found off the request path. The thread is started when a connection is created
+ * or released, so the interval may also be set on a pool that is in use.
+ * </p>
+ *
+ * @author Michael Becke
+ * @author Eric Johnson
+ * @author <a href="mailto:mbowler@GargoyleSoftware.com">Mike Bowler</a>
+ * @author Carl A. Dunham
+ *
+ * @since 2.0
+ */
+public class MultiThreadedHttpConnectionManager implements HttpConnectionManager {
+
+    // -------------------------------------------------------- Class Variables
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(MultiThreadedHttpConnectionManager.class);
+
+    /** The default maximum number of connections allowed per host */
+    public static final int DEFAULT_MAX_HOST_CONNECTIONS = 2;   // Per RFC 2616 sec 8.1.4
+
+    /** The default maximum number of connections allowed overall */
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * Collection of parameters associated with this connection manager.
+     */
+    private HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+
+    /** The per route pools, keyed by {@link RouteKey route key} */
+    private final ConcurrentHashMap hostPools = new ConcurrentHashMap();
+
+    /** Permits for the connections that may still be created overall, handed out fairly */
+    private final TotalConnectionsSemaphore totalPermits = new TotalConnectionsSemaphore(
+        DEFAULT_MAX_TOTAL_CONNECTIONS);
+
+    /** The overall limit the permits of {@link #totalPermits} currently add up to */
+    private final AtomicInteger totalLimit = new AtomicInteger(DEFAULT_MAX_TOTAL_CONNECTIONS);
+
+    /** The number of threads waiting for an overall permit */
+    private final AtomicInteger totalWaiters = new AtomicInteger(0);
+
+    /** Whether the idle connection evictor thread is running */
+    private final AtomicBoolean evictorRunning = new AtomicBoolean(false);
+
+    /** The idle connection evictor thread, if any */
+    private volatile IdleConnectionEvictor evictor;
+
+    private volatile boolean shutdown = false;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * No-args constructor
+     */
+    public MultiThreadedHttpConnectionManager() {
+        super();
+    }
+
+    // ------------------------------------------------------- Instance Methods
+
+    /**
+     * Shuts down the connection manager and releases all resources.  All connections associated
+     * with this class will be closed and released.
+     *
+     * <p>The connection manager can no longer be used once shut down.
+     *
+     * <p>Calling this method more than once will have no effect.
+     */
+    public void shutdown() {
+        if (this.shutdown) {
+            return;
+        }
+        this.shutdown = true;
+        IdleConnectionEvictor evictor = this.evictor;
+        if (evictor != null) {
+            evictor.interrupt();
+        }
+        Iterator iter = this.hostPools.values().iterator();
+        while (iter.hasNext()) {
+            HostConnectionPool hostPool = (HostConnectionPool) iter.next();
+            PooledConnection conn;
+            while ((conn = (PooledConnection) hostPool.freeConnections.poll()) != null) {
+                destroyConnection(conn);
+            }
+            hostPool.wakeUpAll();
+        }
+        // let the threads waiting for an overall permit observe the shutdown
+        this.totalPermits.release(this.totalWaiters.get());
+    }
+
+    /**
+     * @see HttpConnectionManager#getConnection(HostConfiguration)
+     */
+    public HttpConnection getConnection(HostConfiguration hostConfiguration) {
+
+        while (true) {
+            try {
+                return getConnectionWithTimeout(hostConfiguration, 0);
+            } catch (ConnectionPoolTimeoutException e) {
+                // we'll go ahead and log this, but it should never happen. Timeout
+                // exceptions are only thrown when the timeout occurs and since we
+                // have no timeout it should never happen.
+                LOG.debug(
+                    "Unexpected exception while waiting for connection",
+                    e
+                );
+            }
+        }
+    }
+
+    /**
+     * Gets a connection or waits if one is not available.  A connection is
+     * available if one exists that is not being used or if fewer than
+     * maxHostConnections have been created in the connectionPool, and fewer
+     * than maxTotalConnections have been created in all connectionPools.
+     *
+     * @param hostConfiguration The host configuration specifying the connection
+     *        details.
+     * @param timeout the number of milliseconds to wait for a connection, 0 to
+     * wait indefinitely. Usually the value of
+     * {@link org.apache.commons.httpclient.params.HttpClientParams#getConnectionManagerTimeout()}.
+     *
+     * @return HttpConnection an available connection
+     *
+     * @throws ConnectionPoolTimeoutException if a connection does not become available in
+     * 'timeout' milliseconds
+     *
+     * @since 3.0
+     */
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration,
+        long timeout) throws ConnectionPoolTimeoutException {
+
+        LOG.trace("enter HttpConnectionManager.getConnectionWithTimeout(HostConfiguration, long)");
+
+        if (hostConfiguration == null) {
+            throw new IllegalArgumentException("hostConfiguration is null");
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("HttpConnectionManager.getConnection:  config = "
+                + hostConfiguration + ", timeout = " + timeout);
+        }
+
+        return doGetConnection(hostConfiguration, timeout);
+    }
+
+    private HttpConnection doGetConnection(HostConfiguration hostConfiguration,
+        long timeout) throws ConnectionPoolTimeoutException {
+
+        HostConnectionPool hostPool = getHostPool(hostConfiguration);
+        ConnectionLimits limits = this.params.getConnectionLimits();
+        int maxHostConnections = hostPool.getMaxConnections(limits);
+        adjustTotalPermits(limits);
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+
+        assertNotShutdown();
+
+        // fast path: reuse a free connection of this route or reserve a slot for a new one,
+        // unless other threads are already queued for the route
+        PooledConnection conn = null;
+        boolean reserved = false;
+        if (hostPool.waiters.get() == 0) {
+            conn = (PooledConnection) hostPool.freeConnections.poll();
+            if (conn == null) {
+                reserved = hostPool.reserve(maxHostConnections);
+            }
+        }
+
+        if (conn == null && !reserved) {
+            // the route is saturated, queue up until a connection or a slot is handed over
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Unable to get a connection, waiting..., hostConfig="
+                    + hostPool.hostConfiguration);
+            }
+            WaitingThread waiter = hostPool.await(maxHostConnections, deadline);
+            conn = waiter.connection;
+            reserved = waiter.reserved;
+        }
+
+        if (conn != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Getting free connection, hostConfig=" + hostPool.hostConfiguration);
+            }
+            conn.checkOut();
+            return conn;
+        }
+
+        // create a new connection in the reserved slot once the overall limit permits it
+        try {
+            acquireTotalPermit(hostPool, deadline);
+        } catch (ConnectionPoolTimeoutException e) {
+            releaseSlot(hostPool);
+            throw e;
+        } catch (RuntimeException e) {
+            releaseSlot(hostPool);
+            throw e;
+        }
+        if (this.shutdown) {
+            this.totalPermits.release();
+            releaseSlot(hostPool);
+            assertNotShutdown();
+        }
+        return createConnection(hostPool);
+    }
+
+    /**
+     * Acquires a permit for one more connection overall. If the overall limit has been
+     * reached, free connections of other routes are closed to make room; if there are none
+     * the calling thread queues on the semaphore until a connection is destroyed or the
+     * deadline passes.
+     *
+     * @param deadline the time by which the permit must be acquired, 0 for no deadline
+     */
+    private void acquireTotalPermit(HostConnectionPool hostPool, long deadline)
+        throws ConnectionPoolTimeoutException {
+        if (this.totalPermits.tryAcquire()) {
+            return;
+        }
+        // announce ourselves before looking for a free connection to close, so that a
+        // connection released in the meantime is destroyed by the releasing thread
+        this.totalWaiters.incrementAndGet();
+        try {
+            while (!this.totalPermits.tryAcquire()) {
+                if (closeFreeConnection(hostPool)) {
+                    continue;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Maximum number of connections reached, waiting..., hostConfig="
+                        + hostPool.hostConfiguration);
+                }
+                if (deadline == 0) {
+                    this.totalPermits.acquire();
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0
+                    || !this.totalPermits.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+                    throw new ConnectionPoolTimeoutException("Timeout waiting for connection");
+                }
+                return;
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalThreadStateException(
+                "Interrupted while waiting in MultiThreadedHttpConnectionManager");
+        } finally {
+            this.totalWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gives a reserved but unused route slot back.
+     */
+    private void releaseSlot(HostConnectionPool hostPool) {
+        hostPool.unreserve();
+        hostPool.serveWaiters();
+    }
+
+    /**
+     * Closes a free connection belonging to a route other than the given one.
+     *
+     * @return <code>true</code> if a connection has been closed
+     */
+    private boolean closeFreeConnection(HostConnectionPool exclude) {
+        Iterator iter = this.hostPools.values().iterator();
+        while (iter.hasNext()) {
+            HostConnectionPool hostPool = (HostConnectionPool) iter.next();
+            if (hostPool == exclude) {
+                continue;
+            }
+            PooledConnection conn = (PooledConnection) hostPool.freeConnections.poll();
+            if (conn != null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Reclaiming unused connection, hostConfig="
+                        + hostPool.hostConfiguration);
+                }
+                destroyConnection(conn);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Brings the permits of the overall semaphore in line with the currently configured
+     * {@link ConnectionLimits#getMaxTotalConnections() maximum}.
+     */
+    private void adjustTotalPermits(ConnectionLimits limits) {
+        int configured = limits.getMaxTotalConnections();
+        while (true) {
+            int current = this.totalLimit.get();
+            if (current == configured) {
+                return;
+            }
+            if (this.totalLimit.compareAndSet(current, configured)) {
+                if (configured > current) {
+                    this.totalPermits.release(configured - current);
+                } else {
+                    this.totalPermits.reducePermits(current - configured);
+                }
+                return;
+            }
+        }
+    }
+
+    private HostConnectionPool getHostPool(HostConfiguration hostConfiguration) {
+        RouteKey routeKey = hostConfiguration.getRouteKey();
+        HostConnectionPool hostPool = (HostConnectionPool) this.hostPools.get(routeKey);
+        if (hostPool == null) {
+            // host configurations are mutable, so connections are opened from a private copy
+            hostPool = new HostConnectionPool(new HostConfiguration(hostConfiguration), routeKey);
+            HostConnectionPool existing =
+                (HostConnectionPool) this.hostPools.putIfAbsent(routeKey, hostPool);
+            if (existing != null) {
+                hostPool = existing;
+            }
+        }
+        return hostPool;
+    }
+
+    /**
+     * Creates a new connection for a route that has already reserved a slot and an
+     * overall permit for it.
+     */
+    private HttpConnection createConnection(HostConnectionPool hostPool) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Allocating new connection, hostConfig=" + hostPool.hostConfiguration);
+        }
+        PooledConnection conn = new PooledConnection(hostPool);
+        conn.getParams().setDefaults(this.params);
+        conn.setHttpConnectionManager(this);
+        conn.checkOut();
+        startEvictor();
+        return conn;
+    }
+
+    /**
+     * Starts the idle connection evictor if it is enabled and not running yet.
+     */
+    private void startEvictor() {
+        if (!this.shutdown && this.params.getEvictorInterval() > 0
+            && this.evictorRunning.compareAndSet(false, true)) {
+            IdleConnectionEvictor evictor = new IdleConnectionEvictor();
+            this.evictor = evictor;
+            evictor.start();
+        }
+    }
+
+    /**
+     * Closes the free connections that have been idle for longer than the configured
+     * maximum idle time, and the free connections found to be stale. Each connection is
+     * taken out of the pool while it is probed, so it is never handed out meanwhile.
+     */
+    private void evictConnections() {
+        long maxIdleTime = this.params.getMaxIdleTime();
+        if (maxIdleTime > 0) {
+            closeIdleConnections(maxIdleTime);
+        }
+        Iterator iter = this.hostPools.values().iterator();
+        while (iter.hasNext() && !this.shutdown) {
+            HostConnectionPool hostPool = (HostConnectionPool) iter.next();
+            // probed connections go back to the tail of the queue, so work on a snapshot
+            Object[] conns = hostPool.freeConnections.toArray();
+            for (int i = 0; i < conns.length; i++) {
+                PooledConnection conn = (PooledConnection) conns[i];
+                if (!hostPool.freeConnections.remove(conn)) {
+                    // checked out in the meantime
+                    continue;
+                }
+                if (isStale(conn)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Closing stale connection, hostConfig="
+                            + hostPool.hostConfiguration);
+                    }
+                    destroyConnection(conn);
+                } else {
+                    freeConnection(conn);
+                }
+            }
+        }
+    }
+
+    private static boolean isStale(HttpConnection conn) {
+        if (!conn.isOpen()) {
+            return true;
+        }
+        try {
+            return conn.isStale();
+        } catch (IOException e) {
+            LOG.debug("Error probing free connection", e);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.debug("Error probing free connection", e);
+            return true;
+        }
+    }
+
+    /**
+     * Closes the given connection and gives its route slot and overall permit back.
+     */
+    private void destroyConnection(PooledConnection conn) {
+        conn.close();
+        HostConnectionPool hostPool = conn.hostPool;
+        hostPool.unreserve();
+        this.totalPermits.release();
+        hostPool.serveWaiters();
+    }
+
+    /**
+     * Gets the total number of pooled connections for the given host configuration.  This
+     * is the total number of connections that have been created and are still in use
+     * by this connection manager for the host configuration.  This value will
+     * not exceed the {@link HttpConnectionManagerParams#getMaxConnectionsPerHost(HostConfiguration)
+     * maximum number of connections per host}.
+     *
+     * @param hostConfiguration The host configuration
+     * @return The total number of pooled connections
+     */
+    public int getConnectionsInPool(HostConfiguration hostConfiguration) {
+        HostConnectionPool hostPool =
+            (HostConnectionPool) this.hostPools.get(hostConfiguration.getRouteKey());
+        return hostPool == null ? 0 : hostPool.numConnections.get();
+    }
+
+    /**
+     * Gets the total number of pooled connections.  This is the total number of
+     * connections that have been created and are still in use by this connection
+     * manager.  This value will not exceed the
+     * {@link HttpConnectionManagerParams#getMaxTotalConnections() maximum number of connections}.
+     *
+     * @return the total number of pooled connections
+     */
+    public int getConnectionsInPool() {
+        int count = 0;
+        Iterator iter = this.hostPools.values().iterator();
+        while (iter.hasNext()) {
+            count += ((HostConnectionPool) iter.next()).numConnections.get();
+        }
+        return count;
+    }
+
+    /**
+     * Closes connections that have been idle for at least the given amount of time.  Only
+     * connections that are currently owned, not checked out, are subject to idle timeouts.
+     *
+     * @param idleTimeout the minimum idle time, in milliseconds, for connections to be closed
+     *
+     * @since 3.0
+     */
+    public void closeIdleConnections(long idleTimeout) {
+        long idleSince = System.currentTimeMillis() - idleTimeout;
+        Iterator iter = this.hostPools.values().iterator();
+        while (iter.hasNext()) {
+            HostConnectionPool hostPool = (HostConnectionPool) iter.next();
+            Iterator conns = hostPool.freeConnections.iterator();
+            while (conns.hasNext()) {
+                PooledConnection conn = (PooledConnection) conns.next();
+                if (conn.idleSince <= idleSince && hostPool.freeConnections.remove(conn)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Closing idle connection, hostConfig="
+                            + hostPool.hostConfiguration);
+                    }
+                    destroyConnection(conn);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the given connection available again to be returned by getConnection().
+     *
+     * @param conn the HttpConnection to make available.
+     */
+    public void releaseConnection(HttpConnection conn) {
+        if (!(conn instanceof PooledConnection)
+            || ((PooledConnection) conn).getHttpConnectionManager() != this) {
+            throw new IllegalArgumentException(
+                "Connection has not been obtained from this connection manager");
+        }
+        PooledConnection pooled = (PooledConnection) conn;
+        if (!pooled.checkIn()) {
+            LOG.debug("Connection has already been released");
+            return;
+        }
+        HostConnectionPool hostPool = pooled.hostPool;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Freeing connection, hostConfig=" + hostPool.hostConfiguration);
+        }
+        if (this.shutdown) {
+            destroyConnection(pooled);
+            return;
+        }
+        pooled.idleSince = System.currentTimeMillis();
+        freeConnection(pooled);
+        // the evictor may have been enabled since the pool has been warmed up
+        startEvictor();
+    }
+
+    /**
+     * Puts a connection that is not checked out into the free list of its route, or hands
+     * it over to a thread waiting for the route.
+     */
+    private void freeConnection(PooledConnection conn) {
+        HostConnectionPool hostPool = conn.hostPool;
+        hostPool.freeConnections.offer(conn);
+
+        if (hostPool.waiters.get() > 0) {
+            // hand the connection over to the thread that has waited longest for this route
+            hostPool.serveWaiters();
+        } else if (this.totalWaiters.get() > 0) {
+            // another route is waiting for an overall permit, give up a free connection
+            PooledConnection free = (PooledConnection) hostPool.freeConnections.poll();
+            if (free != null) {
+                destroyConnection(free);
+            }
+        }
+    }
+
+    private void assertNotShutdown() {
+        if (this.shutdown) {
+            throw new IllegalStateException("Connection factory has been shutdown.");
+        }
+    }
+
+    /**
+     * Returns {@link HttpConnectionManagerParams parameters} associated
+     * with this connection manager.
+     *
+     * @since 3.0
+     *
+     * @see HttpConnectionManagerParams
+     */
+    public HttpConnectionManagerParams getParams() {
+        return this.params;
+    }
+
+    /**
+     * Assigns {@link HttpConnectionManagerParams parameters} for this
+     * connection manager.
+     *
+     * @since 3.0
+     *
+     * @see HttpConnectionManagerParams
+     */
+    public void setParams(final HttpConnectionManagerParams params) {
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+        this.params = params;
+        startEvictor();
+    }
+
+    /**
+     * A daemon thread that periodically closes idle and stale connections of this manager.
+     * It exits when the manager is shut down or the evictor interval is set to zero.
+     */
+    private class IdleConnectionEvictor extends Thread {
+
+        public IdleConnectionEvictor() {
+            super("MultiThreadedHttpConnectionManager idle connection evictor");
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (!shutdown) {
+                    long interval = params.getEvictorInterval();
+                    if (interval <= 0) {
+                        break;
+                    }
+                    Thread.sleep(interval);
+                    try {
+                        evictConnections();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unexpected error while evicting connections", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            } finally {
+                evictorRunning.set(false);
+            }
+            // the evictor may have been enabled again while this thread was exiting
+            startEvictor();
+        }
+    }
+
+    /**
+     * A semaphore whose permits can be reduced when the overall limit is lowered.
+     */
+    private static class TotalConnectionsSemaphore extends Semaphore {
+
+        public TotalConnectionsSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        public void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    /**
+     * A simple data structure for keeping track of host specific connection pools.
+     */
+    private class HostConnectionPool {
+
+        /** The hostConfig this pool is for */
+        private final HostConfiguration hostConfiguration;
+
+        /** The route key of the hostConfig */
+        private final RouteKey routeKey;
+
+        /** The list of free connections */
+        private final ConcurrentLinkedQueue freeConnections = new ConcurrentLinkedQueue();
+
+        /** The number of created connections */
+        private final AtomicInteger numConnections = new AtomicInteger(0);
+
+        /** The number of threads waiting for a connection of this route */
+        private final AtomicInteger waiters = new AtomicInteger(0);
+
+        /** The limit of this route, resolved from the limits snapshot it refers to */
+        private volatile ResolvedLimit resolvedLimit;
+
+        /** Guards the queue of waiting threads; never held on the fast path */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** The threads waiting for a connection of this route, in arrival order */
+        private final LinkedList waitingThreads = new LinkedList();
+
+        public HostConnectionPool(HostConfiguration hostConfiguration, RouteKey routeKey) {
+            this.hostConfiguration = hostConfiguration;
+            this.routeKey = routeKey;
+        }
+
+        /**
+         * Returns the connection limit of this route. The limit is only looked up when the
+         * limits snapshot has changed since the last call, otherwise this is a field read.
+         */
+        public int getMaxConnections(ConnectionLimits limits) {
+            ResolvedLimit resolved = this.resolvedLimit;
+            if (resolved == null || resolved.limits != limits) {
+                resolved = new ResolvedLimit(
+                    limits, limits.getMaxConnectionsPerHost(this.routeKey));
+                this.resolvedLimit = resolved;
+            }
+            return resolved.maxConnections;
+        }
+
+        /**
+         * Reserves a slot for a new connection unless the route is at its limit.
+         */
+        public boolean reserve(int maxConnections) {
+            while (true) {
+                int current = this.numConnections.get();
+                if (current >= maxConnections) {
+                    return false;
+                }
+                if (this.numConnections.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void unreserve() {
+            this.numConnections.decrementAndGet();
+        }
+
+        /**
+         * Queues the calling thread until a free connection or a slot for a new one has been
+         * handed to it. The thread counts itself as a waiter before rechecking the pool under
+         * the lock, so that a connection released concurrently is either seen here or handed
+         * over by the releasing thread.
+         *
+         * @param deadline the time by which the thread must be served, 0 for no deadline
+         */
+        public WaitingThread await(int maxConnections, long deadline)
+            throws ConnectionPoolTimeoutException {
+            WaitingThread waiter = new WaitingThread(this.lock.newCondition(), maxConnections);
+            this.lock.lock();
+            try {
+                this.waiters.incrementAndGet();
+                try {
+                    if (serve(waiter)) {
+                        return waiter;
+                    }
+                    this.waitingThreads.addLast(waiter);
+                    while (!waiter.isServed()) {
+                        if (shutdown) {
+                            this.waitingThreads.remove(waiter);
+                            assertNotShutdown();
+                        }
+                        if (deadline == 0) {
+                            waiter.condition.await();
+                        } else {
+                            long remaining = deadline - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                this.waitingThreads.remove(waiter);
+                                throw new ConnectionPoolTimeoutException(
+                                    "Timeout waiting for connection");
+                            }
+                            waiter.condition.await(remaining, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    return waiter;
+                } catch (InterruptedException e) {
+                    this.waitingThreads.remove(waiter);
+                    if (waiter.isServed()) {
+                        // too late to back out, keep what has been handed over
+                        Thread.currentThread().interrupt();
+                        return waiter;
+                    }
+                    throw new IllegalThreadStateException(
+                        "Interrupted while waiting in MultiThreadedHttpConnectionManager");
+                } finally {
+                    this.waiters.decrementAndGet();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Hands a free connection or a free slot, if there is one, to the thread that has
+         * waited longest for this route and wakes up that thread only.
+         */
+        public void serveWaiters() {
+            if (this.waiters.get() == 0) {
+                return;
+            }
+            this.lock.lock();
+            try {
+                WaitingThread waiter = (WaitingThread) this.waitingThreads.peek();
+                if (waiter != null && serve(waiter)) {
+                    this.waitingThreads.removeFirst();
+                    waiter.condition.signal();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Wakes up all waiting threads so that they can observe the shutdown.
+         */
+        public void wakeUpAll() {
+            this.lock.lock();
+            try {
+                Iterator iter = this.waitingThreads.iterator();
+                while (iter.hasNext()) {
+                    ((WaitingThread) iter.next()).condition.signal();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Assigns a free connection or a newly reserved slot to the given waiter.
+         * Must be called while holding the lock.
+         */
+        private boolean serve(WaitingThread waiter) {
+            PooledConnection conn = (PooledConnection) this.freeConnections.poll();
+            if (conn != null) {
+                waiter.connection = conn;
+                return true;
+            }
+            if (reserve(waiter.maxConnections)) {
+                waiter.reserved = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A route limit together with the snapshot it has been resolved from.
+     */
+    private static class ResolvedLimit {
+
+        private final ConnectionLimits limits;
+
+        private final int maxConnections;
+
+        public ResolvedLimit(ConnectionLimits limits, int maxConnections) {
+            this.limits = limits;
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    /**
+     * A thread queued for a connection of a particular route, together with whatever
+     * has been handed to it. Guarded by the lock of the route pool.
+     */
+    private static class WaitingThread {
+
+        /** The condition the thread waits on */
+        private final Condition condition;
+
+        /** The route limit the thread has been checked against */
+        private final int maxConnections;
+
+        /** The free connection handed over to the thread */
+        private PooledConnection connection;
+
+        /** Whether a slot for a new connection has been reserved for the thread */
+        private boolean reserved;
+
+        public WaitingThread(Condition condition, int maxConnections) {
+            this.condition = condition;
+            this.maxConnections = maxConnections;
+        }
+
+        public boolean isServed() {
+            return this.connection != null || this.reserved;
+        }
+    }
+
+    /**
+     * A connection owned by this manager. It remembers its route so that releasing it
+     * does not require a lookup.
+     */
+    private static class PooledConnection extends HttpConnection {
+
+        private final HostConnectionPool hostPool;
+
+        /** Whether the connection is currently checked out */
+        private final AtomicBoolean leased = new AtomicBoolean(false);
+
+        /** The time the connection was last released */
+        private volatile long idleSince;
+
+        public PooledConnection(HostConnectionPool hostPool) {
+            super(hostPool.hostConfiguration);
+            this.hostPool = hostPool;
+        }
+
+        public void checkOut() {
+            this.leased.set(true);
+        }
+
+        public boolean checkIn() {
+            return this.leased.compareAndSet(true, false);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.IOException;
+
+/**
+ * Signals that the target server failed to respond with a valid HTTP response.
+ *
+ * @since 3.1
+ */
+public class NoHttpResponseException extends IOException {
+
+    /**
+     * Creates a new NoHttpResponseException with a <tt>null</tt> detail message.
+     */
+    public NoHttpResponseException() {
+        super();
+    }
+
+    /**
+     * Creates a new NoHttpResponseException with the specified detail message.
+     *
+     * @param message exception message
+     */
+    public NoHttpResponseException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+/**
+ * Receives the outcome of a request executed by an {@link AsyncHttpExecutor}.
+ * Exactly one of the methods is called, on the thread that executed the request
+ * or, for {@link #cancelled()}, on the thread that cancelled it.
+ *
+ * @since 3.1
+ */
+public interface ResponseCallback {
+
+    /**
+     * Called when the response has been received.
+     *
+     * @param response the response
+     */
+    void completed(HttpResponse response);
+
+    /**
+     * Called when the request has failed.
+     *
+     * @param cause the failure, usually an <code>IOException</code>
+     */
+    void failed(Exception cause);
+
+    /**
+     * Called when the request has been cancelled.
+     */
+    void cancelled();
+}
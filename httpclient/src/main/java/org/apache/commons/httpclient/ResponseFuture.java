@@ -0,0 +1,135 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The future response of a request executed by an {@link AsyncHttpExecutor},
+ * which notifies the {@link ResponseCallback} when it is done. The future is either
+ * run as a task, or completed by {@link #setResponse(HttpResponse)} and
+ * {@link #setFailure(Exception)}.
+ *
+ * @since 3.1
+ */
+class ResponseFuture extends FutureTask {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(ResponseFuture.class);
+
+    /** The task of futures that are completed rather than run */
+    private static final Callable NO_TASK = new Callable() {
+        public Object call() {
+            throw new IllegalStateException("Future is not meant to be run");
+        }
+    };
+
+    private final ResponseCallback callback;
+
+    /**
+     * Creates a future that computes the response by running the given task.
+     *
+     * @param task the task
+     * @param callback the callback, or <code>null</code>
+     */
+    ResponseFuture(final Callable task, final ResponseCallback callback) {
+        super(task);
+        this.callback = callback;
+    }
+
+    /**
+     * Creates a future that is completed by {@link #setResponse(HttpResponse)} or
+     * {@link #setFailure(Exception)}.
+     *
+     * @param callback the callback, or <code>null</code>
+     */
+    ResponseFuture(final ResponseCallback callback) {
+        this(NO_TASK, callback);
+    }
+
+    /**
+     * Completes the future with the response, unless it is done already.
+     */
+    void setResponse(final HttpResponse response) {
+        set(response);
+    }
+
+    /**
+     * Completes the future with the failure, unless it is done already.
+     */
+    void setFailure(final Exception cause) {
+        setException(cause);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            aborted();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Called once the future has been cancelled, to abort the request. Does nothing
+     * by default.
+     */
+    protected void aborted() {
+    }
+
+    protected void done() {
+        if (this.callback == null) {
+            return;
+        }
+        try {
+            if (isCancelled()) {
+                this.callback.cancelled();
+                return;
+            }
+            HttpResponse response;
+            try {
+                response = (HttpResponse) get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                this.callback.failed(cause instanceof Exception ? (Exception) cause : e);
+                return;
+            } catch (InterruptedException e) {
+                // cannot happen, the future is done
+                Thread.currentThread().interrupt();
+                this.callback.failed(e);
+                return;
+            }
+            this.callback.completed(response);
+        } catch (RuntimeException e) {
+            LOG.warn("Response callback threw an exception", e);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.net.InetAddress;
+
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.util.LangUtils;
+
+/**
+ * An immutable snapshot of the parts of a {@link HostConfiguration} that identify a
+ * route: target host, port and protocol, proxy host and port, and local address.
+ * <p>
+ * Host names are compared ignoring case and the hash code is computed once, so a
+ * route key is a cheap and stable key for connection pools and per host limits,
+ * unlike the mutable and synchronized host configuration it has been taken from.
+ * </p>
+ *
+ * @see HostConfiguration#getRouteKey()
+ *
+ * @since 3.1
+ */
+public final class RouteKey {
+
+    /** The target host name in lower case, or <code>null</code> */
+    private final String hostName;
+
+    /** The target port, or <code>-1</code> */
+    private final int port;
+
+    /** The protocol, or <code>null</code> */
+    private final Protocol protocol;
+
+    /** The proxy host name in lower case, or <code>null</code> */
+    private final String proxyHostName;
+
+    /** The proxy port, or <code>-1</code> */
+    private final int proxyPort;
+
+    /** The local address, or <code>null</code> for the default */
+    private final InetAddress localAddress;
+
+    /** The precomputed hash code */
+    private final int hash;
+
+    /**
+     * Creates a route key.
+     *
+     * @param host the target host, or <code>null</code> if not set
+     * @param proxyHost the proxy host, or <code>null</code> if no proxy is used
+     * @param localAddress the local address, or <code>null</code> for the default
+     */
+    public RouteKey(final HttpHost host, final ProxyHost proxyHost,
+        final InetAddress localAddress) {
+        super();
+        if (host != null) {
+            this.hostName = host.getLowerCaseHostName();
+            this.port = host.getPort();
+            this.protocol = host.getProtocol();
+        } else {
+            this.hostName = null;
+            this.port = -1;
+            this.protocol = null;
+        }
+        if (proxyHost != null) {
+            this.proxyHostName = proxyHost.getLowerCaseHostName();
+            this.proxyPort = proxyHost.getPort();
+        } else {
+            this.proxyHostName = null;
+            this.proxyPort = -1;
+        }
+        this.localAddress = localAddress;
+
+        int hash = LangUtils.HASH_SEED;
+        hash = LangUtils.hashCode(hash, this.hostName);
+        hash = LangUtils.hashCode(hash, this.port);
+        hash = LangUtils.hashCode(hash, this.protocol);
+        hash = LangUtils.hashCode(hash, this.proxyHostName);
+        hash = LangUtils.hashCode(hash, this.proxyPort);
+        hash = LangUtils.hashCode(hash, this.localAddress);
+        this.hash = hash;
+    }
+
+    /**
+     * Returns the target host name in lower case.
+     *
+     * @return the host name, or <code>null</code> if not set
+     */
+    public String getHostName() {
+        return this.hostName;
+    }
+
+    /**
+     * Returns the target port.
+     *
+     * @return the port, or <code>-1</code> if not set
+     */
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * Returns the protocol.
+     *
+     * @return the protocol, or <code>null</code> if not set
+     */
+    public Protocol getProtocol() {
+        return this.protocol;
+    }
+
+    /**
+     * Returns the proxy host name in lower case.
+     *
+     * @return the proxy host name, or <code>null</code> if no proxy is used
+     */
+    public String getProxyHostName() {
+        return this.proxyHostName;
+    }
+
+    /**
+     * Returns the proxy port.
+     *
+     * @return the proxy port, or <code>-1</code> if no proxy is used
+     */
+    public int getProxyPort() {
+        return this.proxyPort;
+    }
+
+    /**
+     * Returns the local address.
+     *
+     * @return the local address, or <code>null</code> for the default
+     */
+    public InetAddress getLocalAddress() {
+        return this.localAddress;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer(50);
+        buffer.append("RouteKey[");
+        if (this.protocol != null) {
+            buffer.append(this.protocol.getScheme()).append("://");
+        }
+        buffer.append(this.hostName).append(':').append(this.port);
+        if (this.proxyHostName != null) {
+            buffer.append(" via ").append(this.proxyHostName).append(':').append(this.proxyPort);
+        }
+        if (this.localAddress != null) {
+            buffer.append(" from ").append(this.localAddress);
+        }
+        buffer.append(']');
+        return buffer.toString();
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof RouteKey)) {
+            return false;
+        }
+        RouteKey that = (RouteKey) o;
+        return this.hash == that.hash
+            && this.port == that.port
+            && this.proxyPort == that.proxyPort
+            && LangUtils.equals(this.hostName, that.hostName)
+            && LangUtils.equals(this.protocol, that.protocol)
+            && LangUtils.equals(this.proxyHostName, that.proxyHostName)
+            && LangUtils.equals(this.localAddress, that.localAddress);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        return this.hash;
+    }
+
+}
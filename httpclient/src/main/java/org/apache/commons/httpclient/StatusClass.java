@@ -0,0 +1,103 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+/**
+ * The class of an HTTP status code as given by its first digit, see
+ * <a href="http://www.ietf.org/rfc/rfc2616.txt">RFC 2616</a> section 6.1.1.
+ * There is exactly one instance per class, so instances may be compared
+ * by identity.
+ *
+ * @see HttpStatus#getStatusClass(int)
+ *
+ * @since 3.1
+ */
+public final class StatusClass {
+
+    /** <tt>1xx</tt>: the request was received, continuing process */
+    public static final StatusClass INFORMATIONAL = new StatusClass("Informational", 1);
+
+    /** <tt>2xx</tt>: the action was successfully received, understood, and accepted */
+    public static final StatusClass SUCCESS = new StatusClass("Success", 2);
+
+    /** <tt>3xx</tt>: further action must be taken in order to complete the request */
+    public static final StatusClass REDIRECTION = new StatusClass("Redirection", 3);
+
+    /** <tt>4xx</tt>: the request contains bad syntax or cannot be fulfilled */
+    public static final StatusClass CLIENT_ERROR = new StatusClass("Client Error", 4);
+
+    /** <tt>5xx</tt>: the server failed to fulfill an apparently valid request */
+    public static final StatusClass SERVER_ERROR = new StatusClass("Server Error", 5);
+
+    /** The name of this class */
+    private final String name;
+
+    /** The first digit of the status codes in this class */
+    private final int digit;
+
+    private StatusClass(final String name, int digit) {
+        this.name = name;
+        this.digit = digit;
+    }
+
+    /**
+     * Returns the first digit of the status codes in this class.
+     *
+     * @return the first digit, <tt>1</tt> to <tt>5</tt>
+     */
+    public int getDigit() {
+        return this.digit;
+    }
+
+    /**
+     * Tests if the given status code belongs to this class.
+     *
+     * @param statusCode the status code
+     *
+     * @return <tt>true</tt> if the status code is in this class
+     */
+    public boolean contains(int statusCode) {
+        return HttpStatus.getStatusClass(statusCode) == this;
+    }
+
+    /**
+     * Tests if this is the class of client or server errors.
+     *
+     * @return <tt>true</tt> for {@link #CLIENT_ERROR} and {@link #SERVER_ERROR}
+     */
+    public boolean isError() {
+        return this.digit >= 4;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return this.digit + "xx " + this.name;
+    }
+
+}
@@ -30,6 +30,10 @@
 
 package org.apache.commons.httpclient;
 
+import java.nio.ByteBuffer;
+
+import org.apache.commons.httpclient.util.EncodingUtil;
+
 /**
  * Represents a Status-Line as returned from a HTTP server.
  *
@@ -46,7 +50,14 @@ package org.apache.commons.httpclient;
  *      Status-Line = HTTP-Version SP Status-Code SP Reason-Phrase CRLF
  * </pre>
  * <p>
- * This class is immutable and is inherently thread safe.
+ * Status lines can also be {@link #parse(byte[], int, int) parsed} directly from
+ * the bytes received, without decoding them into a string first. Parsed lines
+ * share the {@link HttpVersion} constants and standard reason phrases, other
+ * strings are only created when asked for.
+ * <p>
+ * This class is immutable and is inherently thread safe. What a line was created
+ * from is held in final fields; the strings and the version derived from it on
+ * demand are cached in plain fields, which racing threads may each compute once.
  *
  * @see HttpStatus
  * @author <a href="mailto:jsdever@apache.org">Jeff Dever</a>
@@ -58,18 +69,36 @@ public class StatusLine { // finish @2014-01-02 16:57
 
     // ----------------------------------------------------- Instance Variables
 
-    /** The original Status-Line. */
+    /** The original Status-Line, <tt>null</tt> for parsed lines. */
     private final String statusLine;
 
-    /** The HTTP-Version. */
+    /** The HTTP-Version, <tt>null</tt> for parsed lines. */
     private final String httpVersion;
 
+    /** The parsed HTTP-Version, <tt>null</tt> for lines given as string. */
+    private final HttpVersion version;
+
     /** The Status-Code. */
     private final int statusCode;
 
-    /** The Reason-Phrase. */
+    /** The Reason-Phrase, <tt>null</tt> if only its bytes are known. */
     private final String reasonPhrase;
 
+    /** The bytes of a non-standard Reason-Phrase of a parsed line. */
+    private final byte[] reasonPhraseBytes;
+
+    /** The Status-Line of a parsed line, created on demand. */
+    private String formattedStatusLine;
+
+    /** The HTTP-Version of a parsed line, created on demand. */
+    private String formattedHttpVersion;
+
+    /** The parsed HTTP-Version of a line given as string, created on demand. */
+    private HttpVersion parsedVersion;
+
+    /** The Reason-Phrase decoded from {@link #reasonPhraseBytes} on demand. */
+    private String decodedReasonPhrase;
+
 
     // ----------------------------------------------------------- Constructors
 
@@ -90,13 +119,13 @@ public class StatusLine { // finish @2014-01-02 16:57
                 ++start;
             }
             if (!"HTTP".equals(statusLine.substring(at, at += 4))) {
-                throw new HttpException("Status-Line '" + statusLine
+                throw new LightweightProtocolException("Status-Line '" + statusLine
                         + "' does not start with HTTP");
             }
             //handle the HTTP-Version
             at = statusLine.indexOf(" ", at);
             if (at <= 0) {
-                throw new ProtocolException(
+                throw new LightweightProtocolException(
                         "Unable to parse HTTP-Version from the status line: '"
                                 + statusLine + "'");
             }
@@ -115,7 +144,7 @@ public class StatusLine { // finish @2014-01-02 16:57
             try {
                 this.statusCode = Integer.parseInt(statusLine.substring(at, to));
             } catch (NumberFormatException e) {
-                throw new ProtocolException(
+                throw new LightweightProtocolException(
                         "Unable to parse status code from status line: '"
                                 + statusLine + "'");
             }
@@ -127,10 +156,154 @@ public class StatusLine { // finish @2014-01-02 16:57
                 this.reasonPhrase = "";
             }
         } catch (StringIndexOutOfBoundsException e) {
-            throw new HttpException("Status-Line '" + statusLine + "' is not valid");
+            throw new LightweightProtocolException(
+                "Status-Line '" + statusLine + "' is not valid");
         }
         //save the original Status-Line
         this.statusLine = statusLine;
+        this.version = null;
+        this.reasonPhraseBytes = null;
+    }
+
+    /**
+     * Creates a status line from its parsed parts. Either the Reason-Phrase or its
+     * bytes must be given.
+     */
+    StatusLine(final HttpVersion version, int statusCode,
+        final String reasonPhrase, final byte[] reasonPhraseBytes) {
+        this.statusLine = null;
+        this.httpVersion = null;
+        this.version = version;
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.reasonPhraseBytes = reasonPhraseBytes;
+    }
+
+    /**
+     * Parses a status line from the bytes received from the HTTP server.
+     * <p>
+     * The version and status code are parsed arithmetically from the bytes. The
+     * Reason-Phrase is shared with {@link HttpStatus#getStatusText(int)} if it is the
+     * standard one, otherwise its bytes are copied and only decoded when asked for.
+     * Leading and trailing whitespace, including the terminating CRLF, is ignored.
+     * </p>
+     *
+     * @param b the buffer containing the status line
+     * @param off the offset of the status line in the buffer
+     * @param len the length of the status line
+     *
+     * @return the status line
+     *
+     * @throws HttpException if the status line is invalid
+     *
+     * @since 3.1
+     */
+    public static StatusLine parse(final byte[] b, int off, int len) throws HttpException {
+        if (b == null) {
+            throw new IllegalArgumentException("Buffer may not be null");
+        }
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        int at = off;
+        int end = off + len;
+        while (at < end && isWhitespace(b[at])) {
+            at++;
+        }
+        while (end > at && isWhitespace(b[end - 1])) {
+            end--;
+        }
+        if (end - at < 4 || b[at] != 'H' || b[at + 1] != 'T' || b[at + 2] != 'T'
+            || b[at + 3] != 'P') {
+            throw new LightweightProtocolException("Status-Line '"
+                + EncodingUtil.getAsciiString(b, off, len) + "' does not start with HTTP");
+        }
+
+        //handle the HTTP-Version
+        int start = at;
+        while (at < end && b[at] != ' ') {
+            at++;
+        }
+        if (at == end) {
+            throw new LightweightProtocolException(
+                "Unable to parse HTTP-Version from the status line: '"
+                + EncodingUtil.getAsciiString(b, off, len) + "'");
+        }
+        HttpVersion version = HttpVersion.parse(b, start, at - start);
+
+        //advance through spaces
+        while (b[at] == ' ') {
+            at++;
+        }
+
+        //handle the Status-Code
+        start = at;
+        int statusCode = 0;
+        while (at < end && b[at] >= '0' && b[at] <= '9' && at - start < 9) {
+            statusCode = statusCode * 10 + (b[at++] - '0');
+        }
+        if (at == start || (at < end && b[at] != ' ')) {
+            throw new LightweightProtocolException(
+                "Unable to parse status code from status line: '"
+                + EncodingUtil.getAsciiString(b, off, len) + "'");
+        }
+
+        //handle the Reason-Phrase
+        while (at < end && isWhitespace(b[at])) {
+            at++;
+        }
+        if (at == end) {
+            return new StatusLine(version, statusCode, "", null);
+        }
+        byte[] standard = HttpStatus.getStatusTextBytes(statusCode);
+        if (standard != null && standard.length == end - at) {
+            int i = 0;
+            while (i < standard.length && standard[i] == b[at + i]) {
+                i++;
+            }
+            if (i == standard.length) {
+                return new StatusLine(version, statusCode,
+                    HttpStatus.getStatusText(statusCode), null);
+            }
+        }
+        byte[] reasonPhraseBytes = new byte[end - at];
+        System.arraycopy(b, at, reasonPhraseBytes, 0, reasonPhraseBytes.length);
+        return new StatusLine(version, statusCode, null, reasonPhraseBytes);
+    }
+
+    /**
+     * Parses a status line from the remaining bytes of the given buffer. The
+     * position of the buffer is not changed.
+     *
+     * @param buffer the buffer containing the status line
+     *
+     * @return the status line
+     *
+     * @throws HttpException if the status line is invalid
+     *
+     * @see #parse(byte[], int, int)
+     *
+     * @since 3.1
+     */
+    public static StatusLine parse(final ByteBuffer buffer) throws HttpException {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Buffer may not be null");
+        }
+        if (buffer.hasArray()) {
+            return parse(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.remaining());
+        }
+        byte[] b = new byte[buffer.remaining()];
+        buffer.duplicate().get(b);
+        return parse(b, 0, b.length);
+    }
+
+    /**
+     * Tests for the characters {@link Character#isWhitespace(char)} accepts in the
+     * ASCII range.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F);
     }
 
 
@@ -143,18 +316,70 @@ public class StatusLine { // finish @2014-01-02 16:57
         return statusCode;
     }
 
+    /**
+     * Returns the class of the Status-Code.
+     *
+     * @return the status class, or <tt>null</tt> if the Status-Code is not
+     * in the range 100 to 599
+     *
+     * @since 3.1
+     */
+    public final StatusClass getStatusClass() {
+        return HttpStatus.getStatusClass(statusCode);
+    }
+
     /**
      * @return the HTTP-Version
      */
     public final String getHttpVersion() {
-        return httpVersion;
+        if (this.httpVersion != null) {
+            return this.httpVersion;
+        }
+        String s = this.formattedHttpVersion;
+        if (s == null) {
+            s = this.version.toString();
+            this.formattedHttpVersion = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the HTTP-Version as {@link HttpVersion}.
+     *
+     * @return the HTTP-Version, or <tt>null</tt> if it is not a valid
+     * HTTP protocol version
+     *
+     * @since 3.1
+     */
+    public final HttpVersion getVersion() {
+        if (this.version != null) {
+            return this.version;
+        }
+        HttpVersion v = this.parsedVersion;
+        if (v == null) {
+            try {
+                v = HttpVersion.parse(this.httpVersion);
+            } catch (ProtocolException e) {
+                return null;
+            }
+            this.parsedVersion = v;
+        }
+        return v;
     }
 
     /**
      * @return the Reason-Phrase
      */
     public final String getReasonPhrase() {
-        return reasonPhrase;
+        if (this.reasonPhrase != null) {
+            return this.reasonPhrase;
+        }
+        String s = this.decodedReasonPhrase;
+        if (s == null) {
+            s = EncodingUtil.getAsciiString(this.reasonPhraseBytes);
+            this.decodedReasonPhrase = s;
+        }
+        return s;
     }
 
     /**
@@ -162,7 +387,24 @@ public class StatusLine { // finish @2014-01-02 16:57
      * @return a string represenation of this object.
      */
     public final String toString() {
-        return statusLine;
+        if (this.statusLine != null) {
+            return this.statusLine;
+        }
+        String s = this.formattedStatusLine;
+        if (s == null) {
+            StringBuffer buffer = new StringBuffer();
+            buffer.append(getHttpVersion());
+            buffer.append(' ');
+            buffer.append(this.statusCode);
+            String reason = getReasonPhrase();
+            if (reason.length() > 0) {
+                buffer.append(' ');
+                buffer.append(reason);
+            }
+            s = buffer.toString();
+            this.formattedStatusLine = s;
+        }
+        return s;
     }
 
     /**
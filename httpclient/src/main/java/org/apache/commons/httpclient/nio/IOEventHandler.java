@@ -0,0 +1,117 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the events of the {@link IOSession I/O sessions} of an
+ * {@link IOReactor}.
+ * <p>
+ * All events of a session are delivered on the I/O thread of the session, one
+ * at a time, so a handler needs no synchronization for the state it keeps per
+ * session. Handlers must not block: while an event is handled, no other session
+ * of the same I/O thread makes progress.
+ * </p>
+ * <p>
+ * An <code>IOException</code> thrown by a handler method fails the session: it is
+ * closed, and the exception is passed to {@link #failed(IOSession, IOException)}.
+ * </p>
+ *
+ * @since 3.1
+ */
+public interface IOEventHandler {
+
+    /**
+     * Called once the session is connected. The session is now reading input.
+     *
+     * @param session the session
+     *
+     * @throws IOException to fail the session
+     */
+    void connected(IOSession session) throws IOException;
+
+    /**
+     * Called when input has been received. The buffer is ready for reading and
+     * holds the input not consumed yet. The handler consumes what it can, by
+     * advancing the position of the buffer; the remaining bytes are presented
+     * again, followed by new input, on the next call. The buffer is only valid
+     * during this call.
+     * <p>
+     * Unconsumed input is retained without limit, so a handler waiting for more
+     * input must itself limit how much it accepts.
+     * </p>
+     *
+     * @param session the session
+     * @param src the input
+     *
+     * @throws IOException to fail the session
+     */
+    void inputReady(IOSession session, ByteBuffer src) throws IOException;
+
+    /**
+     * Called when all output {@link IOSession#write(ByteBuffer) written} to the
+     * session has been sent.
+     *
+     * @param session the session
+     *
+     * @throws IOException to fail the session
+     */
+    void outputReady(IOSession session) throws IOException;
+
+    /**
+     * Called when no input has been received and no output could be sent for
+     * the {@link IOSession#getSocketTimeout() socket timeout} of the session.
+     * The session stays open; the handler decides whether to close it. If it
+     * does not, the timeout starts over.
+     *
+     * @param session the session
+     *
+     * @throws IOException to fail the session
+     */
+    void timeout(IOSession session) throws IOException;
+
+    /**
+     * Called when the session fails, just before it is closed. The failure may
+     * be a failure to connect, including a
+     * {@link org.apache.commons.httpclient.ConnectionTimeoutException connect timeout},
+     * an I/O error, or an exception thrown by this handler.
+     *
+     * @param session the session
+     * @param cause the failure
+     */
+    void failed(IOSession session, IOException cause);
+
+    /**
+     * Called once the session has been closed, by either side or after a
+     * failure. This is the last event of a session.
+     *
+     * @param session the session
+     */
+    void closed(IOSession session);
+}
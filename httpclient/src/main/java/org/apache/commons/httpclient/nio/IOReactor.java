@@ -0,0 +1,219 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.params.IOReactorParams;
+import org.apache.commons.httpclient.protocol.DefaultProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.HostResolver;
+
+/**
+ * A non-blocking transport that multiplexes many connections over a small,
+ * fixed number of I/O threads, as an alternative to the one thread per request
+ * of {@link org.apache.commons.httpclient.HttpConnection blocking connections}.
+ * <p>
+ * Each I/O thread waits for the events of its connections with a single
+ * {@link java.nio.channels.Selector selector} and hands them to the
+ * {@link IOEventHandler} of the connection. Connections are routed according to
+ * their {@link HostConfiguration}: to the proxy if one is set, otherwise to the
+ * target host, from the local address if one is set. Timeouts and socket options
+ * are taken from the {@link IOReactorParams parameters} of the reactor.
+ * </p>
+ * <p>
+ * Only plain connections are supported; host configurations with a
+ * {@link org.apache.commons.httpclient.protocol.Protocol#isSecure() secure protocol}
+ * are rejected.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class IOReactor {
+
+    /** Numbers the reactors for the names of their threads */
+    private static final AtomicInteger COUNTER = new AtomicInteger(0);
+
+    /** The parameters of this reactor */
+    private final IOReactorParams params;
+
+    /** Resolves the hosts to connect to */
+    private final HostResolver resolver;
+
+    /** The I/O threads */
+    private final IOWorker[] workers;
+
+    /** The I/O thread the next session is assigned to */
+    private final AtomicInteger nextWorker = new AtomicInteger(0);
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates and starts a reactor that resolves host names with the resolver of
+     * the {@link DefaultProtocolSocketFactory#getSocketFactory() default socket factory}.
+     *
+     * @param params the parameters of the reactor and its connections
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+    public IOReactor(final IOReactorParams params) throws IOException {
+        this(params, DefaultProtocolSocketFactory.getSocketFactory().getHostResolver());
+    }
+
+    /**
+     * Creates and starts a reactor.
+     *
+     * @param params the parameters of the reactor and its connections
+     * @param resolver resolves the hosts to connect to
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+    public IOReactor(final IOReactorParams params, final HostResolver resolver)
+        throws IOException {
+        super();
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters may not be null");
+        }
+        if (resolver == null) {
+            throw new IllegalArgumentException("Host resolver may not be null");
+        }
+        this.params = params;
+        this.resolver = resolver;
+        this.workers = new IOWorker[params.getIOThreadCount()];
+        int bufferSize = params.getBufferSize();
+        int selectInterval = params.getSelectInterval();
+        try {
+            for (int i = 0; i < this.workers.length; i++) {
+                this.workers[i] = new IOWorker(bufferSize, selectInterval);
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < this.workers.length && this.workers[i] != null; i++) {
+                this.workers[i].getSelector().close();
+            }
+            throw e;
+        }
+        int id = COUNTER.incrementAndGet();
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i].start("HttpClient-IOReactor-" + id + "-" + (i + 1));
+        }
+    }
+
+    /**
+     * Returns the parameters of this reactor. They apply to the connections
+     * opened after they have been changed.
+     *
+     * @return the parameters
+     */
+    public IOReactorParams getParams() {
+        return this.params;
+    }
+
+    /**
+     * Opens a connection according to the given host configuration. The host name
+     * is resolved by the calling thread, the connection is established by an I/O
+     * thread. The outcome, including a failure to resolve the host, is reported to
+     * the handler.
+     *
+     * @param hostConfiguration the route of the connection; it is copied
+     * @param handler the handler of the events of the connection
+     * @param attachment the initial attachment of the session, or <code>null</code>
+     *
+     * @return the session of the connection, connecting
+     *
+     * @throws IllegalStateException if the reactor has been shut down
+     */
+    public IOSession connect(final HostConfiguration hostConfiguration,
+        final IOEventHandler handler, final Object attachment) {
+        if (hostConfiguration == null) {
+            throw new IllegalArgumentException("Host configuration may not be null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("Event handler may not be null");
+        }
+        HostConfiguration route = new HostConfiguration(hostConfiguration);
+        if (route.getHost() == null) {
+            throw new IllegalArgumentException("Host must be set in the host configuration");
+        }
+        if (route.getProtocol().isSecure()) {
+            throw new IllegalArgumentException("Secure protocols are not supported: "
+                + route.getProtocol().getScheme());
+        }
+        if (this.shutdown) {
+            throw new IllegalStateException("I/O reactor has been shut down");
+        }
+
+        String host;
+        int port;
+        if (route.getProxyHost() != null) {
+            host = route.getProxyHost();
+            port = route.getProxyPort();
+        } else {
+            host = route.getHost();
+            port = route.getPort();
+        }
+        InetAddress[] addresses = null;
+        IOException failure = null;
+        try {
+            addresses = this.resolver.resolve(host);
+        } catch (UnknownHostException e) {
+            failure = e;
+        }
+
+        int index = (this.nextWorker.getAndIncrement() & Integer.MAX_VALUE) % this.workers.length;
+        IOWorker worker = this.workers[index];
+        final IOSession session = new IOSession(worker, route, this.params, handler,
+            attachment, addresses, port, failure);
+        worker.execute(new Runnable() {
+            public void run() {
+                session.connect();
+            }
+        });
+        return session;
+    }
+
+    /**
+     * Tests if this reactor has been shut down.
+     *
+     * @return <code>true</code> if {@link #shutdown()} has been called
+     */
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    /**
+     * Shuts this reactor down. All sessions are closed and the I/O threads stop.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i].shutdown();
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.httpclient.ConnectionTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.DefaultProtocolSocketFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A non-blocking connection opened by an {@link IOReactor}. Its events are
+ * delivered to an {@link IOEventHandler} on the I/O thread the session is
+ * assigned to.
+ * <p>
+ * The methods of this class may be called from any thread. Output is queued and
+ * sent by the I/O thread as the connection accepts it; it may be written while
+ * the session is still connecting.
+ * </p>
+ *
+ * @see IOReactor#connect(HostConfiguration, IOEventHandler, Object)
+ *
+ * @since 3.1
+ */
+public class IOSession {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(IOSession.class);
+
+    private static final int CONNECTING = 0;
+
+    private static final int ACTIVE = 1;
+
+    private static final int CLOSED = 2;
+
+    /** The worker this session is confined to */
+    private final IOWorker worker;
+
+    /** The route of this session */
+    private final HostConfiguration hostConfiguration;
+
+    /** The connection parameters */
+    private final HttpConnectionParams params;
+
+    /** The handler of the events of this session */
+    private final IOEventHandler handler;
+
+    /** The addresses to connect to, or <code>null</code> if they could not be resolved */
+    private final InetAddress[] addresses;
+
+    /** The port to connect to */
+    private final int port;
+
+    /** Why the addresses could not be resolved */
+    private final IOException resolveFailure;
+
+    /** The connect timeout in milliseconds */
+    private final int connectTimeout;
+
+    /** The buffers waiting to be sent */
+    private final ConcurrentLinkedQueue output = new ConcurrentLinkedQueue();
+
+    /** Set while an update of the interest set is waiting to be run */
+    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+
+    private final Runnable updateTask = new Runnable() {
+        public void run() {
+            updateScheduled.set(false);
+            updateInterest();
+        }
+    };
+
+    private volatile int state = CONNECTING;
+
+    private volatile Object attachment;
+
+    private volatile int socketTimeout;
+
+    private volatile boolean inputSuspended = false;
+
+    private volatile SocketAddress remoteAddress = null;
+
+    // the remaining fields are confined to the worker thread
+
+    private SocketChannel channel = null;
+
+    private SelectionKey key = null;
+
+    /** Input not consumed by the handler yet, in write mode */
+    private ByteBuffer input = null;
+
+    private int nextAddress = 0;
+
+    private long connectDeadline = 0;
+
+    private long lastActivity = 0;
+
+    private IOException lastFailure = null;
+
+    IOSession(final IOWorker worker, final HostConfiguration hostConfiguration,
+        final HttpConnectionParams params, final IOEventHandler handler,
+        final Object attachment, final InetAddress[] addresses, int port,
+        final IOException resolveFailure) {
+        super();
+        this.worker = worker;
+        this.hostConfiguration = hostConfiguration;
+        this.params = params;
+        this.handler = handler;
+        this.attachment = attachment;
+        this.addresses = addresses;
+        this.port = port;
+        this.resolveFailure = resolveFailure;
+        this.connectTimeout = params.getConnectionTimeout();
+        this.socketTimeout = params.getSoTimeout();
+    }
+
+    /**
+     * Returns the route of this session.
+     *
+     * @return the host configuration the session was opened for
+     */
+    public HostConfiguration getHostConfiguration() {
+        return this.hostConfiguration;
+    }
+
+    /**
+     * Returns the address this session is connected or connecting to.
+     *
+     * @return the remote address, or <code>null</code> if no connection has been
+     * attempted yet
+     */
+    public SocketAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    /**
+     * Returns the object attached to this session.
+     *
+     * @return the attachment, or <code>null</code>
+     */
+    public Object getAttachment() {
+        return this.attachment;
+    }
+
+    /**
+     * Attaches an object, such as the protocol state of a handler, to this session.
+     *
+     * @param attachment the attachment, or <code>null</code>
+     */
+    public void setAttachment(final Object attachment) {
+        this.attachment = attachment;
+    }
+
+    /**
+     * Returns the socket timeout of this session.
+     *
+     * @return the timeout in milliseconds, <tt>0</tt> for none
+     *
+     * @see IOEventHandler#timeout(IOSession)
+     */
+    public int getSocketTimeout() {
+        return this.socketTimeout;
+    }
+
+    /**
+     * Sets the socket timeout of this session. It is initially the
+     * {@link HttpConnectionParams#getSoTimeout() socket timeout} of the reactor.
+     *
+     * @param timeout the timeout in milliseconds, <tt>0</tt> for none
+     *
+     * @see IOEventHandler#timeout(IOSession)
+     */
+    public void setSocketTimeout(int timeout) {
+        this.socketTimeout = timeout;
+    }
+
+    /**
+     * Tests if this session is connected.
+     *
+     * @return <code>true</code> if the session is connected and not closed
+     */
+    public boolean isConnected() {
+        return this.state == ACTIVE;
+    }
+
+    /**
+     * Tests if this session is open.
+     *
+     * @return <code>true</code> if the session is connecting or connected
+     */
+    public boolean isOpen() {
+        return this.state != CLOSED;
+    }
+
+    /**
+     * Queues the given buffer to be sent. The buffer is owned by the session
+     * until it has been sent and must not be modified meanwhile.
+     *
+     * @param src the buffer to send, ready for reading
+     *
+     * @throws IOException if the session has been closed
+     */
+    public void write(final ByteBuffer src) throws IOException {
+        if (src == null) {
+            throw new IllegalArgumentException("Buffer may not be null");
+        }
+        if (this.state == CLOSED) {
+            throw new IOException("I/O session has been closed");
+        }
+        this.output.add(src);
+        requestUpdate();
+    }
+
+    /**
+     * Tests if output is waiting to be sent.
+     *
+     * @return <code>true</code> if not all output has been sent yet
+     */
+    public boolean hasPendingOutput() {
+        return !this.output.isEmpty();
+    }
+
+    /**
+     * Stops reading input until {@link #resumeInput()} is called.
+     */
+    public void suspendInput() {
+        this.inputSuspended = true;
+        requestUpdate();
+    }
+
+    /**
+     * Resumes reading input. Input received but not consumed earlier is presented
+     * to the handler again.
+     */
+    public void resumeInput() {
+        this.inputSuspended = false;
+        this.worker.execute(new Runnable() {
+            public void run() {
+                updateInterest();
+                if (state == ACTIVE && !inputSuspended && input != null) {
+                    try {
+                        input.flip();
+                        deliver(input);
+                    } catch (IOException e) {
+                        close(e);
+                    } catch (RuntimeException e) {
+                        handlerFailed(e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes this session. Output not sent yet is discarded. The handler is
+     * notified on the I/O thread.
+     */
+    public void close() {
+        this.worker.execute(new Runnable() {
+            public void run() {
+                close(null);
+            }
+        });
+    }
+
+    /**
+     * Starts connecting. Called on the worker thread.
+     */
+    void connect() {
+        if (this.state == CLOSED) {
+            return;
+        }
+        if (!this.worker.isRunning()) {
+            close(new IOException("I/O reactor has been shut down"));
+            return;
+        }
+        if (this.resolveFailure != null) {
+            close(this.resolveFailure);
+            return;
+        }
+        if (this.connectTimeout > 0) {
+            this.connectDeadline = System.currentTimeMillis() + this.connectTimeout;
+        }
+        startAttempt();
+    }
+
+    /**
+     * Connects to the next address, or fails the session if there is none left.
+     */
+    private void startAttempt() {
+        while (this.nextAddress < this.addresses.length) {
+            InetSocketAddress address =
+                new InetSocketAddress(this.addresses[this.nextAddress++], this.port);
+            boolean connected;
+            try {
+                this.channel = SocketChannel.open();
+                this.channel.configureBlocking(false);
+                DefaultProtocolSocketFactory.applySocketOptions(this.channel.socket(), this.params);
+                InetAddress localAddress = this.hostConfiguration.getLocalAddress();
+                if (localAddress != null) {
+                    this.channel.socket().bind(new InetSocketAddress(localAddress, 0));
+                }
+                this.remoteAddress = address;
+                connected = this.channel.connect(address);
+                this.key = this.channel.register(this.worker.getSelector(),
+                    connected ? 0 : SelectionKey.OP_CONNECT, this);
+            } catch (IOException e) {
+                this.lastFailure = e;
+                closeChannel();
+                continue;
+            }
+            if (connected) {
+                connected();
+            }
+            return;
+        }
+        close(this.lastFailure);
+    }
+
+    /**
+     * Handles the selected operations of this session. Called on the worker thread.
+     */
+    void process(final SelectionKey key) {
+        if (this.state == CLOSED || !key.isValid()) {
+            return;
+        }
+        try {
+            if (this.state == CONNECTING) {
+                if (key.isConnectable()) {
+                    finishConnect();
+                }
+                return;
+            }
+            if (key.isReadable()) {
+                read();
+            }
+            if (this.state == ACTIVE && key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            close(e);
+        } catch (RuntimeException e) {
+            handlerFailed(e);
+        }
+    }
+
+    private void finishConnect() {
+        try {
+            if (!this.channel.finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            this.lastFailure = e;
+            closeChannel();
+            startAttempt();
+            return;
+        }
+        connected();
+    }
+
+    private void connected() {
+        this.state = ACTIVE;
+        this.lastActivity = System.currentTimeMillis();
+        updateInterest();
+        try {
+            this.handler.connected(this);
+        } catch (IOException e) {
+            close(e);
+        } catch (RuntimeException e) {
+            handlerFailed(e);
+        }
+    }
+
+    private void read() throws IOException {
+        ByteBuffer dst = this.input != null ? this.input : this.worker.getBuffer();
+        int n = this.channel.read(dst);
+        if (n < 0) {
+            close(null);
+            return;
+        }
+        if (n > 0) {
+            this.lastActivity = System.currentTimeMillis();
+            dst.flip();
+            deliver(dst);
+        }
+    }
+
+    /**
+     * Presents the given input to the handler and retains what it does not consume.
+     */
+    private void deliver(final ByteBuffer src) throws IOException {
+        this.handler.inputReady(this, src);
+        if (this.state == CLOSED || !src.hasRemaining()) {
+            this.input = null;
+            return;
+        }
+        ByteBuffer retained;
+        if (src == this.input) {
+            src.compact();
+            retained = src;
+        } else {
+            retained = ByteBuffer.allocate(src.capacity());
+            retained.put(src);
+        }
+        if (!retained.hasRemaining()) {
+            // nothing consumed from a full buffer, make room for more input
+            ByteBuffer larger = ByteBuffer.allocate(retained.capacity() * 2);
+            retained.flip();
+            larger.put(retained);
+            retained = larger;
+        }
+        this.input = retained;
+    }
+
+    private void flush() throws IOException {
+        ByteBuffer src;
+        while ((src = (ByteBuffer) this.output.peek()) != null) {
+            if (this.channel.write(src) > 0) {
+                this.lastActivity = System.currentTimeMillis();
+            }
+            if (src.hasRemaining()) {
+                return;
+            }
+            this.output.poll();
+        }
+        updateInterest();
+        this.handler.outputReady(this);
+    }
+
+    /**
+     * Checks this session for a connect or socket timeout. Called on the worker thread.
+     */
+    void checkTimeout(long now) {
+        if (this.state == CONNECTING) {
+            if (this.connectDeadline > 0 && now >= this.connectDeadline) {
+                close(new ConnectionTimeoutException(
+                    "The host did not accept the connection within timeout of "
+                    + this.connectTimeout + " ms"));
+            }
+        } else if (this.state == ACTIVE) {
+            int timeout = this.socketTimeout;
+            if (timeout > 0 && now - this.lastActivity >= timeout) {
+                this.lastActivity = now;
+                try {
+                    this.handler.timeout(this);
+                } catch (IOException e) {
+                    close(e);
+                } catch (RuntimeException e) {
+                    handlerFailed(e);
+                }
+            }
+        }
+    }
+
+    private void requestUpdate() {
+        if (this.worker.isWorkerThread()) {
+            updateInterest();
+        } else if (this.updateScheduled.compareAndSet(false, true)) {
+            this.worker.execute(this.updateTask);
+        }
+    }
+
+    /**
+     * Brings the interest set in line with the state of this session.
+     */
+    private void updateInterest() {
+        SelectionKey k = this.key;
+        if (this.state != ACTIVE || k == null || !k.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!this.inputSuspended) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!this.output.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (k.interestOps() != ops) {
+            k.interestOps(ops);
+        }
+    }
+
+    private void handlerFailed(final RuntimeException e) {
+        LOG.error("Unexpected failure of the I/O event handler", e);
+        close(new IOException("Unexpected failure of the I/O event handler: " + e, e));
+    }
+
+    /**
+     * Closes this session and notifies the handler, unless it is closed already.
+     * Called on the worker thread.
+     *
+     * @param cause the failure, or <code>null</code> if the session is closed regularly
+     */
+    void close(final IOException cause) {
+        if (this.state == CLOSED) {
+            return;
+        }
+        this.state = CLOSED;
+        closeChannel();
+        this.input = null;
+        this.output.clear();
+        if (cause != null) {
+            try {
+                this.handler.failed(this, cause);
+            } catch (RuntimeException e) {
+                LOG.error("Unexpected failure of the I/O event handler", e);
+            }
+        }
+        try {
+            this.handler.closed(this);
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected failure of the I/O event handler", e);
+        }
+    }
+
+    private void closeChannel() {
+        if (this.key != null) {
+            this.key.cancel();
+            this.key = null;
+        }
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException ignore) {
+            }
+            this.channel = null;
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "IOSession[" + this.hostConfiguration.getHostURL() + "]";
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An I/O thread of an {@link IOReactor}: a selector loop that handles the events
+ * of its sessions and runs the tasks handed to it by other threads.
+ * <p>
+ * Sessions are confined to their worker. Other threads never touch a channel or
+ * selection key, they {@link #execute(Runnable) hand a task} to the worker instead.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class IOWorker implements Runnable {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(IOWorker.class);
+
+    /** The selector of the sessions of this worker */
+    private final Selector selector;
+
+    /** Tasks waiting to be run by the worker thread */
+    private final ConcurrentLinkedQueue tasks = new ConcurrentLinkedQueue();
+
+    /** The buffer input is read into, shared by all sessions */
+    private final ByteBuffer buffer;
+
+    /** The interval in milliseconds at which timeouts are checked */
+    private final int selectInterval;
+
+    /** The worker thread */
+    private volatile Thread thread = null;
+
+    /** Set when the reactor is shut down */
+    private volatile boolean shutdown = false;
+
+    /** Set once the worker thread has stopped */
+    private volatile boolean terminated = false;
+
+    IOWorker(int bufferSize, int selectInterval) throws IOException {
+        super();
+        this.selector = Selector.open();
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.selectInterval = selectInterval;
+    }
+
+    /**
+     * Starts the worker thread.
+     */
+    void start(final String name) {
+        Thread t = new Thread(this, name);
+        t.setDaemon(true);
+        this.thread = t;
+        t.start();
+    }
+
+    /**
+     * Stops the worker thread. All sessions are closed.
+     */
+    void shutdown() {
+        this.shutdown = true;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Tests if the worker accepts new sessions.
+     */
+    boolean isRunning() {
+        return !this.shutdown && !this.terminated;
+    }
+
+    /**
+     * Tests if the calling thread is the worker thread.
+     */
+    boolean isWorkerThread() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    Selector getSelector() {
+        return this.selector;
+    }
+
+    /**
+     * Returns the shared buffer, cleared. Only to be used by the worker thread.
+     */
+    ByteBuffer getBuffer() {
+        this.buffer.clear();
+        return this.buffer;
+    }
+
+    /**
+     * Runs the given task on the worker thread. Tasks handed over after the worker
+     * has stopped are run by the calling thread.
+     */
+    void execute(final Runnable task) {
+        this.tasks.add(task);
+        if (!isWorkerThread()) {
+            this.selector.wakeup();
+            if (this.terminated) {
+                runTasks();
+            }
+        }
+    }
+
+    /**
+     * The selector loop.
+     */
+    public void run() {
+        try {
+            long nextCheck = System.currentTimeMillis() + this.selectInterval;
+            while (!this.shutdown) {
+                runTasks();
+                this.selector.select(this.selectInterval);
+                if (this.shutdown) {
+                    break;
+                }
+                Iterator iter = this.selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = (SelectionKey) iter.next();
+                    iter.remove();
+                    ((IOSession) key.attachment()).process(key);
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextCheck) {
+                    checkTimeouts(now);
+                    nextCheck = now + this.selectInterval;
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("I/O reactor thread terminated unexpectedly", t);
+        } finally {
+            this.terminated = true;
+            IOException failure = this.shutdown ? null
+                : new IOException("I/O reactor thread has been terminated");
+            List sessions = new ArrayList(this.selector.keys());
+            for (int i = 0; i < sessions.size(); i++) {
+                ((IOSession) ((SelectionKey) sessions.get(i)).attachment()).close(failure);
+            }
+            runTasks();
+            try {
+                this.selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = (Runnable) this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Unexpected failure of an I/O reactor task", e);
+            }
+        }
+    }
+
+    private void checkTimeouts(long now) {
+        // the sessions may close themselves, so iterate over a copy
+        Object[] keys = this.selector.keys().toArray();
+        for (int i = 0; i < keys.length; i++) {
+            ((IOSession) ((SelectionKey) keys[i]).attachment()).checkTimeout(now);
+        }
+    }
+}
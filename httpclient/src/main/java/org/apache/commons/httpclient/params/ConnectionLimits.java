@@ -0,0 +1,158 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.RouteKey;
+
+/**
+ * An immutable snapshot of the connection limits defined by
+ * {@link HttpConnectionManagerParams#MAX_HOST_CONNECTIONS} and
+ * {@link HttpConnectionManagerParams#MAX_TOTAL_CONNECTIONS}.
+ * <p>
+ * Connection managers consult the limits on every connection request. Since a
+ * snapshot never changes, they may read it without synchronization and cache
+ * values derived from it for as long as
+ * {@link HttpConnectionManagerParams#getConnectionLimits()} keeps returning the
+ * same instance.
+ * </p>
+ *
+ * @see HttpConnectionManagerParams#getConnectionLimits()
+ *
+ * @since 3.1
+ */
+public final class ConnectionLimits {
+
+    /** The per host limits the snapshot has been built from */
+    private final Map source;
+
+    /** Private copy of the per host limits */
+    private final Map maxHostConnections;
+
+    /** The limit for hosts without a specific one */
+    private final int defaultMaxHostConnections;
+
+    /** The overall limit */
+    private final int maxTotalConnections;
+
+    /**
+     * Creates a snapshot of the given limits.
+     *
+     * @param maxHostConnections the value of {@link HttpConnectionManagerParams#MAX_HOST_CONNECTIONS},
+     * or <code>null</code> if not set
+     * @param maxTotalConnections the overall limit
+     */
+    ConnectionLimits(final Map maxHostConnections, int maxTotalConnections) {
+        super();
+        this.source = maxHostConnections;
+        if (maxHostConnections == null) {
+            this.maxHostConnections = Collections.EMPTY_MAP;
+        } else {
+            // host configurations are mutable, so key the snapshot on their route keys
+            this.maxHostConnections = new HashMap(maxHostConnections.size() * 2);
+            Iterator iter = maxHostConnections.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                this.maxHostConnections.put(
+                    ((HostConfiguration) entry.getKey()).getRouteKey(),
+                    entry.getValue());
+            }
+        }
+        Integer max = (Integer) this.maxHostConnections.get(
+            HostConfiguration.ANY_HOST_CONFIGURATION.getRouteKey());
+        this.defaultMaxHostConnections = max == null
+            ? MultiThreadedHttpConnectionManager.DEFAULT_MAX_HOST_CONNECTIONS
+            : max.intValue();
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    /**
+     * Tests whether this snapshot has been built from the given values.
+     */
+    boolean isBasedOn(final Map maxHostConnections, int maxTotalConnections) {
+        return this.source == maxHostConnections
+            && this.maxTotalConnections == maxTotalConnections;
+    }
+
+    /**
+     * Gets the maximum number of connections to be used for a particular host config.
+     * If the value has not been specified for the given host the default value is
+     * returned.
+     *
+     * @param hostConfiguration The host config.
+     * @return The maximum number of connections to be used for the given host config.
+     */
+    public int getMaxConnectionsPerHost(final HostConfiguration hostConfiguration) {
+        if (this.maxHostConnections.isEmpty()) {
+            return this.defaultMaxHostConnections;
+        }
+        return getMaxConnectionsPerHost(hostConfiguration.getRouteKey());
+    }
+
+    /**
+     * Gets the maximum number of connections to be used for a particular route.
+     * If the value has not been specified for the given route the default value is
+     * returned.
+     *
+     * @param routeKey The route key.
+     * @return The maximum number of connections to be used for the given route.
+     *
+     * @since 3.1
+     */
+    public int getMaxConnectionsPerHost(final RouteKey routeKey) {
+        if (this.maxHostConnections.isEmpty()) {
+            return this.defaultMaxHostConnections;
+        }
+        Integer max = (Integer) this.maxHostConnections.get(routeKey);
+        return max == null ? this.defaultMaxHostConnections : max.intValue();
+    }
+
+    /**
+     * Gets the maximum number of connections allowed for hosts without a specific limit.
+     *
+     * @return The default maximum.
+     */
+    public int getDefaultMaxConnectionsPerHost() {
+        return this.defaultMaxHostConnections;
+    }
+
+    /**
+     * Gets the maximum number of connections allowed overall.
+     *
+     * @return The maximum number of connections allowed.
+     */
+    public int getMaxTotalConnections() {
+        return this.maxTotalConnections;
+    }
+
+}
@@ -30,8 +30,13 @@
 
 package org.apache.commons.httpclient.params;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +46,17 @@ import org.apache.commons.logging.LogFactory;
  * may be linked together to form a hierarchy. If a particular parameter value has not been
  * explicitly defined in the collection itself, its value will be drawn from the parent
  * collection of parameters.
+ * <p>
+ * Parameters are looked up without locking: the parameters of a collection are kept
+ * in a concurrent map and its parent is held in a volatile field, so any number of
+ * threads may read a shared collection while it is being modified. Setting a parameter
+ * to <tt>null</tt> removes it from the collection.
+ * </p>
+ * <p>
+ * Parameters with an {@link IntParamKey} or {@link LongParamKey} are also kept as
+ * primitives, so reading them by key, for instance with
+ * {@link #getIntParameter(IntParamKey, int)}, involves no unboxing and no casts.
+ * </p>
  *
  * @author <a href="mailto:oleg@ural.ru">Oleg Kalnichevski</a>
  *
@@ -54,7 +70,7 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
     private static final Log LOG = LogFactory.getLog(DefaultHttpParams.class);
 
     /** HttpParams class factory. */
-    private static HttpParamsFactory httpParamsFactory = new DefaultHttpParamsFactory();
+    private static volatile HttpParamsFactory httpParamsFactory = new DefaultHttpParamsFactory();
 
     /**
      * Gets the default HttpParams to be used.
@@ -82,10 +98,32 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
     }
 
     /** The set of default values to defer to */
-    private HttpParams defaults = null; // Line85
+    private volatile HttpParams defaults = null; // Line85
 
-    /** Hash map of HTTP parameters that this collection contains */
-    private HashMap parameters = null;
+    /** Map of HTTP parameters that this collection contains, created when the first is set */
+    private volatile ConcurrentHashMap parameters = null;
+
+    /** Primitive copies of the parameters with primitive keys, replaced on every change */
+    private transient volatile PrimitiveSlots slots = null;
+
+    /**
+     * Parameters with a slot index of at least this value may have been set before
+     * their key was defined and thus be missing from the slots
+     */
+    private transient volatile int slotHorizon = PrimitiveParamKey.MAX_SLOTS;
+
+    /** Incremented on every modification of this collection */
+    private transient volatile int modCount = 0;
+
+    /** The last snapshot taken, see {@link #getSnapshot()} */
+    private transient volatile HttpParamsSnapshot snapshot = null;
+
+    /**
+     * Guards modifications of this collection and its subclasses. A lock is used
+     * rather than the monitor, so that virtual threads waiting for it do not pin
+     * their carrier thread.
+     */
+    transient ReentrantLock lock = new ReentrantLock();
 
     /**
      * Creates a new collection of parameters with the given parent.
@@ -113,28 +151,31 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
         this(getDefaultParams());
     }
     @Override
-    public synchronized HttpParams getDefaults() {
+    public HttpParams getDefaults() {
         return this.defaults;
     }
     @Override
     public void setDefaults(HttpParams params) {
         this.defaults = params;
+        modified();
     }
     @Override
-    public synchronized Object getParameter(final String name) { // 124
+    public Object getParameter(final String name) { // 124
         // See if the parameter has been explicitly defined
         Object param = null;
-        if (this.parameters != null) {
-            param = this.parameters.get(name);
+        ConcurrentHashMap map = this.parameters;
+        if (map != null) {
+            param = map.get(name);
         }
         if (param != null) {
             // If so, return
             return param;
         } else {
             // If not, see if defaults are available
-            if (this.defaults != null) {
+            HttpParams parent = this.defaults;
+            if (parent != null) {
                 // Return default parameter value
-                return this.defaults.getParameter(name);
+                return parent.getParameter(name);
             } else {
                 // Otherwise, return null
                 return null;
@@ -142,25 +183,204 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
         }
     }
     @Override
-    public synchronized void setParameter(final String name, final Object value) {
-        if (this.parameters == null) {
-            this.parameters = new HashMap();
+    public void setParameter(final String name, final Object value) {
+        int registered = PrimitiveParamKey.getSlotCount();
+        int index = PrimitiveParamKey.indexOf(name);
+        if (index < 0) {
+            putParameter(name, value);
+            if (registered < this.slotHorizon) {
+                // a key for this name may yet be defined, with an index of at least registered
+                this.lock.lock();
+                try {
+                    this.slotHorizon = Math.min(this.slotHorizon, registered);
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        } else {
+            // keep the map and the primitive slot consistent
+            this.lock.lock();
+            try {
+                putParameter(name, value);
+                this.slots = PrimitiveSlots.update(this.slots, index, value);
+            } finally {
+                this.lock.unlock();
+            }
         }
-        this.parameters.put(name, value);
+        modified();
         if (LOG.isDebugEnabled()) {
             LOG.debug("Set parameter " + name + " = " + value);
         }
     }
 
+    private void putParameter(final String name, final Object value) {
+        if (value == null) {
+            ConcurrentHashMap map = this.parameters;
+            if (map != null) {
+                map.remove(name);
+            }
+        } else {
+            getParameters().put(name, value);
+        }
+    }
+
+    /**
+     * Returns the value of the parameter with the given key.
+     *
+     * @param key the parameter key
+     *
+     * @return the value, or <tt>null</tt> if not set at any level
+     *
+     * @throws ClassCastException if the value is not of the type of the key
+     *
+     * @since 3.1
+     */
+    public <T> T getParameter(final ParamKey<T> key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key may not be null");
+        }
+        return key.getType().cast(getParameter(key.getName()));
+    }
+
+    /**
+     * Assigns the value of the parameter with the given key.
+     *
+     * @param key the parameter key
+     * @param value the value, <tt>null</tt> to remove the parameter from this collection
+     *
+     * @since 3.1
+     */
+    public <T> void setParameter(final ParamKey<T> key, final T value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key may not be null");
+        }
+        setParameter(key.getName(), value);
+    }
+
+    /**
+     * Returns the value of the {@link Integer} parameter with the given key, without
+     * unboxing as long as the hierarchy consists of {@link DefaultHttpParams}.
+     *
+     * @param key the parameter key
+     * @param defaultValue the value to return if the parameter is not set at any level
+     *
+     * @return the value of the parameter
+     *
+     * @since 3.1
+     */
+    public int getIntParameter(final IntParamKey key, int defaultValue) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key may not be null");
+        }
+        return (int) getPrimitiveParameter(key, defaultValue);
+    }
+
+    /**
+     * Assigns the value of the {@link Integer} parameter with the given key.
+     *
+     * @param key the parameter key
+     * @param value the value
+     *
+     * @since 3.1
+     */
+    public void setIntParameter(final IntParamKey key, int value) {
+        setParameter(key, new Integer(value));
+    }
+
+    /**
+     * Returns the value of the {@link Long} parameter with the given key, without
+     * unboxing as long as the hierarchy consists of {@link DefaultHttpParams}.
+     *
+     * @param key the parameter key
+     * @param defaultValue the value to return if the parameter is not set at any level
+     *
+     * @return the value of the parameter
+     *
+     * @since 3.1
+     */
+    public long getLongParameter(final LongParamKey key, long defaultValue) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key may not be null");
+        }
+        return getPrimitiveParameter(key, defaultValue);
+    }
+
+    /**
+     * Assigns the value of the {@link Long} parameter with the given key.
+     *
+     * @param key the parameter key
+     * @param value the value
+     *
+     * @since 3.1
+     */
+    public void setLongParameter(final LongParamKey key, long value) {
+        setParameter(key, new Long(value));
+    }
+
+    private long getPrimitiveParameter(final PrimitiveParamKey key, long defaultValue) {
+        long bit = 1L << key.index;
+        DefaultHttpParams level = this;
+        while (true) {
+            PrimitiveSlots current = level.slots;
+            if (current != null && (current.setMask & bit) != 0) {
+                return current.values[key.index];
+            }
+            if ((current != null && (current.foreignMask & bit) != 0)
+                || key.index >= level.slotHorizon) {
+                // set to a value of another type, or possibly set before the key was
+                // defined: look it up by name, failing like the lookup by name does
+                ConcurrentHashMap map = level.parameters;
+                Object value = map != null ? map.get(key.getName()) : null;
+                if (value != null) {
+                    return ((Number) key.getType().cast(value)).longValue();
+                }
+            }
+            HttpParams parent = level.defaults;
+            if (parent == null) {
+                return defaultValue;
+            } else if (!(parent instanceof DefaultHttpParams)) {
+                Object value = parent.getParameter(key.getName());
+                return value == null
+                    ? defaultValue : ((Number) key.getType().cast(value)).longValue();
+            }
+            level = (DefaultHttpParams) parent;
+        }
+    }
+
+    /**
+     * Returns the map of parameters, creating it if necessary.
+     */
+    private ConcurrentHashMap getParameters() {
+        ConcurrentHashMap map = this.parameters;
+        if (map == null) {
+            this.lock.lock();
+            try {
+                map = this.parameters;
+                if (map == null) {
+                    map = new ConcurrentHashMap(8);
+                    this.parameters = map;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return map;
+    }
+
     /**
      * Assign the value to all the parameter with the given names
      *
      * @param names array of parameter name
      * @param value parameter value
      */
-    public synchronized void setParameters(final String[] names, final Object value) {
-        for (int i = 0; i < names.length; i++) {
-            setParameter(names[i], value);
+    public void setParameters(final String[] names, final Object value) {
+        this.lock.lock();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                setParameter(names[i], value);
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
     @Override
@@ -217,7 +437,8 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
     }
     @Override
     public boolean isParameterSetLocally(String name) {
-        return this.parameters != null && this.parameters.get(name) != null;
+        ConcurrentHashMap map = this.parameters;
+        return map != null && map.get(name) != null;
     }
     @Override
     public boolean isParameterTrue(String name) {
@@ -232,7 +453,141 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
      * Removes all parameters from this collection.
      */
     public void clear() {
-        this.parameters = null;
+        this.lock.lock();
+        try {
+            this.parameters = null;
+            this.slots = null;
+            this.slotHorizon = PrimitiveParamKey.MAX_SLOTS;
+        } finally {
+            this.lock.unlock();
+        }
+        modified();
+    }
+
+    /**
+     * Returns an immutable snapshot of this collection and all its parents, with
+     * all parameters resolved. The snapshot is cached and only taken again once
+     * this collection or one of its parents has been modified.
+     * <p>
+     * Code reading many parameters, such as the execution of a request, should read
+     * them from a snapshot obtained once, rather than from this collection.
+     * </p>
+     *
+     * @return a snapshot of the current parameters
+     *
+     * @see HttpParamsSnapshot
+     *
+     * @since 3.1
+     */
+    public HttpParamsSnapshot getSnapshot() {
+        HttpParamsSnapshot current = this.snapshot;
+        if (current == null || !current.isCurrent()) {
+            current = new HttpParamsSnapshot(this);
+            this.snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the number of modifications of this collection, used to tell whether
+     * snapshots are current.
+     */
+    int getModCount() {
+        return this.modCount;
+    }
+
+    /**
+     * Copies the parameters set in this collection into the given map, replacing
+     * any values set for the same names.
+     */
+    void copyParametersTo(final Map map) {
+        ConcurrentHashMap current = this.parameters;
+        if (current != null) {
+            map.putAll(current);
+        }
+    }
+
+    /**
+     * Counts a modification of this collection. Modifications are counted under the
+     * lock so that concurrent ones are never lost; reads remain lock free.
+     */
+    private void modified() {
+        this.lock.lock();
+        try {
+            this.modCount++;
+            this.snapshot = null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void readObject(final ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.lock = new ReentrantLock();
+        // slot indexes are assigned per class loader, rebuild the slots from the map
+        this.slotHorizon = PrimitiveParamKey.getSlotCount();
+        ConcurrentHashMap map = this.parameters;
+        if (map != null) {
+            Iterator iter = map.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                int index = PrimitiveParamKey.indexOf((String) entry.getKey());
+                if (index >= 0) {
+                    this.slots = PrimitiveSlots.update(this.slots, index, entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Primitive copies of parameter values, indexed by slot. Instances are immutable.
+     */
+    private static final class PrimitiveSlots {
+
+        /** The slots holding a value */
+        private final long setMask;
+
+        /** The slots whose parameter is set to a value of another type */
+        private final long foreignMask;
+
+        private final long[] values;
+
+        private PrimitiveSlots(long setMask, long foreignMask, final long[] values) {
+            this.setMask = setMask;
+            this.foreignMask = foreignMask;
+            this.values = values;
+        }
+
+        /**
+         * Returns a copy of the given slots, with the given slot updated.
+         *
+         * @param slots the current slots, may be <tt>null</tt>
+         * @param index the slot
+         * @param value the new value of the parameter, may be <tt>null</tt>
+         */
+        static PrimitiveSlots update(final PrimitiveSlots slots, int index, final Object value) {
+            long[] values = new long[PrimitiveParamKey.MAX_SLOTS];
+            long setMask = 0;
+            long foreignMask = 0;
+            if (slots != null) {
+                System.arraycopy(slots.values, 0, values, 0, values.length);
+                setMask = slots.setMask;
+                foreignMask = slots.foreignMask;
+            }
+            long bit = 1L << index;
+            setMask &= ~bit;
+            foreignMask &= ~bit;
+            if (value != null) {
+                if (value.getClass() == PrimitiveParamKey.typeOf(index)) {
+                    values[index] = ((Number) value).longValue();
+                    setMask |= bit;
+                } else {
+                    foreignMask |= bit;
+                }
+            }
+            return new PrimitiveSlots(setMask, foreignMask, values);
+        }
     }
 
     /**
@@ -244,9 +599,12 @@ public class DefaultHttpParams implements HttpParams, Serializable, Cloneable {
      */
     public Object clone() throws CloneNotSupportedException {
         DefaultHttpParams clone = (DefaultHttpParams) super.clone();
-        if (this.parameters != null) {
-            clone.parameters = (HashMap) this.parameters.clone();
+        clone.lock = new ReentrantLock();
+        ConcurrentHashMap map = this.parameters;
+        if (map != null) {
+            clone.parameters = new ConcurrentHashMap(map);
         }
+        clone.snapshot = null;
         clone.setDefaults(this.defaults);
         return clone;
     }
@@ -44,7 +44,8 @@ import org.apache.commons.httpclient.util.DateUtil;
  */
 public class DefaultHttpParamsFactory implements HttpParamsFactory {
 
-    private HttpParams httpParams;
+    /** The default parameters, published once by {@link #getDefaultParams()} */
+    private volatile HttpParams httpParams;
 
     /**
      *
@@ -56,12 +57,18 @@ public class DefaultHttpParamsFactory implements HttpParamsFactory {
     /* (non-Javadoc)
      * @see org.apache.commons.httpclient.params.HttpParamsFactory#getDefaultParams()
      */
-    public synchronized HttpParams getDefaultParams() {
-        if (httpParams == null) {
-            httpParams = createParams();
+    public HttpParams getDefaultParams() {
+        HttpParams params = httpParams;
+        if (params == null) {
+            synchronized (this) {
+                params = httpParams;
+                if (params == null) {
+                    params = createParams();
+                    httpParams = params;
+                }
+            }
         }
-
-        return httpParams;
+        return params;
     }
 
     protected HttpParams createParams() {
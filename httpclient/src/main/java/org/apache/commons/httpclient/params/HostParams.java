@@ -99,4 +99,30 @@ public class HostParams extends DefaultHttpParams {  // finish @2014/1/3 15:07
         return (String) getParameter(HttpMethodParams.VIRTUAL_HOST);
     }
 
+    /**
+     * Sets whether idempotent requests to this host may be pipelined.
+     *
+     * @param value <tt>true</tt> to enable pipelining
+     *
+     * @see HttpMethodParams#PIPELINING
+     *
+     * @since 3.1
+     */
+    public void setPipelining(boolean value) {
+        setBooleanParameter(HttpMethodParams.PIPELINING, value);
+    }
+
+    /**
+     * Tests if idempotent requests to this host may be pipelined.
+     *
+     * @return <tt>true</tt> if pipelining is enabled
+     *
+     * @see HttpMethodParams#PIPELINING
+     *
+     * @since 3.1
+     */
+    public boolean isPipelining() {
+        return getBooleanParameter(HttpMethodParams.PIPELINING, false);
+    }
+
 }
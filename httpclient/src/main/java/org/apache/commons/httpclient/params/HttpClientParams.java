@@ -55,6 +55,13 @@ public class HttpClientParams extends HttpMethodParams {  // finish @2014/1/3
      */
     public static final String CONNECTION_MANAGER_TIMEOUT = "http.connection-manager.timeout";
 
+    /**
+     * The typed key of {@link #CONNECTION_MANAGER_TIMEOUT}.
+     *
+     * @since 3.1
+     */
+    public static final LongParamKey CONNECTION_MANAGER_TIMEOUT_KEY = new LongParamKey(CONNECTION_MANAGER_TIMEOUT);
+
     /**
      * Defines the default
      * {@link org.apache.commons.httpclient.HttpConnectionManager HTTP connection manager}
@@ -90,6 +97,13 @@ public class HttpClientParams extends HttpMethodParams {  // finish @2014/1/3
      */
     public static final String MAX_REDIRECTS = "http.protocol.max-redirects";
 
+    /**
+     * The typed key of {@link #MAX_REDIRECTS}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey MAX_REDIRECTS_KEY = new IntParamKey(MAX_REDIRECTS);
+
     /**
      * Defines whether circular redirects (redirects to the same location) should be allowed.
      * The HTTP spec is not sufficiently clear whether circular redirects are permitted,
@@ -135,7 +149,7 @@ public class HttpClientParams extends HttpMethodParams {  // finish @2014/1/3
      * @return timeout in milliseconds.
      */
     public long getConnectionManagerTimeout() {
-        return getLongParameter(CONNECTION_MANAGER_TIMEOUT, 0);
+        return getLongParameter(CONNECTION_MANAGER_TIMEOUT_KEY, 0);
     }
 
     /**
@@ -146,7 +160,7 @@ public class HttpClientParams extends HttpMethodParams {  // finish @2014/1/3
      * @param timeout the timeout in milliseconds
      */
     public void setConnectionManagerTimeout(long timeout) {
-        setLongParameter(CONNECTION_MANAGER_TIMEOUT, timeout);
+        setLongParameter(CONNECTION_MANAGER_TIMEOUT_KEY, timeout);
     }
 
     /**
@@ -35,6 +35,7 @@ import java.util.Map;
 
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.RouteKey;
 
 /**
  * This class represents a collection of HTTP protocol parameters applicable to
@@ -52,6 +53,12 @@ import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
  */
 public class HttpConnectionManagerParams extends HttpConnectionParams { // finish @2014/1/3 16:40
 
+    /**
+     * The connection limits published by the last update, or <code>null</code> if
+     * they have not been resolved yet. Replaced under the lock.
+     */
+    private transient volatile PublishedLimits publishedLimits = null;
+
     /**
      * Defines the maximum number of connections allowed per host configuration.
      * These values only apply to the number of connections from a particular instance
@@ -74,6 +81,31 @@ public class HttpConnectionManagerParams extends HttpConnectionParams { // finis
      */
     public static final String MAX_TOTAL_CONNECTIONS = "http.connection-manager.max-total";
 
+    /**
+     * Defines the time in milliseconds after which a free connection is closed by
+     * the idle connection evictor of the connection manager. A value of zero or less
+     * means idle connections are kept open until they are reclaimed for another host.
+     * <p>
+     * This parameter expects a value of type {@link Long}.
+     * </p>
+     * @see #EVICTOR_INTERVAL
+     */
+    public static final String MAX_IDLE_TIME = "http.connection-manager.max-idle-time";
+
+    /**
+     * Defines the interval in milliseconds at which the idle connection evictor of
+     * the connection manager runs. On every run the evictor closes the free connections
+     * that have been idle for longer than {@link #MAX_IDLE_TIME} and probes the
+     * remaining ones, closing those that have been shut down by the server. Since
+     * stale connections are then weeded out in the background, the
+     * {@link HttpConnectionParams#STALE_CONNECTION_CHECK per request stale check}
+     * can be disabled. A value of zero or less disables the evictor.
+     * <p>
+     * This parameter expects a value of type {@link Long}.
+     * </p>
+     */
+    public static final String EVICTOR_INTERVAL = "http.connection-manager.evictor-interval";
+
     /**
      * Sets the default maximum number of connections allowed for a given
      * host config.
@@ -140,25 +172,23 @@ public class HttpConnectionManagerParams extends HttpConnectionParams { // finis
      * @see #MAX_HOST_CONNECTIONS
      */
     public int getMaxConnectionsPerHost(HostConfiguration hostConfiguration) {
+        return getConnectionLimits().getMaxConnectionsPerHost(hostConfiguration);
+    }
 
-        Map m = (Map) getParameter(MAX_HOST_CONNECTIONS);
-        if (m == null) {
-            // MAX_HOST_CONNECTIONS have not been configured, using the default value
-            return MultiThreadedHttpConnectionManager.DEFAULT_MAX_HOST_CONNECTIONS;
-        } else {
-            Integer max = (Integer) m.get(hostConfiguration);
-            if (max == null && hostConfiguration != HostConfiguration.ANY_HOST_CONFIGURATION) {
-                // the value has not been configured specifically for this host config,
-                // use the default value
-                return getMaxConnectionsPerHost(HostConfiguration.ANY_HOST_CONFIGURATION);
-            } else {
-                return (
-                        max == null
-                        ? MultiThreadedHttpConnectionManager.DEFAULT_MAX_HOST_CONNECTIONS
-                        : max.intValue()
-                );
-            }
-        }
+    /**
+     * Gets the maximum number of connections to be used for a particular route.  If
+     * the value has not been specified for the given route the default value will be
+     * returned.
+     *
+     * @param routeKey The route key, as returned by {@link HostConfiguration#getRouteKey()}.
+     * @return The maximum number of connections to be used for the given route.
+     *
+     * @see #MAX_HOST_CONNECTIONS
+     *
+     * @since 3.1
+     */
+    public int getMaxConnectionsPerHost(RouteKey routeKey) {
+        return getConnectionLimits().getMaxConnectionsPerHost(routeKey);
     }
 
     /**
@@ -187,4 +217,190 @@ public class HttpConnectionManagerParams extends HttpConnectionParams { // finis
                 MultiThreadedHttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS);
     }
 
+    /**
+     * Returns an immutable snapshot of the per host and overall connection limits.
+     * <p>
+     * The snapshot is built when a limit is set in this collection or the defaults
+     * are replaced, and published to all readers. Limits drawn from the defaults are
+     * read from a {@link DefaultHttpParams#getSnapshot() snapshot} of them, which
+     * tells when they change; as long as they do not, this method neither locks nor
+     * performs any lookup. The same instance is returned until the limits change, so
+     * callers may cache values derived from it and compare snapshots by identity.
+     * </p>
+     * <p>
+     * If the defaults end in a collection other than {@link DefaultHttpParams}, whose
+     * changes cannot be tracked, the limits are looked up on every call.
+     * </p>
+     *
+     * @return the current connection limits
+     *
+     * @see #MAX_HOST_CONNECTIONS
+     * @see #MAX_TOTAL_CONNECTIONS
+     */
+    public ConnectionLimits getConnectionLimits() {
+        PublishedLimits published = this.publishedLimits;
+        if (published == null || !isCurrent(published)) {
+            this.lock.lock();
+            try {
+                published = this.publishedLimits;
+                if (published == null || !isCurrent(published)) {
+                    published = publishConnectionLimits();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return published.limits;
+    }
+
+    /**
+     * Tests whether the limits drawn from the defaults are still current. Local
+     * changes replace the published limits right away.
+     */
+    private boolean isCurrent(final PublishedLimits published) {
+        if (published.defaults != null) {
+            return published.defaults.isCurrent();
+        }
+        if (published.tracked) {
+            return true;
+        }
+        return published.limits.isBasedOn((Map) getParameter(MAX_HOST_CONNECTIONS),
+            getMaxTotalConnections());
+    }
+
+    /**
+     * Resolves and publishes the connection limits. Called under the lock.
+     */
+    private PublishedLimits publishConnectionLimits() {
+        HttpParamsSnapshot defaults = null;
+        boolean tracked = true;
+        if (!isParameterSetLocally(MAX_HOST_CONNECTIONS)
+            || !isParameterSetLocally(MAX_TOTAL_CONNECTIONS)) {
+            HttpParams parent = getDefaults();
+            if (parent instanceof DefaultHttpParams) {
+                defaults = ((DefaultHttpParams) parent).getSnapshot();
+                if (defaults.getDefaults() != null) {
+                    defaults = null;
+                    tracked = false;
+                }
+            } else if (parent != null) {
+                tracked = false;
+            }
+        }
+        Map maxHostConnections;
+        int maxTotalConnections;
+        if (defaults != null) {
+            HttpParams source = isParameterSetLocally(MAX_HOST_CONNECTIONS) ? this : defaults;
+            maxHostConnections = (Map) source.getParameter(MAX_HOST_CONNECTIONS);
+            source = isParameterSetLocally(MAX_TOTAL_CONNECTIONS) ? this : defaults;
+            maxTotalConnections = source.getIntParameter(MAX_TOTAL_CONNECTIONS,
+                MultiThreadedHttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS);
+        } else {
+            maxHostConnections = (Map) getParameter(MAX_HOST_CONNECTIONS);
+            maxTotalConnections = getMaxTotalConnections();
+        }
+        PublishedLimits published = new PublishedLimits(
+            new ConnectionLimits(maxHostConnections, maxTotalConnections), defaults, tracked);
+        this.publishedLimits = published;
+        return published;
+    }
+
+    public void setParameter(final String name, final Object value) {
+        this.lock.lock();
+        try {
+            super.setParameter(name, value);
+            if (MAX_HOST_CONNECTIONS.equals(name) || MAX_TOTAL_CONNECTIONS.equals(name)) {
+                publishConnectionLimits();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void setDefaults(final HttpParams params) {
+        this.lock.lock();
+        try {
+            super.setDefaults(params);
+            publishConnectionLimits();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void clear() {
+        this.lock.lock();
+        try {
+            super.clear();
+            publishConnectionLimits();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the time after which a free connection is closed by the idle
+     * connection evictor.
+     *
+     * @param maxIdleTime The maximum idle time in milliseconds.
+     *
+     * @see #MAX_IDLE_TIME
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        setLongParameter(MAX_IDLE_TIME, maxIdleTime);
+    }
+
+    /**
+     * Gets the time after which a free connection is closed by the idle
+     * connection evictor.
+     *
+     * @return The maximum idle time in milliseconds.
+     *
+     * @see #MAX_IDLE_TIME
+     */
+    public long getMaxIdleTime() {
+        return getLongParameter(MAX_IDLE_TIME, 0);
+    }
+
+    /**
+     * Sets the interval at which the idle connection evictor runs.
+     *
+     * @param interval The interval in milliseconds, <code>0</code> to disable the evictor.
+     *
+     * @see #EVICTOR_INTERVAL
+     */
+    public void setEvictorInterval(long interval) {
+        setLongParameter(EVICTOR_INTERVAL, interval);
+    }
+
+    /**
+     * Gets the interval at which the idle connection evictor runs.
+     *
+     * @return The interval in milliseconds.
+     *
+     * @see #EVICTOR_INTERVAL
+     */
+    public long getEvictorInterval() {
+        return getLongParameter(EVICTOR_INTERVAL, 0);
+    }
+
+    /**
+     * Connection limits together with what they have been resolved from.
+     */
+    private static final class PublishedLimits {
+
+        final ConnectionLimits limits;
+
+        /** The snapshot of the defaults inherited limits were read from, if any */
+        final HttpParamsSnapshot defaults;
+
+        /** Whether changes of the inherited limits show in {@link #defaults} */
+        final boolean tracked;
+
+        PublishedLimits(final ConnectionLimits limits, final HttpParamsSnapshot defaults,
+            boolean tracked) {
+            this.limits = limits;
+            this.defaults = defaults;
+            this.tracked = tracked;
+        }
+    }
 }
@@ -57,6 +57,13 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      */
     public static final String SO_TIMEOUT = "http.socket.timeout";
 
+    /**
+     * The typed key of {@link #SO_TIMEOUT}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey SO_TIMEOUT_KEY = new IntParamKey(SO_TIMEOUT);
+
     /**
      * Determines whether Nagle's algorithm is to be used. The Nagle's algorithm
      * tries to conserve bandwidth by minimizing the number of segments that are
@@ -82,6 +89,13 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      */
     public static final String SO_SNDBUF = "http.socket.sendbuffer";
 
+    /**
+     * The typed key of {@link #SO_SNDBUF}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey SO_SNDBUF_KEY = new IntParamKey(SO_SNDBUF);
+
     /**
      * Determines a hint the size of the underlying buffers used by the platform
      * for incoming network I/O. This value is a suggestion to the kernel from
@@ -94,6 +108,13 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      */
     public static final String SO_RCVBUF = "http.socket.receivebuffer";
 
+    /**
+     * The typed key of {@link #SO_RCVBUF}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey SO_RCVBUF_KEY = new IntParamKey(SO_RCVBUF);
+
     /**
      * Sets SO_LINGER with the specified linger time in seconds. The maximum timeout
      * value is platform specific. Value <tt>0</tt> implies that the option is disabled.
@@ -106,6 +127,13 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      */
     public static final String SO_LINGER = "http.socket.linger";
 
+    /**
+     * The typed key of {@link #SO_LINGER}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey SO_LINGER_KEY = new IntParamKey(SO_LINGER);
+
     /**
      * Determines the timeout until a connection is etablished. A value of zero
      * means the timeout is not used. The default value is zero.
@@ -115,6 +143,41 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      */
     public static final String CONNECTION_TIMEOUT = "http.connection.timeout";
 
+    /**
+     * The typed key of {@link #CONNECTION_TIMEOUT}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey CONNECTION_TIMEOUT_KEY = new IntParamKey(CONNECTION_TIMEOUT);
+
+    /**
+     * Determines the delay in milliseconds after which a connection attempt to the
+     * next address of a host with several addresses is started, while earlier attempts
+     * are still pending. The first attempt to succeed is used. A value of zero or less
+     * means that the next address is only tried once all earlier attempts have failed.
+     * The default value is 250 ms, as recommended by RFC 8305.
+     * <p>
+     * This parameter expects a value of type {@link Integer}.
+     * </p>
+     *
+     * @since 3.1
+     */
+    public static final String CONNECTION_ATTEMPT_DELAY = "http.connection.attempt-delay";
+
+    /**
+     * The typed key of {@link #CONNECTION_ATTEMPT_DELAY}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey CONNECTION_ATTEMPT_DELAY_KEY = new IntParamKey(CONNECTION_ATTEMPT_DELAY);
+
+    /**
+     * The default value of {@link #CONNECTION_ATTEMPT_DELAY}.
+     *
+     * @since 3.1
+     */
+    public static final int DEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
     /**
      * Determines whether stale connection check is to be used. Disabling
      * stale connection check may result in slight performance improvement
@@ -147,7 +210,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @return timeout in milliseconds
      */
     public int getSoTimeout() {
-        return getIntParameter(SO_TIMEOUT, 0);
+        return getIntParameter(SO_TIMEOUT_KEY, 0);
     }
 
     /**
@@ -159,7 +222,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @param timeout Timeout in milliseconds
      */
     public void setSoTimeout(int timeout) {
-        setIntParameter(SO_TIMEOUT, timeout);
+        setIntParameter(SO_TIMEOUT_KEY, timeout);
     }
 
     /**
@@ -195,7 +258,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @return the hint size of the send buffer
      */
     public int getSendBufferSize() {
-        return getIntParameter(SO_SNDBUF, -1);
+        return getIntParameter(SO_SNDBUF_KEY, -1);
     }
 
     /**
@@ -207,7 +270,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @param size the hint size of the send buffer
      */
     public void setSendBufferSize(int size) {
-        setIntParameter(SO_SNDBUF, size);
+        setIntParameter(SO_SNDBUF_KEY, size);
     }
 
     /**
@@ -219,7 +282,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @return the hint size of the send buffer
      */
     public int getReceiveBufferSize() {
-        return getIntParameter(SO_RCVBUF, -1);
+        return getIntParameter(SO_RCVBUF_KEY, -1);
     }
 
     /**
@@ -231,7 +294,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @param size the hint size of the send buffer
      */
     public void setReceiveBufferSize(int size) {
-        setIntParameter(SO_RCVBUF, size);
+        setIntParameter(SO_RCVBUF_KEY, size);
     }
 
     /**
@@ -241,7 +304,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @return the linger-on-close timeout
      */
     public int getLinger() {
-        return getIntParameter(SO_LINGER, -1);
+        return getIntParameter(SO_LINGER_KEY, -1);
     }
 
     /**
@@ -255,7 +318,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @param value the linger-on-close timeout
      */
     public void setLinger(int value) {
-        setIntParameter(SO_LINGER, value);
+        setIntParameter(SO_LINGER_KEY, value);
     }
 
     /**
@@ -265,7 +328,7 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @return timeout in milliseconds.
      */
     public int getConnectionTimeout() {
-        return getIntParameter(CONNECTION_TIMEOUT, 0);
+        return getIntParameter(CONNECTION_TIMEOUT_KEY, 0);
     }
 
     /**
@@ -275,7 +338,36 @@ public class HttpConnectionParams extends DefaultHttpParams { // finish @2014/1/
      * @param timeout Timeout in milliseconds.
      */
     public void setConnectionTimeout(int timeout) {
-        setIntParameter(CONNECTION_TIMEOUT, timeout);
+        setIntParameter(CONNECTION_TIMEOUT_KEY, timeout);
+    }
+
+    /**
+     * Returns the delay after which a connection attempt to the next address of a
+     * host is started while earlier attempts are still pending.
+     *
+     * @return delay in milliseconds.
+     *
+     * @see #CONNECTION_ATTEMPT_DELAY
+     *
+     * @since 3.1
+     */
+    public int getConnectionAttemptDelay() {
+        return getIntParameter(CONNECTION_ATTEMPT_DELAY_KEY, DEFAULT_CONNECTION_ATTEMPT_DELAY);
+    }
+
+    /**
+     * Sets the delay after which a connection attempt to the next address of a
+     * host is started while earlier attempts are still pending. A value of zero or
+     * less tries the addresses one after the other.
+     *
+     * @param delay delay in milliseconds.
+     *
+     * @see #CONNECTION_ATTEMPT_DELAY
+     *
+     * @since 3.1
+     */
+    public void setConnectionAttemptDelay(int delay) {
+        setIntParameter(CONNECTION_ATTEMPT_DELAY_KEY, delay);
     }
 
     /**
@@ -70,9 +70,20 @@ public class HttpMethodParams extends DefaultHttpParams {
      * <p>
      * This parameter expects a value of type {@link HttpVersion}
      * </p>
+     * <p>
+     * {@link HttpVersion#HTTP_2_0} is only supported by the
+     * {@link org.apache.commons.httpclient.AsyncHttpExecutor}, since 3.1.
+     * </p>
      */
     public static final String PROTOCOL_VERSION = "http.protocol.version";
 
+    /**
+     * The typed key of {@link #PROTOCOL_VERSION}.
+     *
+     * @since 3.1
+     */
+    public static final ParamKey<HttpVersion> PROTOCOL_VERSION_KEY = new ParamKey<HttpVersion>(PROTOCOL_VERSION, HttpVersion.class);
+
     /**
      * Defines whether {@link org.apache.commons.httpclient.HttpMethod HTTP methods} should
      * reject ambiguous {@link org.apache.commons.httpclient.StatusLine HTTp status line}.
@@ -120,6 +131,13 @@ public class HttpMethodParams extends DefaultHttpParams {
      */
     public static final String HEAD_BODY_CHECK_TIMEOUT = "http.protocol.head-body-timeout";
 
+    /**
+     * The typed key of {@link #HEAD_BODY_CHECK_TIMEOUT}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey HEAD_BODY_CHECK_TIMEOUT_KEY = new IntParamKey(HEAD_BODY_CHECK_TIMEOUT);
+
     /**
      * <p>
      * Activates 'Expect: 100-Continue' handshake for the
@@ -228,6 +246,13 @@ public class HttpMethodParams extends DefaultHttpParams {
      */
     public static final String STATUS_LINE_GARBAGE_LIMIT = "http.protocol.status-line-garbage-limit";
 
+    /**
+     * The typed key of {@link #STATUS_LINE_GARBAGE_LIMIT}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey STATUS_LINE_GARBAGE_LIMIT_KEY = new IntParamKey(STATUS_LINE_GARBAGE_LIMIT);
+
     /**
      * Sets the socket timeout (<tt>SO_TIMEOUT</tt>) in milliseconds to be used when executing the method.
      * A timeout value of zero is interpreted as an infinite timeout.
@@ -238,6 +263,13 @@ public class HttpMethodParams extends DefaultHttpParams {
      */
     public static final String SO_TIMEOUT = "http.socket.timeout";
 
+    /**
+     * The typed key of {@link #SO_TIMEOUT}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey SO_TIMEOUT_KEY = new IntParamKey(SO_TIMEOUT);
+
     /**
      * The key used to look up the date patterns used for parsing. The String patterns are stored
      * in a {@link java.util.Collection} and must be compatible with
@@ -265,6 +297,13 @@ public class HttpMethodParams extends DefaultHttpParams {
      */
     public static final String BUFFER_WARN_TRIGGER_LIMIT = "http.method.response.buffer.warnlimit";
 
+    /**
+     * The typed key of {@link #BUFFER_WARN_TRIGGER_LIMIT}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey BUFFER_WARN_TRIGGER_LIMIT_KEY = new IntParamKey(BUFFER_WARN_TRIGGER_LIMIT);
+
     /**
      * Defines the virtual host name.
      * <p>
@@ -282,6 +321,39 @@ public class HttpMethodParams extends DefaultHttpParams {
      */
     public static final String MULTIPART_BOUNDARY = "http.method.multipart.boundary";
 
+    /**
+     * Defines whether idempotent requests may be pipelined, that is, sent on a
+     * persistent connection before the responses to the previous requests have been
+     * received. Set it on the {@link HostParams} of a host configuration to pipeline
+     * the requests to that host.
+     * <p>
+     * This parameter expects a value of type {@link Boolean}.
+     * </p>
+     *
+     * @see org.apache.commons.httpclient.AsyncHttpExecutor
+     *
+     * @since 3.1
+     */
+    public static final String PIPELINING = "http.protocol.pipelining";
+
+    /**
+     * Defines the maximum number of requests that are sent on a connection before
+     * their responses are read, when {@link #PIPELINING pipelining} is enabled.
+     * <p>
+     * This parameter expects a value of type {@link Integer}.
+     * </p>
+     *
+     * @since 3.1
+     */
+    public static final String PIPELINE_DEPTH = "http.protocol.pipeline-depth";
+
+    /**
+     * The typed key of {@link #PIPELINE_DEPTH}.
+     *
+     * @since 3.1
+     */
+    public static final IntParamKey PIPELINE_DEPTH_KEY = new IntParamKey(PIPELINE_DEPTH);
+
     /**
      * Creates a new collection of parameters with the collection returned
      * by {@link #getDefaultParams()} as a parent. The collection will defer
@@ -403,11 +475,11 @@ public class HttpMethodParams extends DefaultHttpParams {
      * @return {@link HttpVersion HTTP protocol version}
      */
     public HttpVersion getVersion() {
-        Object param = getParameter(PROTOCOL_VERSION);
-        if (param == null) {
+        HttpVersion version = getParameter(PROTOCOL_VERSION_KEY);
+        if (version == null) {
             return HttpVersion.HTTP_1_1;
         }
-        return (HttpVersion)param;
+        return version;
     }
 
     /**
@@ -418,7 +490,7 @@ public class HttpMethodParams extends DefaultHttpParams {
      * @param version the {@link HttpVersion HTTP protocol version}
      */
     public void setVersion(HttpVersion version) {
-        setParameter(PROTOCOL_VERSION, version);
+        setParameter(PROTOCOL_VERSION_KEY, version);
     }
 
 
@@ -456,7 +528,7 @@ public class HttpMethodParams extends DefaultHttpParams {
      * @return timeout in milliseconds
      */
     public int getSoTimeout() {
-        return getIntParameter(SO_TIMEOUT, 0);
+        return getIntParameter(SO_TIMEOUT_KEY, 0);
     }
 
     /**
@@ -467,7 +539,7 @@ public class HttpMethodParams extends DefaultHttpParams {
      * @param timeout Timeout in milliseconds
      */
     public void setSoTimeout(int timeout) {
-        setIntParameter(SO_TIMEOUT, timeout);
+        setIntParameter(SO_TIMEOUT_KEY, timeout);
     }
 
     /**
@@ -488,6 +560,63 @@ public class HttpMethodParams extends DefaultHttpParams {
         return (String) getParameter(VIRTUAL_HOST);
     }
 
+    /**
+     * Tests if idempotent requests may be pipelined.
+     *
+     * @return <tt>true</tt> if pipelining is enabled, <tt>false</tt> by default
+     *
+     * @see #PIPELINING
+     *
+     * @since 3.1
+     */
+    public boolean isPipelining() {
+        return getBooleanParameter(PIPELINING, false);
+    }
+
+    /**
+     * Sets whether idempotent requests may be pipelined.
+     *
+     * @param value <tt>true</tt> to enable pipelining
+     *
+     * @see #PIPELINING
+     *
+     * @since 3.1
+     */
+    public void setPipelining(boolean value) {
+        setBooleanParameter(PIPELINING, value);
+    }
+
+    /**
+     * Returns the maximum number of requests sent on a connection before their
+     * responses are read, when pipelining is enabled.
+     *
+     * @return the pipeline depth, <tt>8</tt> by default
+     *
+     * @see #PIPELINE_DEPTH
+     *
+     * @since 3.1
+     */
+    public int getPipelineDepth() {
+        return getIntParameter(PIPELINE_DEPTH_KEY, 8);
+    }
+
+    /**
+     * Sets the maximum number of requests sent on a connection before their
+     * responses are read, when pipelining is enabled.
+     *
+     * @param depth the pipeline depth, at least <tt>1</tt>
+     *
+     * @see #PIPELINE_DEPTH
+     *
+     * @since 3.1
+     */
+    public void setPipelineDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth may not be less than 1");
+        }
+        setIntParameter(PIPELINE_DEPTH_KEY, depth);
+    }
+
     private static final String[] PROTOCOL_STRICTNESS_PARAMETERS = {
             UNAMBIGUOUS_STATUS_LINE,
             SINGLE_COOKIE_HEADER,
@@ -0,0 +1,314 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpVersion;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+
+/**
+ * An immutable snapshot of a hierarchy of {@link DefaultHttpParams HTTP parameters}.
+ * <p>
+ * The values of all levels of the hierarchy are resolved into a single map when the
+ * snapshot is taken, so a parameter is found with one lookup regardless of the depth
+ * of the hierarchy. The parameters read for every request, such as the timeouts, the
+ * charsets, the protocol version and the cookie policy, are resolved into fields and
+ * can be read without any lookup at all.
+ * </p>
+ * <p>
+ * A snapshot does not change when the collections it was taken from are modified,
+ * but {@link #isCurrent()} tells whether any of them has been modified since.
+ * {@link DefaultHttpParams#getSnapshot()} returns a cached snapshot as long as it is
+ * current. Collections of a class other than {@link DefaultHttpParams} cannot be
+ * tracked; if the hierarchy ends in one, missing parameters are looked up in it and
+ * the snapshot is never current.
+ * </p>
+ * <p>
+ * Snapshots are read-only, all methods modifying parameters throw
+ * {@link UnsupportedOperationException}.
+ * </p>
+ *
+ * @since 3.1
+ */
+public final class HttpParamsSnapshot implements HttpParams {
+
+    /** The collections the snapshot has been taken from, starting with the lowest level */
+    private final DefaultHttpParams[] levels;
+
+    /** The modification counts of the levels when the snapshot was taken */
+    private final int[] modCounts;
+
+    /** The collection missing parameters are looked up in, if any */
+    private final HttpParams fallback;
+
+    /** The resolved parameters of all levels */
+    private final Map parameters;
+
+    private final int soTimeout;
+
+    private final int connectionTimeout;
+
+    private final HttpVersion version;
+
+    private final String httpElementCharset;
+
+    private final String contentCharset;
+
+    private final String uriCharset;
+
+    private final String credentialCharset;
+
+    private final String cookiePolicy;
+
+    private final String userAgent;
+
+    /**
+     * Takes a snapshot of the given collection and all its parents.
+     *
+     * @param params the lowest level of the hierarchy
+     */
+    HttpParamsSnapshot(final DefaultHttpParams params) {
+        super();
+        List levelList = new ArrayList(4);
+        List countList = new ArrayList(4);
+        HttpParams level = params;
+        while (level instanceof DefaultHttpParams && !levelList.contains(level)) {
+            DefaultHttpParams defaultLevel = (DefaultHttpParams) level;
+            // read the count first, later modifications make the snapshot outdated
+            countList.add(new Integer(defaultLevel.getModCount()));
+            levelList.add(defaultLevel);
+            level = defaultLevel.getDefaults();
+        }
+        this.fallback = level instanceof DefaultHttpParams ? null : level;
+        this.levels = (DefaultHttpParams[]) levelList.toArray(
+            new DefaultHttpParams[levelList.size()]);
+        this.modCounts = new int[this.levels.length];
+        Map map = new HashMap();
+        for (int i = this.levels.length - 1; i >= 0; i--) {
+            this.modCounts[i] = ((Integer) countList.get(i)).intValue();
+            this.levels[i].copyParametersTo(map);
+        }
+        this.parameters = map;
+
+        this.soTimeout = getIntParameter(HttpMethodParams.SO_TIMEOUT, 0);
+        this.connectionTimeout = getIntParameter(HttpConnectionParams.CONNECTION_TIMEOUT, 0);
+        HttpVersion v = (HttpVersion) getParameter(HttpMethodParams.PROTOCOL_VERSION);
+        this.version = v != null ? v : HttpVersion.HTTP_1_1;
+        String charset = (String) getParameter(HttpMethodParams.HTTP_ELEMENT_CHARSET);
+        this.httpElementCharset = charset != null ? charset : "US-ASCII";
+        charset = (String) getParameter(HttpMethodParams.HTTP_CONTENT_CHARSET);
+        this.contentCharset = charset != null ? charset : "ISO-8859-1";
+        charset = (String) getParameter(HttpMethodParams.HTTP_URI_CHARSET);
+        this.uriCharset = charset != null ? charset : "UTF-8";
+        charset = (String) getParameter(HttpMethodParams.CREDENTIAL_CHARSET);
+        this.credentialCharset = charset != null ? charset : this.httpElementCharset;
+        String policy = (String) getParameter(HttpMethodParams.COOKIE_POLICY);
+        this.cookiePolicy = policy != null ? policy : CookiePolicy.DEFAULT;
+        this.userAgent = (String) getParameter(HttpMethodParams.USER_AGENT);
+    }
+
+    /**
+     * Tests whether none of the collections this snapshot has been taken from has
+     * been modified since.
+     *
+     * @return <tt>true</tt> if the snapshot reflects the current parameters
+     */
+    public boolean isCurrent() {
+        if (this.fallback != null) {
+            return false;
+        }
+        for (int i = 0; i < this.levels.length; i++) {
+            if (this.levels[i].getModCount() != this.modCounts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------- Typed values
+
+    /**
+     * @return the socket timeout, see {@link HttpMethodParams#getSoTimeout()}
+     */
+    public int getSoTimeout() {
+        return this.soTimeout;
+    }
+
+    /**
+     * @return the connect timeout, see {@link HttpConnectionParams#getConnectionTimeout()}
+     */
+    public int getConnectionTimeout() {
+        return this.connectionTimeout;
+    }
+
+    /**
+     * @return the protocol version, see {@link HttpMethodParams#getVersion()}
+     */
+    public HttpVersion getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return the charset of HTTP headers, see {@link HttpMethodParams#getHttpElementCharset()}
+     */
+    public String getHttpElementCharset() {
+        return this.httpElementCharset;
+    }
+
+    /**
+     * @return the default content charset, see {@link HttpMethodParams#getContentCharset()}
+     */
+    public String getContentCharset() {
+        return this.contentCharset;
+    }
+
+    /**
+     * @return the charset of URIs, see {@link HttpMethodParams#getUriCharset()}
+     */
+    public String getUriCharset() {
+        return this.uriCharset;
+    }
+
+    /**
+     * @return the charset of credentials, see {@link HttpMethodParams#getCredentialCharset()}
+     */
+    public String getCredentialCharset() {
+        return this.credentialCharset;
+    }
+
+    /**
+     * @return the cookie policy, see {@link HttpMethodParams#getCookiePolicy()}
+     */
+    public String getCookiePolicy() {
+        return this.cookiePolicy;
+    }
+
+    /**
+     * @return the value of {@link HttpMethodParams#USER_AGENT}, or <tt>null</tt> if not set
+     */
+    public String getUserAgent() {
+        return this.userAgent;
+    }
+
+    // --------------------------------------------------------- HttpParams
+
+    /**
+     * Returns the collection missing parameters are looked up in, which is
+     * <tt>null</tt> unless the hierarchy ends in a collection that cannot be
+     * resolved into the snapshot.
+     */
+    public HttpParams getDefaults() {
+        return this.fallback;
+    }
+
+    public Object getParameter(final String name) {
+        Object param = this.parameters.get(name);
+        if (param == null && this.fallback != null) {
+            param = this.fallback.getParameter(name);
+        }
+        return param;
+    }
+
+    public long getLongParameter(final String name, long defaultValue) {
+        Object param = getParameter(name);
+        if (param == null) {
+            return defaultValue;
+        }
+        return ((Long) param).longValue();
+    }
+
+    public int getIntParameter(final String name, int defaultValue) {
+        Object param = getParameter(name);
+        if (param == null) {
+            return defaultValue;
+        }
+        return ((Integer) param).intValue();
+    }
+
+    public double getDoubleParameter(final String name, double defaultValue) {
+        Object param = getParameter(name);
+        if (param == null) {
+            return defaultValue;
+        }
+        return ((Double) param).doubleValue();
+    }
+
+    public boolean getBooleanParameter(final String name, boolean defaultValue) {
+        Object param = getParameter(name);
+        if (param == null) {
+            return defaultValue;
+        }
+        return ((Boolean) param).booleanValue();
+    }
+
+    public boolean isParameterSet(final String name) {
+        return getParameter(name) != null;
+    }
+
+    /**
+     * All parameters resolved into the snapshot count as set locally.
+     */
+    public boolean isParameterSetLocally(final String name) {
+        return this.parameters.get(name) != null;
+    }
+
+    public boolean isParameterTrue(final String name) {
+        return getBooleanParameter(name, false);
+    }
+
+    public boolean isParameterFalse(final String name) {
+        return !getBooleanParameter(name, false);
+    }
+
+    public void setDefaults(final HttpParams params) {
+        throw new UnsupportedOperationException("Parameter snapshots are read-only");
+    }
+
+    public void setParameter(final String name, final Object value) {
+        throw new UnsupportedOperationException("Parameter snapshots are read-only");
+    }
+
+    public void setLongParameter(final String name, long value) {
+        throw new UnsupportedOperationException("Parameter snapshots are read-only");
+    }
+
+    public void setIntParameter(final String name, int value) {
+        throw new UnsupportedOperationException("Parameter snapshots are read-only");
+    }
+
+    public void setDoubleParameter(final String name, double value) {
+        throw new UnsupportedOperationException("Parameter snapshots are read-only");
+    }
+
+    public void setBooleanParameter(final String name, boolean value) {
+        throw new UnsupportedOperationException("Parameter snapshots are read-only");
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+/**
+ * This class represents a collection of HTTP protocol parameters applicable to
+ * {@link org.apache.commons.httpclient.nio.IOReactor I/O reactors}. Next to the
+ * parameters of the reactor itself, it holds the connection parameters, such as
+ * the timeouts and socket options, of the connections opened by the reactor.
+ * Protocol parameters may be linked together to form a hierarchy. If a particular
+ * parameter value has not been explicitly defined in the collection itself, its
+ * value will be drawn from the parent collection of parameters.
+ *
+ * @since 3.1
+ */
+public class IOReactorParams extends HttpConnectionParams {
+
+    /**
+     * Defines the number of I/O threads of the reactor, each with its own
+     * selector. Connections are spread evenly over the threads. The default
+     * is the number of available processors.
+     * <p>
+     * This parameter expects a value of type {@link Integer}.
+     * </p>
+     */
+    public static final String IO_THREAD_COUNT = "http.nio.io-thread-count";
+
+    /**
+     * The typed key of {@link #IO_THREAD_COUNT}.
+     */
+    public static final IntParamKey IO_THREAD_COUNT_KEY = new IntParamKey(IO_THREAD_COUNT);
+
+    /**
+     * Defines the interval in milliseconds at which the I/O threads check their
+     * connections for connect and socket timeouts. This is the resolution of these
+     * timeouts. The default value is 1000 ms.
+     * <p>
+     * This parameter expects a value of type {@link Integer}.
+     * </p>
+     */
+    public static final String SELECT_INTERVAL = "http.nio.select-interval";
+
+    /**
+     * The typed key of {@link #SELECT_INTERVAL}.
+     */
+    public static final IntParamKey SELECT_INTERVAL_KEY = new IntParamKey(SELECT_INTERVAL);
+
+    /**
+     * Defines the size in bytes of the buffer the I/O threads read into. Input that
+     * a connection has not consumed yet is kept in a buffer of the connection, which
+     * is released once it has been consumed. The default value is 8192 bytes.
+     * <p>
+     * This parameter expects a value of type {@link Integer}.
+     * </p>
+     */
+    public static final String BUFFER_SIZE = "http.nio.buffer-size";
+
+    /**
+     * The typed key of {@link #BUFFER_SIZE}.
+     */
+    public static final IntParamKey BUFFER_SIZE_KEY = new IntParamKey(BUFFER_SIZE);
+
+    /**
+     * Creates a new collection of parameters with the collection returned
+     * by {@link #getDefaultParams()} as a parent. The collection will defer
+     * to its parent for a default value if a particular parameter is not
+     * explicitly set in the collection itself.
+     *
+     * @see #getDefaultParams()
+     */
+    public IOReactorParams() {
+        super();
+    }
+
+    /**
+     * Returns the number of I/O threads.
+     *
+     * @return the number of I/O threads
+     *
+     * @see #IO_THREAD_COUNT
+     */
+    public int getIOThreadCount() {
+        return getIntParameter(IO_THREAD_COUNT_KEY, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Sets the number of I/O threads.
+     *
+     * @param count the number of I/O threads, at least one
+     *
+     * @see #IO_THREAD_COUNT
+     */
+    public void setIOThreadCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("I/O thread count must be positive");
+        }
+        setIntParameter(IO_THREAD_COUNT_KEY, count);
+    }
+
+    /**
+     * Returns the interval at which connections are checked for timeouts.
+     *
+     * @return the interval in milliseconds
+     *
+     * @see #SELECT_INTERVAL
+     */
+    public int getSelectInterval() {
+        return getIntParameter(SELECT_INTERVAL_KEY, 1000);
+    }
+
+    /**
+     * Sets the interval at which connections are checked for timeouts.
+     *
+     * @param interval the interval in milliseconds, positive
+     *
+     * @see #SELECT_INTERVAL
+     */
+    public void setSelectInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Select interval must be positive");
+        }
+        setIntParameter(SELECT_INTERVAL_KEY, interval);
+    }
+
+    /**
+     * Returns the size of the I/O buffers.
+     *
+     * @return the buffer size in bytes
+     *
+     * @see #BUFFER_SIZE
+     */
+    public int getBufferSize() {
+        return getIntParameter(BUFFER_SIZE_KEY, 8192);
+    }
+
+    /**
+     * Sets the size of the I/O buffers.
+     *
+     * @param size the buffer size in bytes, positive
+     *
+     * @see #BUFFER_SIZE
+     */
+    public void setBufferSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        setIntParameter(BUFFER_SIZE_KEY, size);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+/**
+ * A key of a {@link Long} parameter. {@link DefaultHttpParams} keeps the values of
+ * such parameters as primitives as well, so
+ * {@link DefaultHttpParams#getLongParameter(LongParamKey, long)} neither unboxes nor casts.
+ *
+ * @since 3.1
+ */
+public final class LongParamKey extends PrimitiveParamKey<Long> {
+
+    /**
+     * Creates a key.
+     *
+     * @param name the name of the parameter
+     */
+    public LongParamKey(final String name) {
+        super(name, Long.class);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+/**
+ * A typed key of an HTTP parameter. A key wraps the name of the parameter and the
+ * type of its values, so that values can be set and read through
+ * {@link DefaultHttpParams#setParameter(ParamKey, Object)} and
+ * {@link DefaultHttpParams#getParameter(ParamKey)} without casts. Keys and names
+ * refer to the same parameters: a value set by key can be read by name and vice versa.
+ * <p>
+ * Keys are equal if their names and types are equal.
+ * </p>
+ *
+ * @param <T> the type of the values of the parameter
+ *
+ * @see IntParamKey
+ * @see LongParamKey
+ *
+ * @since 3.1
+ */
+public class ParamKey<T> {
+
+    /** The name of the parameter */
+    private final String name;
+
+    /** The type of the values of the parameter */
+    private final Class<T> type;
+
+    /**
+     * Creates a key.
+     *
+     * @param name the name of the parameter
+     * @param type the type of the values of the parameter
+     */
+    public ParamKey(final String name, final Class<T> type) {
+        super();
+        if (name == null) {
+            throw new IllegalArgumentException("Name may not be null");
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Type may not be null");
+        }
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Returns the name of the parameter.
+     *
+     * @return the name
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the type of the values of the parameter.
+     *
+     * @return the type
+     */
+    public final Class<T> getType() {
+        return this.type;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ParamKey)) {
+            return false;
+        }
+        ParamKey that = (ParamKey) obj;
+        return this.name.equals(that.name) && this.type.equals(that.type);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        return this.name.hashCode();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return this.name;
+    }
+}
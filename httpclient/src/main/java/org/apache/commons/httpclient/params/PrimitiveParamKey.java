@@ -0,0 +1,102 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A key of a numeric parameter whose values {@link DefaultHttpParams} also keeps in a
+ * primitive slot, so that they can be read without unboxing. Every parameter name with
+ * such a key is assigned a slot index once; keys of the same name share the slot.
+ *
+ * @since 3.1
+ */
+abstract class PrimitiveParamKey<T extends Number> extends ParamKey<T> {
+
+    /** The number of slots available */
+    static final int MAX_SLOTS = 64;
+
+    /** The slot indexes, keyed by parameter name */
+    private static final ConcurrentHashMap INDEXES = new ConcurrentHashMap();
+
+    /** The value types of the slots; written before the index is published */
+    private static final Class[] TYPES = new Class[MAX_SLOTS];
+
+    /** The number of slots assigned */
+    private static volatile int slotCount = 0;
+
+    /** The slot of this key */
+    final int index;
+
+    PrimitiveParamKey(final String name, final Class<T> type) {
+        super(name, type);
+        this.index = register(name, type);
+    }
+
+    private static synchronized int register(final String name, final Class type) {
+        Integer index = (Integer) INDEXES.get(name);
+        if (index != null) {
+            if (TYPES[index.intValue()] != type) {
+                throw new IllegalArgumentException("Parameter " + name
+                    + " already has a key of type " + TYPES[index.intValue()].getName());
+            }
+            return index.intValue();
+        }
+        if (slotCount == MAX_SLOTS) {
+            throw new IllegalStateException("No more than " + MAX_SLOTS
+                + " primitive parameter keys may be defined");
+        }
+        TYPES[slotCount] = type;
+        INDEXES.put(name, new Integer(slotCount));
+        return slotCount++;
+    }
+
+    /**
+     * Returns the slot of the parameter with the given name.
+     *
+     * @return the slot index, or <tt>-1</tt> if the parameter has no primitive key
+     */
+    static int indexOf(final String name) {
+        Integer index = (Integer) INDEXES.get(name);
+        return index == null ? -1 : index.intValue();
+    }
+
+    /**
+     * Returns the number of slots assigned so far. Slots are assigned in ascending
+     * order, so parameters registered later have an index of at least this value.
+     */
+    static int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Returns the value type of the given slot.
+     */
+    static Class typeOf(int index) {
+        return TYPES[index];
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link HostResolver} that caches the addresses returned by another resolver.
+ * <p>
+ * Addresses are cached for a fixed time to live. Entries that are used during the
+ * last quarter of their time to live are refreshed in the background, so hosts in
+ * regular use are never resolved on the calling thread after the first lookup. If
+ * resolving an expired host fails, the addresses last known are returned instead of
+ * failing the request, and are kept for a short while before the host is resolved
+ * again, so that an unavailable name service is not consulted on every lookup. A
+ * host that has never been resolved is not cached when it fails.
+ * </p>
+ * <p>
+ * Entries that have not been used for a whole time to live after they expired are
+ * removed from time to time.
+ * </p>
+ *
+ * @since 3.1
+ */
+public class CachingHostResolver implements HostResolver {
+
+    /**
+     * The default time to live of cached addresses, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 30000;
+
+    /**
+     * The time the addresses last known are used for after a host could not be
+     * resolved, at most the time to live.
+     */
+    static final long FAILURE_BACKOFF = 5000;
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(CachingHostResolver.class);
+
+    /** Runs the background refreshes of all caching resolvers */
+    private static Executor refreshExecutor = null;
+
+    private static synchronized Executor getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "HttpClient-HostResolver");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+            refreshExecutor = executor;
+        }
+        return refreshExecutor;
+    }
+
+    /** The resolver to cache */
+    private final HostResolver resolver;
+
+    /** The time to live of cached addresses */
+    private final long timeToLive;
+
+    /** Runs the background refreshes, or <code>null</code> for the shared executor */
+    private final Executor executor;
+
+    /** The cached entries, keyed by lower case host name */
+    private final ConcurrentHashMap cache = new ConcurrentHashMap();
+
+    /** The time unused entries are removed next */
+    private final AtomicLong nextPurge = new AtomicLong(0);
+
+    /**
+     * Creates a cache for the name service of the JRE with the
+     * {@link #DEFAULT_TIME_TO_LIVE default time to live}.
+     */
+    public CachingHostResolver() {
+        this(DefaultHostResolver.getResolver(), DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a cache for the given resolver.
+     *
+     * @param resolver the resolver to cache
+     * @param timeToLive the time to live of cached addresses, in milliseconds
+     */
+    public CachingHostResolver(final HostResolver resolver, long timeToLive) {
+        this(resolver, timeToLive, null);
+    }
+
+    /**
+     * Creates a cache for the given resolver that refreshes entries by the given
+     * executor.
+     *
+     * @param resolver the resolver to cache
+     * @param timeToLive the time to live of cached addresses, in milliseconds
+     * @param executor runs the background refreshes, or <code>null</code> for the
+     * executor shared by all caches
+     */
+    CachingHostResolver(final HostResolver resolver, long timeToLive,
+        final Executor executor) {
+        super();
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver may not be null");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        this.resolver = resolver;
+        this.timeToLive = timeToLive;
+        this.executor = executor;
+    }
+
+    /**
+     * @see HostResolver#resolve(java.lang.String)
+     */
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        if (host == null) {
+            throw new IllegalArgumentException("Host may not be null");
+        }
+        String key = host.toLowerCase(Locale.ENGLISH);
+        Entry entry = (Entry) this.cache.get(key);
+        long now = currentTimeMillis();
+        if (entry != null && now < entry.expires) {
+            if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+                refresh(key);
+            }
+            return (InetAddress[]) entry.addresses.clone();
+        }
+        try {
+            entry = update(key);
+        } catch (UnknownHostException e) {
+            if (entry == null) {
+                throw e;
+            }
+            LOG.warn("Unable to resolve " + host + ", using the addresses last known");
+            // retry once the backoff has elapsed rather than on every lookup
+            long retryAt = currentTimeMillis() + Math.min(FAILURE_BACKOFF, this.timeToLive);
+            this.cache.replace(key, entry, new Entry(entry.addresses, retryAt, retryAt));
+        }
+        return (InetAddress[]) entry.addresses.clone();
+    }
+
+    /**
+     * Returns the resolver whose results are cached.
+     *
+     * @return the resolver
+     */
+    public HostResolver getResolver() {
+        return this.resolver;
+    }
+
+    /**
+     * Returns the time to live of cached addresses.
+     *
+     * @return the time to live in milliseconds
+     */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /**
+     * Removes all cached addresses.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Returns the current time. Entries expire and are refreshed according to this
+     * clock.
+     *
+     * @return the current time in milliseconds
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Entry update(final String host) throws UnknownHostException {
+        InetAddress[] addresses = this.resolver.resolve(host);
+        if (addresses == null || addresses.length == 0) {
+            throw new UnknownHostException(host);
+        }
+        long now = currentTimeMillis();
+        Entry entry = new Entry(addresses, now + this.timeToLive - this.timeToLive / 4,
+            now + this.timeToLive);
+        this.cache.put(host, entry);
+        purge(now);
+        return entry;
+    }
+
+    /**
+     * Removes the entries that expired a time to live ago or earlier, at most once
+     * per time to live. Any lookup of an expired entry replaces it, so these have
+     * not been used since they expired.
+     */
+    private void purge(long now) {
+        long next = this.nextPurge.get();
+        if (now < next || !this.nextPurge.compareAndSet(next, now + this.timeToLive)) {
+            return;
+        }
+        for (Iterator i = this.cache.entrySet().iterator(); i.hasNext();) {
+            Map.Entry cached = (Map.Entry) i.next();
+            if (((Entry) cached.getValue()).expires <= now - this.timeToLive) {
+                this.cache.remove(cached.getKey(), cached.getValue());
+            }
+        }
+    }
+
+    private void refresh(final String host) {
+        Executor executor = this.executor != null ? this.executor : getRefreshExecutor();
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    update(host);
+                } catch (UnknownHostException e) {
+                    // keep the current entry, it will be resolved again once expired
+                    LOG.debug("Background refresh of " + host + " failed", e);
+                } catch (RuntimeException e) {
+                    LOG.warn("Background refresh of " + host + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cached addresses. An entry is refreshed at most once in the background; a
+     * successful refresh replaces it. The addresses last known are kept during the
+     * backoff after a failure by an entry that expires without being refreshed.
+     */
+    private static final class Entry {
+
+        private final InetAddress[] addresses;
+
+        private final long refreshAt;
+
+        private final long expires;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(final InetAddress[] addresses, long refreshAt, long expires) {
+            this.addresses = (InetAddress[]) addresses.clone();
+            this.refreshAt = refreshAt;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.ConnectionTimeoutException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Completes non-blocking connects of {@link SocketChannel socket channels} on a
+ * single {@link Selector} shared by all socket factories.
+ * <p>
+ * Connection attempts are started by the calling thread. Pending attempts are then
+ * handed to one daemon thread, which waits for all of them with a single
+ * <code>select()</code>. The calling thread only waits on a condition for its own
+ * attempts, so no thread is kept blocked in <code>Socket.connect()</code>, and
+ * timeouts and interrupts take effect immediately.
+ * </p>
+ * <p>
+ * When a host has several addresses, attempts are staggered across them in the
+ * manner of RFC 8305 (Happy Eyeballs): the next address is tried when the previous
+ * attempt failed or has not succeeded within the attempt delay, the first attempt to
+ * succeed wins and all other attempts are abandoned.
+ * </p>
+ *
+ * @since 3.1
+ */
+final class ConnectSelector implements Runnable {
+
+    /** Log object for this class. */
+    private static final Log LOG = LogFactory.getLog(ConnectSelector.class);
+
+    /** The shared instance, created on first use */
+    private static volatile ConnectSelector instance = null;
+
+    /** Guards the creation of {@link #instance} */
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+
+    /**
+     * Returns the shared connect selector, starting its thread if necessary.
+     *
+     * @throws IOException if the selector cannot be opened
+     */
+    static ConnectSelector getInstance() throws IOException {
+        ConnectSelector current = instance;
+        if (current != null && !current.terminated) {
+            return current;
+        }
+        INSTANCE_LOCK.lock();
+        try {
+            if (instance == null || instance.terminated) {
+                instance = new ConnectSelector(Selector.open());
+                Thread thread = new Thread(instance, "HttpClient-ConnectSelector");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return instance;
+        } finally {
+            INSTANCE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Creates the unconnected channels for connection attempts, with any socket
+     * options applied and local address bound.
+     */
+    interface ChannelOpener {
+
+        SocketChannel openChannel() throws IOException;
+    }
+
+    /** The selector all pending attempts are registered with */
+    private final Selector selector;
+
+    /** Attempts waiting to be registered by the selector thread */
+    private final ConcurrentLinkedQueue pendingAttempts = new ConcurrentLinkedQueue();
+
+    /** Set once the selector thread has stopped */
+    private volatile boolean terminated = false;
+
+    private ConnectSelector(final Selector selector) {
+        super();
+        this.selector = selector;
+    }
+
+    /**
+     * Connects to the first of the given addresses that accepts a connection.
+     * Addresses are tried in the given order; the next attempt is started as soon as
+     * all started attempts have failed, or when none has succeeded within the
+     * attempt delay. A non-positive delay tries the addresses one after the other.
+     *
+     * @param opener creates the channels for the attempts
+     * @param remoteAddresses the addresses to connect to, in order of preference
+     * @param timeout the overall connect timeout in milliseconds, <tt>0</tt> for none
+     * @param attemptDelay the delay in milliseconds before the next address is tried
+     * while earlier attempts are still pending
+     *
+     * @return the connected channel, in blocking mode
+     *
+     * @throws ConnectionTimeoutException if no attempt succeeds in time
+     * @throws IOException if all attempts fail; the failure of the last one is thrown
+     */
+    SocketChannel connect(final ChannelOpener opener, final SocketAddress[] remoteAddresses,
+        int timeout, int attemptDelay) throws IOException {
+        ConnectRequest request = new ConnectRequest();
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        int next = 0;
+        try {
+            while (true) {
+                if (next < remoteAddresses.length) {
+                    startAttempt(request, opener, remoteAddresses[next++]);
+                }
+                long nextAttempt = 0;
+                if (next < remoteAddresses.length && attemptDelay > 0) {
+                    nextAttempt = System.currentTimeMillis() + attemptDelay;
+                }
+                int state;
+                try {
+                    state = request.await(deadline, nextAttempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Connect to " + remoteAddresses[0]
+                        + " has been interrupted");
+                }
+                if (state == ConnectRequest.CONNECTED) {
+                    SocketChannel channel = request.winner;
+                    channel.configureBlocking(true);
+                    return channel;
+                } else if (state == ConnectRequest.FAILED) {
+                    if (next >= remoteAddresses.length) {
+                        throw request.lastFailure;
+                    }
+                } else if (state == ConnectRequest.TIMED_OUT) {
+                    throw new ConnectionTimeoutException(
+                        "The host did not accept the connection within timeout of "
+                        + timeout + " ms");
+                }
+            }
+        } finally {
+            if (request.cancel()) {
+                // wake up the selector to release the keys of the abandoned channels
+                this.selector.wakeup();
+            }
+        }
+    }
+
+    private void startAttempt(final ConnectRequest request, final ChannelOpener opener,
+        final SocketAddress remoteAddress) {
+        SocketChannel channel = null;
+        try {
+            channel = opener.openChannel();
+            Attempt attempt = new Attempt(request, channel);
+            request.add(attempt);
+            channel.configureBlocking(false);
+            if (channel.connect(remoteAddress)) {
+                attempt.complete(null);
+            } else {
+                this.pendingAttempts.add(attempt);
+                this.selector.wakeup();
+                if (this.terminated) {
+                    // the selector thread died before it could pick up the attempt
+                    attempt.complete(new IOException("Connect selector has been terminated"));
+                }
+            }
+        } catch (IOException e) {
+            request.failed(channel, e);
+        }
+    }
+
+    /**
+     * The selector loop: registers new attempts and finishes the ones that
+     * became ready.
+     */
+    public void run() {
+        try {
+            List completed = new ArrayList();
+            while (true) {
+                registerPendingAttempts();
+                this.selector.select();
+                Iterator iter = this.selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = (SelectionKey) iter.next();
+                    iter.remove();
+                    Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        if (!attempt.channel.finishConnect()) {
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        attempt.failure = e;
+                    }
+                    key.cancel();
+                    completed.add(attempt);
+                }
+                if (!completed.isEmpty()) {
+                    // flush the cancelled keys, channels can only return to blocking
+                    // mode once they are deregistered
+                    this.selector.selectNow();
+                    for (int i = 0; i < completed.size(); i++) {
+                        Attempt attempt = (Attempt) completed.get(i);
+                        attempt.complete(attempt.failure);
+                    }
+                    completed.clear();
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("Connect selector terminated unexpectedly", t);
+        } finally {
+            this.terminated = true;
+            IOException failure = new IOException("Connect selector has been terminated");
+            Iterator iter = this.selector.keys().iterator();
+            while (iter.hasNext()) {
+                ((Attempt) ((SelectionKey) iter.next()).attachment()).complete(failure);
+            }
+            Attempt attempt;
+            while ((attempt = (Attempt) this.pendingAttempts.poll()) != null) {
+                attempt.complete(failure);
+            }
+            try {
+                this.selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void registerPendingAttempts() {
+        Attempt attempt;
+        while ((attempt = (Attempt) this.pendingAttempts.poll()) != null) {
+            try {
+                attempt.channel.register(this.selector, SelectionKey.OP_CONNECT, attempt);
+            } catch (ClosedChannelException e) {
+                // abandoned before it could be registered
+                attempt.complete(e);
+            }
+        }
+    }
+
+    private static void closeChannel(final SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * A single connection attempt of a request.
+     */
+    private static final class Attempt {
+
+        private final ConnectRequest request;
+
+        private final SocketChannel channel;
+
+        /** The reason the attempt failed, only accessed by the selector thread */
+        private IOException failure;
+
+        Attempt(final ConnectRequest request, final SocketChannel channel) {
+            this.request = request;
+            this.channel = channel;
+        }
+
+        void complete(final IOException failure) {
+            if (failure == null) {
+                this.request.connected(this.channel);
+            } else {
+                this.request.failed(this.channel, failure);
+            }
+        }
+    }
+
+    /**
+     * The attempts of one connect, and the thread waiting for them. The state is
+     * guarded by a lock rather than the monitor, so that a virtual thread waiting
+     * for its connect does not pin its carrier thread.
+     */
+    private static final class ConnectRequest {
+
+        static final int CONNECTED = 0;
+
+        static final int FAILED = 1;
+
+        static final int TIMED_OUT = 2;
+
+        static final int NEXT_ATTEMPT = 3;
+
+        /** The channels of all attempts started so far */
+        private final List channels = new ArrayList(2);
+
+        private int failed = 0;
+
+        private IOException lastFailure;
+
+        private SocketChannel winner;
+
+        private boolean cancelled = false;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** Signalled when an attempt has succeeded or failed */
+        private final Condition changed = this.lock.newCondition();
+
+        void add(final Attempt attempt) {
+            this.lock.lock();
+            try {
+                this.channels.add(attempt.channel);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void connected(final SocketChannel channel) {
+            this.lock.lock();
+            try {
+                if (this.winner == null && !this.cancelled) {
+                    this.winner = channel;
+                    this.changed.signalAll();
+                } else {
+                    // lost the race against another attempt
+                    closeChannel(channel);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void failed(final SocketChannel channel, final IOException failure) {
+            this.lock.lock();
+            try {
+                closeChannel(channel);
+                if (channel == null) {
+                    // the channel could not even be opened, count it as a failed attempt
+                    this.channels.add(null);
+                }
+                this.failed++;
+                this.lastFailure = failure;
+                this.changed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Waits until an attempt has succeeded, all attempts have failed, the next
+         * attempt is due or the deadline has passed. Times of <tt>0</tt> are not used.
+         */
+        int await(long deadline, long nextAttempt) throws InterruptedException {
+            this.lock.lock();
+            try {
+                while (true) {
+                    if (this.winner != null) {
+                        return CONNECTED;
+                    }
+                    if (this.failed >= this.channels.size()) {
+                        return FAILED;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (deadline > 0 && now >= deadline) {
+                        return TIMED_OUT;
+                    }
+                    if (nextAttempt > 0 && now >= nextAttempt) {
+                        return NEXT_ATTEMPT;
+                    }
+                    long wait = 0;
+                    if (deadline > 0) {
+                        wait = deadline - now;
+                    }
+                    if (nextAttempt > 0 && (wait == 0 || nextAttempt - now < wait)) {
+                        wait = nextAttempt - now;
+                    }
+                    if (wait > 0) {
+                        this.changed.await(wait, TimeUnit.MILLISECONDS);
+                    } else {
+                        this.changed.await();
+                    }
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the channels of all attempts but the winner.
+         *
+         * @return <tt>true</tt> if any channel has been closed
+         */
+        boolean cancel() {
+            this.lock.lock();
+            try {
+                this.cancelled = true;
+                boolean closed = false;
+                for (int i = 0; i < this.channels.size(); i++) {
+                    SocketChannel channel = (SocketChannel) this.channels.get(i);
+                    if (channel != null && channel != this.winner && channel.isOpen()) {
+                        closeChannel(channel);
+                        closed = true;
+                    }
+                }
+                return closed;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names with the name service of the JRE, see
+ * {@link InetAddress#getAllByName(String)}.
+ *
+ * @since 3.1
+ */
+public class DefaultHostResolver implements HostResolver {
+
+    /**
+     * The resolver singleton.
+     */
+    private static final DefaultHostResolver resolver = new DefaultHostResolver();
+
+    /**
+     * Gets the singleton instance of the DefaultHostResolver.
+     *
+     * @return a DefaultHostResolver
+     */
+    public static DefaultHostResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * Constructor for DefaultHostResolver.
+     */
+    public DefaultHostResolver() {
+        super();
+    }
+
+    /**
+     * @see HostResolver#resolve(java.lang.String)
+     */
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    /**
+     * All instances of DefaultHostResolver are the same.
+     */
+    public boolean equals(Object obj) {
+        return ((obj != null) && obj.getClass().equals(getClass()));
+    }
+
+    /**
+     * All instances of DefaultHostResolver have the same hash code.
+     */
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
@@ -3,11 +3,30 @@ package org.apache.commons.httpclient.protocol;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.commons.httpclient.ConnectionTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+
+/**
+ * The default class for creating plain (unencrypted) sockets.
+ *
+ * @since 2.0
+ */
 public class DefaultProtocolSocketFactory implements ProtocolSocketFactory {
 
+    /**
+     * The host name cache shared by all factories created with the default constructor.
+     */
+    private static final HostResolver DEFAULT_RESOLVER = new CachingHostResolver();
+
     /**
      * The factory singleton.
      */
@@ -17,19 +36,54 @@ public class DefaultProtocolSocketFactory implements ProtocolSocketFactory {
      * Gets an singleton instance of the DefaultProtocolSocketFactory.
      * @return a DefaultProtocolSocketFactory
      */
-    public static DefaultProtocolSocketFactory getFactory() {
+    public static DefaultProtocolSocketFactory getSocketFactory() {
         return factory;
     }
 
+    /** The resolver for host names */
+    private final HostResolver resolver;
+
     /**
-     * Constructor for DefaultProtocolSocketFactory.
+     * Constructor for DefaultProtocolSocketFactory. Host names are resolved with
+     * a {@link CachingHostResolver cache} of the name service of the JRE, which is
+     * shared by all factories created with this constructor.
      */
     public DefaultProtocolSocketFactory() {
+        this(DEFAULT_RESOLVER);
+    }
+
+    /**
+     * Creates a factory resolving host names with the given resolver.
+     *
+     * @param resolver the resolver for host names
+     *
+     * @since 3.1
+     */
+    public DefaultProtocolSocketFactory(final HostResolver resolver) {
         super();
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver may not be null");
+        }
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns the resolver used for host names.
+     *
+     * @return the host resolver
+     *
+     * @since 3.1
+     */
+    public HostResolver getHostResolver() {
+        return this.resolver;
     }
 
     /**
-     * @see #createSocket(String, int, java.net.InetAddress, int)
+     * Creates a socket connected to the first address the host resolves to. Unlike
+     * {@link #createSocket(String, int, InetAddress, int, HttpConnectionParams)},
+     * this method does not fail over to the other addresses of the host.
+     *
+     * @see ProtocolSocketFactory#createSocket(String, int, java.net.InetAddress, int)
      */
     @Override
     public Socket createSocket(
@@ -38,16 +92,31 @@ public class DefaultProtocolSocketFactory implements ProtocolSocketFactory {
             InetAddress localAddress,
             int localPort
     ) throws IOException, UnknownHostException {
-        return new Socket(host, port, localAddress, localPort);
+        return new Socket(this.resolver.resolve(host)[0], port, localAddress, localPort);
     }
 
     /**
      * Attempts to get a new socket connection to the given host within the given time limit.
      * <p>
-     * This method employs several techniques to circumvent(用计谋战胜) the limitations of older JREs that
-     * do not support connect timeout. When running in JRE 1.4 or above reflection is used to
-     * call Socket#connect(SocketAddress endpoint, int timeout) method. When executing in older
-     * JREs a controller thread is executed.
+     * The socket is created from a {@link SocketChannel} that connects in non-blocking
+     * mode. The pending connect is completed on a selector shared by all sockets, so
+     * concurrent connection attempts do not each keep a thread blocked in
+     * <code>connect()</code>. The socket options given by the parameters are applied
+     * before connecting, see {@link #applySocketOptions(Socket, HttpConnectionParams)}.
+     * The returned socket is in blocking mode.
+     * </p>
+     * <p>
+     * If the host resolves to several addresses, connection attempts are staggered
+     * across them in the {@link #orderAddresses(InetAddress[], InetAddress) preferred order}:
+     * the next address is tried as soon as the previous attempts have failed or have not
+     * succeeded within the {@link HttpConnectionParams#CONNECTION_ATTEMPT_DELAY attempt
+     * delay}. The first connection established is returned, all other attempts are
+     * abandoned. The connection timeout applies to the whole connect.
+     * </p>
+     * <p>
+     * Attempts cannot overlap if a local port is given, since each of them binds it.
+     * The addresses are then tried one after the other, each attempt being given an
+     * equal share of the time left of the connection timeout.
      * </p>
      * @param host the host name/IP
      * @param port the port on the host
@@ -55,10 +124,15 @@ public class DefaultProtocolSocketFactory implements ProtocolSocketFactory {
      * @param localPort the port on the local machine
      * @param params {@link HttpConnectionParams Http connection parameters}
      *
-     * @return
-     * @throws IOException
-     * @throws UnknownHostException
-     * @throws ConnectionTimeoutException
+     * @return Socket a new socket
+     *
+     * @throws IOException if an I/O error occurs while creating the socket
+     * @throws UnknownHostException if the IP address of the host cannot be
+     * determined
+     * @throws ConnectionTimeoutException if socket cannot be connected within the
+     * given time limit
+     *
+     * @since 3.0
      */
     @Override
     public Socket createSocket(
@@ -71,11 +145,206 @@ public class DefaultProtocolSocketFactory implements ProtocolSocketFactory {
         if (params == null) {
             throw new IllegalArgumentException("Parameters may not be null");
         }
-        int timeout = params.
+        InetAddress[] addresses = orderAddresses(this.resolver.resolve(host), localAddress);
+        InetSocketAddress[] remoteAddresses = new InetSocketAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            remoteAddresses[i] = new InetSocketAddress(addresses[i], port);
+        }
+        ChannelOpener opener = new ChannelOpener(localAddress, localPort, params);
+        if (localPort != 0 && remoteAddresses.length > 1) {
+            return connectInTurn(opener, remoteAddresses, params.getConnectionTimeout());
+        }
+        SocketChannel channel = ConnectSelector.getInstance().connect(
+            opener,
+            remoteAddresses,
+            params.getConnectionTimeout(),
+            params.getConnectionAttemptDelay());
+        return channel.socket();
+    }
+
+    /**
+     * Tries the addresses one after the other, giving each attempt an equal share of
+     * the time left, so that an address that does not respond cannot use up the
+     * whole timeout.
+     *
+     * @param opener creates the channels for the attempts
+     * @param remoteAddresses the addresses to connect to, in order of preference
+     * @param timeout the overall connect timeout in milliseconds, <tt>0</tt> for none
+     *
+     * @return the connected socket
+     *
+     * @throws IOException if all attempts fail; the failure of the last one is thrown
+     */
+    private static Socket connectInTurn(final ChannelOpener opener,
+        final InetSocketAddress[] remoteAddresses, int timeout) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        IOException failure = null;
+        for (int i = 0; i < remoteAddresses.length; i++) {
+            int attemptTimeout = 0;
+            if (timeout > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                attemptTimeout = (int) Math.max(1, remaining / (remoteAddresses.length - i));
+            }
+            try {
+                return ConnectSelector.getInstance().connect(opener,
+                    new SocketAddress[] {remoteAddresses[i]}, attemptTimeout, 0).socket();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure == null) {
+            throw new ConnectionTimeoutException("Connect timed out");
+        }
+        throw failure;
     }
 
+    /**
+     * Orders the resolved addresses of a host for connection attempts as recommended
+     * by RFC 8305: address families are interleaved, starting with the family of the
+     * first address, so that a broken family costs at most one attempt delay.
+     * Addresses of a family other than that of the local address are dropped, unless
+     * that would drop all of them.
+     *
+     * @param addresses the resolved addresses, in the order returned by the resolver
+     * @param localAddress the local address the socket will be bound to, may be <tt>null</tt>
+     *
+     * @return the addresses in the order in which they are to be tried
+     *
+     * @since 3.1
+     */
+    protected InetAddress[] orderAddresses(final InetAddress[] addresses,
+        final InetAddress localAddress) {
+        if (addresses.length < 2) {
+            return addresses;
+        }
+        List first = new ArrayList(addresses.length);
+        List second = new ArrayList(addresses.length);
+        Class firstFamily = localAddress != null
+            ? localAddress.getClass() : addresses[0].getClass();
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i].getClass() == firstFamily) {
+                first.add(addresses[i]);
+            } else {
+                second.add(addresses[i]);
+            }
+        }
+        if (localAddress != null && !first.isEmpty()) {
+            return (InetAddress[]) first.toArray(new InetAddress[first.size()]);
+        }
+        if (first.isEmpty()) {
+            return addresses;
+        }
+        InetAddress[] ordered = new InetAddress[addresses.length];
+        int n = 0;
+        for (int i = 0; i < first.size() || i < second.size(); i++) {
+            if (i < first.size()) {
+                ordered[n++] = (InetAddress) first.get(i);
+            }
+            if (i < second.size()) {
+                ordered[n++] = (InetAddress) second.get(i);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Creates a socket connected to the first address the host resolves to. Unlike
+     * {@link #createSocket(String, int, InetAddress, int, HttpConnectionParams)},
+     * this method does not fail over to the other addresses of the host.
+     *
+     * @see ProtocolSocketFactory#createSocket(java.lang.String,int)
+     */
     @Override
     public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return new Socket(this.resolver.resolve(host)[0], port);
+    }
+
+    /**
+     * Applies the <tt>TCP_NODELAY</tt>, <tt>SO_SNDBUF</tt>, <tt>SO_RCVBUF</tt> and
+     * <tt>SO_LINGER</tt> options given by the parameters to a socket. Buffer sizes and
+     * linger time are left to the JRE if the parameter is negative. Applying the
+     * options before connecting allows the receive buffer size to be taken into
+     * account for the TCP window.
+     *
+     * @param socket the socket
+     * @param params {@link HttpConnectionParams Http connection parameters}
+     *
+     * @throws SocketException if an option cannot be set
+     *
+     * @since 3.1
+     */
+    public static void applySocketOptions(final Socket socket, final HttpConnectionParams params)
+        throws SocketException {
+        socket.setTcpNoDelay(params.getTcpNoDelay());
+        int sndBufSize = params.getSendBufferSize();
+        if (sndBufSize >= 0) {
+            socket.setSendBufferSize(sndBufSize);
+        }
+        int rcvBufSize = params.getReceiveBufferSize();
+        if (rcvBufSize >= 0) {
+            socket.setReceiveBufferSize(rcvBufSize);
+        }
+        int linger = params.getLinger();
+        if (linger >= 0) {
+            socket.setSoLinger(linger > 0, linger);
+        }
+    }
+
+    /**
+     * Opens the channels of connection attempts, with the socket options applied
+     * and the local address bound.
+     */
+    private static final class ChannelOpener implements ConnectSelector.ChannelOpener {
+
+        private final InetAddress localAddress;
+
+        private final int localPort;
+
+        private final HttpConnectionParams params;
+
+        ChannelOpener(final InetAddress localAddress, int localPort,
+            final HttpConnectionParams params) {
+            this.localAddress = localAddress;
+            this.localPort = localPort;
+            this.params = params;
+        }
+
+        public SocketChannel openChannel() throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            boolean opened = false;
+            try {
+                Socket socket = channel.socket();
+                applySocketOptions(socket, this.params);
+                if (this.localAddress != null || this.localPort != 0) {
+                    socket.bind(new InetSocketAddress(this.localAddress, this.localPort));
+                }
+                opened = true;
+                return channel;
+            } finally {
+                if (!opened) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Instances of DefaultProtocolSocketFactory are the same if they use the same
+     * host resolver.
+     */
+    public boolean equals(Object obj) {
+        return ((obj != null) && obj.getClass().equals(getClass())
+            && this.resolver.equals(((DefaultProtocolSocketFactory) obj).resolver));
+    }
+
+    /**
+     * Instances of DefaultProtocolSocketFactory using the same host resolver have the
+     * same hash code.
+     */
+    public int hashCode() {
+        return getClass().hashCode() * 31 + this.resolver.hashCode();
     }
 }
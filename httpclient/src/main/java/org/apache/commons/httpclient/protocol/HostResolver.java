@@ -0,0 +1,61 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names to IP addresses for {@link ProtocolSocketFactory protocol socket
+ * factories}.
+ * <p>
+ * Implementations must be thread safe. Like socket factories, they should override
+ * {@link java.lang.Object#equals(java.lang.Object) Object.equals()} and
+ * {@link java.lang.Object#hashCode() Object.hashCode()} appropriately, as they take
+ * part in the identity of the socket factories using them.
+ * </p>
+ *
+ * @see DefaultHostResolver
+ * @see CachingHostResolver
+ * @see StaticHostResolver
+ *
+ * @since 3.1
+ */
+public interface HostResolver {
+
+    /**
+     * Resolves the given host name.
+     *
+     * @param host the host name or IP address literal
+     *
+     * @return the addresses of the host, at least one, in the order returned by
+     * the name service
+     *
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException;
+}
@@ -29,9 +29,8 @@
  */
 package org.apache.commons.httpclient.protocol;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.httpclient.util.LangUtils;
 
@@ -56,8 +55,26 @@ import org.apache.commons.httpclient.util.LangUtils;
  */
 public class Protocol { // finish @2014/1/4 22:30
 
-    /** The available protocols */
-    private static final Map PROTOCOLS = Collections.synchronizedMap(new HashMap());
+    /**
+     * The available protocols. Lookups do not lock; changes are made holding
+     * the lock of this map so that they are atomic with the update of the
+     * fields for http and https.
+     */
+    private static final Map PROTOCOLS = new ConcurrentHashMap();
+
+    /**
+     * The canonical instances of the registered protocols, keyed by themselves.
+     * A registered protocol is canonical unless an equal protocol was already.
+     * Only registered protocols are kept, so that protocols created per request
+     * are not retained. Changed holding the lock of {@link #PROTOCOLS}.
+     */
+    private static final ConcurrentHashMap CANONICAL = new ConcurrentHashMap();
+
+    /** The protocol registered as "http", looked up without the map */
+    private static volatile Protocol httpProtocol = null;
+
+    /** The protocol registered as "https", looked up without the map */
+    private static volatile Protocol httpsProtocol = null;
 
     /**
      * Registers a new protocol with the given identifier.  If a protocol with
@@ -78,7 +95,12 @@ public class Protocol { // finish @2014/1/4 22:30
             throw new IllegalArgumentException("protocol is null");
         }
 
-        PROTOCOLS.put(id, protocol);
+        synchronized (PROTOCOLS) {
+            Protocol previous = (Protocol) PROTOCOLS.put(id, protocol);
+            updateWellKnown(id, protocol);
+            CANONICAL.putIfAbsent(protocol, protocol);
+            forget(previous);
+        }
     }
 
     /**
@@ -92,7 +114,24 @@ public class Protocol { // finish @2014/1/4 22:30
             throw new IllegalArgumentException("id is null");
         }
 
-        PROTOCOLS.remove(id);
+        synchronized (PROTOCOLS) {
+            Protocol previous = (Protocol) PROTOCOLS.remove(id);
+            updateWellKnown(id, null);
+            forget(previous);
+        }
+    }
+
+    /**
+     * Drops the canonical instance of a protocol that is no longer registered,
+     * unless an equal protocol is still registered with another id. Must be called
+     * holding the lock of the protocol map.
+     *
+     * @param protocol the protocol no longer registered, or <code>null</code>
+     */
+    private static void forget(Protocol protocol) {
+        if (protocol != null && !PROTOCOLS.containsValue(protocol)) {
+            CANONICAL.remove(protocol);
+        }
     }
 
     /**
@@ -111,7 +150,14 @@ public class Protocol { // finish @2014/1/4 22:30
             throw new IllegalArgumentException("id is null");
         }
 
-        Protocol protocol = (Protocol) PROTOCOLS.get(id);
+        Protocol protocol;
+        if ("http".equals(id)) {
+            protocol = httpProtocol;
+        } else if ("https".equals(id)) {
+            protocol = httpsProtocol;
+        } else {
+            protocol = (Protocol) PROTOCOLS.get(id);
+        }
 
         if (protocol == null) {
             protocol = lazyRegisterProtocol(id);
@@ -121,7 +167,8 @@ public class Protocol { // finish @2014/1/4 22:30
     }
 
     /**
-     * Lazily registers the protocol with the given id.
+     * Lazily registers the protocol with the given id, unless another thread
+     * has registered a protocol with this id in the meantime.
      *
      * @param id the protocol ID
      *
@@ -132,35 +179,77 @@ public class Protocol { // finish @2014/1/4 22:30
     private static Protocol lazyRegisterProtocol(String id)
             throws IllegalStateException {
 
-        if ("http".equals(id)) {
-            final Protocol http
-                    = new Protocol("http", DefaultProtocolSocketFactory.getSocketFactory(), 80);
-            Protocol.registerProtocol("http", http);
-            return http;
+        synchronized (PROTOCOLS) {
+            Protocol protocol = (Protocol) PROTOCOLS.get(id);
+            if (protocol != null) {
+                return protocol;
+            }
+
+            if ("http".equals(id)) {
+                protocol = new Protocol("http", DefaultProtocolSocketFactory.getSocketFactory(), 80);
+            } else if ("https".equals(id)) {
+                protocol = new Protocol("https", SSLProtocolSocketFactory.getSocketFactory(), 443);
+            } else {
+                throw new IllegalStateException("unsupported protocol: '" + id + "'");
+            }
+            PROTOCOLS.put(id, protocol);
+            updateWellKnown(id, protocol);
+            CANONICAL.putIfAbsent(protocol, protocol);
+            return protocol;
         }
+    }
 
-        if ("https".equals(id)) {
-            final Protocol https
-                    = new Protocol("https", SSLProtocolSocketFactory.getSocketFactory(), 443);
-            Protocol.registerProtocol("https", https);
-            return https;
+    /**
+     * Returns the canonical instance of the given protocol: the first registered
+     * instance that is equal to it, or the protocol itself if no equal protocol is
+     * registered. Protocols that are canonical instances compare equal by
+     * reference, so hosts and connections keep canonical protocols to make
+     * comparing routes cheap. Protocols that are not registered are not retained.
+     *
+     * @param protocol the protocol
+     *
+     * @return the canonical protocol equal to the given one, or the given protocol
+     *
+     * @since 3.1
+     */
+    public static Protocol getCanonicalProtocol(Protocol protocol) {
+        if (protocol == null) {
+            throw new IllegalArgumentException("protocol is null");
         }
+        Protocol canonical = (Protocol) CANONICAL.get(protocol);
+        return canonical != null ? canonical : protocol;
+    }
 
-        throw new IllegalStateException("unsupported protocol: '" + id + "'");
+    /**
+     * Updates the field of the protocol with the given id if it is http or https.
+     * Must be called holding the lock of the protocol map.
+     *
+     * @param id the protocol ID
+     * @param protocol the protocol now registered with this id, or <code>null</code>
+     */
+    private static void updateWellKnown(String id, Protocol protocol) {
+        if ("http".equals(id)) {
+            httpProtocol = protocol;
+        } else if ("https".equals(id)) {
+            httpsProtocol = protocol;
+        }
     }
 
 
     /** the scheme of this protocol (e.g. http, https) */
-    private String scheme;
+    private final String scheme;
 
     /** The socket factory for this protocol */
-    private ProtocolSocketFactory socketFactory;
+    private final ProtocolSocketFactory socketFactory;
 
     /** The default port for this protocol */
-    private int defaultPort;
+    private final int defaultPort;
 
     /** True if this protocol is secure */
-    private boolean secure;
+    private final boolean secure;
+
+    /** The precomputed hash code */
+    private final int hash;
 
     /**
      * Constructs a new Protocol. Whether the created protocol is secure depends on
@@ -187,6 +276,13 @@ public class Protocol { // finish @2014/1/4 22:30
         this.socketFactory = factory;
         this.defaultPort = defaultPort;
         this.secure = (factory instanceof SecureProtocolSocketFactory);
+
+        int hash = LangUtils.HASH_SEED;
+        hash = LangUtils.hashCode(hash, this.defaultPort);
+        hash = LangUtils.hashCode(hash, this.scheme.toLowerCase());
+        hash = LangUtils.hashCode(hash, this.secure);
+        hash = LangUtils.hashCode(hash, this.socketFactory);
+        this.hash = hash;
     }
 
     /**
@@ -265,12 +361,16 @@ public class Protocol { // finish @2014/1/4 22:30
      */
     public boolean equals(Object obj) {
 
+        if (obj == this) {
+            return true;
+        }
         if (obj instanceof Protocol) {
 
             Protocol p = (Protocol) obj;
 
             return (
-                    defaultPort == p.getDefaultPort()
+                    hash == p.hash
+                            && defaultPort == p.getDefaultPort()
                             && scheme.equalsIgnoreCase(p.getScheme())
                             && secure == p.isSecure()
                             && socketFactory.equals(p.getSocketFactory()));
@@ -286,11 +386,6 @@ public class Protocol { // finish @2014/1/4 22:30
      * @return The hash code.
      */
     public int hashCode() {
-        int hash = LangUtils.HASH_SEED;
-        hash = LangUtils.hashCode(hash, this.defaultPort);
-        hash = LangUtils.hashCode(hash, this.scheme.toLowerCase());
-        hash = LangUtils.hashCode(hash, this.secure);
-        hash = LangUtils.hashCode(hash, this.socketFactory);
-        return hash;
+        return this.hash;
     }
 }
@@ -5,6 +5,9 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
+import org.apache.commons.httpclient.ConnectionTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+
 /**
  * A factory for creating Sockets.
  *
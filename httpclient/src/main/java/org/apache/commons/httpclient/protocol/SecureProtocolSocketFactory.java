@@ -1,5 +1,6 @@
 package org.apache.commons.httpclient.protocol;
 
+import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
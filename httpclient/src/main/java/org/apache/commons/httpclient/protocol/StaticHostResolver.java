@@ -0,0 +1,94 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves host names from a fixed map of host names to addresses, without
+ * consulting any name service. Useful for tests and for pinning hosts to
+ * known addresses.
+ *
+ * @since 3.1
+ */
+public class StaticHostResolver implements HostResolver {
+
+    /** The addresses, keyed by lower case host name */
+    private final Map hosts;
+
+    /**
+     * Creates a resolver for the given hosts.
+     *
+     * @param hosts a map of host names to either an {@link InetAddress} or an array
+     * of them; the map is copied
+     */
+    public StaticHostResolver(final Map hosts) {
+        super();
+        if (hosts == null) {
+            throw new IllegalArgumentException("Hosts may not be null");
+        }
+        this.hosts = new HashMap(hosts.size() * 2);
+        Iterator iter = hosts.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            Object value = entry.getValue();
+            InetAddress[] addresses;
+            if (value instanceof InetAddress) {
+                addresses = new InetAddress[] {(InetAddress) value};
+            } else if (value instanceof InetAddress[] && ((InetAddress[]) value).length > 0) {
+                addresses = (InetAddress[]) ((InetAddress[]) value).clone();
+            } else {
+                throw new IllegalArgumentException("Invalid addresses for host "
+                    + entry.getKey() + ": " + value);
+            }
+            this.hosts.put(((String) entry.getKey()).toLowerCase(Locale.ENGLISH), addresses);
+        }
+    }
+
+    /**
+     * Returns the addresses the host is mapped to.
+     *
+     * @throws UnknownHostException if the host is not mapped
+     *
+     * @see HostResolver#resolve(java.lang.String)
+     */
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        if (host == null) {
+            throw new IllegalArgumentException("Host may not be null");
+        }
+        InetAddress[] addresses = (InetAddress[]) this.hosts.get(host.toLowerCase(Locale.ENGLISH));
+        if (addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return (InetAddress[]) addresses.clone();
+    }
+}
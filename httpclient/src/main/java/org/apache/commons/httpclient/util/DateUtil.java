@@ -0,0 +1,484 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A utility class for parsing and formatting HTTP dates as used in cookies and
+ * other headers.  This class handles dates as defined by RFC 2616 section
+ * 3.3.1 as well as some other common non-standard formats.
+ * <p>
+ * Dates in the preferred RFC 1123 format are parsed and formatted without
+ * {@link SimpleDateFormat}, and recently parsed values are remembered, since
+ * a server sends the same <tt>Date</tt> value for a whole second. Other
+ * formats are parsed with pattern based formatters that are shared between
+ * threads through a pool, one per pattern.
+ * </p>
+ *
+ * @author Christopher Brown
+ * @author Michael Becke
+ */
+public class DateUtil {
+
+    /**
+     * Date format pattern used to parse HTTP date headers in RFC 1123 format.
+     */
+    public static final String PATTERN_RFC1123 = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * Date format pattern used to parse HTTP date headers in RFC 1036 format.
+     */
+    public static final String PATTERN_RFC1036 = "EEEE, dd-MMM-yy HH:mm:ss zzz";
+
+    /**
+     * Date format pattern used to parse HTTP date headers in ANSI C
+     * <code>asctime()</code> format.
+     */
+    public static final String PATTERN_ASCTIME = "EEE MMM d HH:mm:ss yyyy";
+
+    private static final Collection DEFAULT_PATTERNS = Arrays.asList(
+        new String[] { PATTERN_ASCTIME, PATTERN_RFC1036, PATTERN_RFC1123 } );
+
+    private static final Date DEFAULT_TWO_DIGIT_YEAR_START;
+
+    static {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2000, Calendar.JANUARY, 1, 0, 0);
+        DEFAULT_TWO_DIGIT_YEAR_START = calendar.getTime();
+    }
+
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+    private static final String[] DAYS = {
+        "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"
+    };
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    /** The length of a date in RFC 1123 format */
+    private static final int RFC1123_LENGTH = 29;
+
+    /** Dates before the Gregorian cutover are left to the formatters */
+    private static final int MIN_YEAR = 1583;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /** The number of recently parsed dates to remember, a power of two */
+    private static final int CACHE_SIZE = 16;
+
+    /** Recently parsed RFC 1123 dates, indexed by the hash code of their value */
+    private static final ParsedDate[] PARSED = new ParsedDate[CACHE_SIZE];
+
+    /** The last date formatted in RFC 1123 format */
+    private static volatile FormattedDate lastFormatted = null;
+
+    /** The pools of formatters, keyed by pattern */
+    private static final ConcurrentHashMap FORMATS = new ConcurrentHashMap();
+
+    /**
+     * Parses a date value using the RFC 1123, RFC 1036 and asctime formats.
+     *
+     * @param dateValue the date value to parse
+     *
+     * @return the parsed date
+     *
+     * @throws DateParseException if the value could not be parsed using any of the
+     * supported date formats
+     */
+    public static Date parseDate(String dateValue) throws DateParseException {
+        return parseDate(dateValue, null, null);
+    }
+
+    /**
+     * Parses the date value using the given date formats.
+     *
+     * @param dateValue the date value to parse
+     * @param dateFormats the date formats to use
+     *
+     * @return the parsed date
+     *
+     * @throws DateParseException if none of the dataFormats could parse the dateValue
+     */
+    public static Date parseDate(String dateValue, Collection dateFormats)
+        throws DateParseException {
+        return parseDate(dateValue, dateFormats, null);
+    }
+
+    /**
+     * Parses the date value using the given date formats.
+     *
+     * @param dateValue the date value to parse
+     * @param dateFormats the date formats to use
+     * @param startDate During parsing, two digit years will be placed in the range
+     * <code>startDate</code> to <code>startDate + 100 years</code>. This value may
+     * be <code>null</code>. When <code>null</code> is given as a parameter, year
+     * <code>2000</code> will be used.
+     *
+     * @return the parsed date
+     *
+     * @throws DateParseException if none of the dataFormats could parse the dateValue
+     */
+    public static Date parseDate(
+        String dateValue,
+        Collection dateFormats,
+        Date startDate
+    ) throws DateParseException {
+
+        if (dateValue == null) {
+            throw new IllegalArgumentException("dateValue is null");
+        }
+        if (dateFormats == null) {
+            dateFormats = DEFAULT_PATTERNS;
+        }
+        if (startDate == null) {
+            startDate = DEFAULT_TWO_DIGIT_YEAR_START;
+        }
+        // trim single quotes around date if present
+        // see issue #5279
+        if (dateValue.length() > 1
+            && dateValue.startsWith("'")
+            && dateValue.endsWith("'")
+        ) {
+            dateValue = dateValue.substring (1, dateValue.length() - 1);
+        }
+
+        if (dateValue.length() == RFC1123_LENGTH && dateFormats.contains(PATTERN_RFC1123)) {
+            int index = dateValue.hashCode() & (CACHE_SIZE - 1);
+            ParsedDate parsed = PARSED[index];
+            if (parsed != null && parsed.value.equals(dateValue)) {
+                return new Date(parsed.time);
+            }
+            long time = parseRfc1123(dateValue);
+            if (time != Long.MIN_VALUE) {
+                PARSED[index] = new ParsedDate(dateValue, time);
+                return new Date(time);
+            }
+        }
+
+        Iterator formatIter = dateFormats.iterator();
+        while (formatIter.hasNext()) {
+            String format = (String) formatIter.next();
+            FormatPool pool = getPool(format);
+            SimpleDateFormat dateParser = pool.borrow();
+            try {
+                dateParser.set2DigitYearStart(startDate);
+                return dateParser.parse(dateValue);
+            } catch (ParseException pe) {
+                // ignore this exception, we will try the next format
+            } finally {
+                pool.release(dateParser);
+            }
+        }
+
+        // we were unable to parse the date
+        throw new DateParseException("Unable to parse the date " + dateValue);
+    }
+
+    /**
+     * Formats the given date according to the RFC 1123 pattern.
+     *
+     * @param date The date to format.
+     * @return An RFC 1123 formatted date string.
+     *
+     * @see #PATTERN_RFC1123
+     */
+    public static String formatDate(Date date) {
+        if (date == null) {
+            throw new IllegalArgumentException("date is null");
+        }
+        long time = date.getTime();
+        long second = floorDiv(time, 1000);
+        FormattedDate formatted = lastFormatted;
+        if (formatted != null && formatted.second == second) {
+            return formatted.value;
+        }
+        String value = formatRfc1123(second);
+        if (value == null) {
+            return formatDate(date, PATTERN_RFC1123);
+        }
+        lastFormatted = new FormattedDate(second, value);
+        return value;
+    }
+
+    /**
+     * Formats the given date according to the specified pattern.  The pattern
+     * must conform to that used by the {@link SimpleDateFormat simple date
+     * format} class.
+     *
+     * @param date The date to format.
+     * @param pattern The pattern to use for formatting the date.
+     * @return A formatted date string.
+     *
+     * @throws IllegalArgumentException If the given date pattern is invalid.
+     *
+     * @see SimpleDateFormat
+     */
+    public static String formatDate(Date date, String pattern) {
+        if (date == null) throw new IllegalArgumentException("date is null");
+        if (pattern == null) throw new IllegalArgumentException("pattern is null");
+
+        FormatPool pool = getPool(pattern);
+        SimpleDateFormat formatter = pool.borrow();
+        try {
+            return formatter.format(date);
+        } finally {
+            pool.release(formatter);
+        }
+    }
+
+    /**
+     * Parses a date in the exact form <tt>Sun, 06 Nov 1994 08:49:37 GMT</tt>.
+     *
+     * @return the time in milliseconds, or <code>Long.MIN_VALUE</code> if the value
+     * is not in this form or should be left to a formatter
+     */
+    private static long parseRfc1123(final String s) {
+        if (indexOf(DAYS, s, 0) < 0
+            || s.charAt(3) != ',' || s.charAt(4) != ' '
+            || s.charAt(7) != ' ' || s.charAt(11) != ' '
+            || s.charAt(16) != ' ' || s.charAt(19) != ':'
+            || s.charAt(22) != ':' || s.charAt(25) != ' '
+            || !s.startsWith("GMT", 26)) {
+            return Long.MIN_VALUE;
+        }
+        int day = digits(s, 5, 2);
+        int month = indexOf(MONTHS, s, 8) + 1;
+        int year = digits(s, 12, 4);
+        int hour = digits(s, 17, 2);
+        int minute = digits(s, 20, 2);
+        int second = digits(s, 23, 2);
+        if (month < 1 || year < MIN_YEAR || day < 1 || day > daysInMonth(year, month)
+            || hour < 0 || hour > 23 || minute < 0 || minute > 59
+            || second < 0 || second > 59) {
+            // out of range values are treated leniently by the formatters
+            return Long.MIN_VALUE;
+        }
+        long days = daysFromCivil(year, month, day);
+        return days * MILLIS_PER_DAY + ((hour * 60 + minute) * 60 + second) * 1000L;
+    }
+
+    /**
+     * Formats the given second since the epoch in RFC 1123 format.
+     *
+     * @return the formatted date, or <code>null</code> if it should be left to a
+     * formatter
+     */
+    private static String formatRfc1123(final long second) {
+        long days = floorDiv(second, 24 * 60 * 60);
+        int secondOfDay = (int) (second - days * 24 * 60 * 60);
+
+        // see daysFromCivil() for the algorithm
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < MIN_YEAR || year > 9999) {
+            return null;
+        }
+        int dayOfWeek = (int) floorMod(days + 4, 7);
+
+        StringBuffer buffer = new StringBuffer(RFC1123_LENGTH);
+        buffer.append(DAYS[dayOfWeek]).append(", ");
+        appendDigits(buffer, day, 2);
+        buffer.append(' ').append(MONTHS[month - 1]).append(' ');
+        appendDigits(buffer, (int) year, 4);
+        buffer.append(' ');
+        appendDigits(buffer, secondOfDay / 3600, 2);
+        buffer.append(':');
+        appendDigits(buffer, secondOfDay / 60 % 60, 2);
+        buffer.append(':');
+        appendDigits(buffer, secondOfDay % 60, 2);
+        buffer.append(" GMT");
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of the given date in the
+     * proleptic Gregorian calendar, after Howard Hinnant's
+     * <tt>days_from_civil</tt>.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
+        int era = year / 400;
+        int yoe = year - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Returns the index of the three letter name at the given offset, ignoring
+     * case as the formatters do, or -1 if there is none.
+     */
+    private static int indexOf(final String[] names, final String s, int offset) {
+        for (int i = 0; i < names.length; i++) {
+            if (s.regionMatches(true, offset, names[i], 0, 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of the given number of decimal digits, or -1 if
+     * there is a character other than a digit.
+     */
+    private static int digits(final String s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private static void appendDigits(final StringBuffer buffer, int value, int count) {
+        for (int divisor = count == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            buffer.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static FormatPool getPool(final String pattern) {
+        FormatPool pool = (FormatPool) FORMATS.get(pattern);
+        if (pool == null) {
+            // fails with an IllegalArgumentException for an invalid pattern
+            pool = new FormatPool(pattern);
+            FormatPool existing = (FormatPool) FORMATS.putIfAbsent(pattern, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /** This class should not be instantiated. */
+    private DateUtil() { }
+
+    /**
+     * A date parsed from a value in RFC 1123 format.
+     */
+    private static final class ParsedDate {
+
+        private final String value;
+
+        private final long time;
+
+        ParsedDate(final String value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    /**
+     * A second since the epoch and its RFC 1123 rendering.
+     */
+    private static final class FormattedDate {
+
+        private final long second;
+
+        private final String value;
+
+        FormattedDate(long second, final String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The idle formatters of one pattern. A formatter is used by one thread at
+     * a time, and at most as many are created as threads use the pattern at
+     * the same time.
+     */
+    private static final class FormatPool {
+
+        private final String pattern;
+
+        private final ConcurrentLinkedQueue idle = new ConcurrentLinkedQueue();
+
+        FormatPool(final String pattern) {
+            this.pattern = pattern;
+            release(create());
+        }
+
+        SimpleDateFormat borrow() {
+            SimpleDateFormat format = (SimpleDateFormat) idle.poll();
+            return format != null ? format : create();
+        }
+
+        void release(final SimpleDateFormat format) {
+            idle.offer(format);
+        }
+
+        private SimpleDateFormat create() {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(GMT);
+            return format;
+        }
+    }
+
+}
@@ -24,7 +24,7 @@ public class LangUtils {
         return hashCode(seed, b ? 1 : 0);
     }
 
-    public static int hashCode(final Object obj1, final Object obj2) {
+    public static boolean equals(final Object obj1, final Object obj2) {
         return obj1 == null ? obj2 == null : obj1.equals(obj2);
     }
 }
@@ -0,0 +1,360 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.nio.IOReactor;
+import org.apache.commons.httpclient.params.IOReactorParams;
+
+/**
+ * Compares the ways of running many concurrent requests with an
+ * {@link AsyncHttpExecutor}: fixed pools of platform threads, a virtual thread per
+ * request, and an executor backed by an {@link IOReactor}. All requests are
+ * submitted at once to a stub server that answers each of them after a fixed delay.
+ * For every mode, the elapsed time and the peak number of live platform threads are
+ * reported.
+ * <p>
+ * Virtual threads require Java 21 or later; on older runtimes that mode is skipped.
+ * The thread modes obtain their connections from a
+ * {@link MultiThreadedHttpConnectionManager} limited to the given number of
+ * connections, the reactor opens a connection per request in progress.
+ * </p>
+ * <p>
+ * Usage:
+ * </p>
+ * <pre>
+ * java -cp ... org.apache.commons.httpclient.AsyncHttpExecutorBenchmark
+ *     [requests [delay [connections [port]]]]
+ * java -cp ... org.apache.commons.httpclient.AsyncHttpExecutorBenchmark
+ *     server port delay
+ * </pre>
+ * <p>
+ * The defaults are 10000 requests, a delay of 20 ms and 2000 connections. Without a
+ * port, the stub server runs in the same JVM, which then needs a file descriptor for
+ * both ends of each connection; the reactor mode needs two per request. To stay
+ * within a lower limit, start the stub server in a JVM of its own with the second
+ * form and pass its port.
+ * </p>
+ */
+public class AsyncHttpExecutorBenchmark {
+
+    private static final byte[] RESPONSE;
+
+    static {
+        try {
+            RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("US-ASCII");
+        } catch (IOException e) {
+            throw new Error(e.toString());
+        }
+    }
+
+    private final HostConfiguration hostConfiguration;
+
+    private final int requests;
+
+    private final int connections;
+
+    private AsyncHttpExecutorBenchmark(final HostConfiguration hostConfiguration,
+        int requests, int connections) {
+        super();
+        this.hostConfiguration = hostConfiguration;
+        this.requests = requests;
+        this.connections = connections;
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) throws Exception {
+        if (args.length > 0 && args[0].equals("server")) {
+            StubServer server = new StubServer(Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+            System.out.println("Stub server listening on port " + server.getPort());
+            server.run();
+            return;
+        }
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int delay = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        StubServer server = null;
+        if (port == 0) {
+            server = new StubServer(0, delay);
+            port = server.getPort();
+            Thread thread = new Thread(server, "StubServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost("127.0.0.1", port);
+        AsyncHttpExecutorBenchmark benchmark = new AsyncHttpExecutorBenchmark(
+            hostConfiguration, requests, connections);
+
+        System.out.println(requests + " concurrent requests, " + delay
+            + " ms per response, " + connections + " pooled connections");
+        benchmark.runThreads("platform threads, fixed pool of 200",
+            Executors.newFixedThreadPool(200));
+        benchmark.runThreads("platform threads, fixed pool of " + connections,
+            Executors.newFixedThreadPool(connections));
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null) {
+            benchmark.runThreads("virtual thread per request", virtual);
+        } else {
+            System.out.println("virtual thread per request: requires Java 21");
+        }
+        benchmark.runReactor("I/O reactor");
+        if (server != null) {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private void runThreads(final String mode, final ExecutorService threads)
+        throws Exception {
+        MultiThreadedHttpConnectionManager connectionManager =
+            new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setMaxTotalConnections(this.connections);
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(this.connections);
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(connectionManager, threads);
+        try {
+            run(mode, executor);
+        } finally {
+            executor.shutdown();
+            threads.shutdown();
+            connectionManager.shutdown();
+        }
+    }
+
+    private void runReactor(final String mode) throws Exception {
+        IOReactorParams params = new IOReactorParams();
+        IOReactor reactor = new IOReactor(params);
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(reactor);
+        try {
+            run(mode + ", " + params.getIOThreadCount() + " I/O threads", executor);
+        } finally {
+            executor.shutdown();
+            reactor.shutdown();
+        }
+    }
+
+    /**
+     * Runs a warm-up round of a tenth of the requests, then the measured round.
+     */
+    private void run(final String mode, final AsyncHttpExecutor executor)
+        throws Exception {
+        round(executor, Math.max(1, this.requests / 10));
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.currentTimeMillis();
+        int failures = round(executor, this.requests);
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println(mode + ": " + elapsed + " ms, "
+            + (this.requests * 1000L / Math.max(1, elapsed)) + " requests/s, "
+            + threads.getPeakThreadCount() + " peak platform threads"
+            + (failures > 0 ? ", " + failures + " failed" : ""));
+    }
+
+    /**
+     * Submits the given number of requests at once and waits for all of them.
+     *
+     * @return the number of failed requests
+     */
+    private int round(final AsyncHttpExecutor executor, int count)
+        throws InterruptedException {
+        Future[] futures = new Future[count];
+        for (int i = 0; i < count; i++) {
+            futures[i] = executor.execute(this.hostConfiguration,
+                new HttpRequest("GET", "/"));
+        }
+        int failures = 0;
+        for (int i = 0; i < count; i++) {
+            try {
+                futures[i].get();
+            } catch (ExecutionException e) {
+                if (failures++ == 0) {
+                    System.out.println("  first failure: " + e.getCause());
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Returns the executor of <code>Executors.newVirtualThreadPerTaskExecutor()</code>.
+     *
+     * @return the executor, or <code>null</code> before Java 21
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor",
+                new Class[0]);
+            return (ExecutorService) method.invoke(null, new Object[0]);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * A keep-alive HTTP server on a single selector thread that answers each request
+     * with <tt>200 OK</tt> after a fixed delay. Requests are assumed to have no body.
+     */
+    private static final class StubServer implements Runnable {
+
+        private final ServerSocketChannel channel;
+
+        private final Selector selector;
+
+        private final ScheduledExecutorService scheduler;
+
+        private final int delay;
+
+        StubServer(int port, int delay) throws IOException {
+            super();
+            this.delay = delay;
+            this.selector = Selector.open();
+            this.channel = ServerSocketChannel.open();
+            this.channel.socket().bind(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), port), 4096);
+            this.channel.configureBlocking(false);
+            this.channel.register(this.selector, SelectionKey.OP_ACCEPT);
+            this.scheduler = Executors.newScheduledThreadPool(2);
+        }
+
+        int getPort() {
+            return this.channel.socket().getLocalPort();
+        }
+
+        void close() throws IOException {
+            this.scheduler.shutdownNow();
+            this.selector.close();
+            this.channel.close();
+        }
+
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            try {
+                while (this.selector.isOpen()) {
+                    this.selector.select();
+                    for (Iterator i = this.selector.selectedKeys().iterator(); i.hasNext();) {
+                        SelectionKey key = (SelectionKey) i.next();
+                        i.remove();
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key, buffer);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // closed
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel client;
+            while ((client = this.channel.accept()) != null) {
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+                // counts the bytes of the CRLFCRLF ending a request matched so far
+                client.register(this.selector, SelectionKey.OP_READ, new int[1]);
+            }
+        }
+
+        private void read(final SelectionKey key, final ByteBuffer buffer) {
+            final SocketChannel client = (SocketChannel) key.channel();
+            int[] matched = (int[]) key.attachment();
+            buffer.clear();
+            try {
+                if (client.read(buffer) < 0) {
+                    key.cancel();
+                    client.close();
+                    return;
+                }
+            } catch (IOException e) {
+                key.cancel();
+                closeQuietly(client);
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == (matched[0] % 2 == 0 ? '\r' : '\n')) {
+                    matched[0]++;
+                } else {
+                    matched[0] = b == '\r' ? 1 : 0;
+                }
+                if (matched[0] == 4) {
+                    matched[0] = 0;
+                    this.scheduler.schedule(new Runnable() {
+                        public void run() {
+                            respond(client);
+                        }
+                    }, this.delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private static void respond(final SocketChannel client) {
+            ByteBuffer response = ByteBuffer.wrap(RESPONSE);
+            try {
+                while (response.hasRemaining()) {
+                    if (client.write(response) == 0) {
+                        Thread.yield();
+                    }
+                }
+            } catch (IOException e) {
+                closeQuietly(client);
+            }
+        }
+
+        private static void closeQuietly(final SocketChannel client) {
+            try {
+                client.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.params.HttpParams;
+
+/**
+ * Tests {@link AsyncHttpExecutor} on connections of a
+ * {@link MultiThreadedHttpConnectionManager}: the parameters of the executed
+ * requests, and the fate of the connection of a request cancelled before, while and
+ * after it is checked out. The server is played by the test over a loopback socket.
+ */
+public class TestAsyncHttpExecutor extends TestCase {
+
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocket server;
+
+    private MultiThreadedHttpConnectionManager manager;
+
+    private HostConfiguration hostConfiguration;
+
+    /** The threads started by {@link #threads} */
+    private final List started = Collections.synchronizedList(new ArrayList());
+
+    /** Runs every task on a new thread, remembered in {@link #started} */
+    private final Executor threads = new Executor() {
+        public void execute(final Runnable task) {
+            Thread thread = new Thread(task);
+            started.add(thread);
+            thread.start();
+        }
+    };
+
+    // ------------------------------------------------------------ Constructor
+    public TestAsyncHttpExecutor(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestAsyncHttpExecutor.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestAsyncHttpExecutor.class);
+    }
+
+    protected void setUp() throws Exception {
+        this.server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        this.server.setSoTimeout(TIMEOUT);
+        this.manager = new MultiThreadedHttpConnectionManager();
+        this.manager.getParams().setDefaultMaxConnectionsPerHost(1);
+        this.hostConfiguration = new HostConfiguration();
+        this.hostConfiguration.setHost("127.0.0.1", this.server.getLocalPort());
+    }
+
+    protected void tearDown() throws Exception {
+        this.manager.shutdown();
+        this.server.close();
+        for (int i = 0; i < this.started.size(); i++) {
+            ((Thread) this.started.get(i)).join(TIMEOUT);
+        }
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testRequestParamsUnchanged() throws Exception {
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(this.manager, this.threads);
+        HttpRequest request = new HttpRequest("GET", "/");
+        HttpParams defaults = request.getParams().getDefaults();
+        this.hostConfiguration.getParams().setParameter(HttpMethodParams.PROTOCOL_VERSION,
+            HttpVersion.HTTP_1_0);
+        Future future = executor.execute(this.hostConfiguration, request);
+        Socket socket = accept();
+        try {
+            // the request is sent with the parameters of the host
+            String head = readHead(socket);
+            assertTrue(head, head.startsWith("GET / HTTP/1.0\r\n"));
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+            HttpResponse response = (HttpResponse) future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertEquals(200, response.getStatusCode());
+        } finally {
+            socket.close();
+        }
+        // but they are not made the defaults of the request's own
+        assertSame(defaults, request.getParams().getDefaults());
+        assertFalse(HttpVersion.HTTP_1_0.equals(request.getParams().getVersion()));
+    }
+
+    public void testCancelBeforeCheckout() throws Exception {
+        final List queue = new ArrayList();
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(this.manager, new Executor() {
+            public void execute(final Runnable task) {
+                queue.add(task);
+            }
+        });
+        Future future = executor.execute(this.hostConfiguration, new HttpRequest("GET", "/"));
+        assertTrue(future.cancel(true));
+        assertEquals(1, queue.size());
+        ((Runnable) queue.get(0)).run();
+        assertTrue(future.isCancelled());
+        // no connection has been checked out
+        assertEquals(0, this.manager.getConnectionsInPool());
+    }
+
+    public void testCancelWhileWaitingForConnection() throws Exception {
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(this.manager, this.threads);
+        HttpConnection held = this.manager.getConnectionWithTimeout(this.hostConfiguration,
+            TIMEOUT);
+        held.open();
+        Socket socket = accept();
+        try {
+            Future future = executor.execute(this.hostConfiguration,
+                new HttpRequest("GET", "/"));
+            awaitWaiting((Thread) this.started.get(0));
+            assertTrue(future.cancel(false));
+            // the connection is handed over to the cancelled request, which closes it
+            // without sending anything
+            this.manager.releaseConnection(held);
+            assertEquals(-1, socket.getInputStream().read());
+            awaitTerminated();
+        } finally {
+            socket.close();
+        }
+        assertReleasedClosed();
+    }
+
+    public void testInterruptWhileWaitingForConnection() throws Exception {
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(this.manager, this.threads);
+        HttpConnection held = this.manager.getConnectionWithTimeout(this.hostConfiguration,
+            TIMEOUT);
+        Future future = executor.execute(this.hostConfiguration, new HttpRequest("GET", "/"));
+        awaitWaiting((Thread) this.started.get(0));
+        assertTrue(future.cancel(true));
+        // the request gives up waiting, no connection is checked out
+        awaitTerminated();
+        assertEquals(1, this.manager.getConnectionsInPool());
+        this.manager.releaseConnection(held);
+        assertSame(held, this.manager.getConnectionWithTimeout(this.hostConfiguration, 100));
+    }
+
+    public void testCancelAfterCheckout() throws Exception {
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(this.manager, this.threads);
+        Future future = executor.execute(this.hostConfiguration, new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            assertTrue(future.cancel(true));
+            // the connection is closed to abort the request
+            assertEquals(-1, socket.getInputStream().read());
+            awaitTerminated();
+        } finally {
+            socket.close();
+        }
+        assertReleasedClosed();
+    }
+
+    public void testCancelAfterCompletion() throws Exception {
+        AsyncHttpExecutor executor = new AsyncHttpExecutor(this.manager, this.threads);
+        Future future = executor.execute(this.hostConfiguration, new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertFalse(future.cancel(true));
+            awaitTerminated();
+            // the connection is kept open for the next request
+            HttpConnection conn = this.manager.getConnectionWithTimeout(
+                this.hostConfiguration, 100);
+            assertTrue(conn.isOpen());
+            this.manager.releaseConnection(conn);
+        } finally {
+            socket.close();
+        }
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private Socket accept() throws IOException {
+        Socket socket = this.server.accept();
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    /**
+     * Asserts that the only connection of the host has been released and closed.
+     */
+    private void assertReleasedClosed() throws Exception {
+        assertEquals(1, this.manager.getConnectionsInPool());
+        HttpConnection conn = this.manager.getConnectionWithTimeout(this.hostConfiguration,
+            100);
+        assertFalse(conn.isOpen());
+        this.manager.releaseConnection(conn);
+    }
+
+    /**
+     * Waits until the threads running the requests have terminated.
+     */
+    private void awaitTerminated() throws InterruptedException {
+        for (int i = 0; i < this.started.size(); i++) {
+            Thread thread = (Thread) this.started.get(i);
+            thread.join(TIMEOUT);
+            assertFalse("Request still running", thread.isAlive());
+        }
+    }
+
+    /**
+     * Waits until the given thread blocks.
+     */
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.WAITING
+            && thread.getState() != Thread.State.TIMED_WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Thread not waiting: " + thread.getState());
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Reads the request line and the headers of a request.
+     */
+    private static String readHead(final Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int ch = in.read();
+            if (ch == -1) {
+                throw new IOException("Unexpected end of request: " + head);
+            }
+            head.write(ch);
+            matched = ch == "\r\n\r\n".charAt(matched) ? matched + 1 : (ch == '\r' ? 1 : 0);
+        }
+        return head.toString("US-ASCII");
+    }
+
+    private static void write(final Socket socket, final String s) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(s.getBytes("US-ASCII"));
+        out.flush();
+    }
+}
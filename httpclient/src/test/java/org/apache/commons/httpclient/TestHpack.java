@@ -0,0 +1,357 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the HPACK encoder and decoder against the examples of RFC 7541, Appendix C.
+ */
+public class TestHpack extends TestCase {
+
+    private static final String DATE1 = "Mon, 21 Oct 2013 20:13:21 GMT";
+    private static final String DATE2 = "Mon, 21 Oct 2013 20:13:22 GMT";
+    private static final String LOCATION = "https://www.example.com";
+    private static final String COOKIE =
+        "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1";
+
+    // ------------------------------------------------------------ Constructor
+    public TestHpack(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestHpack.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestHpack.class);
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    /** C.2.1, literal header field with indexing */
+    public void testLiteralWithIndexing() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertHeaders(new String[] {"custom-key", "custom-header"}, decode(decoder,
+            "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572"));
+        // the field is now the first dynamic entry
+        assertHeaders(new String[] {"custom-key", "custom-header"}, decode(decoder, "be"));
+    }
+
+    /** C.2.2, literal header field without indexing */
+    public void testLiteralWithoutIndexing() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertHeaders(new String[] {":path", "/sample/path"},
+            decode(decoder, "040c 2f73 616d 706c 652f 7061 7468"));
+        assertInvalid(decoder, "be");
+    }
+
+    /** C.2.3, literal header field never indexed */
+    public void testLiteralNeverIndexed() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertHeaders(new String[] {"password", "secret"},
+            decode(decoder, "1008 7061 7373 776f 7264 0673 6563 7265 74"));
+        assertInvalid(decoder, "be");
+    }
+
+    /** C.2.4, indexed header field */
+    public void testIndexed() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertHeaders(new String[] {":method", "GET"}, decode(decoder, "82"));
+    }
+
+    /** C.3, requests without Huffman coding */
+    public void testRequestsWithoutHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertHeaders(request1(), decode(decoder,
+            "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d"));
+        assertHeaders(request2(), decode(decoder,
+            "8286 84be 5808 6e6f 2d63 6163 6865"));
+        assertHeaders(request3(), decode(decoder,
+            "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65"));
+    }
+
+    /** C.4, requests with Huffman coding */
+    public void testRequestsWithHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertHeaders(request1(), decode(decoder,
+            "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+        assertHeaders(request2(), decode(decoder,
+            "8286 84be 5886 a8eb 1064 9cbf"));
+        assertHeaders(request3(), decode(decoder,
+            "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+    }
+
+    /** C.4, the encoder produces the same blocks */
+    public void testEncodeRequests() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        assertEquals("828684418cf1e3c2e5f23a6ba0ab90f4ff", encode(encoder, request1()));
+        assertEquals("828684be5886a8eb10649cbf", encode(encoder, request2()));
+        assertEquals("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+            encode(encoder, request3()));
+    }
+
+    /** C.5, responses without Huffman coding, with evictions */
+    public void testResponsesWithoutHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertHeaders(response1(), decode(decoder,
+            "4803 3330 3258 0770 7269 7661 7465 611d"
+            + "4d6f 6e2c 2032 3120 4f63 7420 3230 3133"
+            + "2032 303a 3133 3a32 3120 474d 546e 1768"
+            + "7474 7073 3a2f 2f77 7777 2e65 7861 6d70"
+            + "6c65 2e63 6f6d"));
+        assertHeaders(response2(), decode(decoder, "4803 3330 37c1 c0bf"));
+        assertHeaders(response3(), decode(decoder,
+            "88c1 611d 4d6f 6e2c 2032 3120 4f63 7420"
+            + "3230 3133 2032 303a 3133 3a32 3220 474d"
+            + "54c0 5a04 677a 6970 7738 666f 6f3d 4153"
+            + "444a 4b48 514b 425a 584f 5157 454f 5049"
+            + "5541 5851 5745 4f49 553b 206d 6178 2d61"
+            + "6765 3d33 3630 303b 2076 6572 7369 6f6e"
+            + "3d31"));
+        assertTable3(decoder);
+    }
+
+    /** C.6, responses with Huffman coding, with evictions */
+    public void testResponsesWithHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertHeaders(response1(), decode(decoder,
+            "4882 6402 5885 aec3 771a 4b61 96d0 7abe"
+            + "9410 54d4 44a8 2005 9504 0b81 66e0 82a6"
+            + "2d1b ff6e 919d 29ad 1718 63c7 8f0b 97c8"
+            + "e9ae 82ae 43d3"));
+        assertHeaders(response2(), decode(decoder, "4883 640e ffc1 c0bf"));
+        assertHeaders(response3(), decode(decoder,
+            "88c1 6196 d07a be94 1054 d444 a820 0595"
+            + "040b 8166 e084 a62d 1bff c05a 839b d9ab"
+            + "77ad 94e7 821d d7f2 e6c7 b335 dfdf cd5b"
+            + "3960 d5af 2708 7f36 72c1 ab27 0fb5 291f"
+            + "9587 3160 65c0 03ed 4ee5 b106 3d50 07"));
+        assertTable3(decoder);
+    }
+
+    /** C.6, the encoder produces the same blocks once limited to 256 bytes */
+    public void testEncodeResponses() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(256);
+        // the size update is signalled in the first block
+        assertEquals("3fe101" + "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a6"
+            + "2d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3", encode(encoder, response1()));
+        // "307" is not shorter Huffman coded, so unlike C.6.2 it is sent as is
+        assertEquals("4803333037c1c0bf", encode(encoder, response2()));
+    }
+
+    public void testTableSizeUpdate() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        decode(decoder, "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572");
+        // shrinking the table to 0 evicts all entries
+        assertHeaders(new String[] {":method", "GET"}, decode(decoder, "20 3fe1 1f 82"));
+        assertInvalid(decoder, "be");
+        // entries are added again after the size has grown
+        decode(decoder, "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572");
+        assertHeaders(new String[] {"custom-key", "custom-header"}, decode(decoder, "be"));
+    }
+
+    public void testTableSizeUpdateBeyondLimit() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertInvalid(decoder, "3fe2 01");
+    }
+
+    public void testTableSizeUpdateAfterField() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertInvalid(decoder, "82 20");
+    }
+
+    public void testEncoderSignalsSmallestSize() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(256);
+        assertEquals("203fe10182", encode(encoder, new String[] {":method", "GET"}));
+        // signalled once only
+        assertEquals("82", encode(encoder, new String[] {":method", "GET"}));
+    }
+
+    public void testEncoderEvicts() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        encoder.setMaxTableSize(100);
+        for (int i = 0; i < 20; i++) {
+            String[] fields = {"x-name-" + i, "value-" + i, "x-name-" + (i / 2), "value-" + i};
+            byte[] block = toBytes(encode(encoder, fields));
+            assertHeaders(fields, decoder.decode(block, 0, block.length));
+        }
+    }
+
+    public void testHuffmanRoundTrip() throws Exception {
+        StringBuffer buffer = new StringBuffer(256);
+        for (int i = 0; i < 256; i++) {
+            buffer.append((char) i);
+        }
+        String s = buffer.toString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.writeHuffman(s, out);
+        byte[] b = out.toByteArray();
+        assertEquals(Hpack.getHuffmanLength(s), b.length);
+        assertEquals(s, Hpack.readHuffman(b, 0, b.length));
+    }
+
+    public void testHuffmanPaddingNotOnes() throws Exception {
+        // 'a' is 00011, padded with zeros rather than ones
+        assertEquals("a", Hpack.readHuffman(new byte[] {(byte) 0x1f}, 0, 1));
+        try {
+            Hpack.readHuffman(new byte[] {(byte) 0x18}, 0, 1);
+            fail("ProtocolException should have been thrown");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    public void testHuffmanPaddingTooLong() throws Exception {
+        try {
+            Hpack.readHuffman(new byte[] {(byte) 0x1f, (byte) 0xff}, 0, 2);
+            fail("ProtocolException should have been thrown");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    public void testHuffmanEndOfString() throws Exception {
+        try {
+            Hpack.readHuffman(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff},
+                0, 4);
+            fail("ProtocolException should have been thrown");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    public void testTruncatedBlocks() throws Exception {
+        assertInvalid(new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE), "400a 6375 7374");
+        assertInvalid(new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE), "7f");
+        assertInvalid(new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE), "ff ff ff ff ff 0f");
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private static String[] request1() {
+        return new String[] {":method", "GET", ":scheme", "http", ":path", "/",
+            ":authority", "www.example.com"};
+    }
+
+    private static String[] request2() {
+        return new String[] {":method", "GET", ":scheme", "http", ":path", "/",
+            ":authority", "www.example.com", "cache-control", "no-cache"};
+    }
+
+    private static String[] request3() {
+        return new String[] {":method", "GET", ":scheme", "https", ":path", "/index.html",
+            ":authority", "www.example.com", "custom-key", "custom-value"};
+    }
+
+    private static String[] response1() {
+        return new String[] {":status", "302", "cache-control", "private",
+            "date", DATE1, "location", LOCATION};
+    }
+
+    private static String[] response2() {
+        return new String[] {":status", "307", "cache-control", "private",
+            "date", DATE1, "location", LOCATION};
+    }
+
+    private static String[] response3() {
+        return new String[] {":status", "200", "cache-control", "private",
+            "date", DATE2, "location", LOCATION, "content-encoding", "gzip",
+            "set-cookie", COOKIE};
+    }
+
+    /**
+     * Checks the dynamic table after the third response of C.5 and C.6, which holds
+     * the set-cookie, content-encoding and date entries only.
+     */
+    private static void assertTable3(final HpackDecoder decoder) throws Exception {
+        assertHeaders(new String[] {"set-cookie", COOKIE, "content-encoding", "gzip",
+            "date", DATE2}, decode(decoder, "bebf c0"));
+        assertInvalid(decoder, "c1");
+    }
+
+    private static List decode(final HpackDecoder decoder, final String hex)
+        throws ProtocolException {
+        byte[] b = toBytes(hex);
+        return decoder.decode(b, 0, b.length);
+    }
+
+    private static String encode(final HpackEncoder encoder, final String[] fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.beginBlock(out);
+        for (int i = 0; i < fields.length; i += 2) {
+            encoder.encode(out, fields[i], fields[i + 1]);
+        }
+        byte[] b = out.toByteArray();
+        StringBuffer buffer = new StringBuffer(b.length * 2);
+        for (int i = 0; i < b.length; i++) {
+            buffer.append(Character.forDigit((b[i] >> 4) & 0xf, 16));
+            buffer.append(Character.forDigit(b[i] & 0xf, 16));
+        }
+        return buffer.toString();
+    }
+
+    private static void assertInvalid(final HpackDecoder decoder, final String hex) {
+        try {
+            decode(decoder, hex);
+            fail("ProtocolException should have been thrown");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    private static void assertHeaders(final String[] expected, final List actual) {
+        assertEquals(expected.length / 2, actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(new Header(expected[2 * i], expected[2 * i + 1]), actual.get(i));
+        }
+    }
+
+    private static byte[] toBytes(final String hex) {
+        StringBuffer digits = new StringBuffer(hex.length());
+        for (int i = 0; i < hex.length(); i++) {
+            if (hex.charAt(i) != ' ') {
+                digits.append(hex.charAt(i));
+            }
+        }
+        byte[] b = new byte[digits.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(digits.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+}
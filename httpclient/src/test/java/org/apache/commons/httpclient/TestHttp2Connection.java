@@ -0,0 +1,486 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.params.HttpClientParams;
+
+/**
+ * Tests the frame handling of {@link Http2Connection} against a server played by
+ * the test over a loopback socket.
+ */
+public class TestHttp2Connection extends TestCase {
+
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocket server;
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    private Http2Connection connection;
+
+    /** The server side of the connection */
+    private Socket socket;
+
+    private DataInputStream in;
+
+    private OutputStream out;
+
+    private HpackEncoder encoder;
+
+    // ------------------------------------------------------------ Constructor
+    public TestHttp2Connection(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestHttp2Connection.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestHttp2Connection.class);
+    }
+
+    protected void setUp() throws Exception {
+        this.server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        this.server.setSoTimeout(TIMEOUT);
+        this.connectionManager = new MultiThreadedHttpConnectionManager();
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost("127.0.0.1", this.server.getLocalPort());
+        this.connection = new Http2Connection(hostConfiguration, this.connectionManager);
+        this.encoder = new HpackEncoder();
+    }
+
+    protected void tearDown() throws Exception {
+        this.connection.shutdown();
+        this.connectionManager.shutdown();
+        if (this.socket != null) {
+            this.socket.close();
+        }
+        this.server.close();
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testResponse() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS, stream.id,
+            block(new String[] {":status", "200", "content-type", "text/plain"}));
+        writeFrame(Http2Connection.DATA, Http2Connection.FLAG_END_STREAM, stream.id,
+            "hello".getBytes("US-ASCII"));
+        assertResponse(stream, "hello");
+    }
+
+    public void testPaddedFrames() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        byte[] block = block(new String[] {":status", "200", "content-type", "text/plain"});
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(4);
+        // stream dependency and weight
+        payload.write(new byte[] {0, 0, 0, 0, 15});
+        payload.write(block);
+        payload.write(new byte[4]);
+        writeFrame(Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS
+            | Http2Connection.FLAG_PADDED | Http2Connection.FLAG_PRIORITY, stream.id,
+            payload.toByteArray());
+        payload.reset();
+        payload.write(3);
+        payload.write("hello".getBytes("US-ASCII"));
+        payload.write(new byte[3]);
+        writeFrame(Http2Connection.DATA, Http2Connection.FLAG_PADDED, stream.id,
+            payload.toByteArray());
+        // a frame of padding only
+        writeFrame(Http2Connection.DATA, Http2Connection.FLAG_PADDED
+            | Http2Connection.FLAG_END_STREAM, stream.id, new byte[] {2, 0, 0});
+        assertResponse(stream, "hello");
+    }
+
+    public void testPaddingExceedsFrame() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        byte[] block = block(new String[] {":status", "200"});
+        byte[] payload = new byte[block.length + 1];
+        payload[0] = (byte) (block.length + 1);
+        System.arraycopy(block, 0, payload, 1, block.length);
+        writeFrame(Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS
+            | Http2Connection.FLAG_PADDED, stream.id, payload);
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testContinuation() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        byte[] block = block(new String[] {":status", "200", "content-type", "text/plain"});
+        writeFrame(Http2Connection.HEADERS, 0, stream.id, block, 0, 1);
+        writeFrame(Http2Connection.CONTINUATION, 0, stream.id, block, 1, 2);
+        writeFrame(Http2Connection.CONTINUATION, Http2Connection.FLAG_END_HEADERS, stream.id,
+            block, 3, block.length - 3);
+        writeFrame(Http2Connection.DATA, Http2Connection.FLAG_END_STREAM, stream.id,
+            "hello".getBytes("US-ASCII"));
+        assertResponse(stream, "hello");
+    }
+
+    public void testInterruptedContinuation() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        byte[] block = block(new String[] {":status", "200"});
+        writeFrame(Http2Connection.HEADERS, 0, stream.id, block);
+        writeFrame(Http2Connection.DATA, Http2Connection.FLAG_END_STREAM, stream.id,
+            new byte[0]);
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testUnexpectedContinuation() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.CONTINUATION, Http2Connection.FLAG_END_HEADERS, stream.id,
+            block(new String[] {":status", "200"}));
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testMaxHeaderListSizeAdvertised() throws Exception {
+        start(new HttpRequest("GET", "/"), null);
+        byte[] settings = readFrame(Http2Connection.SETTINGS, 0);
+        int value = -1;
+        for (int i = 0; i + 6 <= settings.length; i += 6) {
+            int id = ((settings[i] & 0xff) << 8) | (settings[i + 1] & 0xff);
+            if (id == Http2Connection.SETTINGS_MAX_HEADER_LIST_SIZE) {
+                value = ((settings[i + 2] & 0xff) << 24) | ((settings[i + 3] & 0xff) << 16)
+                    | ((settings[i + 4] & 0xff) << 8) | (settings[i + 5] & 0xff);
+            }
+        }
+        assertEquals(Http2Connection.MAX_HEADER_LIST_SIZE, value);
+    }
+
+    public void testHeaderBlockTooLarge() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        byte[] fragment = new byte[16384];
+        writeFrame(Http2Connection.HEADERS, 0, stream.id, fragment);
+        for (int size = fragment.length; size <= Http2Connection.MAX_HEADER_LIST_SIZE;
+            size += fragment.length) {
+            writeFrame(Http2Connection.CONTINUATION, 0, stream.id, fragment);
+        }
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testHeaderListTooLarge() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        // a 4000 byte field added to the dynamic table, then referenced repeatedly
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(0x40);
+        block.write(3);
+        block.write("x-a".getBytes("US-ASCII"));
+        block.write(0x7f);
+        block.write(0x80 | ((4000 - 127) & 0x7f));
+        block.write((4000 - 127) >> 7);
+        block.write(new byte[4000]);
+        block.write(0x88);
+        for (int i = 0; i < 20; i++) {
+            block.write(0x80 | 62);
+        }
+        writeFrame(Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS, stream.id,
+            block.toByteArray());
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testSettingsAcknowledged() throws Exception {
+        open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.SETTINGS, 0, 0,
+            setting(Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS, 5));
+        assertEquals(0, readFrame(Http2Connection.SETTINGS, Http2Connection.FLAG_ACK).length);
+    }
+
+    public void testSettingsAckWithPayload() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.SETTINGS, Http2Connection.FLAG_ACK, 0, new byte[6]);
+        assertGoAway(Http2Connection.FRAME_SIZE_ERROR);
+        assertFails(stream);
+    }
+
+    public void testSettingsLength() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.SETTINGS, 0, 0, new byte[5]);
+        assertGoAway(Http2Connection.FRAME_SIZE_ERROR);
+        assertFails(stream);
+    }
+
+    public void testSettingsOnStream() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.SETTINGS, 0, stream.id, new byte[0]);
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testInitialWindowSizeTooLarge() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.SETTINGS, 0, 0,
+            setting(Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE, 0x80000000));
+        assertGoAway(Http2Connection.FLOW_CONTROL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testInvalidMaxFrameSize() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.SETTINGS, 0, 0,
+            setting(Http2Connection.SETTINGS_MAX_FRAME_SIZE, 16383));
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testFlowControlledBody() throws Exception {
+        HttpRequest request = new HttpRequest("POST", "/");
+        request.setBody(new byte[25]);
+        FutureTask task = start(request,
+            setting(Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE, 10));
+        assertEquals(10, readFrame(Http2Connection.DATA, 0).length);
+        // the first stream of the connection
+        writeFrame(Http2Connection.WINDOW_UPDATE, 0, 1, windowUpdate(10));
+        assertEquals(10, readFrame(Http2Connection.DATA, 0).length);
+        // a larger initial window applies to open streams
+        writeFrame(Http2Connection.SETTINGS, 0, 0,
+            setting(Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE, 20));
+        assertEquals(5, readFrame(Http2Connection.DATA, Http2Connection.FLAG_END_STREAM)
+            .length);
+        assertEquals(1, ((Http2Connection.Stream) task.get(TIMEOUT, TimeUnit.MILLISECONDS)).id);
+    }
+
+    public void testZeroConnectionWindowUpdate() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.WINDOW_UPDATE, 0, 0, windowUpdate(0));
+        assertGoAway(Http2Connection.PROTOCOL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testZeroStreamWindowUpdate() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.WINDOW_UPDATE, 0, stream.id, windowUpdate(0));
+        assertReset(stream, Http2Connection.PROTOCOL_ERROR);
+    }
+
+    public void testConnectionWindowOverflow() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.WINDOW_UPDATE, 0, 0, windowUpdate(Integer.MAX_VALUE));
+        assertGoAway(Http2Connection.FLOW_CONTROL_ERROR);
+        assertFails(stream);
+    }
+
+    public void testStreamWindowOverflow() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.WINDOW_UPDATE, 0, stream.id, windowUpdate(Integer.MAX_VALUE));
+        assertReset(stream, Http2Connection.FLOW_CONTROL_ERROR);
+    }
+
+    public void testWindowUpdateLength() throws Exception {
+        Http2Connection.Stream stream = open(new HttpRequest("GET", "/"), new byte[0]);
+        writeFrame(Http2Connection.WINDOW_UPDATE, 0, stream.id, new byte[3]);
+        assertGoAway(Http2Connection.FRAME_SIZE_ERROR);
+        assertFails(stream);
+    }
+
+    public void testSettingsTimeout() throws Exception {
+        HttpRequest request = new HttpRequest("GET", "/");
+        request.getParams().setSoTimeout(200);
+        try {
+            open(request, null);
+            fail("SocketTimeoutException should have been thrown");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertFalse(this.connection.isUsable());
+    }
+
+    public void testStreamTimeout() throws Exception {
+        open(new HttpRequest("GET", "/"),
+            setting(Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS, 1));
+        HttpRequest request = new HttpRequest("GET", "/");
+        request.getParams().setLongParameter(HttpClientParams.CONNECTION_MANAGER_TIMEOUT, 200);
+        try {
+            this.connection.newStream(request, request.getParams().getSnapshot());
+            fail("ConnectionPoolTimeoutException should have been thrown");
+        } catch (ConnectionPoolTimeoutException expected) {
+        }
+        assertTrue(this.connection.isUsable());
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    /**
+     * Opens a stream for the request and waits until it has been sent.
+     */
+    private Http2Connection.Stream open(final HttpRequest request, final byte[] settings)
+        throws Exception {
+        FutureTask task = start(request, settings);
+        try {
+            return (Http2Connection.Stream) task.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Opens a stream for the request in another thread. The first stream establishes
+     * the connection, which is accepted and sent the given settings, unless they are
+     * <code>null</code>. Returns once the request headers have been received, or the
+     * stream has failed.
+     *
+     * @return the task returning the stream
+     */
+    private FutureTask start(final HttpRequest request, final byte[] settings)
+        throws Exception {
+        FutureTask task = new FutureTask(new Callable() {
+            public Object call() throws Exception {
+                return connection.newStream(request, request.getParams().getSnapshot());
+            }
+        });
+        new Thread(task).start();
+        if (this.socket == null) {
+            this.socket = this.server.accept();
+            this.socket.setSoTimeout(TIMEOUT);
+            this.in = new DataInputStream(this.socket.getInputStream());
+            this.out = this.socket.getOutputStream();
+            byte[] preface = new byte[24];
+            this.in.readFully(preface);
+            assertEquals("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", new String(preface, "US-ASCII"));
+            if (settings != null) {
+                writeFrame(Http2Connection.SETTINGS, 0, 0, settings);
+            }
+        }
+        if (settings != null) {
+            readFrame(Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS);
+        }
+        return task;
+    }
+
+    private byte[] block(final String[] fields) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        this.encoder.beginBlock(block);
+        for (int i = 0; i < fields.length; i += 2) {
+            this.encoder.encode(block, fields[i], fields[i + 1]);
+        }
+        return block.toByteArray();
+    }
+
+    private static byte[] setting(int id, int value) {
+        return new byte[] {(byte) (id >> 8), (byte) id, (byte) (value >> 24),
+            (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
+
+    private static byte[] windowUpdate(int increment) {
+        return new byte[] {(byte) (increment >> 24), (byte) (increment >> 16),
+            (byte) (increment >> 8), (byte) increment};
+    }
+
+    private void writeFrame(int type, int flags, int streamId, final byte[] payload)
+        throws IOException {
+        writeFrame(type, flags, streamId, payload, 0, payload.length);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, final byte[] payload,
+        int off, int len) throws IOException {
+        byte[] header = {(byte) (len >> 16), (byte) (len >> 8), (byte) len, (byte) type,
+            (byte) flags, (byte) (streamId >> 24), (byte) (streamId >> 16),
+            (byte) (streamId >> 8), (byte) streamId};
+        this.out.write(header);
+        this.out.write(payload, off, len);
+        this.out.flush();
+    }
+
+    /**
+     * Reads frames sent by the client until one of the given type with all the given
+     * flags set, skipping others.
+     *
+     * @return the payload of the frame
+     */
+    private byte[] readFrame(int type, int flags) throws IOException {
+        while (true) {
+            byte[] header = new byte[9];
+            this.in.readFully(header);
+            int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8)
+                | (header[2] & 0xff);
+            byte[] payload = new byte[length];
+            this.in.readFully(payload);
+            if ((header[3] & 0xff) == type && (header[4] & flags) == flags) {
+                return payload;
+            }
+        }
+    }
+
+    private void assertGoAway(int errorCode) throws IOException {
+        byte[] payload = readFrame(Http2Connection.GOAWAY, 0);
+        assertEquals(errorCode, payload[7]);
+    }
+
+    private void assertReset(final Http2Connection.Stream stream, int errorCode)
+        throws IOException {
+        byte[] payload = readFrame(Http2Connection.RST_STREAM, 0);
+        assertEquals(errorCode, payload[3]);
+        try {
+            this.connection.awaitResponse(stream);
+            fail("ProtocolException should have been thrown");
+        } catch (ProtocolException expected) {
+        }
+        // a stream error leaves the connection usable
+        assertTrue(this.connection.isUsable());
+    }
+
+    private void assertFails(final Http2Connection.Stream stream) {
+        try {
+            this.connection.awaitResponse(stream);
+            fail("IOException should have been thrown");
+        } catch (IOException expected) {
+        }
+        assertFalse(this.connection.isUsable());
+    }
+
+    private void assertResponse(final Http2Connection.Stream stream, final String body)
+        throws IOException {
+        HttpResponse response = this.connection.awaitResponse(stream);
+        assertEquals(200, response.getStatusCode());
+        assertEquals("text/plain", response.getFirstHeader("content-type").getValue());
+        assertEquals(body, response.getBodyAsString("US-ASCII"));
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.params.HttpMethodParams;
+
+/**
+ * Tests pipelining by {@link HttpPipeline} through an {@link AsyncHttpExecutor}:
+ * batching up to the pipeline depth of the request parameters, sending unanswered
+ * requests again in order when the server closes the connection in the middle of a
+ * batch, and failing requests that never get a response. The server is played by
+ * the test over a loopback socket.
+ */
+public class TestHttpPipeline extends TestCase {
+
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocket server;
+
+    private MultiThreadedHttpConnectionManager manager;
+
+    private HostConfiguration hostConfiguration;
+
+    /** Holds the tasks of the executor until released */
+    private Gate gate;
+
+    private AsyncHttpExecutor executor;
+
+    // ------------------------------------------------------------ Constructor
+    public TestHttpPipeline(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestHttpPipeline.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestHttpPipeline.class);
+    }
+
+    protected void setUp() throws Exception {
+        this.server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        this.server.setSoTimeout(TIMEOUT);
+        this.manager = new MultiThreadedHttpConnectionManager();
+        this.manager.getParams().setDefaultMaxConnectionsPerHost(1);
+        this.hostConfiguration = new HostConfiguration();
+        this.hostConfiguration.setHost("127.0.0.1", this.server.getLocalPort());
+        this.hostConfiguration.getParams().setBooleanParameter(HttpMethodParams.PIPELINING,
+            true);
+        this.gate = new Gate();
+        this.executor = new AsyncHttpExecutor(this.manager, this.gate);
+    }
+
+    protected void tearDown() throws Exception {
+        this.manager.shutdown();
+        this.server.close();
+        this.gate.join();
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testBatch() throws Exception {
+        Future[] futures = submit(new String[] {"/a", "/b", "/c"});
+        this.gate.open();
+        Socket socket = accept();
+        try {
+            assertRequests(socket, new String[] {"/a", "/b", "/c"});
+            respond(socket, new String[] {"a", "b", "c"});
+            assertResponses(futures, new String[] {"a", "b", "c"});
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testDepthOfHost() throws Exception {
+        // the depth is only set for the host, not in the parameters of the requests
+        this.hostConfiguration.getParams().setIntParameter(HttpMethodParams.PIPELINE_DEPTH, 2);
+        Future[] futures = submit(new String[] {"/a", "/b", "/c"});
+        this.gate.open();
+        Socket socket = accept();
+        try {
+            assertRequests(socket, new String[] {"/a", "/b"});
+            // the next batch is not sent before the responses have been read
+            socket.setSoTimeout(200);
+            try {
+                socket.getInputStream().read();
+                fail("SocketTimeoutException should have been thrown");
+            } catch (SocketTimeoutException expected) {
+            }
+            socket.setSoTimeout(TIMEOUT);
+            respond(socket, new String[] {"a", "b"});
+            assertRequests(socket, new String[] {"/c"});
+            respond(socket, new String[] {"c"});
+            assertResponses(futures, new String[] {"a", "b", "c"});
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testCloseInBatch() throws Exception {
+        Future[] futures = submit(new String[] {"/a", "/b", "/c", "/d"});
+        this.gate.open();
+        Socket socket = accept();
+        try {
+            assertRequests(socket, new String[] {"/a", "/b", "/c", "/d"});
+            respond(socket, new String[] {"a"});
+        } finally {
+            socket.close();
+        }
+        // the unanswered requests are sent again, in order, on a new connection
+        socket = accept();
+        try {
+            assertRequests(socket, new String[] {"/b", "/c", "/d"});
+            respond(socket, new String[] {"b", "c"});
+        } finally {
+            socket.close();
+        }
+        socket = accept();
+        try {
+            assertRequests(socket, new String[] {"/d"});
+            respond(socket, new String[] {"d"});
+            assertResponses(futures, new String[] {"a", "b", "c", "d"});
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testMaxFailures() throws Exception {
+        Future[] futures = submit(new String[] {"/a", "/b"});
+        this.gate.open();
+        for (int i = 0; i < HttpPipeline.MAX_FAILURES; i++) {
+            Socket socket = accept();
+            try {
+                assertRequests(socket, new String[] {"/a", "/b"});
+            } finally {
+                socket.close();
+            }
+        }
+        try {
+            futures[0].get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("NoHttpResponseException should have been thrown");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()),
+                e.getCause() instanceof NoHttpResponseException);
+        }
+        // the failures only count against the first unanswered request
+        Socket socket = accept();
+        try {
+            assertRequests(socket, new String[] {"/b"});
+            respond(socket, new String[] {"b"});
+            assertEquals("b", ((HttpResponse) futures[1].get(TIMEOUT, TimeUnit.MILLISECONDS))
+                .getBodyAsString("US-ASCII"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testNonIdempotentNotPipelined() throws Exception {
+        HttpRequest post = new HttpRequest("POST", "/a");
+        post.setBody("data".getBytes("US-ASCII"));
+        Future future = this.executor.execute(this.hostConfiguration, post);
+        // the request is run on its own rather than by a pipeline runner
+        assertEquals(1, this.gate.tasks.size());
+        assertSame(future, this.gate.tasks.get(0));
+        Future get = this.executor.execute(this.hostConfiguration, new HttpRequest("GET", "/b"));
+        assertEquals(2, this.gate.tasks.size());
+        assertNotSame(get, this.gate.tasks.get(1));
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    /**
+     * An executor that holds the tasks until opened, and then runs each on a new
+     * thread.
+     */
+    private static class Gate implements Executor {
+
+        final List tasks = new ArrayList();
+
+        private final List threads = new ArrayList();
+
+        private boolean open = false;
+
+        public synchronized void execute(final Runnable task) {
+            this.tasks.add(task);
+            if (this.open) {
+                start(task);
+            }
+        }
+
+        synchronized void open() {
+            this.open = true;
+            for (int i = 0; i < this.tasks.size(); i++) {
+                start((Runnable) this.tasks.get(i));
+            }
+        }
+
+        void join() throws InterruptedException {
+            List started;
+            synchronized (this) {
+                started = new ArrayList(this.threads);
+            }
+            for (int i = 0; i < started.size(); i++) {
+                ((Thread) started.get(i)).join(TIMEOUT);
+            }
+        }
+
+        private void start(final Runnable task) {
+            Thread thread = new Thread(task);
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    private Future[] submit(final String[] uris) {
+        Future[] futures = new Future[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            futures[i] = this.executor.execute(this.hostConfiguration,
+                new HttpRequest("GET", uris[i]));
+        }
+        return futures;
+    }
+
+    private Socket accept() throws IOException {
+        Socket socket = this.server.accept();
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    /**
+     * Reads requests and checks their URIs.
+     */
+    private static void assertRequests(final Socket socket, final String[] uris)
+        throws IOException {
+        for (int i = 0; i < uris.length; i++) {
+            String head = readHead(socket);
+            assertTrue(head, head.startsWith("GET " + uris[i] + " HTTP/1.1\r\n"));
+        }
+    }
+
+    /**
+     * Sends a response with each of the given bodies.
+     */
+    private static void respond(final Socket socket, final String[] bodies)
+        throws IOException {
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < bodies.length; i++) {
+            buffer.append("HTTP/1.1 200 OK\r\nContent-Length: ")
+                .append(bodies[i].length()).append("\r\n\r\n").append(bodies[i]);
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(buffer.toString().getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static void assertResponses(final Future[] futures, final String[] bodies)
+        throws Exception {
+        for (int i = 0; i < futures.length; i++) {
+            HttpResponse response = (HttpResponse) futures[i].get(TIMEOUT,
+                TimeUnit.MILLISECONDS);
+            assertEquals(bodies[i], response.getBodyAsString("US-ASCII"));
+        }
+    }
+
+    /**
+     * Reads the request line and the headers of a request.
+     */
+    private static String readHead(final Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int ch = in.read();
+            if (ch == -1) {
+                throw new IOException("Unexpected end of request: " + head);
+            }
+            head.write(ch);
+            matched = ch == "\r\n\r\n".charAt(matched) ? matched + 1 : (ch == '\r' ? 1 : 0);
+        }
+        return head.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.nio.IOReactor;
+import org.apache.commons.httpclient.params.IOReactorParams;
+
+/**
+ * Tests the HTTP/1.1 codec of {@link HttpReactorConnection} through an
+ * {@link AsyncHttpExecutor} backed by an {@link IOReactor}, against a server played
+ * by the test over a loopback socket.
+ */
+public class TestHttpReactorConnection extends TestCase {
+
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocket server;
+
+    private IOReactor reactor;
+
+    private AsyncHttpExecutor executor;
+
+    private HostConfiguration hostConfiguration;
+
+    // ------------------------------------------------------------ Constructor
+    public TestHttpReactorConnection(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestHttpReactorConnection.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestHttpReactorConnection.class);
+    }
+
+    protected void setUp() throws Exception {
+        this.server = new ServerSocket(0, 200, InetAddress.getByName("127.0.0.1"));
+        this.server.setSoTimeout(TIMEOUT);
+        IOReactorParams params = new IOReactorParams();
+        params.setIOThreadCount(1);
+        params.setSelectInterval(50);
+        params.setSoTimeout(TIMEOUT);
+        this.reactor = new IOReactor(params);
+        this.executor = new AsyncHttpExecutor(this.reactor);
+        this.hostConfiguration = new HostConfiguration();
+        this.hostConfiguration.setHost("127.0.0.1", this.server.getLocalPort());
+    }
+
+    protected void tearDown() throws Exception {
+        this.executor.shutdown();
+        this.reactor.shutdown();
+        this.server.close();
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testContentLength() throws Exception {
+        HttpRequest request = new HttpRequest("POST", "/upload");
+        request.setBody("data".getBytes("US-ASCII"));
+        Future future = this.executor.execute(this.hostConfiguration, request);
+        Socket socket = accept();
+        try {
+            String head = readHead(socket);
+            assertTrue(head, head.startsWith("POST /upload HTTP/1.1\r\n"));
+            assertTrue(head, head.indexOf("\r\nHost: 127.0.0.1:"
+                + this.server.getLocalPort() + "\r\n") > 0);
+            assertTrue(head, head.indexOf("\r\nContent-Length: 4\r\n") > 0);
+            assertEquals("data", read(socket, 4));
+            // the response arrives in pieces
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Le");
+            Thread.sleep(50);
+            write(socket, "ngth: 5\r\n\r\nhel");
+            Thread.sleep(50);
+            write(socket, "lo");
+            assertResponse(future, 200, "hello");
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testChunked() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            write(socket, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "3;ext=1\r\nhel\r\n");
+            Thread.sleep(50);
+            write(socket, "2\r\nlo\r\n0\r\nTrailer: x\r\n\r\n");
+            assertResponse(future, 200, "hello");
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testBodyToEnd() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        readHead(socket);
+        write(socket, "HTTP/1.0 200 OK\r\n\r\nhello");
+        socket.close();
+        HttpResponse response = assertResponse(future, 200, "hello");
+        assertFalse(response.isReusable());
+    }
+
+    public void testInterimResponse() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            write(socket, "HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.1 204 No Content\r\nX-Test: 1\r\n\r\n");
+            HttpResponse response = assertResponse(future, 204, "");
+            assertEquals("1", response.getFirstHeader("X-Test").getValue());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testHeadHasNoBody() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("HEAD", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n");
+            assertResponse(future, 200, "");
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testConnectionReused() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/1"));
+        Socket socket = accept();
+        try {
+            assertTrue(readHead(socket).startsWith("GET /1 "));
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\na");
+            assertResponse(future, 200, "a");
+            future = this.executor.execute(this.hostConfiguration,
+                new HttpRequest("GET", "/2"));
+            assertTrue(readHead(socket).startsWith("GET /2 "));
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\nb");
+            assertResponse(future, 200, "b");
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testNotReusedAfterConnectionClose() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/1"));
+        Socket socket = accept();
+        readHead(socket);
+        write(socket, "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 1\r\n\r\na");
+        assertResponse(future, 200, "a");
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+        future = this.executor.execute(this.hostConfiguration, new HttpRequest("GET", "/2"));
+        socket = accept();
+        try {
+            assertTrue(readHead(socket).startsWith("GET /2 "));
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\nb");
+            assertResponse(future, 200, "b");
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testRetriedAfterIdleConnectionClosed() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/1"));
+        Socket socket = accept();
+        readHead(socket);
+        write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\na");
+        assertResponse(future, 200, "a");
+        // the server drops the connection as the next request may be sent on it
+        socket.close();
+        future = this.executor.execute(this.hostConfiguration, new HttpRequest("GET", "/2"));
+        socket = accept();
+        try {
+            assertTrue(readHead(socket).startsWith("GET /2 "));
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\nb");
+            assertResponse(future, 200, "b");
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testNoResponse() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("POST", "/"));
+        Socket socket = accept();
+        readHead(socket);
+        socket.close();
+        assertFailure(future, NoHttpResponseException.class);
+    }
+
+    public void testTruncatedResponse() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        readHead(socket);
+        write(socket, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhel");
+        socket.close();
+        assertFailure(future, ProtocolException.class);
+    }
+
+    public void testInvalidResponse() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            write(socket, "HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n");
+            assertFailure(future, ProtocolException.class);
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testSocketTimeout() throws Exception {
+        HttpRequest request = new HttpRequest("GET", "/");
+        request.getParams().setSoTimeout(200);
+        Future future = this.executor.execute(this.hostConfiguration, request);
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            assertFailure(future, SocketTimeoutException.class);
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testConnectFailure() throws Exception {
+        int port = this.server.getLocalPort();
+        this.server.close();
+        HostConfiguration hostconfig = new HostConfiguration();
+        hostconfig.setHost("127.0.0.1", port);
+        Future future = this.executor.execute(hostconfig, new HttpRequest("GET", "/"));
+        assertFailure(future, IOException.class);
+    }
+
+    public void testCancel() throws Exception {
+        Future future = this.executor.execute(this.hostConfiguration,
+            new HttpRequest("GET", "/"));
+        Socket socket = accept();
+        try {
+            readHead(socket);
+            assertTrue(future.cancel(true));
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testHttp2Rejected() throws Exception {
+        HttpRequest request = new HttpRequest("GET", "/");
+        request.getParams().setVersion(HttpVersion.HTTP_2_0);
+        try {
+            this.executor.execute(this.hostConfiguration, request);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Many slow requests are in progress at once on a single I/O thread.
+     */
+    public void testManySlowRequests() throws Exception {
+        final int count = 100;
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        final Socket socket = accept();
+                        new Thread() {
+                            public void run() {
+                                try {
+                                    String head = readHead(socket);
+                                    String path = head.substring(4, head.indexOf(' ', 4));
+                                    Thread.sleep(500);
+                                    write(socket, "HTTP/1.1 200 OK\r\nContent-Length: "
+                                        + path.length() + "\r\n\r\n" + path);
+                                    socket.getInputStream().read();
+                                    socket.close();
+                                } catch (Exception ignore) {
+                                }
+                            }
+                        }.start();
+                    }
+                } catch (IOException ignore) {
+                }
+            }
+        };
+        acceptor.start();
+        Future[] futures = new Future[count];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            futures[i] = this.executor.execute(this.hostConfiguration,
+                new HttpRequest("GET", "/" + i));
+        }
+        for (int i = 0; i < count; i++) {
+            assertResponse(futures[i], 200, "/" + i);
+        }
+        // the requests have been waiting for their responses concurrently
+        assertTrue(System.currentTimeMillis() - start < count * 500 / 4);
+        acceptor.join(TIMEOUT);
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private Socket accept() throws IOException {
+        Socket socket = this.server.accept();
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    /**
+     * Reads the request line and the headers of a request.
+     */
+    private static String readHead(final Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int ch = in.read();
+            if (ch == -1) {
+                throw new IOException("Unexpected end of request: " + head);
+            }
+            head.write(ch);
+            matched = ch == "\r\n\r\n".charAt(matched) ? matched + 1 : (ch == '\r' ? 1 : 0);
+        }
+        return head.toString("US-ASCII");
+    }
+
+    private static String read(final Socket socket, int length) throws IOException {
+        InputStream in = socket.getInputStream();
+        byte[] b = new byte[length];
+        int off = 0;
+        while (off < length) {
+            int n = in.read(b, off, length - off);
+            if (n == -1) {
+                throw new IOException("Unexpected end of request body");
+            }
+            off += n;
+        }
+        return new String(b, "US-ASCII");
+    }
+
+    private static void write(final Socket socket, final String s) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(s.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static HttpResponse assertResponse(final Future future, int status,
+        final String body) throws Exception {
+        HttpResponse response = (HttpResponse) future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(status, response.getStatusCode());
+        assertEquals(body, response.getBodyAsString("US-ASCII"));
+        return response;
+    }
+
+    private static void assertFailure(final Future future, final Class type)
+        throws Exception {
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail(type.getName() + " should have been thrown");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), type.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests parsing {@link HttpVersion HTTP versions} from strings and bytes, and the
+ * canonical instances returned for common versions.
+ */
+public class TestHttpVersion extends TestCase {
+
+    // ------------------------------------------------------------ Constructor
+    public TestHttpVersion(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestHttpVersion.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestHttpVersion.class);
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testParseConstants() throws Exception {
+        assertSame(HttpVersion.HTTP_0_9, HttpVersion.parse("HTTP/0.9"));
+        assertSame(HttpVersion.HTTP_1_0, HttpVersion.parse("HTTP/1.0"));
+        assertSame(HttpVersion.HTTP_1_1, HttpVersion.parse("HTTP/1.1"));
+        assertSame(HttpVersion.HTTP_2_0, HttpVersion.parse("HTTP/2.0"));
+        assertSame(HttpVersion.HTTP_0_9, parseBytes("HTTP/0.9"));
+        assertSame(HttpVersion.HTTP_1_0, parseBytes("HTTP/1.0"));
+        assertSame(HttpVersion.HTTP_1_1, parseBytes("HTTP/1.1"));
+        assertSame(HttpVersion.HTTP_2_0, parseBytes("HTTP/2.0"));
+    }
+
+    public void testCanonicalInstances() throws Exception {
+        HttpVersion version = HttpVersion.getVersion(3, 7);
+        assertEquals(3, version.getMajor());
+        assertEquals(7, version.getMinor());
+        assertSame(version, HttpVersion.getVersion(3, 7));
+        assertSame(version, HttpVersion.parse("HTTP/3.7"));
+        assertSame(version, parseBytes("HTTP/3.7"));
+        assertSame(HttpVersion.HTTP_1_1, HttpVersion.getVersion(1, 1));
+        // versions with larger numbers are created anew
+        HttpVersion large = HttpVersion.getVersion(10, 1);
+        assertNotSame(large, HttpVersion.getVersion(10, 1));
+        assertEquals(large, HttpVersion.getVersion(10, 1));
+    }
+
+    public void testParseMultipleDigits() throws Exception {
+        HttpVersion version = HttpVersion.parse("HTTP/12.345");
+        assertEquals(12, version.getMajor());
+        assertEquals(345, version.getMinor());
+        assertEquals("HTTP/12.345", version.toString());
+        assertEquals(version, parseBytes("HTTP/12.345"));
+        // leading zeros are not part of the canonical text
+        assertSame(HttpVersion.HTTP_1_1, HttpVersion.parse("HTTP/01.01"));
+        assertSame(HttpVersion.HTTP_1_1, parseBytes("HTTP/01.01"));
+    }
+
+    public void testParseInvalid() throws Exception {
+        String[] invalid = {"", "HTTP", "HTTP/", "HTTP/1", "HTTP/1.", "HTTP/.1", "HTTP/a.1",
+            "HTTP/1.b", "HTTP/1.1 ", "HTTP/-1.1", "http/1.1", "HTTX/1.1",
+            "HTTP/1234567890.1", "HTTP/1.1234567890"};
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                HttpVersion.parse(invalid[i]);
+                fail("ProtocolException should have been thrown for '" + invalid[i] + "'");
+            } catch (LightweightProtocolException expected) {
+            }
+            try {
+                parseBytes(invalid[i]);
+                fail("ProtocolException should have been thrown for '" + invalid[i] + "'");
+            } catch (LightweightProtocolException expected) {
+            }
+        }
+    }
+
+    public void testParseBytesSlice() throws Exception {
+        byte[] b = "xxHTTP/1.0yy".getBytes("US-ASCII");
+        assertSame(HttpVersion.HTTP_1_0, HttpVersion.parse(b, 2, 8));
+        try {
+            HttpVersion.parse(b, 2, 9);
+            fail("ProtocolException should have been thrown");
+        } catch (LightweightProtocolException expected) {
+        }
+    }
+
+    public void testInvalidArguments() throws Exception {
+        try {
+            HttpVersion.parse((String) null);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            HttpVersion.parse(null, 0, 8);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            HttpVersion.getVersion(-1, 0);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new HttpVersion(1, -1);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testRendering() throws Exception {
+        HttpVersion version = HttpVersion.HTTP_1_1;
+        assertEquals("HTTP/1.1", version.toString());
+        assertSame(version.toString(), version.toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        version.writeTo(out);
+        HttpVersion.getVersion(10, 2).writeTo(out);
+        assertEquals("HTTP/1.1HTTP/10.2", out.toString("US-ASCII"));
+    }
+
+    public void testComparison() throws Exception {
+        assertTrue(HttpVersion.HTTP_1_1.greaterEquals(HttpVersion.HTTP_1_0));
+        assertTrue(HttpVersion.HTTP_1_0.lessEquals(HttpVersion.HTTP_1_1));
+        assertTrue(HttpVersion.HTTP_2_0.compareTo(HttpVersion.HTTP_1_1) > 0);
+        assertEquals(HttpVersion.HTTP_1_1, new HttpVersion(1, 1));
+        assertEquals(HttpVersion.HTTP_1_1.hashCode(), new HttpVersion(1, 1).hashCode());
+        assertFalse(HttpVersion.HTTP_1_1.equals((Object) "HTTP/1.1"));
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private static HttpVersion parseBytes(final String s) throws Exception {
+        byte[] b = s.getBytes("US-ASCII");
+        return HttpVersion.parse(b, 0, b.length);
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * Tests the limits, the queueing of waiting threads and the idle connection evictor
+ * of {@link MultiThreadedHttpConnectionManager}. Connections are only opened by the
+ * eviction tests, against a loopback server.
+ */
+public class TestMultiThreadedHttpConnectionManager extends TestCase {
+
+    private static final int TIMEOUT = 5000;
+
+    private MultiThreadedHttpConnectionManager manager;
+
+    private HttpConnectionManagerParams params;
+
+    // ------------------------------------------------------------ Constructor
+    public TestMultiThreadedHttpConnectionManager(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestMultiThreadedHttpConnectionManager.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestMultiThreadedHttpConnectionManager.class);
+    }
+
+    protected void setUp() {
+        this.manager = new MultiThreadedHttpConnectionManager();
+        this.params = this.manager.getParams();
+    }
+
+    protected void tearDown() {
+        this.manager.shutdown();
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testMaxHostConnections() throws Exception {
+        this.params.setDefaultMaxConnectionsPerHost(2);
+        HttpConnection conn1 = this.manager.getConnectionWithTimeout(host(1), 100);
+        this.manager.getConnectionWithTimeout(host(1), 100);
+        assertTimeout(host(1), 100);
+        // other routes are not affected
+        this.manager.getConnectionWithTimeout(host(2), 100);
+        assertEquals(2, this.manager.getConnectionsInPool(host(1)));
+        assertEquals(3, this.manager.getConnectionsInPool());
+        // a released connection is reused
+        this.manager.releaseConnection(conn1);
+        assertSame(conn1, this.manager.getConnectionWithTimeout(host(1), 100));
+        assertEquals(2, this.manager.getConnectionsInPool(host(1)));
+    }
+
+    public void testMaxTotalConnections() throws Exception {
+        this.params.setDefaultMaxConnectionsPerHost(10);
+        this.params.setMaxTotalConnections(3);
+        HttpConnection conn1 = this.manager.getConnectionWithTimeout(host(1), 100);
+        this.manager.getConnectionWithTimeout(host(1), 100);
+        this.manager.getConnectionWithTimeout(host(2), 100);
+        assertTimeout(host(3), 100);
+        assertEquals(3, this.manager.getConnectionsInPool());
+        // a free connection of another route is closed to make room
+        this.manager.releaseConnection(conn1);
+        HttpConnection conn3 = this.manager.getConnectionWithTimeout(host(3), 100);
+        assertNotSame(conn1, conn3);
+        assertEquals(1, this.manager.getConnectionsInPool(host(1)));
+        assertEquals(1, this.manager.getConnectionsInPool(host(3)));
+        assertEquals(3, this.manager.getConnectionsInPool());
+    }
+
+    public void testLoweredMaxTotalConnections() throws Exception {
+        this.params.setMaxTotalConnections(3);
+        HttpConnection conn1 = this.manager.getConnectionWithTimeout(host(1), 100);
+        HttpConnection conn2 = this.manager.getConnectionWithTimeout(host(2), 100);
+        this.params.setMaxTotalConnections(1);
+        assertTimeout(host(3), 100);
+        this.manager.releaseConnection(conn1);
+        assertTimeout(host(3), 100);
+        this.manager.releaseConnection(conn2);
+        this.manager.getConnectionWithTimeout(host(3), 100);
+        assertEquals(1, this.manager.getConnectionsInPool());
+    }
+
+    public void testLimitsUnderContention() throws Exception {
+        final int maxHost = 3;
+        final int maxTotal = 5;
+        this.params.setDefaultMaxConnectionsPerHost(maxHost);
+        this.params.setMaxTotalConnections(maxTotal);
+        final HostConfiguration[] hosts = {host(1), host(2)};
+        final AtomicInteger[] inUse = {new AtomicInteger(), new AtomicInteger()};
+        final AtomicInteger totalInUse = new AtomicInteger();
+        final AtomicInteger maxHostInUse = new AtomicInteger();
+        final AtomicInteger maxTotalInUse = new AtomicInteger();
+        final List errors = Collections.synchronizedList(new ArrayList());
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            final int first = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 200; j++) {
+                            int h = (first + j) % hosts.length;
+                            HttpConnection conn = manager.getConnectionWithTimeout(
+                                hosts[h], TIMEOUT);
+                            raise(maxHostInUse, inUse[h].incrementAndGet());
+                            raise(maxTotalInUse, totalInUse.incrementAndGet());
+                            Thread.yield();
+                            inUse[h].decrementAndGet();
+                            totalInUse.decrementAndGet();
+                            manager.releaseConnection(conn);
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(TIMEOUT * 4);
+            assertFalse("Thread still running", threads[i].isAlive());
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        assertTrue(maxHostInUse.get() <= maxHost);
+        assertTrue(maxTotalInUse.get() <= maxTotal);
+        assertTrue(this.manager.getConnectionsInPool(hosts[0]) <= maxHost);
+        assertTrue(this.manager.getConnectionsInPool(hosts[1]) <= maxHost);
+        assertTrue(this.manager.getConnectionsInPool() <= maxTotal);
+    }
+
+    public void testWaitersServedInArrivalOrder() throws Exception {
+        this.params.setDefaultMaxConnectionsPerHost(1);
+        HttpConnection conn = this.manager.getConnectionWithTimeout(host(1), 100);
+        final List order = Collections.synchronizedList(new ArrayList());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final Integer id = new Integer(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        HttpConnection c = manager.getConnectionWithTimeout(host(1), TIMEOUT);
+                        order.add(id);
+                        manager.releaseConnection(c);
+                    } catch (Exception e) {
+                        order.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+            // queue the threads one after the other
+            awaitWaiting(threads[i]);
+        }
+        this.manager.releaseConnection(conn);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(TIMEOUT);
+        }
+        assertEquals("[0, 1, 2, 3]", order.toString());
+    }
+
+    public void testHostTimeout() throws Exception {
+        this.params.setDefaultMaxConnectionsPerHost(1);
+        HttpConnection conn = this.manager.getConnectionWithTimeout(host(1), 100);
+        long start = System.currentTimeMillis();
+        assertTimeout(host(1), 200);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        // the timed out thread no longer waits for the route
+        this.manager.releaseConnection(conn);
+        assertSame(conn, this.manager.getConnectionWithTimeout(host(1), 100));
+    }
+
+    public void testTotalTimeout() throws Exception {
+        this.params.setMaxTotalConnections(1);
+        HttpConnection conn = this.manager.getConnectionWithTimeout(host(1), 100);
+        long start = System.currentTimeMillis();
+        assertTimeout(host(2), 200);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        // the route slot reserved by the timed out thread has been given back
+        assertEquals(0, this.manager.getConnectionsInPool(host(2)));
+        conn.close();
+        this.manager.releaseConnection(conn);
+        this.manager.getConnectionWithTimeout(host(2), 100);
+    }
+
+    public void testInterruptedWhileWaitingForHost() throws Exception {
+        this.params.setDefaultMaxConnectionsPerHost(1);
+        HttpConnection conn = this.manager.getConnectionWithTimeout(host(1), 100);
+        assertInterrupted(host(1));
+        this.manager.releaseConnection(conn);
+        assertSame(conn, this.manager.getConnectionWithTimeout(host(1), 100));
+    }
+
+    public void testInterruptedWhileWaitingForTotal() throws Exception {
+        this.params.setMaxTotalConnections(1);
+        HttpConnection conn = this.manager.getConnectionWithTimeout(host(1), 100);
+        assertInterrupted(host(2));
+        assertEquals(0, this.manager.getConnectionsInPool(host(2)));
+        this.manager.releaseConnection(conn);
+        this.manager.getConnectionWithTimeout(host(2), 100);
+    }
+
+    public void testShutdownWakesWaiters() throws Exception {
+        this.params.setDefaultMaxConnectionsPerHost(1);
+        this.manager.getConnectionWithTimeout(host(1), 100);
+        final Object[] outcome = new Object[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    outcome[0] = manager.getConnectionWithTimeout(host(1), 0);
+                } catch (Throwable t) {
+                    outcome[0] = t;
+                }
+            }
+        };
+        waiter.start();
+        awaitWaiting(waiter);
+        this.manager.shutdown();
+        waiter.join(TIMEOUT);
+        assertTrue(String.valueOf(outcome[0]), outcome[0] instanceof IllegalStateException);
+    }
+
+    public void testCloseIdleConnections() throws Exception {
+        HttpConnection conn = this.manager.getConnectionWithTimeout(host(1), 100);
+        this.manager.releaseConnection(conn);
+        this.manager.closeIdleConnections(TIMEOUT);
+        assertEquals(1, this.manager.getConnectionsInPool());
+        this.manager.closeIdleConnections(0);
+        assertEquals(0, this.manager.getConnectionsInPool());
+    }
+
+    public void testIdleConnectionEvicted() throws Exception {
+        ServerSocket server = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        try {
+            this.params.setMaxIdleTime(300);
+            this.params.setEvictorInterval(50);
+            HostConfiguration local = new HostConfiguration();
+            local.setHost("127.0.0.1", server.getLocalPort());
+            HttpConnection conn = this.manager.getConnectionWithTimeout(local, 100);
+            conn.open();
+            Socket peer = server.accept();
+            long released = System.currentTimeMillis();
+            this.manager.releaseConnection(conn);
+            awaitConnectionsInPool(0);
+            assertTrue(System.currentTimeMillis() - released >= 300);
+            assertFalse(conn.isOpen());
+            assertEquals(-1, peer.getInputStream().read());
+            peer.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testStaleConnectionEvicted() throws Exception {
+        ServerSocket server = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        try {
+            this.params.setEvictorInterval(50);
+            HostConfiguration local = new HostConfiguration();
+            local.setHost("127.0.0.1", server.getLocalPort());
+            HttpConnection stale = this.manager.getConnectionWithTimeout(local, 100);
+            stale.open();
+            Socket stalePeer = server.accept();
+            HttpConnection live = this.manager.getConnectionWithTimeout(local, 100);
+            live.open();
+            Socket livePeer = server.accept();
+            this.manager.releaseConnection(stale);
+            this.manager.releaseConnection(live);
+            stalePeer.close();
+            awaitConnectionsInPool(1);
+            assertFalse(stale.isOpen());
+            // without a maximum idle time, live connections are kept
+            Thread.sleep(200);
+            assertEquals(1, this.manager.getConnectionsInPool());
+            assertTrue(live.isOpen());
+            livePeer.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private static HostConfiguration host(int n) {
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost("host" + n + ".example.com", 80);
+        return hostConfiguration;
+    }
+
+    private static void raise(final AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    private void assertTimeout(final HostConfiguration hostConfiguration, long timeout) {
+        try {
+            this.manager.getConnectionWithTimeout(hostConfiguration, timeout);
+            fail("ConnectionPoolTimeoutException should have been thrown");
+        } catch (ConnectionPoolTimeoutException expected) {
+        }
+    }
+
+    /**
+     * Interrupts a thread waiting for a connection and checks that it gives up.
+     */
+    private void assertInterrupted(final HostConfiguration hostConfiguration)
+        throws Exception {
+        final Object[] outcome = new Object[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    outcome[0] = manager.getConnectionWithTimeout(hostConfiguration, 0);
+                } catch (Throwable t) {
+                    outcome[0] = t;
+                }
+            }
+        };
+        waiter.start();
+        awaitWaiting(waiter);
+        waiter.interrupt();
+        waiter.join(TIMEOUT);
+        assertFalse("Thread still waiting", waiter.isAlive());
+        assertTrue(String.valueOf(outcome[0]),
+            outcome[0] instanceof IllegalThreadStateException);
+    }
+
+    /**
+     * Waits until the given thread blocks.
+     */
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.WAITING
+            && thread.getState() != Thread.State.TIMED_WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Thread not waiting: " + thread.getState());
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitConnectionsInPool(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (this.manager.getConnectionsInPool() != count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Connections in pool: " + this.manager.getConnectionsInPool());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
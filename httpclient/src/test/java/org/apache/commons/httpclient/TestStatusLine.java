@@ -0,0 +1,250 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests parsing status lines from strings, bytes and buffers, the values
+ * {@link StatusLine} derives on demand, and the {@link LightweightProtocolException}
+ * thrown for invalid lines.
+ */
+public class TestStatusLine extends TestCase {
+
+    // ------------------------------------------------------------ Constructor
+    public TestStatusLine(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestStatusLine.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestStatusLine.class);
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testParseString() throws Exception {
+        StatusLine statusLine = new StatusLine("HTTP/1.1 200 OK");
+        assertEquals(200, statusLine.getStatusCode());
+        assertEquals("HTTP/1.1", statusLine.getHttpVersion());
+        assertSame(HttpVersion.HTTP_1_1, statusLine.getVersion());
+        assertEquals("OK", statusLine.getReasonPhrase());
+        assertEquals("HTTP/1.1 200 OK", statusLine.toString());
+        assertEquals(StatusClass.SUCCESS, statusLine.getStatusClass());
+    }
+
+    public void testParseStringInvalidVersion() throws Exception {
+        StatusLine statusLine = new StatusLine("HTTP/x.y 200 OK");
+        assertEquals("HTTP/X.Y", statusLine.getHttpVersion());
+        assertNull(statusLine.getVersion());
+        assertNull(statusLine.getVersion());
+    }
+
+    public void testParseBytes() throws Exception {
+        StatusLine statusLine = parse("HTTP/1.1 200 OK");
+        assertEquals(200, statusLine.getStatusCode());
+        assertSame(HttpVersion.HTTP_1_1, statusLine.getVersion());
+        assertEquals("HTTP/1.1", statusLine.getHttpVersion());
+        assertSame(HttpStatus.getStatusText(200), statusLine.getReasonPhrase());
+        assertEquals("HTTP/1.1 200 OK", statusLine.toString());
+    }
+
+    public void testStandardReasonPhraseShared() throws Exception {
+        byte[] b = bytes("HTTP/1.0 404 Not Found\r\nHTTP/1.1 503 Service Unavailable\r\n");
+        StatusLine first = StatusLine.parse(b, 0, 24);
+        StatusLine second = StatusLine.parse(b, 24, b.length - 24);
+        assertSame(HttpVersion.HTTP_1_0, first.getVersion());
+        assertEquals(404, first.getStatusCode());
+        assertSame(HttpStatus.getStatusText(404), first.getReasonPhrase());
+        assertSame(HttpVersion.HTTP_1_1, second.getVersion());
+        assertEquals(503, second.getStatusCode());
+        assertSame(HttpStatus.getStatusText(503), second.getReasonPhrase());
+        // the buffer is not retained
+        b[9] = '5';
+        assertEquals(404, first.getStatusCode());
+        assertEquals("HTTP/1.0 404 Not Found", first.toString());
+    }
+
+    public void testNonStandardReasonPhrase() throws Exception {
+        byte[] b = bytes("HTTP/1.1 200 Fine");
+        StatusLine statusLine = StatusLine.parse(b, 0, b.length);
+        // the bytes of the phrase are copied
+        b[13] = 'X';
+        String reason = statusLine.getReasonPhrase();
+        assertEquals("Fine", reason);
+        assertSame(reason, statusLine.getReasonPhrase());
+        String s = statusLine.toString();
+        assertEquals("HTTP/1.1 200 Fine", s);
+        assertSame(s, statusLine.toString());
+        assertSame(statusLine.getHttpVersion(), statusLine.getHttpVersion());
+    }
+
+    public void testMissingReasonPhrase() throws Exception {
+        StatusLine statusLine = parse("HTTP/1.1 200");
+        assertEquals(200, statusLine.getStatusCode());
+        assertEquals("", statusLine.getReasonPhrase());
+        assertEquals("HTTP/1.1 200", statusLine.toString());
+        statusLine = parse("HTTP/1.1 200 ");
+        assertEquals("", statusLine.getReasonPhrase());
+        statusLine = new StatusLine("HTTP/1.1 200");
+        assertEquals("", statusLine.getReasonPhrase());
+    }
+
+    public void testGarbageReasonPhrase() throws Exception {
+        StatusLine statusLine = parse("HTTP/1.1 200 \u00ff\u0001 x");
+        assertEquals(200, statusLine.getStatusCode());
+        assertEquals(4, statusLine.getReasonPhrase().length());
+    }
+
+    public void testWhitespace() throws Exception {
+        StatusLine statusLine = parse(" \tHTTP/1.1   301   Moved Permanently \r\n");
+        assertSame(HttpVersion.HTTP_1_1, statusLine.getVersion());
+        assertEquals(301, statusLine.getStatusCode());
+        assertSame(HttpStatus.getStatusText(301), statusLine.getReasonPhrase());
+        statusLine = parse("HTTP/1.0 200 OK\r\n");
+        assertSame(HttpStatus.getStatusText(200), statusLine.getReasonPhrase());
+    }
+
+    public void testStatusCodeRange() throws Exception {
+        StatusLine statusLine = parse("HTTP/1.1 600 Unknown");
+        assertEquals(600, statusLine.getStatusCode());
+        assertNull(statusLine.getStatusClass());
+        assertEquals("Unknown", statusLine.getReasonPhrase());
+        statusLine = parse("HTTP/1.1 999999999");
+        assertEquals(999999999, statusLine.getStatusCode());
+        assertInvalid("HTTP/1.1 9999999999 Too Long");
+        assertInvalid("HTTP/1.1 -200 OK");
+        assertInvalid("HTTP/1.1 2x0 OK");
+        assertInvalid("HTTP/1.1  OK");
+    }
+
+    public void testInvalidVersion() throws Exception {
+        assertInvalid("HTTP/x.1 200 OK");
+        assertInvalid("HTTP/1.y 200 OK");
+        assertInvalid("HTTP/1 200 OK");
+        assertInvalid("HTTP/ 200 OK");
+        assertInvalid("HTTX/1.1 200 OK");
+        assertInvalid("HTTP/1.1");
+        assertInvalid("garbage");
+        assertInvalid("");
+        assertInvalid("   ");
+    }
+
+    public void testParseByteBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes("xxHTTP/1.1 200 OKyy"), 2, 15);
+        StatusLine statusLine = StatusLine.parse(buffer.slice());
+        assertEquals(200, statusLine.getStatusCode());
+        assertEquals("OK", statusLine.getReasonPhrase());
+        assertEquals(2, buffer.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(32);
+        direct.put(bytes("HTTP/1.0 204 No Content"));
+        direct.flip();
+        statusLine = StatusLine.parse(direct);
+        assertSame(HttpVersion.HTTP_1_0, statusLine.getVersion());
+        assertEquals(204, statusLine.getStatusCode());
+        assertSame(HttpStatus.getStatusText(204), statusLine.getReasonPhrase());
+        assertEquals(0, direct.position());
+    }
+
+    public void testInvalidArguments() throws Exception {
+        try {
+            StatusLine.parse(null, 0, 0);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            StatusLine.parse((ByteBuffer) null);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            StatusLine.parse(new byte[4], 2, 3);
+            fail("IndexOutOfBoundsException should have been thrown");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testLightweightProtocolException() throws Exception {
+        try {
+            parse("garbage");
+            fail("ProtocolException should have been thrown");
+        } catch (LightweightProtocolException e) {
+            assertEquals(0, e.getStackTrace().length);
+            assertTrue(e.getMessage(), e.getMessage().indexOf("garbage") >= 0);
+        }
+        try {
+            new StatusLine("garbage");
+            fail("ProtocolException should have been thrown");
+        } catch (LightweightProtocolException e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+        Exception cause = new Exception("cause");
+        LightweightProtocolException e = new LightweightProtocolException("message", cause);
+        assertSame(cause, e.getCause());
+        assertEquals(0, e.getStackTrace().length);
+        e.setReasonCode(400);
+        assertEquals(400, e.getReasonCode());
+        // the cause is printed in place of the missing trace
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        e.printStackTrace(new PrintStream(out, true));
+        assertTrue(out.toString().indexOf("cause") >= 0);
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private static byte[] bytes(final String s) throws UnsupportedEncodingException {
+        return s.getBytes("ISO-8859-1");
+    }
+
+    private static StatusLine parse(final String s) throws Exception {
+        byte[] b = bytes(s);
+        return StatusLine.parse(b, 0, b.length);
+    }
+
+    private static void assertInvalid(final String s) throws Exception {
+        try {
+            parse(s);
+            fail("ProtocolException should have been thrown for '" + s + "'");
+        } catch (LightweightProtocolException expected) {
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.params;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+/**
+ * Tests the connection limits published by {@link HttpConnectionManagerParams}.
+ */
+public class TestHttpConnectionManagerParams extends TestCase {
+
+    // ------------------------------------------------------------ Constructor
+    public TestHttpConnectionManagerParams(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestHttpConnectionManagerParams.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestHttpConnectionManagerParams.class);
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testDefaultLimits() {
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setDefaults(new DefaultHttpParams(null));
+        ConnectionLimits limits = params.getConnectionLimits();
+        assertEquals(MultiThreadedHttpConnectionManager.DEFAULT_MAX_HOST_CONNECTIONS,
+            limits.getDefaultMaxConnectionsPerHost());
+        assertEquals(MultiThreadedHttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS,
+            limits.getMaxTotalConnections());
+        // unchanged limits are not resolved again
+        assertSame(limits, params.getConnectionLimits());
+    }
+
+    public void testLocalLimits() {
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        ConnectionLimits limits = params.getConnectionLimits();
+        params.setMaxTotalConnections(7);
+        ConnectionLimits changed = params.getConnectionLimits();
+        assertNotSame(limits, changed);
+        assertEquals(7, changed.getMaxTotalConnections());
+        params.setDefaultMaxConnectionsPerHost(3);
+        HostConfiguration host = new HostConfiguration();
+        host.setHost("example.com", 80);
+        params.setMaxConnectionsPerHost(host, 5);
+        changed = params.getConnectionLimits();
+        assertEquals(3, changed.getDefaultMaxConnectionsPerHost());
+        assertEquals(5, changed.getMaxConnectionsPerHost(host));
+        assertSame(changed, params.getConnectionLimits());
+        params.clear();
+        assertEquals(MultiThreadedHttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS,
+            params.getConnectionLimits().getMaxTotalConnections());
+    }
+
+    public void testInheritedLimits() {
+        HttpConnectionManagerParams defaults = new HttpConnectionManagerParams();
+        defaults.setDefaults(null);
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setDefaults(defaults);
+        ConnectionLimits limits = params.getConnectionLimits();
+        assertSame(limits, params.getConnectionLimits());
+        // a change of the defaults shows in the next snapshot
+        defaults.setMaxTotalConnections(11);
+        ConnectionLimits changed = params.getConnectionLimits();
+        assertNotSame(limits, changed);
+        assertEquals(11, changed.getMaxTotalConnections());
+        assertSame(changed, params.getConnectionLimits());
+        // a local limit takes precedence
+        params.setMaxTotalConnections(4);
+        assertEquals(4, params.getConnectionLimits().getMaxTotalConnections());
+        defaults.setMaxTotalConnections(12);
+        assertEquals(4, params.getConnectionLimits().getMaxTotalConnections());
+        // replacing the defaults shows at once
+        params.clear();
+        HttpConnectionManagerParams other = new HttpConnectionManagerParams();
+        other.setDefaults(null);
+        other.setMaxTotalConnections(13);
+        params.setDefaults(other);
+        assertEquals(13, params.getConnectionLimits().getMaxTotalConnections());
+    }
+
+    public void testUntrackedDefaults() {
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        HttpParams foreign = new ForeignParams(new DefaultHttpParams(null));
+        params.setDefaults(foreign);
+        ConnectionLimits limits = params.getConnectionLimits();
+        assertSame(limits, params.getConnectionLimits());
+        ((ForeignParams) foreign).params.setIntParameter(
+            HttpConnectionManagerParams.MAX_TOTAL_CONNECTIONS, 9);
+        assertEquals(9, params.getConnectionLimits().getMaxTotalConnections());
+    }
+
+    /**
+     * A collection of parameters of a class other than {@link DefaultHttpParams}.
+     */
+    private static class ForeignParams implements HttpParams {
+
+        final DefaultHttpParams params;
+
+        ForeignParams(final DefaultHttpParams params) {
+            this.params = params;
+        }
+
+        public HttpParams getDefaults() {
+            return this.params.getDefaults();
+        }
+
+        public void setDefaults(final HttpParams params) {
+            this.params.setDefaults(params);
+        }
+
+        public Object getParameter(final String name) {
+            return this.params.getParameter(name);
+        }
+
+        public void setParameter(final String name, final Object value) {
+            this.params.setParameter(name, value);
+        }
+
+        public long getLongParameter(final String name, long defaultValue) {
+            return this.params.getLongParameter(name, defaultValue);
+        }
+
+        public void setLongParameter(final String name, long value) {
+            this.params.setLongParameter(name, value);
+        }
+
+        public int getIntParameter(final String name, int defaultValue) {
+            return this.params.getIntParameter(name, defaultValue);
+        }
+
+        public void setIntParameter(final String name, int value) {
+            this.params.setIntParameter(name, value);
+        }
+
+        public double getDoubleParameter(final String name, double defaultValue) {
+            return this.params.getDoubleParameter(name, defaultValue);
+        }
+
+        public void setDoubleParameter(final String name, double value) {
+            this.params.setDoubleParameter(name, value);
+        }
+
+        public boolean getBooleanParameter(final String name, boolean defaultValue) {
+            return this.params.getBooleanParameter(name, defaultValue);
+        }
+
+        public void setBooleanParameter(final String name, boolean value) {
+            this.params.setBooleanParameter(name, value);
+        }
+
+        public boolean isParameterSet(final String name) {
+            return this.params.isParameterSet(name);
+        }
+
+        public boolean isParameterSetLocally(final String name) {
+            return this.params.isParameterSetLocally(name);
+        }
+
+        public boolean isParameterTrue(final String name) {
+            return this.params.isParameterTrue(name);
+        }
+
+        public boolean isParameterFalse(final String name) {
+            return this.params.isParameterFalse(name);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the caching, refreshing and fallback behaviour of {@link CachingHostResolver}.
+ * The clock of the cache is set by the tests, and background refreshes are run
+ * when the tests say so.
+ */
+public class TestCachingHostResolver extends TestCase {
+
+    private static final long TIME_TO_LIVE = 400;
+
+    private CountingResolver counting;
+
+    private TaskQueue refreshes;
+
+    private ManualResolver resolver;
+
+    // ------------------------------------------------------------ Constructor
+    public TestCachingHostResolver(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestCachingHostResolver.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestCachingHostResolver.class);
+    }
+
+    protected void setUp() {
+        this.counting = new CountingResolver();
+        this.refreshes = new TaskQueue();
+        this.resolver = new ManualResolver(this.counting, this.refreshes);
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testInvalidArguments() throws Exception {
+        try {
+            new CachingHostResolver(null, TIME_TO_LIVE);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new CachingHostResolver(new CountingResolver(), 0);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new CachingHostResolver(new CountingResolver(), TIME_TO_LIVE).resolve(null);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCachedUntilExpiry() throws Exception {
+        assertAddress(1, this.resolver.resolve("example.com"));
+        this.counting.setAddress(2);
+        this.resolver.advance(TIME_TO_LIVE * 3 / 4 - 1);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(1, this.counting.getCount());
+        assertEquals(0, this.refreshes.size());
+        // not used during the last quarter, so not refreshed before expiry
+        this.resolver.advance(TIME_TO_LIVE / 4 + 1);
+        assertAddress(2, this.resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        assertEquals(0, this.refreshes.size());
+    }
+
+    public void testRefreshedBeforeExpiry() throws Exception {
+        assertAddress(1, this.resolver.resolve("example.com"));
+        this.counting.setAddress(2);
+        this.resolver.advance(TIME_TO_LIVE * 3 / 4);
+        // the cached addresses are returned while they are refreshed in the background
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(1, this.refreshes.size());
+        this.refreshes.runAll();
+        assertEquals(2, this.counting.getCount());
+        assertAddress(2, this.resolver.resolve("example.com"));
+        // the refreshed entry outlives the first one
+        this.resolver.advance(TIME_TO_LIVE / 4);
+        assertAddress(2, this.resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        assertEquals(0, this.refreshes.size());
+    }
+
+    public void testFailedRefreshKeepsEntry() throws Exception {
+        assertAddress(1, this.resolver.resolve("example.com"));
+        this.counting.setAddress(0);
+        this.resolver.advance(TIME_TO_LIVE * 3 / 4);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        this.refreshes.runAll();
+        assertEquals(2, this.counting.getCount());
+        // an entry is refreshed in the background at most once
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(0, this.refreshes.size());
+        assertEquals(2, this.counting.getCount());
+    }
+
+    public void testStaleAddressesOnFailure() throws Exception {
+        assertAddress(1, this.resolver.resolve("example.com"));
+        this.counting.setAddress(0);
+        this.resolver.advance(TIME_TO_LIVE);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        // the addresses last known are kept during the backoff
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        this.resolver.clear();
+        try {
+            this.resolver.resolve("example.com");
+            fail("UnknownHostException should have been thrown");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    public void testFailureBackoff() throws Exception {
+        assertAddress(1, this.resolver.resolve("example.com"));
+        this.counting.setAddress(0);
+        this.resolver.advance(TIME_TO_LIVE);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        // the backoff is bounded by the time to live, shorter than the default
+        this.resolver.advance(TIME_TO_LIVE - 1);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        assertEquals(0, this.refreshes.size());
+        // the host is resolved again once the backoff has elapsed, and may fail again
+        this.resolver.advance(1);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertEquals(3, this.counting.getCount());
+        this.resolver.advance(TIME_TO_LIVE);
+        this.counting.setAddress(2);
+        assertAddress(2, this.resolver.resolve("example.com"));
+        assertEquals(4, this.counting.getCount());
+    }
+
+    public void testDefaultFailureBackoff() throws Exception {
+        long timeToLive = CachingHostResolver.FAILURE_BACKOFF * 10;
+        ManualResolver resolver = new ManualResolver(this.counting, timeToLive,
+            this.refreshes);
+        assertAddress(1, resolver.resolve("example.com"));
+        this.counting.setAddress(0);
+        resolver.advance(timeToLive);
+        assertAddress(1, resolver.resolve("example.com"));
+        resolver.advance(CachingHostResolver.FAILURE_BACKOFF - 1);
+        assertAddress(1, resolver.resolve("example.com"));
+        assertEquals(2, this.counting.getCount());
+        resolver.advance(1);
+        assertAddress(1, resolver.resolve("example.com"));
+        assertEquals(3, this.counting.getCount());
+    }
+
+    public void testUnusedEntriesRemoved() throws Exception {
+        assertAddress(1, this.resolver.resolve("example.com"));
+        // expired, but not for a whole time to live: kept as a fallback
+        this.resolver.advance(TIME_TO_LIVE * 2 - 1);
+        assertAddress(1, this.resolver.resolve("example.org"));
+        this.counting.setAddress(0);
+        assertAddress(1, this.resolver.resolve("example.com"));
+        // unused for a time to live after expiry, removed by the next lookup
+        this.counting.setAddress(1);
+        this.resolver.advance(TIME_TO_LIVE * 2);
+        assertAddress(1, this.resolver.resolve("example.net"));
+        this.counting.setAddress(0);
+        try {
+            this.resolver.resolve("example.com");
+            fail("UnknownHostException should have been thrown");
+        } catch (UnknownHostException expected) {
+        }
+        try {
+            this.resolver.resolve("example.org");
+            fail("UnknownHostException should have been thrown");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    public void testUnknownHostNotCached() throws Exception {
+        this.counting.setAddress(0);
+        for (int i = 0; i < 2; i++) {
+            try {
+                this.resolver.resolve("example.com");
+                fail("UnknownHostException should have been thrown");
+            } catch (UnknownHostException expected) {
+            }
+        }
+        assertEquals(2, this.counting.getCount());
+        this.counting.setAddress(1);
+        assertAddress(1, this.resolver.resolve("example.com"));
+    }
+
+    public void testCaseInsensitive() throws Exception {
+        assertAddress(1, this.resolver.resolve("Example.COM"));
+        assertAddress(1, this.resolver.resolve("example.com"));
+        assertAddress(1, this.resolver.resolve("EXAMPLE.com"));
+        assertEquals(1, this.counting.getCount());
+        assertEquals("example.com", this.counting.getLastHost());
+    }
+
+    public void testStaticResolver() throws Exception {
+        Map hosts = new HashMap();
+        hosts.put("Example.com", new InetAddress[] {address(1), address(2)});
+        CachingHostResolver resolver = new CachingHostResolver(
+            new StaticHostResolver(hosts), TIME_TO_LIVE);
+        InetAddress[] addresses = resolver.resolve("EXAMPLE.COM");
+        assertEquals(2, addresses.length);
+        assertEquals(address(1), addresses[0]);
+        assertEquals(address(2), addresses[1]);
+        try {
+            resolver.resolve("example.org");
+            fail("UnknownHostException should have been thrown");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    public void testReturnsCopies() throws Exception {
+        this.resolver.resolve("example.com")[0] = address(2);
+        assertAddress(1, this.resolver.resolve("example.com"));
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+    }
+
+    private static void assertAddress(int last, final InetAddress[] addresses)
+        throws UnknownHostException {
+        assertEquals(1, addresses.length);
+        assertEquals(address(last), addresses[0]);
+    }
+
+    /**
+     * A cache whose clock only moves when the test advances it.
+     */
+    private static class ManualResolver extends CachingHostResolver {
+
+        private long now = 1000;
+
+        ManualResolver(final HostResolver resolver, final Executor executor) {
+            this(resolver, TIME_TO_LIVE, executor);
+        }
+
+        ManualResolver(final HostResolver resolver, long timeToLive,
+            final Executor executor) {
+            super(resolver, timeToLive, executor);
+        }
+
+        long currentTimeMillis() {
+            return this.now;
+        }
+
+        void advance(long millis) {
+            this.now += millis;
+        }
+    }
+
+    /**
+     * Queues the background refreshes until the test runs them.
+     */
+    private static class TaskQueue implements Executor {
+
+        private final LinkedList tasks = new LinkedList();
+
+        public void execute(final Runnable task) {
+            this.tasks.addLast(task);
+        }
+
+        int size() {
+            return this.tasks.size();
+        }
+
+        void runAll() {
+            while (!this.tasks.isEmpty()) {
+                ((Runnable) this.tasks.removeFirst()).run();
+            }
+        }
+    }
+
+    /**
+     * Resolves every host to <tt>10.0.0.n</tt>, or fails if <tt>n</tt> is
+     * <tt>0</tt>, and counts the lookups.
+     */
+    private static class CountingResolver implements HostResolver {
+
+        private int address = 1;
+
+        private int count = 0;
+
+        private String lastHost = null;
+
+        public synchronized InetAddress[] resolve(final String host)
+            throws UnknownHostException {
+            this.count++;
+            this.lastHost = host;
+            if (this.address == 0) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[] {address(this.address)};
+        }
+
+        synchronized void setAddress(int address) {
+            this.address = address;
+        }
+
+        synchronized int getCount() {
+            return this.count;
+        }
+
+        synchronized String getLastHost() {
+            return this.lastHost;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.protocol;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.ConnectionTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+
+/**
+ * Tests the ordering of the addresses of a host by {@link DefaultProtocolSocketFactory},
+ * and the staggered and sequential connection attempts across them.
+ * <p>
+ * The connects use loopback addresses only: <tt>127.0.0.1</tt> accepts connections,
+ * <tt>127.0.0.2</tt> leaves them pending, since the backlog of its server is full,
+ * and <tt>127.0.0.3</tt> refuses them. This relies on the whole of
+ * <tt>127.0.0.0/8</tt> being routed to the loopback interface, as on Linux.
+ * </p>
+ */
+public class TestDefaultProtocolSocketFactory extends TestCase {
+
+    private static final int TIMEOUT = 5000;
+
+    private static final String HOST = "multi.example.com";
+
+    /** Accepts connections on <tt>127.0.0.1</tt> */
+    private ServerSocket server;
+
+    /** Leaves connections to <tt>127.0.0.2</tt> pending */
+    private ServerSocket full;
+
+    /** The connections filling the backlog of {@link #full} */
+    private final List backlog = new ArrayList();
+
+    private DefaultProtocolSocketFactory factory;
+
+    private HttpConnectionParams params;
+
+    // ------------------------------------------------------------ Constructor
+    public TestDefaultProtocolSocketFactory(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestDefaultProtocolSocketFactory.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestDefaultProtocolSocketFactory.class);
+    }
+
+    protected void setUp() throws Exception {
+        this.factory = new DefaultProtocolSocketFactory(new StaticHostResolver(new HashMap()));
+        this.params = new HttpConnectionParams();
+        this.params.setConnectionTimeout(TIMEOUT);
+    }
+
+    protected void tearDown() throws Exception {
+        for (int i = 0; i < this.backlog.size(); i++) {
+            ((Socket) this.backlog.get(i)).close();
+        }
+        if (this.full != null) {
+            this.full.close();
+        }
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testOrderSingleAddress() throws Exception {
+        InetAddress[] addresses = {v6(1)};
+        assertSame(addresses, this.factory.orderAddresses(addresses, null));
+    }
+
+    public void testOrderOneFamily() throws Exception {
+        assertOrder(new InetAddress[] {v4(1), v4(2), v4(3)},
+            new InetAddress[] {v4(1), v4(2), v4(3)}, null);
+    }
+
+    public void testOrderInterleavesFamilies() throws Exception {
+        assertOrder(new InetAddress[] {v6(1), v4(1), v6(2), v4(2)},
+            new InetAddress[] {v6(1), v6(2), v4(1), v4(2)}, null);
+        // starting with the family of the first address
+        assertOrder(new InetAddress[] {v4(1), v6(1), v4(2), v6(2)},
+            new InetAddress[] {v4(1), v4(2), v6(1), v6(2)}, null);
+    }
+
+    public void testOrderUnevenFamilies() throws Exception {
+        assertOrder(new InetAddress[] {v6(1), v4(1), v6(2), v6(3)},
+            new InetAddress[] {v6(1), v6(2), v6(3), v4(1)}, null);
+        assertOrder(new InetAddress[] {v4(1), v6(1), v6(2), v6(3)},
+            new InetAddress[] {v4(1), v6(1), v6(2), v6(3)}, null);
+    }
+
+    public void testOrderFamilyOfLocalAddress() throws Exception {
+        assertOrder(new InetAddress[] {v4(1), v4(2)},
+            new InetAddress[] {v6(1), v4(1), v6(2), v4(2)}, v4(9));
+        // all addresses are kept if none is of the family of the local address
+        assertOrder(new InetAddress[] {v4(1), v4(2)},
+            new InetAddress[] {v4(1), v4(2)}, v6(9));
+    }
+
+    public void testSharedSelector() throws Exception {
+        assertSame(ConnectSelector.getInstance(), ConnectSelector.getInstance());
+    }
+
+    public void testNextAddressAfterAttemptDelay() throws Exception {
+        startServers();
+        setHost(new String[] {"127.0.0.2", "127.0.0.1"});
+        this.params.setConnectionAttemptDelay(200);
+        long start = System.currentTimeMillis();
+        Socket socket = connect(null, 0);
+        try {
+            long elapsed = System.currentTimeMillis() - start;
+            assertEquals(InetAddress.getByName("127.0.0.1"), socket.getInetAddress());
+            assertTrue("Connected after " + elapsed + " ms", elapsed >= 150);
+            assertTrue(socket.getChannel().isBlocking());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testNextAddressAfterFailure() throws Exception {
+        startServers();
+        setHost(new String[] {"127.0.0.3", "127.0.0.1"});
+        this.params.setConnectionAttemptDelay(TIMEOUT);
+        Socket socket = connect(null, 0);
+        try {
+            // the refused attempt does not wait for the attempt delay
+            assertEquals(InetAddress.getByName("127.0.0.1"), socket.getInetAddress());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testSequentialWithoutAttemptDelay() throws Exception {
+        startServers();
+        setHost(new String[] {"127.0.0.2", "127.0.0.1"});
+        this.params.setConnectionAttemptDelay(0);
+        this.params.setConnectionTimeout(300);
+        try {
+            connect(null, 0).close();
+            fail("ConnectionTimeoutException should have been thrown");
+        } catch (ConnectionTimeoutException expected) {
+        }
+    }
+
+    public void testLocalPortSplitsTimeout() throws Exception {
+        startServers();
+        setHost(new String[] {"127.0.0.2", "127.0.0.1"});
+        this.params.setConnectionAttemptDelay(TIMEOUT);
+        this.params.setConnectionTimeout(1000);
+        ServerSocket probe = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int localPort = probe.getLocalPort();
+        probe.close();
+        long start = System.currentTimeMillis();
+        Socket socket = connect(InetAddress.getByName("127.0.0.1"), localPort);
+        try {
+            // the pending attempt is given half of the timeout, not all of it
+            long elapsed = System.currentTimeMillis() - start;
+            assertEquals(InetAddress.getByName("127.0.0.1"), socket.getInetAddress());
+            assertEquals(localPort, socket.getLocalPort());
+            assertTrue("Connected after " + elapsed + " ms", elapsed >= 450 && elapsed < 1000);
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testInterruptRestored() throws Exception {
+        startServers();
+        setHost(new String[] {"127.0.0.2"});
+        this.params.setConnectionTimeout(0);
+        final Object[] outcome = new Object[2];
+        Thread connector = new Thread() {
+            public void run() {
+                try {
+                    outcome[0] = connect(null, 0);
+                } catch (Throwable t) {
+                    outcome[0] = t;
+                }
+                outcome[1] = Boolean.valueOf(Thread.currentThread().isInterrupted());
+            }
+        };
+        connector.start();
+        awaitWaiting(connector);
+        connector.interrupt();
+        connector.join(TIMEOUT);
+        assertFalse("Thread still connecting", connector.isAlive());
+        assertTrue(String.valueOf(outcome[0]), outcome[0] instanceof InterruptedIOException);
+        assertEquals(Boolean.TRUE, outcome[1]);
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    private static InetAddress v4(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+    }
+
+    private static InetAddress v6(int last) throws UnknownHostException {
+        byte[] address = new byte[16];
+        address[0] = 0x20;
+        address[1] = 0x01;
+        address[15] = (byte) last;
+        return InetAddress.getByAddress(address);
+    }
+
+    private void assertOrder(final InetAddress[] expected, final InetAddress[] addresses,
+        final InetAddress localAddress) {
+        InetAddress[] ordered = this.factory.orderAddresses(addresses, localAddress);
+        assertEquals(expected.length, ordered.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Address " + i, expected[i], ordered[i]);
+        }
+    }
+
+    /**
+     * Starts the server on <tt>127.0.0.1</tt>, and fills the backlog of the one on
+     * <tt>127.0.0.2</tt>, on the same port.
+     */
+    private void startServers() throws IOException {
+        this.server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        this.full = new ServerSocket(this.server.getLocalPort(), 1,
+            InetAddress.getByName("127.0.0.2"));
+        InetSocketAddress address = new InetSocketAddress("127.0.0.2",
+            this.server.getLocalPort());
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, 200);
+            } catch (SocketTimeoutException e) {
+                socket.close();
+                return;
+            }
+            this.backlog.add(socket);
+            if (this.backlog.size() > 100) {
+                fail("Backlog of the server cannot be filled");
+            }
+        }
+    }
+
+    /**
+     * Creates a factory that resolves {@link #HOST} to the given addresses.
+     */
+    private void setHost(final String[] addresses) throws UnknownHostException {
+        InetAddress[] resolved = new InetAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            resolved[i] = InetAddress.getByName(addresses[i]);
+        }
+        Map hosts = new HashMap();
+        hosts.put(HOST, resolved);
+        this.factory = new DefaultProtocolSocketFactory(new StaticHostResolver(hosts));
+    }
+
+    private Socket connect(final InetAddress localAddress, int localPort)
+        throws IOException {
+        return this.factory.createSocket(HOST, this.server.getLocalPort(), localAddress,
+            localPort, this.params);
+    }
+
+    /**
+     * Waits until the given thread blocks.
+     */
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.WAITING
+            && thread.getState() != Thread.State.TIMED_WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Thread not waiting: " + thread.getState());
+            }
+            Thread.sleep(5);
+        }
+    }
+}
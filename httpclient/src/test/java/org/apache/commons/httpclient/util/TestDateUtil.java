@@ -0,0 +1,278 @@
+/*
+ * ====================================================================
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.commons.httpclient.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the RFC 1123 parser and formatter of {@link DateUtil} against
+ * {@link SimpleDateFormat}, including the cache of parsed values and the
+ * fallback to the formatters for dates outside the supported range.
+ */
+public class TestDateUtil extends TestCase {
+
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+    private SimpleDateFormat format;
+
+    // ------------------------------------------------------------ Constructor
+    public TestDateUtil(String testName) {
+        super(testName);
+    }
+
+    // ------------------------------------------------------------------- Main
+    public static void main(String args[]) {
+        String[] testCaseName = { TestDateUtil.class.getName() };
+        junit.textui.TestRunner.main(testCaseName);
+    }
+
+    // ------------------------------------------------------- TestCase Methods
+
+    public static Test suite() {
+        return new TestSuite(TestDateUtil.class);
+    }
+
+    protected void setUp() throws Exception {
+        this.format = new SimpleDateFormat(DateUtil.PATTERN_RFC1123, Locale.US);
+        this.format.setTimeZone(GMT);
+    }
+
+    // ----------------------------------------------------------- Test Methods
+
+    public void testParse() throws Exception {
+        assertEquals(784111777000L,
+            DateUtil.parseDate("Sun, 06 Nov 1994 08:49:37 GMT").getTime());
+    }
+
+    public void testFormat() throws Exception {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT",
+            DateUtil.formatDate(new Date(784111777000L)));
+    }
+
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(1123);
+        long min = time(1583, 1, 1, 0, 0, 0);
+        long max = time(9999, 12, 31, 23, 59, 59);
+        for (int i = 0; i < 10000; i++) {
+            long time = min + (long) (random.nextDouble() * (max - min));
+            assertRoundTrip(time);
+        }
+    }
+
+    public void testLeapDays() throws Exception {
+        assertRoundTrip(time(2000, 2, 29, 12, 0, 0));
+        assertRoundTrip(time(2024, 2, 29, 23, 59, 59));
+        assertRoundTrip(time(1600, 2, 29, 0, 0, 0));
+        assertRoundTrip(time(2100, 3, 1, 0, 0, 0));
+        assertEquals("Tue, 29 Feb 2000 12:00:00 GMT",
+            DateUtil.formatDate(new Date(time(2000, 2, 29, 12, 0, 0))));
+    }
+
+    public void testInvalidLeapDay() throws Exception {
+        // not a leap year, left to the lenient formatters
+        assertParsedAsFormatter("Mon, 29 Feb 1900 00:00:00 GMT");
+        assertParsedAsFormatter("Fri, 29 Feb 2019 10:00:00 GMT");
+    }
+
+    public void testYearBounds() throws Exception {
+        assertRoundTrip(time(1583, 1, 1, 0, 0, 0));
+        assertRoundTrip(time(9999, 12, 31, 23, 59, 59));
+        assertEquals("Sat, 01 Jan 1583 00:00:00 GMT",
+            DateUtil.formatDate(new Date(time(1583, 1, 1, 0, 0, 0))));
+        assertEquals("Fri, 31 Dec 9999 23:59:59 GMT",
+            DateUtil.formatDate(new Date(time(9999, 12, 31, 23, 59, 59))));
+    }
+
+    public void testBeforeMinYear() throws Exception {
+        // the formatters switch to the Julian calendar before the cutover
+        Date date = new Date(time(1583, 1, 1, 0, 0, 0) - 1000);
+        assertEquals(this.format.format(date), DateUtil.formatDate(date));
+        date = new Date(time(1000, 6, 15, 12, 0, 0));
+        assertEquals(this.format.format(date), DateUtil.formatDate(date));
+        assertParsedAsFormatter("Fri, 31 Dec 1582 23:59:59 GMT");
+        assertParsedAsFormatter("Thu, 04 Oct 1582 12:00:00 GMT");
+    }
+
+    public void testAfterMaxYear() throws Exception {
+        Date date = new Date(time(9999, 12, 31, 23, 59, 59) + 1000);
+        assertEquals(this.format.format(date), DateUtil.formatDate(date));
+    }
+
+    public void testBeforeEpoch() throws Exception {
+        assertRoundTrip(-1000);
+        assertRoundTrip(time(1900, 1, 1, 0, 0, 0));
+        assertRoundTrip(time(1969, 12, 31, 23, 59, 59));
+        // milliseconds before the epoch round down to the previous second
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", DateUtil.formatDate(new Date(-1)));
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", DateUtil.formatDate(new Date(-999)));
+        assertEquals("Wed, 31 Dec 1969 23:59:58 GMT", DateUtil.formatDate(new Date(-1001)));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", DateUtil.formatDate(new Date(0)));
+    }
+
+    public void testMixedCase() throws Exception {
+        long time = time(1994, 11, 6, 8, 49, 37);
+        assertEquals(time, DateUtil.parseDate("sun, 06 nov 1994 08:49:37 GMT").getTime());
+        assertEquals(time, DateUtil.parseDate("SUN, 06 NOV 1994 08:49:37 GMT").getTime());
+        assertEquals(time, DateUtil.parseDate("sUn, 06 NoV 1994 08:49:37 GMT").getTime());
+        assertParsedAsFormatter("sUn, 06 NoV 1994 08:49:37 GMT");
+    }
+
+    public void testOutOfRangeFields() throws Exception {
+        assertParsedAsFormatter("Sun, 31 Apr 1994 08:49:37 GMT");
+        assertParsedAsFormatter("Sun, 06 Nov 1994 24:00:00 GMT");
+        assertParsedAsFormatter("Sun, 06 Nov 1994 08:60:37 GMT");
+        assertParsedAsFormatter("Sun, 06 Nov 1994 08:49:60 GMT");
+        assertParsedAsFormatter("Sun, 00 Nov 1994 08:49:37 GMT");
+    }
+
+    public void testOtherFormats() throws Exception {
+        long time = time(1994, 11, 6, 8, 49, 37);
+        // two digit years are placed after 2000
+        assertEquals(time(2004, 11, 6, 8, 49, 37),
+            DateUtil.parseDate("Saturday, 06-Nov-04 08:49:37 GMT").getTime());
+        assertEquals(time, DateUtil.parseDate("Sun Nov  6 08:49:37 1994").getTime());
+        assertEquals(time, DateUtil.parseDate("'Sun, 06 Nov 1994 08:49:37 GMT'").getTime());
+        // an RFC 1123 value is not parsed unless the pattern is given
+        try {
+            DateUtil.parseDate("Sun, 06 Nov 1994 08:49:37 GMT",
+                Arrays.asList(new String[] {DateUtil.PATTERN_ASCTIME}));
+            fail("DateParseException should have been thrown");
+        } catch (DateParseException expected) {
+        }
+    }
+
+    public void testInvalid() throws Exception {
+        String[] values = {
+            "Sun, 06 Nov 1994 08:49:37 UTX", "Sun, 06 Xyz 1994 08:49:37 GMT",
+            "Xyz, 06 Nov 1994 08:49:37 GMT", "Sun, 0x Nov 1994 08:49:37 GMT", ""
+        };
+        for (int i = 0; i < values.length; i++) {
+            try {
+                DateUtil.parseDate(values[i]);
+                fail("DateParseException should have been thrown for " + values[i]);
+            } catch (DateParseException expected) {
+            }
+        }
+    }
+
+    public void testCacheHit() throws Exception {
+        String value = "Mon, 07 Nov 1994 08:49:37 GMT";
+        Date first = DateUtil.parseDate(value);
+        Date second = DateUtil.parseDate(value);
+        assertEquals(first, second);
+        assertNotSame(first, second);
+        // the cached value is not shared with the caller
+        first.setTime(0);
+        assertEquals(second, DateUtil.parseDate(value));
+    }
+
+    public void testCacheCollision() throws Exception {
+        // find two values in the same cache slot
+        long base = time(2001, 1, 1, 0, 0, 0);
+        String value = DateUtil.formatDate(new Date(base));
+        String other = null;
+        long otherTime = 0;
+        for (int i = 1; other == null; i++) {
+            otherTime = base + i * 1000L;
+            String candidate = DateUtil.formatDate(new Date(otherTime));
+            if ((candidate.hashCode() & 15) == (value.hashCode() & 15)) {
+                other = candidate;
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(base, DateUtil.parseDate(value).getTime());
+            assertEquals(otherTime, DateUtil.parseDate(other).getTime());
+        }
+    }
+
+    public void testFormatSameSecond() throws Exception {
+        long time = time(2010, 5, 1, 10, 20, 30);
+        String value = DateUtil.formatDate(new Date(time));
+        assertEquals(value, DateUtil.formatDate(new Date(time + 999)));
+        assertEquals("Sat, 01 May 2010 10:20:31 GMT", DateUtil.formatDate(new Date(time + 1000)));
+        assertEquals(value, DateUtil.formatDate(new Date(time + 500)));
+    }
+
+    public void testNull() throws Exception {
+        try {
+            DateUtil.parseDate(null);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            DateUtil.formatDate(null);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // ---------------------------------------------------------------- Helpers
+
+    /**
+     * Returns the time of the given date in the proleptic Gregorian calendar.
+     */
+    private static long time(int year, int month, int day, int hour, int minute,
+        int second) {
+        GregorianCalendar calendar = new GregorianCalendar(GMT, Locale.US);
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Asserts that the second of the given time is formatted as by the formatter,
+     * and parsed back both by DateUtil and the formatter.
+     */
+    private void assertRoundTrip(long time) throws Exception {
+        long second = time - ((time % 1000) + 1000) % 1000;
+        Date date = new Date(time);
+        String expected = this.format.format(date);
+        String value = DateUtil.formatDate(date);
+        assertEquals(expected, value);
+        assertEquals(value, second, DateUtil.parseDate(value).getTime());
+        assertEquals(value, this.format.parse(value).getTime(),
+            DateUtil.parseDate(value).getTime());
+    }
+
+    private void assertParsedAsFormatter(final String value) throws Exception {
+        assertEquals(value, this.format.parse(value).getTime(),
+            DateUtil.parseDate(value).getTime());
+    }
+
+}